@@ -0,0 +1,59 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Atomic Bit Set Class
+// Thread-safe bitset over non-negative int indexes. Bits live in fixed-size
+// pages that are allocated on first write, so the set can grow without
+// copying (and without losing concurrent updates during a copy).
+class AtomicBitSet {
+    private static final int PAGE_BITS = 16; // 65536 bits per page
+    private static final int WORDS_PER_PAGE = (1 << PAGE_BITS) >>> 6;
+    private static final int MAX_PAGES = 1 << (31 - PAGE_BITS);
+
+    private AtomicReferenceArray<AtomicLongArray> pages;
+
+    public AtomicBitSet() {
+        this.pages = new AtomicReferenceArray<>(MAX_PAGES);
+    }
+
+    public boolean get(int index) {
+        AtomicLongArray page = pages.get(index >>> PAGE_BITS);
+        return page != null && (page.get(wordIndex(index)) & (1L << index)) != 0;
+    }
+
+    public void set(int index) {
+        AtomicLongArray page = page(index >>> PAGE_BITS);
+        int word = wordIndex(index);
+        long bit = 1L << index;
+        long current;
+        do {
+            current = page.get(word);
+        } while ((current & bit) == 0 && !page.compareAndSet(word, current, current | bit));
+    }
+
+    public void clear(int index) {
+        AtomicLongArray page = pages.get(index >>> PAGE_BITS);
+        if (page == null) {
+            return;
+        }
+        int word = wordIndex(index);
+        long bit = 1L << index;
+        long current;
+        do {
+            current = page.get(word);
+        } while ((current & bit) != 0 && !page.compareAndSet(word, current, current & ~bit));
+    }
+
+    private AtomicLongArray page(int pageIndex) {
+        AtomicLongArray page = pages.get(pageIndex);
+        if (page == null) {
+            pages.compareAndSet(pageIndex, null, new AtomicLongArray(WORDS_PER_PAGE));
+            page = pages.get(pageIndex);
+        }
+        return page;
+    }
+
+    private static int wordIndex(int index) {
+        return (index & ((1 << PAGE_BITS) - 1)) >>> 6;
+    }
+}
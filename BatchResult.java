@@ -0,0 +1,22 @@
+import java.util.*;
+
+// Batch Result Class
+// Outcome of Library.circulate: whether the batch was applied, and a result
+// per request in the order given. When one request fails nothing is applied;
+// the failing requests carry their reason and the rest NOT_APPLIED.
+class BatchResult {
+    private boolean applied;
+    private List<CirculationResult> results;
+
+    public BatchResult(boolean applied, List<CirculationResult> results) {
+        this.applied = applied;
+        this.results = results;
+    }
+
+    public boolean isApplied() { return applied; }
+    public List<CirculationResult> getResults() { return results; }
+
+    public CirculationResult getResult(int index) {
+        return results.get(index);
+    }
+}
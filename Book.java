@@ -3,25 +3,31 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 
 // Book Class
-class Book {
+class Book implements ReportRow {
+    private static final int LOAN_DAYS = 14; // 2 weeks loan period
+
     private String isbn;
     private String title;
     private String author;
     private int publicationYear;
-    private boolean isAvailable;
-    private String borrowedBy;
-    private LocalDate borrowDate;
-    private LocalDate dueDate;
+    // While the book is in a library its loan state lives in that library's
+    // ledger; a book on its own keeps it in the loan field instead
+    private volatile LoanLedger ledger;
+    private int slot;
+    private volatile Loan loan;
+    // Copies on the shelf, once the library holds more than one; with a
+    // single copy the ledger's on-loan bit says everything
+    private volatile CopyPool pool;
+    private volatile int timesBorrowed; // popularity, for type-ahead suggestions
+    private volatile BookVersion version; // newest published state, for snapshot readers
 
     public Book(String isbn, String title, String author, int publicationYear) {
         this.isbn = isbn;
         this.title = title;
         this.author = author;
         this.publicationYear = publicationYear;
-        this.isAvailable = true;
-        this.borrowedBy = null;
-        this.borrowDate = null;
-        this.dueDate = null;
+        this.ledger = null;
+        this.loan = null;
     }
 
     // Getters
@@ -29,38 +35,190 @@ class Book {
     public String getTitle() { return title; }
     public String getAuthor() { return author; }
     public int getPublicationYear() { return publicationYear; }
-    public boolean isAvailable() { return isAvailable; }
-    public String getBorrowedBy() { return borrowedBy; }
-    public LocalDate getBorrowDate() { return borrowDate; }
-    public LocalDate getDueDate() { return dueDate; }
+    public int getTimesBorrowed() { return timesBorrowed; }
+
+    public int getCopies() {
+        CopyPool current = pool;
+        return current == null ? 1 : current.getCopies();
+    }
+
+    public int getAvailableCopies() {
+        CopyPool current = pool;
+        if (current != null) {
+            return current.getFreeCount();
+        }
+        return isAvailable() ? 1 : 0;
+    }
+
+    public boolean isAvailable() {
+        LoanLedger current = ledger;
+        return current != null ? !current.isOnLoan(slot) : loan == null;
+    }
+
+    public String getBorrowedBy() {
+        Loan current = getLoan();
+        return current == null ? null : current.getMemberId();
+    }
+
+    public LocalDate getBorrowDate() {
+        Loan current = getLoan();
+        return current == null ? null : current.getBorrowDate();
+    }
+
+    public LocalDate getDueDate() {
+        Loan current = getLoan();
+        return current == null ? null : current.getDueDate();
+    }
+
+    // The loan of the lowest-numbered copy out, or null if every copy is in
+    public Loan getLoan() {
+        LoanLedger current = ledger;
+        if (current == null) {
+            return loan;
+        }
+        return pool == null ? current.getLoan(isbn) : current.getFirstLoan(isbn);
+    }
+
+    // The member's loan of a copy of this book, or null
+    public Loan getLoanOf(String memberId) {
+        LoanLedger current = ledger;
+        if (current == null || pool == null) {
+            Loan only = getLoan();
+            return only != null && only.getMemberId().equals(memberId) ? only : null;
+        }
+        return current.getLoan(isbn, memberId);
+    }
+
+    public List<Loan> getLoans() {
+        LoanLedger current = ledger;
+        if (current != null) {
+            return pool == null ? listOf(current.getLoan(isbn)) : current.getLoansOf(isbn);
+        }
+        return listOf(loan);
+    }
+
+    private static List<Loan> listOf(Loan only) {
+        return only == null ? Collections.emptyList() : Collections.singletonList(only);
+    }
+
+    // Ledger membership, managed by Library.addBook/removeBook
+    int getSlot() { return slot; }
 
-    // Setters for borrowing/returning
-    public void borrowBook(String memberId) {
-        this.isAvailable = false;
-        this.borrowedBy = memberId;
-        this.borrowDate = LocalDate.now();
-        this.dueDate = LocalDate.now().plusDays(14); // 2 weeks loan period
+    void attach(LoanLedger ledger, int slot) {
+        this.slot = slot;
+        this.ledger = ledger;
     }
 
-    public void returnBook() {
-        this.isAvailable = true;
-        this.borrowedBy = null;
-        this.borrowDate = null;
-        this.dueDate = null;
+    void detach() {
+        this.ledger = null;
     }
 
-    public boolean isOverdue() {
-        return !isAvailable && dueDate != null && LocalDate.now().isAfter(dueDate);
+    // Version chain, managed by CatalogVersions while the book is in a library
+    BookVersion getVersion() { return version; }
+
+    void setVersion(BookVersion version) {
+        this.version = version;
+    }
+
+    // The last published state, or the state now for a book not in a library
+    BookVersion currentVersion() {
+        BookVersion published = version;
+        if (published != null && !published.isRemoved() && ledger != null) {
+            return published;
+        }
+        return BookVersion.of(this, 0, null);
+    }
+
+    // Adds copies of this title; for a book in a library with its lock stripe
+    // held, or for a catalog store's view of a record before anyone sees it
+    void addCopies(int count) {
+        if (pool == null) {
+            pool = new CopyPool(isAvailable());
+        }
+        pool.grow(count);
+        LoanLedger current = ledger;
+        if (current != null && pool.getFreeCount() > 0) {
+            current.markAvailable(slot);
+        }
+    }
+
+    // Setters for borrowing/returning; the borrow methods return the new loan,
+    // or null if no copy is free. Callers serialize borrows and returns of a book.
+    // Borrowed on the given day, the date of the lending library's clock
+    public Loan borrowBook(String memberId, LocalDate today) {
+        timesBorrowed++;
+        return borrowBook(memberId, 0, today, today.plusDays(LOAN_DAYS));
+    }
+
+    // Used when restoring a loan from the journal with its original dates and
+    // copy (0 for any free copy)
+    Loan borrowBook(String memberId, int copy, LocalDate borrowDate, LocalDate dueDate) {
+        LoanLedger current = ledger;
+        if (current == null) {
+            this.loan = new Loan(isbn, memberId, borrowDate, dueDate);
+            return loan;
+        }
+        CopyPool copies = pool;
+        if (copies == null) {
+            if (!isAvailable() || copy > 1) {
+                return null;
+            }
+            copy = 1;
+        } else if (copy == 0) {
+            copy = copies.take();
+            if (copy == 0) {
+                return null;
+            }
+        } else if (!copies.take(copy)) {
+            return null;
+        }
+        // Publish the loan before the bit, so anyone who sees the bit finds the loan
+        Loan opened = current.open(isbn, copy, memberId, borrowDate, dueDate);
+        if (copies == null || copies.getFreeCount() == 0) {
+            current.markOnLoan(slot);
+        }
+        return opened;
+    }
+
+    // Returns the member's copy; the closed loan, or null if they had none
+    public Loan returnBook(String memberId) {
+        LoanLedger current = ledger;
+        if (current == null) {
+            Loan closed = loan;
+            if (closed == null || !closed.getMemberId().equals(memberId)) {
+                return null;
+            }
+            this.loan = null;
+            return closed;
+        }
+        Loan closed = getLoanOf(memberId);
+        if (closed == null) {
+            return null;
+        }
+        current.close(closed);
+        if (pool != null) {
+            pool.put(closed.getCopy());
+        }
+        current.markAvailable(slot);
+        return closed;
     }
 
+    public boolean isOverdue(LocalDate today) {
+        Loan current = getLoan();
+        return current != null && current.isOverdue(today);
+    }
+
+    // Rendered from one version, so the status line never mixes two states
+    @Override
+    public void appendTo(StringBuilder out, LocalDate today) {
+        currentVersion().appendTo(out, today);
+    }
+
+    // Without overdue markers: a book doesn't know its library's clock
     @Override
     public String toString() {
-        String status = isAvailable ? "Available" : "Borrowed by " + borrowedBy;
-        String overdueInfo = "";
-        if (!isAvailable && isOverdue()) {
-            overdueInfo = " [OVERDUE]";
-        }
-        return String.format("ISBN: %s | Title: %s | Author: %s | Year: %d | Status: %s%s", 
-                           isbn, title, author, publicationYear, status, overdueInfo);
+        StringBuilder out = new StringBuilder(128);
+        appendTo(out, null);
+        return out.toString();
     }
-}
\ No newline at end of file
+}
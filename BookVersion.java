@@ -0,0 +1,137 @@
+import java.time.LocalDate;
+import java.util.*;
+
+// Book Version Class
+// A book's loan state as of one catalog version: its copies and the loans
+// out on them. Versions never change once made. A borrow or return makes a
+// new version that points back at the one it replaces, so a snapshot keeps
+// reading the version that was current when it was taken, whole, while
+// writers carry on. CatalogVersions unlinks old versions once no open
+// snapshot can reach them, and the garbage collector takes them from there.
+class BookVersion implements ReportRow {
+    private Book book;
+    private int copies;
+    private List<Loan> loans; // in copy order
+    private long version;
+    private boolean removed;  // the book left the catalog at this version
+    private volatile BookVersion previous;
+
+    private BookVersion(Book book, int copies, List<Loan> loans, long version, boolean removed,
+                        BookVersion previous) {
+        this.book = book;
+        this.copies = copies;
+        this.loans = loans;
+        this.version = version;
+        this.removed = removed;
+        this.previous = previous;
+    }
+
+    // The book as it is now; consistent only with the book's lock stripe
+    // held (or for a book not in a library)
+    static BookVersion of(Book book, long version, BookVersion previous) {
+        return new BookVersion(book, book.getCopies(), book.getLoans(), version, false, previous);
+    }
+
+    static BookVersion removal(Book book, long version, BookVersion previous) {
+        return new BookVersion(book, 0, Collections.emptyList(), version, true, previous);
+    }
+
+    public Book getBook() { return book; }
+    public String getIsbn() { return book.getIsbn(); }
+    public String getTitle() { return book.getTitle(); }
+    public String getAuthor() { return book.getAuthor(); }
+    public int getPublicationYear() { return book.getPublicationYear(); }
+    public int getCopies() { return copies; }
+    public int getAvailableCopies() { return copies - loans.size(); }
+    public boolean isAvailable() { return loans.size() < copies; }
+    public long getVersion() { return version; }
+    public boolean isRemoved() { return removed; }
+    public List<Loan> getLoans() { return Collections.unmodifiableList(loans); }
+
+    // Loan of the lowest-numbered copy out, or null
+    public Loan getLoan() {
+        return loans.isEmpty() ? null : loans.get(0);
+    }
+
+    public Loan getLoanOf(String memberId) {
+        for (Loan loan : loans) {
+            if (loan.getMemberId().equals(memberId)) {
+                return loan;
+            }
+        }
+        return null;
+    }
+
+    public boolean isOverdue(LocalDate today) {
+        for (Loan loan : loans) {
+            if (loan.isOverdue(today)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Whether this exact loan (not just one like it) was open at this version
+    boolean holds(Loan loan) {
+        for (Loan open : loans) {
+            if (open == loan) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The newest version at or before the given one; null if the book wasn't
+    // in the catalog then
+    BookVersion asOf(long at) {
+        for (BookVersion candidate = this; candidate != null; candidate = candidate.previous) {
+            if (candidate.version <= at) {
+                return candidate.removed ? null : candidate;
+            }
+        }
+        return null;
+    }
+
+    BookVersion getPrevious() { return previous; }
+
+    // Nothing reads past this version any more
+    void forgetOlder() {
+        previous = null;
+    }
+
+    // No overdue markers when today is null
+    @Override
+    public void appendTo(StringBuilder out, LocalDate today) {
+        out.append("ISBN: ").append(book.getIsbn())
+           .append(" | Title: ").append(book.getTitle())
+           .append(" | Author: ").append(book.getAuthor())
+           .append(" | Year: ").append(book.getPublicationYear())
+           .append(" | Status: ");
+        if (copies > 1) {
+            int free = getAvailableCopies();
+            if (free > 0) {
+                out.append("Available (").append(free).append(" of ").append(copies).append(" copies)");
+            } else {
+                out.append("All ").append(copies).append(" copies on loan");
+            }
+            if (today != null && isOverdue(today)) {
+                out.append(" [OVERDUE]");
+            }
+        } else if (loans.isEmpty()) {
+            out.append("Available");
+        } else {
+            Loan current = loans.get(0);
+            out.append("Borrowed by ").append(current.getMemberId());
+            if (today != null && current.isOverdue(today)) {
+                out.append(" [OVERDUE]");
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(128);
+        appendTo(out, null);
+        return out.toString();
+    }
+}
@@ -0,0 +1,37 @@
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Borrow Limits Class
+// A library's borrowing limit for each member tier, starting at the tier's
+// default. Registered members read it on every borrow without locking;
+// Library.setBorrowLimit changes it and journals the change, so a limit
+// applies to every member of the tier at once and survives a restart.
+class BorrowLimits {
+    private AtomicIntegerArray limits; // by tier ordinal
+
+    public BorrowLimits() {
+        MemberTier[] tiers = MemberTier.values();
+        this.limits = new AtomicIntegerArray(tiers.length);
+        for (MemberTier tier : tiers) {
+            limits.set(tier.ordinal(), tier.getDefaultLimit());
+        }
+    }
+
+    public int get(MemberTier tier) {
+        return limits.get(tier.ordinal());
+    }
+
+    // Negative limits count as 0
+    void set(MemberTier tier, int limit) {
+        limits.set(tier.ordinal(), Math.max(0, limit));
+    }
+
+    public Map<MemberTier, Integer> toMap() {
+        Map<MemberTier, Integer> copy = new EnumMap<>(MemberTier.class);
+        for (MemberTier tier : MemberTier.values()) {
+            copy.put(tier, get(tier));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Clock;
+import java.util.*;
+
+// Catalog Footprint Tool
+// Heap used for the same generated books by a Library on the heap, by a
+// Library over a ColumnarCatalog and over a MappedCatalog (searchable, i.e.
+// once the titles are indexed), and by the bare stores. A store only replaces
+// the Book objects: the search and type-ahead indexes still keep every title,
+// author and ISBN on the heap, and they are most of a Library's footprint.
+//   java CatalogFootprint [bookCount] [authorCount]
+public class CatalogFootprint {
+    private static final int BATCH_SIZE = 10_000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int bookCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int authorCount = args.length > 1 ? Integer.parseInt(args[1]) : bookCount / 20 + 1;
+        System.out.println("Books: " + bookCount);
+
+        long baseline = usedHeap();
+        Library heapLibrary = new Library(false);
+        addBooks(heapLibrary, bookCount, authorCount);
+        report("Library (Book objects)", usedHeap() - baseline, bookCount);
+        heapLibrary = null;
+
+        baseline = usedHeap();
+        Library columnarLibrary = new Library(false, Clock.systemDefaultZone(), new ColumnarCatalog(bookCount));
+        addBooks(columnarLibrary, bookCount, authorCount);
+        report("Library on ColumnarCatalog", usedHeap() - baseline, bookCount);
+        columnarLibrary = null;
+
+        baseline = usedHeap();
+        ColumnarCatalog columnar = new ColumnarCatalog(bookCount);
+        for (int i = 0; i < bookCount; i++) {
+            columnar.addBook(generateBook(i, authorCount));
+        }
+        report("ColumnarCatalog alone", usedHeap() - baseline, bookCount);
+        columnar = null;
+
+        Path dir = Files.createTempDirectory("catalog-footprint");
+        Path file = dir.resolve("catalog.dat");
+        try (MappedCatalog mapped = new MappedCatalog(file)) {
+            for (int i = 0; i < bookCount; i++) {
+                mapped.addBook(generateBook(i, authorCount));
+            }
+        }
+        try {
+            baseline = usedHeap();
+            long start = System.nanoTime();
+            try (MappedCatalog mapped = new MappedCatalog(file)) {
+                double openMillis = (System.nanoTime() - start) / 1e6;
+                Book first = mapped.searchByISBN(generateBook(0, authorCount).getIsbn());
+                report("MappedCatalog alone", usedHeap() - baseline, bookCount);
+                System.out.printf("  reopened in %.1f ms (%s)%n", openMillis, first != null ? "lookup ok" : "lookup failed");
+
+                baseline = usedHeap();
+                Library mappedLibrary = new Library(false, Clock.systemDefaultZone(), mapped);
+                report("Library on MappedCatalog", usedHeap() - baseline, bookCount);
+                mappedLibrary.awaitCatalogIndexed();
+                report("  once searchable", usedHeap() - baseline, bookCount);
+            }
+        } finally {
+            for (String name : new String[] {"catalog.dat", "catalog.dat.idx"}) {
+                Files.deleteIfExists(dir.resolve(name));
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static void addBooks(Library library, int bookCount, int authorCount) {
+        List<Book> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < bookCount; i++) {
+            batch.add(generateBook(i, authorCount));
+            if (batch.size() == BATCH_SIZE || i == bookCount - 1) {
+                library.addBooks(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private static void report(String layout, long bytes, int bookCount) {
+        System.out.printf("%-28s %,14d bytes (%.1f bytes/book)%n", layout + ":", bytes, (double) bytes / bookCount);
+    }
+
+    // Every tenth title has several copies, so copy pools count towards the object layout
+    private static Book generateBook(int i, int authorCount) {
+        String isbn = String.format("978-%010d", i);
+        Book book = new Book(isbn, "Generated Title Number " + i, "Author " + (i % authorCount), 1950 + i % 75);
+        if (i % 10 == 0) {
+            book.addCopies(1 + i % 3);
+        }
+        return book;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,569 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Catalog Importer Class
+// Bulk-loads a CSV (isbn,title,author,year) or JSON-lines catalog into a
+// Library. The file is read in large NIO chunks by the calling thread, cut
+// into slices at line boundaries and parsed on a fork-join pool straight from
+// the bytes (no per-line String). Each slice is inserted with one addBooks
+// call, which also rejects ISBNs that are already in the catalog. A slice
+// that fails (e.g. the reject report can't be written) stops the import, and
+// importFile throws its error instead of reporting success.
+class CatalogImporter {
+    private static final int CHUNK_SIZE = 8 << 20;
+    private static final int SLICE_SIZE = 256 << 10;
+    private static final int MAX_SLICES_IN_FLIGHT = 64;
+    private static final int EXPECTED_FIELDS = 4;
+
+    private Library library;
+    private ForkJoinPool pool;
+    private Semaphore inFlight;
+    private AtomicLong rowsRead;
+    private AtomicLong booksAdded;
+    private AtomicLong rowsRejected;
+    private Writer rejectReport;
+    private AtomicReference<RuntimeException> failure; // first slice that failed
+
+    public CatalogImporter(Library library) {
+        this(library, ForkJoinPool.commonPool());
+    }
+
+    public CatalogImporter(Library library, ForkJoinPool pool) {
+        this.library = library;
+        this.pool = pool;
+        this.inFlight = new Semaphore(MAX_SLICES_IN_FLIGHT);
+        this.rowsRead = new AtomicLong();
+        this.booksAdded = new AtomicLong();
+        this.rowsRejected = new AtomicLong();
+        this.failure = new AtomicReference<>();
+    }
+
+    public long getRowsRead() { return rowsRead.get(); }
+    public long getBooksAdded() { return booksAdded.get(); }
+    public long getRowsRejected() { return rowsRejected.get(); }
+
+    // Imports the file, printing progress once a second. Rejected rows are
+    // listed in <file>.rejected, which is removed again if nothing was rejected.
+    public long importFile(Path file) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        boolean json = name.endsWith(".jsonl") || name.endsWith(".json") || name.endsWith(".ndjson");
+        Path rejectPath = file.resolveSibling(file.getFileName() + ".rejected");
+
+        long start = System.nanoTime();
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "catalog-import-progress");
+            t.setDaemon(true);
+            return t;
+        });
+        progress.scheduleAtFixedRate(() -> printProgress(start), 1, 1, TimeUnit.SECONDS);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             Writer report = Files.newBufferedWriter(rejectPath, StandardCharsets.UTF_8)) {
+            this.rejectReport = report;
+            readSlices(channel, json);
+            // Wait for every outstanding slice before closing the report
+            inFlight.acquireUninterruptibly(MAX_SLICES_IN_FLIGHT);
+            inFlight.release(MAX_SLICES_IN_FLIGHT);
+        } finally {
+            progress.shutdownNow();
+        }
+        RuntimeException failed = failure.get();
+        if (failed instanceof UncheckedIOException) {
+            throw ((UncheckedIOException) failed).getCause();
+        }
+        if (failed != null) {
+            throw failed;
+        }
+        if (rowsRejected.get() == 0) {
+            Files.deleteIfExists(rejectPath);
+        }
+
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        System.out.printf("Imported %d books from %d rows in %.1f s (%.0f rows/s)%n",
+                          booksAdded.get(), rowsRead.get(), seconds, rowsRead.get() / seconds);
+        if (rowsRejected.get() > 0) {
+            System.out.println(rowsRejected.get() + " rows rejected, see " + rejectPath);
+        }
+        return booksAdded.get();
+    }
+
+    private void printProgress(long start) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        System.out.printf("Progress: %d rows, %d added, %d rejected (%.0f rows/s)%n",
+                          rowsRead.get(), booksAdded.get(), rowsRejected.get(), rowsRead.get() / seconds);
+    }
+
+    // Each chunk gets its own array, so slices can be parsed from it while the
+    // next chunk is read. The partial last line is carried into the next chunk.
+    private void readSlices(FileChannel channel, boolean json) throws IOException {
+        byte[] carry = new byte[0];
+        long nextLine = 1;
+        boolean eof = false;
+
+        while (!eof && failure.get() == null) {
+            byte[] chunk = new byte[Math.max(CHUNK_SIZE, carry.length * 2)];
+            System.arraycopy(carry, 0, chunk, 0, carry.length);
+            ByteBuffer buffer = ByteBuffer.wrap(chunk, carry.length, chunk.length - carry.length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    eof = true;
+                    break;
+                }
+            }
+            int length = buffer.position();
+
+            int end = eof ? length : lastNewline(chunk, length) + 1;
+            if (end == 0) {
+                // A single line longer than the chunk; grow and keep reading
+                carry = Arrays.copyOf(chunk, length);
+                continue;
+            }
+
+            int sliceStart = 0;
+            while (sliceStart < end && failure.get() == null) {
+                int sliceEnd = Math.min(end, sliceStart + SLICE_SIZE);
+                if (sliceEnd < end) {
+                    int newline = indexOf(chunk, (byte) '\n', sliceEnd, end);
+                    sliceEnd = newline < 0 ? end : newline + 1;
+                }
+                int lines = countLines(chunk, sliceStart, sliceEnd);
+                inFlight.acquireUninterruptibly();
+                pool.execute(new SliceTask(chunk, sliceStart, sliceEnd, nextLine, json));
+                nextLine += lines;
+                sliceStart = sliceEnd;
+            }
+            carry = Arrays.copyOfRange(chunk, end, length);
+        }
+    }
+
+    private synchronized void reject(long line, String reason, byte[] data, int start, int end) {
+        rowsRejected.incrementAndGet();
+        try {
+            rejectReport.write("line " + line + ": " + reason + ": "
+                               + new String(data, start, end - start, StandardCharsets.UTF_8) + "\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int lastNewline(byte[] data, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (data[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] data, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int countLines(byte[] data, int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            if (data[i] == '\n') {
+                lines++;
+            }
+        }
+        // A final line without a newline still counts
+        return (to > from && data[to - 1] != '\n') ? lines + 1 : lines;
+    }
+
+    // Thrown for a malformed row; no stack trace, since it's expected input
+    private static class RejectedRow extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        RejectedRow(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    // Parses and inserts one slice of whole lines. Submitted with execute()
+    // and never joined, so a failure is handed to importFile through the
+    // failure field rather than left in the task.
+    private class SliceTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private byte[] data;
+        private int start;
+        private int end;
+        private long firstLine;
+        private boolean json;
+        private int pos;
+
+        // Fields of the row being parsed
+        private String isbn;
+        private String title;
+        private String author;
+        private int year;
+
+        SliceTask(byte[] data, int start, int end, long firstLine, boolean json) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            this.firstLine = firstLine;
+            this.json = json;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if (failure.get() == null) {
+                    parseAndInsert();
+                }
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                inFlight.release();
+            }
+        }
+
+        private void parseAndInsert() {
+            List<Book> batch = new ArrayList<>();
+            List<Long> batchLines = new ArrayList<>();
+            long line = firstLine;
+            int lineStart = start;
+
+            while (lineStart < end) {
+                int lineEnd = indexOf(data, (byte) '\n', lineStart, end);
+                if (lineEnd < 0) {
+                    lineEnd = end;
+                }
+                int contentEnd = lineEnd;
+                if (contentEnd > lineStart && data[contentEnd - 1] == '\r') {
+                    contentEnd--;
+                }
+
+                if (line == 1 && !json && isHeader(lineStart, contentEnd)) {
+                    line++;
+                    lineStart = lineEnd + 1;
+                    continue;
+                }
+                if (contentEnd > lineStart) {
+                    try {
+                        if (json) {
+                            parseJson(lineStart, contentEnd);
+                        } else {
+                            parseCsv(lineStart, contentEnd);
+                        }
+                        rowsRead.incrementAndGet();
+                        Book book = new Book(isbn, title, author, year);
+                        if (!library.fitsCatalog(book)) {
+                            throw new RejectedRow("too long for the catalog store");
+                        }
+                        batch.add(book);
+                        batchLines.add(line);
+                    } catch (RejectedRow e) {
+                        rowsRead.incrementAndGet();
+                        reject(line, e.getMessage(), data, lineStart, contentEnd);
+                    }
+                }
+                line++;
+                lineStart = lineEnd + 1;
+            }
+
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<Book> duplicates = library.addBooks(batch);
+            booksAdded.addAndGet(batch.size() - duplicates.size());
+            if (!duplicates.isEmpty()) {
+                Set<Book> skipped = Collections.newSetFromMap(new IdentityHashMap<>());
+                skipped.addAll(duplicates);
+                for (int i = 0; i < batch.size(); i++) {
+                    if (skipped.contains(batch.get(i))) {
+                        rowsRejected.incrementAndGet();
+                        reportDuplicate(batchLines.get(i), batch.get(i).getIsbn());
+                    }
+                }
+            }
+        }
+
+        // A CSV header row starts with the isbn column name
+        private boolean isHeader(int from, int to) {
+            byte[] header = { 'i', 's', 'b', 'n' };
+            int i = skipSpaces(from, to);
+            if (to - i < header.length) {
+                return false;
+            }
+            for (int k = 0; k < header.length; k++) {
+                if ((data[i + k] | 0x20) != header[k]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void reportDuplicate(long line, String duplicateIsbn) {
+            synchronized (CatalogImporter.this) {
+                try {
+                    rejectReport.write("line " + line + ": duplicate ISBN: " + duplicateIsbn + "\n");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        // CSV: isbn,title,author,year with optional "quoted" fields
+        private void parseCsv(int from, int to) throws RejectedRow {
+            pos = from;
+            isbn = csvField(to);
+            title = nextCsvField(to);
+            author = nextCsvField(to);
+            int yearStart = skipSpaces(nextFieldStart(to), to);
+            int yearEnd = indexOf(data, (byte) ',', yearStart, to);
+            if (yearEnd >= 0) {
+                throw new RejectedRow("expected " + EXPECTED_FIELDS + " fields");
+            }
+            year = parseYear(yearStart, trimEnd(yearStart, to));
+            checkIsbn();
+        }
+
+        private String nextCsvField(int to) throws RejectedRow {
+            pos = nextFieldStart(to);
+            return csvField(to);
+        }
+
+        private int nextFieldStart(int to) throws RejectedRow {
+            if (pos >= to || data[pos] != ',') {
+                throw new RejectedRow("expected " + EXPECTED_FIELDS + " fields");
+            }
+            return pos + 1;
+        }
+
+        // Reads a field starting at pos and leaves pos on the following comma (or end)
+        private String csvField(int to) throws RejectedRow {
+            int fieldStart = skipSpaces(pos, to);
+            if (fieldStart < to && data[fieldStart] == '"') {
+                ByteArrayOutputStream unescaped = null;
+                int i = fieldStart + 1;
+                int segment = i;
+                while (true) {
+                    if (i >= to) {
+                        throw new RejectedRow("unterminated quoted field");
+                    }
+                    if (data[i] == '"') {
+                        if (i + 1 < to && data[i + 1] == '"') {
+                            // Escaped quote; only now do we need a copy
+                            if (unescaped == null) {
+                                unescaped = new ByteArrayOutputStream();
+                            }
+                            unescaped.write(data, segment, i + 1 - segment);
+                            i += 2;
+                            segment = i;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                String value;
+                if (unescaped == null) {
+                    value = new String(data, segment, i - segment, StandardCharsets.UTF_8);
+                } else {
+                    unescaped.write(data, segment, i - segment);
+                    value = new String(unescaped.toByteArray(), StandardCharsets.UTF_8);
+                }
+                pos = skipSpaces(i + 1, to);
+                return value;
+            }
+
+            int fieldEnd = indexOf(data, (byte) ',', fieldStart, to);
+            if (fieldEnd < 0) {
+                fieldEnd = to;
+            }
+            pos = fieldEnd;
+            int trimmed = trimEnd(fieldStart, fieldEnd);
+            return new String(data, fieldStart, trimmed - fieldStart, StandardCharsets.UTF_8);
+        }
+
+        // JSON lines: one flat object per line with isbn, title, author and
+        // year (or publicationYear); other keys are ignored
+        private void parseJson(int from, int to) throws RejectedRow {
+            isbn = null;
+            title = null;
+            author = null;
+            year = Integer.MIN_VALUE;
+
+            pos = skipSpaces(from, to);
+            expect('{', to);
+            pos = skipSpaces(pos, to);
+            if (pos < to && data[pos] == '}') {
+                throw new RejectedRow("empty object");
+            }
+            while (true) {
+                pos = skipSpaces(pos, to);
+                String key = jsonString(to);
+                pos = skipSpaces(pos, to);
+                expect(':', to);
+                pos = skipSpaces(pos, to);
+                switch (key) {
+                    case "isbn":
+                        isbn = jsonString(to);
+                        break;
+                    case "title":
+                        title = jsonString(to);
+                        break;
+                    case "author":
+                        author = jsonString(to);
+                        break;
+                    case "year":
+                    case "publicationYear":
+                        int numberEnd = pos;
+                        while (numberEnd < to && (data[numberEnd] == '-' || (data[numberEnd] >= '0' && data[numberEnd] <= '9'))) {
+                            numberEnd++;
+                        }
+                        year = parseYear(pos, numberEnd);
+                        pos = numberEnd;
+                        break;
+                    default:
+                        skipJsonValue(to);
+                }
+                pos = skipSpaces(pos, to);
+                if (pos < to && data[pos] == ',') {
+                    pos++;
+                    continue;
+                }
+                expect('}', to);
+                break;
+            }
+
+            if (isbn == null || title == null || author == null || year == Integer.MIN_VALUE) {
+                throw new RejectedRow("missing isbn, title, author or year");
+            }
+            checkIsbn();
+        }
+
+        private String jsonString(int to) throws RejectedRow {
+            expect('"', to);
+            int stringStart = pos;
+            StringBuilder escaped = null;
+            int segment = pos;
+            while (true) {
+                if (pos >= to) {
+                    throw new RejectedRow("unterminated string");
+                }
+                byte b = data[pos];
+                if (b == '"') {
+                    break;
+                }
+                if (b != '\\') {
+                    pos++;
+                    continue;
+                }
+                if (escaped == null) {
+                    escaped = new StringBuilder();
+                }
+                escaped.append(new String(data, segment, pos - segment, StandardCharsets.UTF_8));
+                if (pos + 1 >= to) {
+                    throw new RejectedRow("bad escape");
+                }
+                byte e = data[pos + 1];
+                pos += 2;
+                switch (e) {
+                    case 'n': escaped.append('\n'); break;
+                    case 't': escaped.append('\t'); break;
+                    case 'r': escaped.append('\r'); break;
+                    case 'b': escaped.append('\b'); break;
+                    case 'f': escaped.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > to) {
+                            throw new RejectedRow("bad escape");
+                        }
+                        try {
+                            escaped.append((char) Integer.parseInt(
+                                    new String(data, pos, 4, StandardCharsets.US_ASCII), 16));
+                        } catch (NumberFormatException ex) {
+                            throw new RejectedRow("bad escape");
+                        }
+                        pos += 4;
+                        break;
+                    default: escaped.append((char) e); // \" \\ \/
+                }
+                segment = pos;
+            }
+            String value;
+            if (escaped == null) {
+                value = new String(data, stringStart, pos - stringStart, StandardCharsets.UTF_8);
+            } else {
+                escaped.append(new String(data, segment, pos - segment, StandardCharsets.UTF_8));
+                value = escaped.toString();
+            }
+            pos++; // closing quote
+            return value;
+        }
+
+        private void skipJsonValue(int to) throws RejectedRow {
+            if (pos < to && data[pos] == '"') {
+                jsonString(to);
+                return;
+            }
+            while (pos < to && data[pos] != ',' && data[pos] != '}') {
+                if (data[pos] == '{' || data[pos] == '[') {
+                    throw new RejectedRow("nested values are not supported");
+                }
+                pos++;
+            }
+        }
+
+        private void expect(char c, int to) throws RejectedRow {
+            if (pos >= to || data[pos] != c) {
+                throw new RejectedRow("expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private int parseYear(int from, int to) throws RejectedRow {
+            if (from >= to || to - from > 6) {
+                throw new RejectedRow("invalid year");
+            }
+            boolean negative = data[from] == '-';
+            int i = negative ? from + 1 : from;
+            if (i >= to) {
+                throw new RejectedRow("invalid year");
+            }
+            int value = 0;
+            for (; i < to; i++) {
+                int digit = data[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new RejectedRow("invalid year");
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        private void checkIsbn() throws RejectedRow {
+            if (isbn.isEmpty()) {
+                throw new RejectedRow("missing ISBN");
+            }
+        }
+
+        private int skipSpaces(int from, int to) {
+            while (from < to && (data[from] == ' ' || data[from] == '\t')) {
+                from++;
+            }
+            return from;
+        }
+
+        private int trimEnd(int from, int to) {
+            while (to > from && (data[to - 1] == ' ' || data[to - 1] == '\t')) {
+                to--;
+            }
+            return to;
+        }
+    }
+}
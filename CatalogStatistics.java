@@ -0,0 +1,189 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Catalog Statistics Class
+// Running totals behind the statistics report: titles and copies by status,
+// titles and loans per author and per publication decade, and how many
+// members hold how many loans. Library updates them in the same place it
+// adds, removes, lends and takes back books, each update a few counter
+// increments, so reading them never walks the catalog.
+//
+// Counters are LongAdders; the per-author and per-decade tallies change
+// inside ConcurrentHashMap.compute, which serializes the updates to one key.
+// Readers may see an update half applied (the copies counted, the title not
+// yet); totals are exact once the library is quiet.
+class CatalogStatistics {
+    private LongAdder titles;
+    private LongAdder copies;
+    private LongAdder copiesOnLoan;
+    private LongAdder titlesAllOut; // titles with no copy left on the shelf
+    private ConcurrentHashMap<String, Tally> byAuthor;
+    private ConcurrentHashMap<Integer, Tally> byDecade;
+    private ConcurrentHashMap<Integer, LongAdder> membersByLoans; // loans held (1+) -> members
+
+    public CatalogStatistics() {
+        this.titles = new LongAdder();
+        this.copies = new LongAdder();
+        this.copiesOnLoan = new LongAdder();
+        this.titlesAllOut = new LongAdder();
+        this.byAuthor = new ConcurrentHashMap<>();
+        this.byDecade = new ConcurrentHashMap<>();
+        this.membersByLoans = new ConcurrentHashMap<>();
+    }
+
+    // Titles, copies and copies on loan for one author or decade
+    static class Tally {
+        private volatile int titles;
+        private volatile int copies;
+        private volatile int onLoan;
+
+        public int getTitles() { return titles; }
+        public int getCopies() { return copies; }
+        public int getOnLoan() { return onLoan; }
+    }
+
+    // Updates, called by Library with the book's lock stripe held
+
+    public void bookAdded(Book book) {
+        int bookCopies = book.getCopies();
+        int out = bookCopies - book.getAvailableCopies();
+        titles.increment();
+        copies.add(bookCopies);
+        copiesOnLoan.add(out);
+        if (out == bookCopies) {
+            titlesAllOut.increment();
+        }
+        adjust(byAuthor, book.getAuthor(), 1, bookCopies, out);
+        adjust(byDecade, decadeOf(book.getPublicationYear()), 1, bookCopies, out);
+    }
+
+    // Only books with every copy on the shelf are removed
+    public void bookRemoved(Book book) {
+        int bookCopies = book.getCopies();
+        titles.decrement();
+        copies.add(-bookCopies);
+        adjust(byAuthor, book.getAuthor(), -1, -bookCopies, 0);
+        adjust(byDecade, decadeOf(book.getPublicationYear()), -1, -bookCopies, 0);
+    }
+
+    // After count copies were added to the book
+    public void copiesAdded(Book book, int count) {
+        copies.add(count);
+        if (book.getAvailableCopies() == count) {
+            titlesAllOut.decrement(); // it had none on the shelf until now
+        }
+        adjust(byAuthor, book.getAuthor(), 0, count, 0);
+        adjust(byDecade, decadeOf(book.getPublicationYear()), 0, count, 0);
+    }
+
+    // After a copy was lent to a member who now holds memberLoans books
+    public void loanOpened(Book book, int memberLoans) {
+        copiesOnLoan.increment();
+        if (book.getAvailableCopies() == 0) {
+            titlesAllOut.increment();
+        }
+        adjust(byAuthor, book.getAuthor(), 0, 0, 1);
+        adjust(byDecade, decadeOf(book.getPublicationYear()), 0, 0, 1);
+        moveMember(memberLoans - 1, memberLoans);
+    }
+
+    // After a copy came back from a member who now holds memberLoans books
+    public void loanClosed(Book book, int memberLoans) {
+        copiesOnLoan.decrement();
+        if (book.getAvailableCopies() == 1) {
+            titlesAllOut.decrement(); // it was the only copy on the shelf
+        }
+        adjust(byAuthor, book.getAuthor(), 0, 0, -1);
+        adjust(byDecade, decadeOf(book.getPublicationYear()), 0, 0, -1);
+        moveMember(memberLoans + 1, memberLoans);
+    }
+
+    // Reads
+
+    public long getTitles() { return titles.sum(); }
+    public long getCopies() { return copies.sum(); }
+    public long getCopiesOnLoan() { return copiesOnLoan.sum(); }
+    public long getCopiesOnShelf() { return copies.sum() - copiesOnLoan.sum(); }
+    public long getTitlesAllOut() { return titlesAllOut.sum(); }
+    public long getTitlesAvailable() { return titles.sum() - titlesAllOut.sum(); }
+
+    public Tally getAuthor(String author) {
+        Tally tally = byAuthor.get(author);
+        return tally != null ? tally : new Tally();
+    }
+
+    // Per decade (1990 for 1990-1999), in order
+    public SortedMap<Integer, Tally> getDecades() {
+        return new TreeMap<>(byDecade);
+    }
+
+    // The authors with the most titles, most first (ties by name); one pass
+    // over the authors, keeping the best limit in a small heap
+    public List<Map.Entry<String, Tally>> getTopAuthors(int limit) {
+        Comparator<Map.Entry<String, Tally>> order = (a, b) -> a.getValue().titles != b.getValue().titles
+                ? Integer.compare(b.getValue().titles, a.getValue().titles)
+                : a.getKey().compareTo(b.getKey());
+        PriorityQueue<Map.Entry<String, Tally>> best = new PriorityQueue<>(order.reversed());
+        for (Map.Entry<String, Tally> author : byAuthor.entrySet()) {
+            best.add(new AbstractMap.SimpleImmutableEntry<>(author.getKey(), author.getValue()));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        List<Map.Entry<String, Tally>> top = new ArrayList<>(best);
+        top.sort(order);
+        return top;
+    }
+
+    public int countAuthors() {
+        return byAuthor.size();
+    }
+
+    // Loans held -> members holding that many, for members with at least one
+    public SortedMap<Integer, Long> getMembersByLoans() {
+        SortedMap<Integer, Long> counts = new TreeMap<>();
+        for (Map.Entry<Integer, LongAdder> entry : membersByLoans.entrySet()) {
+            long count = entry.getValue().sum();
+            if (count > 0) {
+                counts.put(entry.getKey(), count);
+            }
+        }
+        return counts;
+    }
+
+    public long countMembersWithLoans() {
+        long total = 0;
+        for (LongAdder count : membersByLoans.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    static int decadeOf(int year) {
+        return Math.floorDiv(year, 10) * 10;
+    }
+
+    // Drops the tally once its last title is gone
+    private static <K> void adjust(ConcurrentHashMap<K, Tally> tallies, K key,
+                                   int titleDelta, int copyDelta, int loanDelta) {
+        tallies.compute(key, (k, tally) -> {
+            if (tally == null) {
+                tally = new Tally();
+            }
+            tally.titles += titleDelta;
+            tally.copies += copyDelta;
+            tally.onLoan += loanDelta;
+            return tally.titles == 0 ? null : tally;
+        });
+    }
+
+    private void moveMember(int fromLoans, int toLoans) {
+        if (fromLoans > 0) {
+            membersByLoans.computeIfAbsent(fromLoans, k -> new LongAdder()).decrement();
+        }
+        if (toLoans > 0) {
+            membersByLoans.computeIfAbsent(toLoans, k -> new LongAdder()).increment();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Catalog Store Interface
+// Storage engine for a library's catalog records: ISBN, title, author, year
+// and number of copies. A Library given a store keeps Book objects only for
+// the titles it is lending, holding or changing, and reads every other title
+// from the store; loans stay in the library's ledger and journal. Books
+// handed out are detached views built on demand. A persistent store keeps
+// the catalog across runs itself, so the library doesn't journal changes
+// to it and forces the store instead.
+interface CatalogStore {
+    // False if the ISBN is already in the store, or the book doesn't fit
+    boolean addBook(Book book);
+    boolean removeBook(String isbn);
+    boolean setCopies(String isbn, int copies);
+    Book searchByISBN(String isbn);
+    boolean contains(String isbn);
+    int size();
+    void forEachBook(Consumer<Book> action);
+
+    // Visits books from the position on, in the store's own order (not ISBN
+    // order), until the action returns false. Returns the position of the
+    // book the action turned down, to resume from, or -1 once every book has
+    // been visited. Position 0 is the start.
+    int scan(int position, Predicate<Book> action);
+
+    boolean isPersistent();
+
+    // False if the store's record layout can't hold the book's fields, in
+    // which case addBook refuses it rather than cutting them short
+    default boolean fits(Book book) {
+        return true;
+    }
+
+    // Makes every change so far durable; nothing to do for a store in memory
+    void force();
+}
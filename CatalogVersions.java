@@ -0,0 +1,274 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+// Catalog Versions Class
+// Multi-version state of a library's catalog, for LibrarySnapshot readers.
+// Each book carries a chain of immutable BookVersions, newest first; Library
+// publishes a new one after every change to a book, with the book's lock
+// stripe held, and a snapshot reads each book's newest version no later than
+// its own. Readers take no lock and writers never wait for readers.
+//
+// What a snapshot may still need is kept until no snapshot does:
+//   - versions behind the newest one a snapshot could read are unlinked by
+//     the next change to the book, or when the snapshot holding them closes
+//     (the whole chain is one version when no snapshot is open)
+//   - removed books stay in the ISBN order, as removal versions
+//   - returned loans are listed, so loan reports taken before the return can
+//     still find them; a loan goes on the list before it leaves the ledger
+//
+// With a CatalogStore, only the books the library has loaded have versions.
+// A title it hasn't loaded is read from the store as it is there: it hasn't
+// changed since before any snapshot (every change loads the book first), so
+// its record answers for every version. A loaded book a snapshot still
+// needs is handed back to the library to let go when the snapshot closes.
+class CatalogVersions {
+    private ConcurrentSkipListMap<String, Book> catalog; // books a snapshot may see, in ISBN order
+    private Map<String, Book> live;                      // the library's own map, for faster lookups
+    private CatalogStore store;                          // null when every book is in live
+    private VersionClock clock;
+    private ConcurrentLinkedQueue<ClosedLoan> closedLoans;
+    private ConcurrentLinkedQueue<Book> removedBooks;
+    private Set<Book> oldVersions; // books with versions an open snapshot may read
+    private Set<Book> retained;    // loaded books kept only for an open snapshot
+    private Consumer<Book> unloader;
+
+    public CatalogVersions(Map<String, Book> live) {
+        this(live, null, null);
+    }
+
+    public CatalogVersions(Map<String, Book> live, CatalogStore store, Consumer<Book> unloader) {
+        this.catalog = new ConcurrentSkipListMap<>();
+        this.live = live;
+        this.store = store;
+        this.clock = new VersionClock();
+        this.closedLoans = new ConcurrentLinkedQueue<>();
+        this.removedBooks = new ConcurrentLinkedQueue<>();
+        this.oldVersions = ConcurrentHashMap.newKeySet();
+        this.retained = ConcurrentHashMap.newKeySet();
+        this.unloader = unloader;
+    }
+
+    // A returned loan and its book
+    static class ClosedLoan {
+        private Book book;
+        private Loan loan;
+
+        ClosedLoan(Book book, Loan loan) {
+            this.book = book;
+            this.loan = loan;
+        }
+
+        public Loan getLoan() { return loan; }
+    }
+
+    // Writers: called with the book's lock stripe held, after the change
+
+    public void publishAdded(Book book) {
+        Book prior = catalog.get(book.getIsbn()); // removed, but still seen by a snapshot
+        long version = clock.begin();
+        book.setVersion(BookVersion.of(book, version, prior != null ? prior.getVersion() : null));
+        catalog.put(book.getIsbn(), book);
+        clock.publish(version);
+        collect(book);
+    }
+
+    public void publish(Book book) {
+        long version = clock.begin();
+        book.setVersion(BookVersion.of(book, version, book.getVersion()));
+        clock.publish(version);
+        collect(book);
+    }
+
+    // Several books changed together (a circulation batch): one version, so
+    // a snapshot sees all of the changes or none
+    public void publish(Collection<Book> books) {
+        Set<Book> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        changed.addAll(books);
+        if (changed.isEmpty()) {
+            return;
+        }
+        long version = clock.begin();
+        for (Book book : changed) {
+            book.setVersion(BookVersion.of(book, version, book.getVersion()));
+        }
+        clock.publish(version);
+        for (Book book : changed) {
+            collect(book);
+        }
+    }
+
+    // A book loaded from the store: its record is how every snapshot so far
+    // has seen it, so its first version is older than all of them
+    public void publishStored(Book book) {
+        book.setVersion(BookVersion.of(book, 0, null));
+        catalog.put(book.getIsbn(), book);
+    }
+
+    // Whether the library may let go of a loaded book and read it from the
+    // store again: only once every snapshot sees its newest version, which
+    // then matches the record. Called with the book's stripe held.
+    public boolean unload(Book book) {
+        long horizon = clock.horizon();
+        if (horizon < 0 || book.getVersion().getVersion() > horizon) {
+            retained.add(book); // for closeSnapshot to hand back
+            return false;
+        }
+        catalog.remove(book.getIsbn(), book);
+        oldVersions.remove(book);
+        retained.remove(book);
+        return true;
+    }
+
+    public void publishRemoval(Book book) {
+        long version = clock.begin();
+        book.setVersion(BookVersion.removal(book, version, book.getVersion()));
+        removedBooks.add(book);
+        clock.publish(version);
+        collect(book);
+    }
+
+    // Called before the loan is closed in the ledger: a loan report reads the
+    // ledger first and this list after, so it can't miss a return between them
+    public void closing(Book book, Loan loan) {
+        closedLoans.add(new ClosedLoan(book, loan));
+    }
+
+    // Readers
+
+    public long openSnapshot() {
+        return clock.openSnapshot();
+    }
+
+    public void closeSnapshot(long version) {
+        clock.closeSnapshot(version);
+        long horizon = clock.horizon();
+        if (horizon < 0) {
+            return;
+        }
+        for (Book book : oldVersions) {
+            if (trim(book, horizon)) {
+                oldVersions.remove(book);
+                if (!trim(book, horizon)) {
+                    oldVersions.add(book); // changed meanwhile
+                }
+            }
+        }
+        sweep(horizon);
+        for (Book book : retained) {
+            if (book.getVersion().getVersion() <= horizon && retained.remove(book)) {
+                unloader.accept(book);
+            }
+        }
+    }
+
+    public long getVisibleVersion() {
+        return clock.getVisible();
+    }
+
+    // The book as of the version; null if it wasn't in the catalog then.
+    // A book added again after removal links back to its removed versions,
+    // so the library's current book answers for both.
+    BookVersion lookup(String isbn, long version) {
+        return resolve(isbn, null, version);
+    }
+
+    // As lookup, for a record the caller has just read from the store
+    BookVersion lookupStored(Book stored, long version) {
+        return resolve(stored.getIsbn(), stored, version);
+    }
+
+    private BookVersion resolve(String isbn, Book stored, long version) {
+        Book book = live.get(isbn);
+        BookVersion newest = book == null ? null : book.getVersion();
+        if (newest == null) {
+            Book removed = catalog.get(isbn); // removed since, or not yet published
+            newest = removed == null ? null : removed.getVersion();
+        }
+        if (newest != null) {
+            return newest.asOf(version);
+        }
+        if (book != null || store == null) {
+            return null;
+        }
+        // Not loaded. The library adds a book to live before the store and
+        // takes it out of the store before live, so a record found here is
+        // either untouched or its book is in live by now.
+        Book record = stored == null ? store.searchByISBN(isbn) : store.contains(isbn) ? stored : null;
+        if (record == null) {
+            return null;
+        }
+        book = live.get(isbn);
+        if (book != null) {
+            newest = book.getVersion();
+            return newest == null ? null : newest.asOf(version);
+        }
+        return BookVersion.of(record, 0, null);
+    }
+
+    NavigableMap<String, Book> books() {
+        return catalog;
+    }
+
+    CatalogStore getStore() {
+        return store;
+    }
+
+    Collection<ClosedLoan> closedLoans() {
+        return closedLoans;
+    }
+
+    // Drops what no snapshot can read any more
+    private void collect(Book book) {
+        long horizon = clock.horizon();
+        if (horizon < 0 || !trim(book, horizon)) {
+            oldVersions.add(book); // for closeSnapshot to finish
+        }
+        if (horizon >= 0) {
+            sweep(horizon);
+        }
+    }
+
+    // Unlinks the versions behind the newest one at or below the horizon;
+    // true if only the newest version is left. Cutting the chain without the
+    // book's stripe is safe: the horizon never moves back, so a concurrent
+    // change to the book only adds versions in front.
+    private boolean trim(Book book, long horizon) {
+        BookVersion newest = book.getVersion();
+        for (BookVersion kept = newest; kept != null; kept = kept.getPrevious()) {
+            if (kept.getVersion() <= horizon) {
+                kept.forgetOlder();
+                return kept == newest;
+            }
+        }
+        return false;
+    }
+
+    private void sweep(long horizon) {
+        ClosedLoan closed;
+        while ((closed = closedLoans.peek()) != null && isClosedBy(closed, horizon)) {
+            closedLoans.remove(closed);
+        }
+        Book book;
+        while ((book = removedBooks.peek()) != null) {
+            BookVersion removal = book.getVersion();
+            if (removal.isRemoved() && removal.getVersion() > horizon) {
+                break; // a snapshot may still see the book
+            }
+            if (removal.isRemoved()) {
+                Book gone = book;
+                catalog.computeIfPresent(book.getIsbn(),
+                        (isbn, current) -> current == gone && current.getVersion() == removal ? null : current);
+            }
+            removedBooks.remove(book);
+        }
+    }
+
+    // Whether every snapshot sees the loan closed
+    private boolean isClosedBy(ClosedLoan closed, long horizon) {
+        BookVersion newest = closed.book.getVersion();
+        return newest.getVersion() <= horizon && !newest.holds(closed.loan);
+    }
+}
@@ -0,0 +1,19 @@
+// Circulation Request Class
+// One borrow or return within a batch passed to Library.circulate.
+class CirculationRequest {
+    enum Type { BORROW, RETURN }
+
+    private Type type;
+    private String isbn;
+    private String memberId;
+
+    public CirculationRequest(Type type, String isbn, String memberId) {
+        this.type = type;
+        this.isbn = isbn;
+        this.memberId = memberId;
+    }
+
+    public Type getType() { return type; }
+    public String getIsbn() { return isbn; }
+    public String getMemberId() { return memberId; }
+}
@@ -0,0 +1,29 @@
+// Circulation Result Enum
+// Outcome of a borrow, return or hold request, kept separate from the console messages so
+// the locked section never does I/O.
+enum CirculationResult {
+    SUCCESS(null),
+    RETURNED_OVERDUE("Warning: Book was returned overdue!"),
+    BOOK_NOT_FOUND("Book not found!"),
+    MEMBER_NOT_FOUND("Member not found!"),
+    BOOK_NOT_AVAILABLE("Book is not available! Place a hold to get the next copy returned."),
+    ALREADY_HAS_COPY("Member already has a copy of this book!"),
+    LIMIT_REACHED("Member has reached maximum borrowing limit!"),
+    NOT_BORROWED_BY_MEMBER("This book was not borrowed by this member!"),
+    NOT_APPLIED("Not applied: another item in the batch failed."),
+    COPY_AVAILABLE("A copy is available - borrow it instead of placing a hold."),
+    ALREADY_ON_HOLD("Member is already waiting for this book!"),
+    NO_HOLD("Member has no hold on this book!");
+
+    private String message;
+
+    CirculationResult(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() { return message; }
+
+    public boolean isSuccess() {
+        return this == SUCCESS || this == RETURNED_OVERDUE;
+    }
+}
@@ -0,0 +1,371 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Columnar Catalog Class
+// Catalog storage engine that keeps books as rows across primitive columns
+// instead of one Book object (plus three Strings and a map entry) per title:
+//   - ISBNs are packed into longs by IsbnCodec and indexed by a LongIntHashMap
+//   - titles are UTF-8 bytes in a shared paged arena, referenced by offset;
+//     a title longer than TITLE_MAX bytes is refused, not cut short
+//   - authors are dictionary-encoded to int ids
+//   - years and copy counts are ints
+// Book objects are only created as views when a caller asks for one. Scan
+// positions are row numbers.
+class ColumnarCatalog implements CatalogStore {
+    private static final long OVERFLOW_KEY = 1L << 62; // marks ISBNs IsbnCodec can't pack
+    private static final int PAGE_BITS = 24;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int TITLE_MAX = 0xFFFF; // bytes, so the length fits the 2-byte prefix
+
+    private LongIntHashMap rowsByIsbn;
+    private Map<String, Integer> overflowIds;
+    private List<String> overflowIsbns; // null where the book was removed
+    private List<Integer> freeOverflowIds;
+
+    private long[] isbnKeys;
+    private long[] titleRefs;
+    private int[] authorIds;
+    private int[] years;
+    private int[] copies;
+    private long[] live;
+    private int rowCount;     // rows ever allocated (high-water mark)
+    private int liveCount;
+    private int[] freeRows;
+    private int freeCount;
+
+    private Map<String, Integer> authorDictionary;
+    private List<String> authorValues;
+
+    private List<byte[]> titlePages;
+    private int titlePageUsed;
+    private long titleGarbage;
+    private long titleBytes;
+
+    private ReentrantReadWriteLock lock;
+
+    public ColumnarCatalog() {
+        this(1024);
+    }
+
+    public ColumnarCatalog(int expectedBooks) {
+        int capacity = Math.max(16, expectedBooks);
+        this.rowsByIsbn = new LongIntHashMap(capacity);
+        this.overflowIds = new HashMap<>();
+        this.overflowIsbns = new ArrayList<>();
+        this.freeOverflowIds = new ArrayList<>();
+        this.isbnKeys = new long[capacity];
+        this.titleRefs = new long[capacity];
+        this.authorIds = new int[capacity];
+        this.years = new int[capacity];
+        this.copies = new int[capacity];
+        this.live = new long[(capacity + 63) >>> 6];
+        this.freeRows = new int[16];
+        this.authorDictionary = new HashMap<>();
+        this.authorValues = new ArrayList<>();
+        this.titlePages = new ArrayList<>();
+        this.titlePages.add(new byte[PAGE_SIZE]);
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    @Override
+    public boolean addBook(Book book) {
+        if (!fits(book)) {
+            return false; // Title too long for the arena
+        }
+        lock.writeLock().lock();
+        try {
+            long key = keyFor(book.getIsbn(), true);
+            if (rowsByIsbn.get(key) != LongIntHashMap.MISSING) {
+                return false; // Book already exists
+            }
+            int row = allocateRow();
+            isbnKeys[row] = key;
+            titleRefs[row] = appendTitle(book.getTitle());
+            authorIds[row] = intern(book.getAuthor(), authorDictionary, authorValues);
+            years[row] = book.getPublicationYear();
+            copies[row] = book.getCopies();
+            setBit(live, row);
+            rowsByIsbn.put(key, row);
+            liveCount++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean removeBook(String isbn) {
+        lock.writeLock().lock();
+        try {
+            int row = rowFor(isbn);
+            if (row == LongIntHashMap.MISSING) {
+                return false; // Book not found
+            }
+            rowsByIsbn.remove(isbnKeys[row]);
+            releaseKey(isbnKeys[row]);
+            titleGarbage += titleLength(titleRefs[row]);
+            clearBit(live, row);
+            if (freeCount == freeRows.length) {
+                freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+            }
+            freeRows[freeCount++] = row;
+            liveCount--;
+            if (titleGarbage > PAGE_SIZE && titleGarbage * 2 > titleBytes) {
+                compactTitles();
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Book searchByISBN(String isbn) {
+        lock.readLock().lock();
+        try {
+            int row = rowFor(isbn);
+            return row == LongIntHashMap.MISSING ? null : view(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean setCopies(String isbn, int count) {
+        lock.writeLock().lock();
+        try {
+            int row = rowFor(isbn);
+            if (row == LongIntHashMap.MISSING) {
+                return false;
+            }
+            copies[row] = count;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(String isbn) {
+        lock.readLock().lock();
+        try {
+            return rowFor(isbn) != LongIntHashMap.MISSING;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEachBook(Consumer<Book> action) {
+        lock.readLock().lock();
+        try {
+            for (int row = 0; row < rowCount; row++) {
+                if (getBit(live, row)) {
+                    action.accept(view(row));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int scan(int position, Predicate<Book> action) {
+        lock.readLock().lock();
+        try {
+            for (int row = position; row < rowCount; row++) {
+                if (getBit(live, row) && !action.test(view(row))) {
+                    return row;
+                }
+            }
+            return -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Approximate heap used by the columns, dictionaries and title arena,
+    // not counting the dictionary strings themselves
+    public long footprintBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = rowsByIsbn.footprintBytes();
+            bytes += (long) isbnKeys.length * (Long.BYTES * 2 + Integer.BYTES * 3);
+            bytes += (long) live.length * Long.BYTES;
+            bytes += (long) titlePages.size() * PAGE_SIZE;
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return false;
+    }
+
+    @Override
+    public boolean fits(Book book) {
+        return book.getTitle().getBytes(StandardCharsets.UTF_8).length <= TITLE_MAX;
+    }
+
+    @Override
+    public void force() {
+    }
+
+    // Builds a detached Book for the row
+    private Book view(int row) {
+        Book book = new Book(isbnOf(row), titleOf(titleRefs[row]), authorValues.get(authorIds[row]), years[row]);
+        if (copies[row] > 1) {
+            book.addCopies(copies[row] - 1);
+        }
+        return book;
+    }
+
+    private int rowFor(String isbn) {
+        long key = keyFor(isbn, false);
+        return key == IsbnCodec.INVALID ? LongIntHashMap.MISSING : rowsByIsbn.get(key);
+    }
+
+    // Packed ISBN, or an overflow key for ISBNs that don't pack
+    private long keyFor(String isbn, boolean create) {
+        long packed = IsbnCodec.encode(isbn);
+        if (packed != IsbnCodec.INVALID) {
+            return packed;
+        }
+        Integer id = overflowIds.get(isbn);
+        if (id == null) {
+            if (!create) {
+                return IsbnCodec.INVALID;
+            }
+            if (freeOverflowIds.isEmpty()) {
+                id = overflowIsbns.size();
+                overflowIsbns.add(isbn);
+            } else {
+                id = freeOverflowIds.remove(freeOverflowIds.size() - 1);
+                overflowIsbns.set(id, isbn);
+            }
+            overflowIds.put(isbn, id);
+        }
+        return OVERFLOW_KEY | id;
+    }
+
+    // Frees the overflow entry of a removed book's ISBN for reuse
+    private void releaseKey(long key) {
+        if ((key & OVERFLOW_KEY) != 0) {
+            int id = (int) (key & ~OVERFLOW_KEY);
+            overflowIds.remove(overflowIsbns.set(id, null));
+            freeOverflowIds.add(id);
+        }
+    }
+
+    private String isbnOf(int row) {
+        long key = isbnKeys[row];
+        if ((key & OVERFLOW_KEY) != 0) {
+            return overflowIsbns.get((int) (key & ~OVERFLOW_KEY));
+        }
+        return IsbnCodec.decode(key);
+    }
+
+    private static int intern(String value, Map<String, Integer> dictionary, List<String> values) {
+        Integer id = dictionary.get(value);
+        if (id == null) {
+            id = values.size();
+            dictionary.put(value, id);
+            values.add(value);
+        }
+        return id;
+    }
+
+    private int allocateRow() {
+        if (freeCount > 0) {
+            return freeRows[--freeCount];
+        }
+        if (rowCount == isbnKeys.length) {
+            int capacity = rowCount * 2;
+            isbnKeys = Arrays.copyOf(isbnKeys, capacity);
+            titleRefs = Arrays.copyOf(titleRefs, capacity);
+            authorIds = Arrays.copyOf(authorIds, capacity);
+            years = Arrays.copyOf(years, capacity);
+            copies = Arrays.copyOf(copies, capacity);
+            live = Arrays.copyOf(live, (capacity + 63) >>> 6);
+        }
+        return rowCount++;
+    }
+
+    // Title arena: [2-byte length][UTF-8 bytes], referenced by page << 24 | offset
+    private long appendTitle(String title) {
+        byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length; // at most TITLE_MAX, see fits
+        if (titlePageUsed + 2 + length > PAGE_SIZE) {
+            titlePages.add(new byte[PAGE_SIZE]);
+            titlePageUsed = 0;
+        }
+        int pageIndex = titlePages.size() - 1;
+        byte[] page = titlePages.get(pageIndex);
+        int offset = titlePageUsed;
+        page[offset] = (byte) (length >>> 8);
+        page[offset + 1] = (byte) length;
+        System.arraycopy(bytes, 0, page, offset + 2, length);
+        titlePageUsed += 2 + length;
+        titleBytes += 2 + length;
+        return ((long) pageIndex << PAGE_BITS) | offset;
+    }
+
+    private String titleOf(long ref) {
+        byte[] page = titlePages.get((int) (ref >>> PAGE_BITS));
+        int offset = (int) (ref & (PAGE_SIZE - 1));
+        int length = ((page[offset] & 0xFF) << 8) | (page[offset + 1] & 0xFF);
+        return new String(page, offset + 2, length, StandardCharsets.UTF_8);
+    }
+
+    private int titleLength(long ref) {
+        byte[] page = titlePages.get((int) (ref >>> PAGE_BITS));
+        int offset = (int) (ref & (PAGE_SIZE - 1));
+        return 2 + (((page[offset] & 0xFF) << 8) | (page[offset + 1] & 0xFF));
+    }
+
+    // Rewrites live titles into fresh pages once removed ones dominate
+    private void compactTitles() {
+        List<byte[]> oldPages = titlePages;
+        titlePages = new ArrayList<>();
+        titlePages.add(new byte[PAGE_SIZE]);
+        titlePageUsed = 0;
+        titleBytes = 0;
+        titleGarbage = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (getBit(live, row)) {
+                long ref = titleRefs[row];
+                byte[] page = oldPages.get((int) (ref >>> PAGE_BITS));
+                int offset = (int) (ref & (PAGE_SIZE - 1));
+                int length = ((page[offset] & 0xFF) << 8) | (page[offset + 1] & 0xFF);
+                titleRefs[row] = appendTitle(new String(page, offset + 2, length, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static boolean getBit(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void setBit(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private static void clearBit(long[] bits, int index) {
+        bits[index >>> 6] &= ~(1L << index);
+    }
+}
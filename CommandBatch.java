@@ -0,0 +1,336 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+
+// Command Batch Class
+// Runs a file of library commands without the console menus, for scripted
+// work such as replaying a day's desk transactions or a migration. One
+// command per line, fields separated by spaces and "quoted" when they hold
+// spaces (a quote inside is doubled, as in the importer's CSV):
+//   BORROW <isbn> <member>                RETURN <isbn> <member>
+//   HOLD <isbn> <member>                  CANCEL <isbn> <member>
+//   ADD <isbn> "<title>" "<author>" <year>
+//   COPIES <isbn> <count>                 REMOVE <isbn>
+//   MEMBER <id> "<name>" <email> <phone> [STUDENT|STAFF]
+//   LEAVE <id>                            FIND <isbn>
+// Blank lines and lines starting with # are skipped.
+//
+// The input is read in large blocks and parsed straight from the bytes, and
+// commands go to Library's quiet methods (tryBorrow, tryReturn) rather than
+// the console ones. Each command writes one line, "OK" or "ERR <reason>",
+// through an output buffer; the run ends with a count and the rate on
+// standard error.
+class CommandBatch {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_FIELDS = 6;
+    private static final byte[] OK = bytes("OK\n");
+
+    private enum Command {
+        BORROW(2, 2), RETURN(2, 2), HOLD(2, 2), CANCEL(2, 2),
+        ADD(4, 4), COPIES(2, 2), REMOVE(1, 1),
+        MEMBER(4, 5), LEAVE(1, 1), FIND(1, 1);
+
+        private byte[] keyword;
+        private int minArgs;
+        private int maxArgs;
+
+        Command(int minArgs, int maxArgs) {
+            this.keyword = bytes(name());
+            this.minArgs = minArgs;
+            this.maxArgs = maxArgs;
+        }
+    }
+
+    private static final Command[] COMMANDS = Command.values();
+
+    // Output line per circulation result, by ordinal
+    private static final byte[][] RESULT_LINES = new byte[CirculationResult.values().length][];
+    static {
+        for (CirculationResult result : CirculationResult.values()) {
+            RESULT_LINES[result.ordinal()] = result == CirculationResult.SUCCESS ? OK
+                    : result == CirculationResult.RETURNED_OVERDUE ? bytes("OK overdue\n")
+                    : bytes("ERR " + result.getMessage() + "\n");
+        }
+    }
+
+    private Library library;
+    private OutputStream out;
+    private byte[] data;
+    private int[] fieldStart;
+    private int[] fieldEnd;
+    private int fieldCount;
+    private long line;
+    private long commands;
+    private long failed;
+
+    public CommandBatch(Library library, OutputStream out) {
+        this.library = library;
+        this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+        this.data = new byte[BUFFER_SIZE];
+        this.fieldStart = new int[MAX_FIELDS];
+        this.fieldEnd = new int[MAX_FIELDS];
+    }
+
+    public long getCommands() { return commands; }
+    public long getFailed() { return failed; }
+
+    // Runs the file, or standard input for "-"; returns the commands run
+    public long run(String source) throws IOException {
+        long start = System.nanoTime();
+        if (source.equals("-")) {
+            run(System.in);
+        } else {
+            try (InputStream in = new FileInputStream(source)) {
+                run(in);
+            }
+        }
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        System.err.printf("Ran %d commands (%d failed) in %.2f s (%.0f ops/s)%n",
+                          commands, failed, seconds, commands / seconds);
+        return commands;
+    }
+
+    // Whole lines are run from the buffer as they arrive; a partial last line
+    // is moved to the front and completed by the next read
+    public void run(InputStream in) throws IOException {
+        int length = 0;
+        while (true) {
+            if (length == data.length) {
+                data = Arrays.copyOf(data, data.length * 2); // a line longer than the buffer
+            }
+            int read = in.read(data, length, data.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+            int lineStart = 0;
+            for (int i = length - read; i < length; i++) {
+                if (data[i] == '\n') {
+                    runLine(lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+            System.arraycopy(data, lineStart, data, 0, length - lineStart);
+            length -= lineStart;
+        }
+        if (length > 0) {
+            runLine(0, length);
+        }
+        out.flush();
+    }
+
+    private void runLine(int from, int to) throws IOException {
+        line++;
+        if (to > from && data[to - 1] == '\r') {
+            to--;
+        }
+        String error = split(from, to);
+        if (fieldCount == 0 && error == null) {
+            return; // blank or comment
+        }
+        commands++;
+        if (error != null) {
+            fail("line " + line + ": " + error);
+            return;
+        }
+        Command command = lookup();
+        if (command == null) {
+            fail("line " + line + ": unknown command " + field(0));
+            return;
+        }
+        int args = fieldCount - 1;
+        if (args < command.minArgs || args > command.maxArgs) {
+            fail("line " + line + ": " + command.name() + " takes "
+                 + (command.minArgs == command.maxArgs ? "" : "at least ") + command.minArgs + " arguments");
+            return;
+        }
+        try {
+            execute(command);
+        } catch (NumberFormatException e) {
+            fail("line " + line + ": expected a number");
+        }
+    }
+
+    private void execute(Command command) throws IOException {
+        switch (command) {
+            case BORROW:
+                result(library.tryBorrow(field(1), field(2)));
+                break;
+            case RETURN:
+                result(library.tryReturn(field(1), field(2)));
+                break;
+            case HOLD:
+                result(library.placeHold(field(1), field(2)));
+                break;
+            case CANCEL:
+                result(library.cancelHold(field(1), field(2)));
+                break;
+            case ADD:
+                int year = number(4);
+                Book added = new Book(field(1), field(2), field(3), year);
+                result(library.addBook(added), library.fitsCatalog(added) ? "ISBN already in the catalog"
+                                                                          : "Title or author too long for the catalog store");
+                break;
+            case COPIES:
+                int count = number(2);
+                result(library.addCopies(field(1), count), count < 1 ? "Count must be at least 1" : "Book not found!");
+                break;
+            case REMOVE:
+                result(library.removeBook(field(1)), "Book not found or has copies on loan");
+                break;
+            case MEMBER:
+                MemberTier tier = MemberTier.STUDENT;
+                if (fieldCount > 5) {
+                    try {
+                        tier = MemberTier.valueOf(field(5).toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        fail("line " + line + ": unknown tier " + field(5));
+                        return;
+                    }
+                }
+                result(library.registerMember(new Member(field(1), field(2), field(3), field(4), tier, library.getClock())),
+                       "Member ID, email or phone already registered");
+                break;
+            case LEAVE:
+                result(library.deregisterMember(field(1)), "Member not found or has loans or holds");
+                break;
+            case FIND:
+                Book book = library.searchByISBN(field(1));
+                if (book == null) {
+                    fail(CirculationResult.BOOK_NOT_FOUND.getMessage());
+                } else {
+                    StringBuilder found = new StringBuilder(128).append("OK ");
+                    book.currentVersion().appendTo(found, library.today());
+                    out.write(found.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+                }
+                break;
+        }
+    }
+
+    private void result(CirculationResult result) throws IOException {
+        if (!result.isSuccess()) {
+            failed++;
+        }
+        out.write(RESULT_LINES[result.ordinal()]);
+    }
+
+    private void result(boolean success, String failure) throws IOException {
+        if (success) {
+            out.write(OK);
+        } else {
+            fail(failure);
+        }
+    }
+
+    private void fail(String reason) throws IOException {
+        failed++;
+        out.write(("ERR " + reason + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Splits the line into fields; returns an error, or null
+    private String split(int from, int to) {
+        fieldCount = 0;
+        int i = skipSpaces(from, to);
+        if (i < to && data[i] == '#') {
+            return null;
+        }
+        while (i < to) {
+            if (fieldCount == MAX_FIELDS) {
+                return "too many fields";
+            }
+            if (data[i] == '"') {
+                int close = i + 1;
+                while (true) {
+                    if (close >= to) {
+                        return "unterminated quoted field";
+                    }
+                    if (data[close] == '"') {
+                        if (close + 1 < to && data[close + 1] == '"') {
+                            close += 2; // doubled quote, unescaped in field()
+                            continue;
+                        }
+                        break;
+                    }
+                    close++;
+                }
+                fieldStart[fieldCount] = i + 1;
+                fieldEnd[fieldCount] = -close; // negative marks a quoted field
+                i = close + 1;
+            } else {
+                int end = i;
+                while (end < to && data[end] != ' ' && data[end] != '\t') {
+                    end++;
+                }
+                fieldStart[fieldCount] = i;
+                fieldEnd[fieldCount] = end;
+                i = end;
+            }
+            fieldCount++;
+            i = skipSpaces(i, to);
+        }
+        return null;
+    }
+
+    private Command lookup() {
+        int start = fieldStart[0];
+        int length = fieldEnd[0] - start;
+        for (Command command : COMMANDS) {
+            byte[] keyword = command.keyword;
+            if (keyword.length != length) {
+                continue;
+            }
+            int k = 0;
+            while (k < length && (data[start + k] & ~0x20) == keyword[k]) {
+                k++; // keywords are upper-case letters; match either case
+            }
+            if (k == length) {
+                return command;
+            }
+        }
+        return null;
+    }
+
+    private String field(int index) {
+        int start = fieldStart[index];
+        int end = fieldEnd[index];
+        if (end >= 0) {
+            return new String(data, start, end - start, StandardCharsets.UTF_8);
+        }
+        String value = new String(data, start, -end - start, StandardCharsets.UTF_8);
+        return value.indexOf('"') < 0 ? value : value.replace("\"\"", "\"");
+    }
+
+    private int number(int index) {
+        int start = fieldStart[index];
+        int end = fieldEnd[index];
+        if (end <= start) {
+            throw new NumberFormatException();
+        }
+        boolean negative = data[start] == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end || end - i > 9) {
+            throw new NumberFormatException();
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException();
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private int skipSpaces(int from, int to) {
+        while (from < to && (data[from] == ' ' || data[from] == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
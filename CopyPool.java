@@ -0,0 +1,76 @@
+import java.util.Arrays;
+
+// Copy Pool Class
+// The copies of one title that are on the shelf. Copies are numbered from 1;
+// the free ones are kept on a stack, with each copy's position in it, so
+// taking any copy, taking a particular copy (when restoring a loan) and
+// putting one back are all O(1). Guarded by the owning book's lock stripe.
+class CopyPool {
+    private int copies;
+    private int[] free;      // stack of free copy numbers
+    private int[] position;  // copy number -> index in free + 1, 0 while on loan
+    private int freeCount;
+
+    // The first copy starts on the shelf or on loan as given
+    public CopyPool(boolean firstCopyFree) {
+        this.free = new int[4];
+        this.position = new int[5];
+        this.copies = 1;
+        if (firstCopyFree) {
+            push(1);
+        }
+    }
+
+    public int getCopies() { return copies; }
+    public int getFreeCount() { return freeCount; }
+
+    // Adds count new copies, all on the shelf
+    public void grow(int count) {
+        int total = copies + count;
+        if (total >= position.length) {
+            position = Arrays.copyOf(position, Math.max(total + 1, position.length * 2));
+        }
+        if (total > free.length) {
+            free = Arrays.copyOf(free, Math.max(total, free.length * 2));
+        }
+        for (int copy = copies + 1; copy <= total; copy++) {
+            push(copy);
+        }
+        copies = total;
+    }
+
+    // Takes a free copy, or returns 0 if none is left
+    public int take() {
+        if (freeCount == 0) {
+            return 0;
+        }
+        int copy = free[--freeCount];
+        position[copy] = 0;
+        return copy;
+    }
+
+    // Takes the given copy; false if it doesn't exist or is already out
+    public boolean take(int copy) {
+        if (copy < 1 || copy > copies || position[copy] == 0) {
+            return false;
+        }
+        // Move the top of the stack into the taken copy's place
+        int index = position[copy] - 1;
+        int last = free[--freeCount];
+        free[index] = last;
+        position[last] = index + 1;
+        position[copy] = 0;
+        return true;
+    }
+
+    public void put(int copy) {
+        if (copy >= 1 && copy <= copies && position[copy] == 0) {
+            push(copy);
+        }
+    }
+
+    private void push(int copy) {
+        free[freeCount++] = copy;
+        position[copy] = freeCount;
+    }
+}
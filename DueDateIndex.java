@@ -0,0 +1,83 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Due Date Index Class
+// Active loans bucketed by due date (and ordered by item id within a day), so
+// overdue and due-soon queries only touch the loans in the requested date
+// range instead of the whole catalog, and can be read a page at a time.
+class DueDateIndex {
+    private ConcurrentSkipListMap<LocalDate, ConcurrentSkipListMap<String, Loan>> loansByDueDate;
+
+    public DueDateIndex() {
+        this.loansByDueDate = new ConcurrentSkipListMap<>();
+    }
+
+    public void add(Loan loan) {
+        loansByDueDate.compute(loan.getDueDate(), (date, loans) -> {
+            if (loans == null) {
+                loans = new ConcurrentSkipListMap<>();
+            }
+            loans.put(loan.getItemId(), loan);
+            return loans;
+        });
+    }
+
+    public void remove(Loan loan) {
+        loansByDueDate.computeIfPresent(loan.getDueDate(), (date, loans) -> {
+            loans.remove(loan.getItemId(), loan);
+            return loans.isEmpty() ? null : loans;
+        });
+    }
+
+    // Loans due before today, oldest first (same rule as Book.isOverdue)
+    public List<String> overdue(LocalDate today) {
+        return collect(loansByDueDate.headMap(today, false));
+    }
+
+    // Loans due between the two dates, inclusive, earliest first
+    public List<String> dueBetween(LocalDate from, LocalDate to) {
+        return collect(loansByDueDate.subMap(from, true, to, true));
+    }
+
+    public int countOverdue(LocalDate today) {
+        int count = 0;
+        for (Map<String, Loan> loans : loansByDueDate.headMap(today, false).values()) {
+            count += loans.size();
+        }
+        return count;
+    }
+
+    // Up to limit loans due in [from, to), ordered by due date then item id,
+    // resuming after (afterDate, afterItem) when afterDate is not null
+    public List<Loan> page(LocalDate from, LocalDate to, LocalDate afterDate, String afterItem, int limit) {
+        List<Loan> page = new ArrayList<>(limit);
+        LocalDate start = afterDate != null && afterDate.isAfter(from) ? afterDate : from;
+        if (!start.isBefore(to)) {
+            return page;
+        }
+        for (Map.Entry<LocalDate, ConcurrentSkipListMap<String, Loan>> bucket
+                : loansByDueDate.subMap(start, true, to, false).entrySet()) {
+            Map<String, Loan> loans = bucket.getKey().equals(afterDate)
+                    ? bucket.getValue().tailMap(afterItem, false)
+                    : bucket.getValue();
+            for (Loan loan : loans.values()) {
+                page.add(loan);
+                if (page.size() == limit) {
+                    return page;
+                }
+            }
+        }
+        return page;
+    }
+
+    private static List<String> collect(Map<LocalDate, ConcurrentSkipListMap<String, Loan>> range) {
+        List<String> isbns = new ArrayList<>();
+        for (Map<String, Loan> loans : range.values()) {
+            for (Loan loan : loans.values()) {
+                isbns.add(loan.getIsbn()); // once per copy
+            }
+        }
+        return isbns;
+    }
+}
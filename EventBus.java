@@ -0,0 +1,221 @@
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Event Bus Class
+// In-process change feed for a Library. Publishers claim the next sequence
+// number with a CAS on the cursor, store the event in that slot of a fixed
+// ring buffer and mark the slot published; nothing takes a lock. Each
+// subscriber runs on its own thread and drains every event published since
+// its last batch in one go, so a busy consumer catches up in large batches.
+//
+// The ring never overwrites an event a subscriber hasn't consumed. When it is
+// full, publishers either wait for the slowest subscriber (BLOCK, so no event
+// is lost and a slow consumer pushes back on the library) or drop the event
+// and count it (DROP, so the library never waits on a consumer).
+class EventBus implements AutoCloseable {
+    enum Overflow { BLOCK, DROP }
+
+    interface Handler {
+        // Called with consecutive events in sequence order; a handler that
+        // throws gets the same batch again after a pause, and after
+        // MAX_ATTEMPTS failures one event at a time, skipping any it still
+        // throws on (so one bad event can't stall the bus)
+        void onEvents(List<LibraryEvent> batch) throws Exception;
+    }
+
+    private static final int MAX_BATCH = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long RETRY_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int MAX_ATTEMPTS = 5;
+
+    private AtomicReferenceArray<LibraryEvent> slots;
+    private AtomicLongArray published; // sequence last published into each slot
+    private int mask;
+    private Overflow overflow;
+    private AtomicLong cursor;         // last claimed sequence
+    private volatile long gatingCache; // recent minConsumed(), so most publishes skip the scan
+    private List<Subscriber> subscribers;
+    private LongAdder dropped;
+    private LongAdder skipped;
+    private volatile boolean closed;
+
+    public EventBus(int capacity, Overflow overflow) {
+        this(capacity, overflow, 0);
+    }
+
+    // Sequences start at firstSequence, e.g. to continue an EventLog's offsets
+    public EventBus(int capacity, Overflow overflow, long firstSequence) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        this.mask = size - 1;
+        this.overflow = overflow;
+        this.cursor = new AtomicLong(firstSequence - 1);
+        this.gatingCache = firstSequence - 1;
+        this.subscribers = new CopyOnWriteArrayList<>();
+        this.dropped = new LongAdder();
+        this.skipped = new LongAdder();
+    }
+
+    // Starts a consumer thread that sees every event published from now on
+    public void subscribe(String name, Handler handler) {
+        Subscriber subscriber = new Subscriber(name, handler, cursor.get());
+        subscribers.add(subscriber);
+        subscriber.thread.start();
+    }
+
+    // Returns false if the event was dropped because the ring was full (DROP only)
+    public boolean publish(LibraryEvent event) {
+        if (closed) {
+            return false;
+        }
+        int capacity = mask + 1;
+        long sequence;
+        int waits = 0;
+        while (true) {
+            long current = cursor.get();
+            sequence = current + 1;
+            if (sequence - capacity > gatingCache && sequence - capacity > (gatingCache = minConsumed())) {
+                if (overflow == Overflow.DROP) {
+                    dropped.increment();
+                    return false;
+                }
+                // Ring full: spin briefly, then back off until the slowest subscriber moves
+                if (++waits < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                continue;
+            }
+            if (cursor.compareAndSet(current, sequence)) {
+                break;
+            }
+        }
+        event.setSequence(sequence);
+        int index = (int) sequence & mask;
+        slots.set(index, event);
+        published.set(index, sequence); // volatile write makes the event visible
+        return true;
+    }
+
+    public long getDroppedCount() { return dropped.sum(); }
+    // Events a subscriber's handler kept failing on and that were passed over
+    public long getSkippedCount() { return skipped.sum(); }
+
+    // Sequence of the last event published, or firstSequence - 1 if none yet
+    public long getCursor() { return cursor.get(); }
+
+    // Stops accepting events and waits for subscribers to drain what was published
+    @Override
+    public void close() {
+        closed = true;
+        for (Subscriber subscriber : subscribers) {
+            subscriber.running = false;
+            LockSupport.unpark(subscriber.thread);
+        }
+        for (Subscriber subscriber : subscribers) {
+            try {
+                subscriber.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Lowest sequence every subscriber has consumed; with no subscribers,
+    // events are discarded as soon as they're published
+    private long minConsumed() {
+        long min = Long.MAX_VALUE;
+        for (Subscriber subscriber : subscribers) {
+            min = Math.min(min, subscriber.consumed.get());
+        }
+        return min == Long.MAX_VALUE ? cursor.get() : min;
+    }
+
+    private class Subscriber implements Runnable {
+        private Handler handler;
+        private AtomicLong consumed; // last sequence handed to the handler successfully
+        private Thread thread;
+        private volatile boolean running = true;
+
+        Subscriber(String name, Handler handler, long start) {
+            this.handler = handler;
+            this.consumed = new AtomicLong(start);
+            this.thread = new Thread(this, "event-" + name);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<LibraryEvent> batch = new ArrayList<>();
+            long idlePark = IDLE_PARK_NANOS;
+            int attempts = 0; // failures of the batch at our position
+            while (true) {
+                // Collect the published run after our position; a slot still
+                // holding an older sequence means its publisher hasn't finished
+                long next = consumed.get() + 1;
+                batch.clear();
+                while (batch.size() < MAX_BATCH && published.get((int) next & mask) == next) {
+                    batch.add(slots.get((int) next & mask));
+                    next++;
+                }
+
+                if (batch.isEmpty()) {
+                    if (!running && consumed.get() >= cursor.get()) {
+                        return;
+                    }
+                    // Back off while idle, so a quiet bus costs next to nothing
+                    // and a busy one is drained in bigger batches
+                    LockSupport.parkNanos(idlePark);
+                    idlePark = Math.min(idlePark * 2, MAX_IDLE_PARK_NANOS);
+                    continue;
+                }
+                idlePark = IDLE_PARK_NANOS;
+
+                if (attempts == MAX_ATTEMPTS) {
+                    deliverOneByOne(batch);
+                    attempts = 0;
+                    continue;
+                }
+                try {
+                    handler.onEvents(Collections.unmodifiableList(batch));
+                    consumed.set(next - 1);
+                    attempts = 0;
+                } catch (Exception e) {
+                    attempts++;
+                    System.err.println("Event subscriber " + thread.getName() + " failed, retrying: " + e);
+                    if (!running) {
+                        return; // shutting down; the events stay unconsumed
+                    }
+                    LockSupport.parkNanos(RETRY_PARK_NANOS);
+                }
+            }
+        }
+
+        // Each event once; one the handler throws on is skipped and counted
+        private void deliverOneByOne(List<LibraryEvent> batch) {
+            for (LibraryEvent event : batch) {
+                try {
+                    handler.onEvents(Collections.singletonList(event));
+                } catch (Exception e) {
+                    skipped.increment();
+                    System.err.println("Event subscriber " + thread.getName() + " skipped event "
+                                       + event.getSequence() + " after " + MAX_ATTEMPTS + " failures: " + e);
+                }
+                consumed.set(event.getSequence());
+            }
+        }
+    }
+}
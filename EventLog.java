@@ -0,0 +1,192 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Event Log Class
+// File-backed EventBus subscriber that keeps every event so downstream
+// consumers can replay the feed from any offset (an event's sequence number).
+// Each batch from the bus is appended with one write and one fsync. Events
+// live in segment files named after their first offset and rolled every
+// SEGMENT_EVENTS events, so a replay only opens the segments it needs:
+//   events-00000000000000000000.log, events-00000000000001048576.log, ...
+// Records are framed as [length][crc32][payload] like the library journal; a
+// torn record at the end of the last segment is dropped on open. An event
+// the bus skipped leaves a gap in the offsets.
+class EventLog implements EventBus.Handler, Closeable {
+    private static final long SEGMENT_EVENTS = 1 << 20;
+    private static final String PREFIX = "events-";
+    private static final String SUFFIX = ".log";
+
+    private Path directory;
+    private FileChannel channel;
+    private long segmentStart;
+    private long nextOffset;
+    private ByteArrayOutputStream buffer;
+    private DataOutputStream frames;
+    private DataOutputStream record;
+    private ByteArrayOutputStream recordBytes;
+    private CRC32 crc;
+
+    public EventLog(Path directory) throws IOException {
+        this.directory = directory;
+        this.buffer = new ByteArrayOutputStream(1 << 16);
+        this.frames = new DataOutputStream(buffer);
+        this.recordBytes = new ByteArrayOutputStream(256);
+        this.record = new DataOutputStream(recordBytes);
+        this.crc = new CRC32();
+        Files.createDirectories(directory);
+
+        List<Long> segments = listSegments();
+        if (segments.isEmpty()) {
+            openSegment(0);
+            return;
+        }
+        // Continue the last segment after its last intact record
+        long last = segments.get(segments.size() - 1);
+        long[] end = new long[] { last, 0 }; // next offset, valid byte length
+        scan(segmentPath(last), last, event -> { }, end);
+        this.segmentStart = last;
+        this.nextOffset = end[0];
+        this.channel = FileChannel.open(segmentPath(last), StandardOpenOption.WRITE);
+        channel.truncate(end[1]);
+        channel.position(end[1]);
+    }
+
+    // Offset the next appended event must have; start the EventBus here
+    public synchronized long getNextOffset() {
+        return nextOffset;
+    }
+
+    // nextOffset only moves past events once they are written, so a batch
+    // that fails part way can be handed in again
+    @Override
+    public synchronized void onEvents(List<LibraryEvent> batch) throws IOException {
+        buffer.reset();
+        long offset = nextOffset;
+        for (LibraryEvent event : batch) {
+            if (event.getSequence() < offset) {
+                throw new IOException("Event " + event.getSequence() + " out of order, expected " + offset);
+            }
+            if (event.getSequence() - segmentStart >= SEGMENT_EVENTS) {
+                flush();
+                channel.close();
+                openSegment(event.getSequence());
+            }
+            offset = event.getSequence();
+            recordBytes.reset();
+            event.writeTo(record);
+            byte[] payload = recordBytes.toByteArray();
+            crc.reset();
+            crc.update(payload, 0, payload.length);
+            frames.writeInt(payload.length);
+            frames.writeInt((int) crc.getValue());
+            frames.write(payload);
+            offset++;
+        }
+        flush();
+        nextOffset = offset;
+    }
+
+    // Calls the consumer with every stored event from the offset on, in order.
+    // Safe while the log is being appended to; it stops at the current end.
+    public void replay(long fromOffset, Consumer<LibraryEvent> consumer) throws IOException {
+        List<Long> segments = listSegments();
+        for (int i = 0; i < segments.size(); i++) {
+            boolean hasLater = i + 1 < segments.size();
+            if (hasLater && segments.get(i + 1) <= fromOffset) {
+                continue; // everything in this segment is before the offset
+            }
+            scan(segmentPath(segments.get(i)), segments.get(i), event -> {
+                if (event.getSequence() >= fromOffset) {
+                    consumer.accept(event);
+                }
+            }, new long[2]);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void flush() throws IOException {
+        if (buffer.size() == 0) {
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        channel.force(false);
+        buffer.reset();
+    }
+
+    private void openSegment(long start) throws IOException {
+        this.segmentStart = start;
+        this.nextOffset = start;
+        this.channel = FileChannel.open(segmentPath(start),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    // Reads intact records in order; end receives the next offset and the
+    // byte length of the intact prefix
+    private static void scan(Path path, long firstOffset, Consumer<LibraryEvent> consumer, long[] end)
+            throws IOException {
+        long offset = firstOffset;
+        long valid = 0;
+        CRC32 check = new CRC32();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            while (true) {
+                byte[] payload;
+                int checksum;
+                try {
+                    int length = in.readInt();
+                    checksum = in.readInt();
+                    if (length <= 0 || length > (1 << 20)) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break; // end of the log, or a record still being written
+                }
+                check.reset();
+                check.update(payload, 0, payload.length);
+                if ((int) check.getValue() != checksum) {
+                    break;
+                }
+                LibraryEvent event = LibraryEvent.readFrom(new DataInputStream(new ByteArrayInputStream(payload)));
+                consumer.accept(event);
+                offset = event.getSequence() + 1;
+                valid += 8 + payload.length;
+            }
+        }
+        end[0] = offset;
+        end[1] = valid;
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private Path segmentPath(long start) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, start, SUFFIX));
+    }
+}
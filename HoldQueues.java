@@ -0,0 +1,147 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Hold Queues Class
+// Members waiting for a copy of a title, first come first served. Each title
+// has a FIFO queue of member ids, and each member a set of the titles they
+// are waiting for (for member details and so members with holds aren't
+// deregistered).
+// A title's queue is only touched with the book's lock stripe held; a
+// member's set also changes only with that member's stripe held, except when
+// a removed book drops its queue.
+class HoldQueues {
+    private Map<String, ArrayDeque<String>> queues;
+    private Map<String, Set<String>> holdsByMember;
+
+    public HoldQueues() {
+        this.queues = new ConcurrentHashMap<>();
+        this.holdsByMember = new ConcurrentHashMap<>();
+    }
+
+    // Joins the end of the queue; false if the member is already in it
+    public boolean add(String isbn, String memberId) {
+        boolean[] added = new boolean[1];
+        holdsByMember.compute(memberId, (id, held) -> {
+            if (held == null) {
+                held = ConcurrentHashMap.newKeySet();
+            }
+            added[0] = held.add(isbn);
+            return held;
+        });
+        if (!added[0]) {
+            return false;
+        }
+        queues.computeIfAbsent(isbn, key -> new ArrayDeque<>()).addLast(memberId);
+        return true;
+    }
+
+    public boolean remove(String isbn, String memberId) {
+        Set<String> held = holdsByMember.get(memberId);
+        if (held == null || !held.contains(isbn)) {
+            return false;
+        }
+        ArrayDeque<String> queue = queues.get(isbn);
+        if (queue != null) {
+            queue.removeFirstOccurrence(memberId); // usually the head, so O(1)
+            if (queue.isEmpty()) {
+                queues.remove(isbn);
+            }
+        }
+        forget(memberId, isbn);
+        return true;
+    }
+
+    // Waiting members in order; remove() on the iterator gives up that hold
+    public Iterator<String> waiting(String isbn) {
+        ArrayDeque<String> queue = queues.get(isbn);
+        if (queue == null) {
+            return Collections.emptyIterator();
+        }
+        Iterator<String> members = queue.iterator();
+        return new Iterator<String>() {
+            private String current;
+
+            @Override
+            public boolean hasNext() {
+                return members.hasNext();
+            }
+
+            @Override
+            public String next() {
+                current = members.next();
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                members.remove();
+                forget(current, isbn);
+                if (queue.isEmpty()) {
+                    queues.remove(isbn);
+                }
+            }
+        };
+    }
+
+    // Drops the title's whole queue, e.g. when the book is removed
+    public void removeAll(String isbn) {
+        ArrayDeque<String> queue = queues.remove(isbn);
+        if (queue != null) {
+            for (String memberId : queue) {
+                forget(memberId, isbn);
+            }
+        }
+    }
+
+    public int queueLength(String isbn) {
+        ArrayDeque<String> queue = queues.get(isbn);
+        return queue == null ? 0 : queue.size();
+    }
+
+    // 1 for the head of the queue, 0 if the member isn't waiting
+    public int position(String isbn, String memberId) {
+        ArrayDeque<String> queue = queues.get(isbn);
+        if (queue == null) {
+            return 0;
+        }
+        int position = 1;
+        for (String waiting : queue) {
+            if (waiting.equals(memberId)) {
+                return position;
+            }
+            position++;
+        }
+        return 0;
+    }
+
+    public boolean isWaiting(String isbn, String memberId) {
+        Set<String> held = holdsByMember.get(memberId);
+        return held != null && held.contains(isbn);
+    }
+
+    public List<String> holdsOf(String memberId) {
+        Set<String> held = holdsByMember.get(memberId);
+        return held == null ? Collections.emptyList() : new ArrayList<>(held);
+    }
+
+    public int countHoldsOf(String memberId) {
+        Set<String> held = holdsByMember.get(memberId);
+        return held == null ? 0 : held.size();
+    }
+
+    // Every queue, for snapshots; only call while no holds can change
+    public Map<String, List<String>> copyQueues() {
+        Map<String, List<String>> copy = new HashMap<>();
+        for (Map.Entry<String, ArrayDeque<String>> queue : queues.entrySet()) {
+            copy.put(queue.getKey(), new ArrayList<>(queue.getValue()));
+        }
+        return copy;
+    }
+
+    private void forget(String memberId, String isbn) {
+        holdsByMember.computeIfPresent(memberId, (id, held) -> {
+            held.remove(isbn);
+            return held.isEmpty() ? null : held;
+        });
+    }
+}
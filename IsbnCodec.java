@@ -0,0 +1,80 @@
+// ISBN Codec Class
+// Packs an ISBN string (ISBN-13 or ISBN-10, with or without hyphens) into a
+// single non-negative long and back, so catalogs can key on a primitive:
+//   bits  0-43  the digits as a number (10^13 < 2^44)
+//   bits 44-56  hyphen mask: bit i set = '-' after digit i
+//   bits 57-60  digit count, so leading zeros survive
+//   bit  61     trailing 'X' check digit (ISBN-10)
+// Returns -1 for strings that don't fit, which callers must store some other way.
+class IsbnCodec {
+    public static final long INVALID = -1;
+
+    private static final int MAX_DIGITS = 13;
+    private static final int MASK_SHIFT = 44;
+    private static final int COUNT_SHIFT = 57;
+    private static final long X_FLAG = 1L << 61;
+
+    private IsbnCodec() {
+    }
+
+    public static long encode(String isbn) {
+        long value = 0;
+        long hyphens = 0;
+        int digits = 0;
+        boolean checkX = false;
+
+        for (int i = 0; i < isbn.length(); i++) {
+            char c = isbn.charAt(i);
+            if (checkX) {
+                return INVALID; // 'X' must be last
+            }
+            if (c >= '0' && c <= '9') {
+                if (digits == MAX_DIGITS) {
+                    return INVALID;
+                }
+                value = value * 10 + (c - '0');
+                digits++;
+            } else if (c == '-') {
+                long bit = 1L << (digits - 1);
+                if (digits == 0 || (hyphens & bit) != 0) {
+                    return INVALID; // leading or doubled hyphen
+                }
+                hyphens |= bit;
+            } else if ((c == 'X' || c == 'x') && digits > 0) {
+                if (c == 'x') {
+                    return INVALID; // would decode as 'X'
+                }
+                checkX = true;
+            } else {
+                return INVALID;
+            }
+        }
+        if (digits == 0) {
+            return INVALID;
+        }
+        return value | (hyphens << MASK_SHIFT) | ((long) digits << COUNT_SHIFT) | (checkX ? X_FLAG : 0);
+    }
+
+    public static String decode(long packed) {
+        int digits = (int) ((packed >>> COUNT_SHIFT) & 0xF);
+        long hyphens = (packed >>> MASK_SHIFT) & ((1L << MAX_DIGITS) - 1);
+        long value = packed & ((1L << MASK_SHIFT) - 1);
+
+        char[] digitChars = new char[digits];
+        for (int i = digits - 1; i >= 0; i--) {
+            digitChars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        StringBuilder isbn = new StringBuilder(digits + 5);
+        for (int i = 0; i < digits; i++) {
+            isbn.append(digitChars[i]);
+            if ((hyphens & (1L << i)) != 0) {
+                isbn.append('-');
+            }
+        }
+        if ((packed & X_FLAG) != 0) {
+            isbn.append('X');
+        }
+        return isbn.toString();
+    }
+}
@@ -1,21 +1,111 @@
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.time.Clock;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 
 // Library Class
+// Safe to share between threads: books and members live in concurrent maps and
+// every check-then-act on a book or member runs under that key's lock stripe.
+// The catalog may instead be kept in a CatalogStore, in which case the books
+// map only holds the titles currently on loan, on hold or being changed.
 class Library {
+    private static final int LOCK_STRIPES = 1024;
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int RANKED_RESULTS = 10;
+    private static final int SUGGESTIONS = 5;
+    private static final int TOP_AUTHORS = 10;
+    private static final int INDEX_BATCH = 1024;
+
     private Map<String, Book> books;
+    private CatalogStore store;                        // null when every book is in books
+    private boolean persistentCatalog;                 // the store keeps catalog changes, not the journal
     private Map<String, Member> members;
+    private CatalogVersions versions;                  // book versions for snapshots, in ISBN order
+    private ConcurrentSkipListSet<String> memberOrder;
+    private MemberIndex memberIndex;                   // members by email, phone and name
+    private BorrowLimits borrowLimits;                 // per tier, shared by every registered member
+    private NGramIndex titleIndex;
+    private NGramIndex authorIndex;
+    private SearchEngine rankedIndex;                  // typo-tolerant, ranked title/author search
+    private PrefixIndex titleCompletions;              // type-ahead, weighted by times borrowed
+    private PrefixIndex authorCompletions;
+    private PrefixIndex isbnCompletions;               // keyed by ISBN digits, without hyphens
+    private LoanLedger ledger;
+    private HoldQueues holds;
+    private LockStripes bookLocks;
+    private LockStripes memberLocks;
     private Scanner scanner;
+    private int reportPageSize;
+    private LibraryJournal journal; // null when state is kept in memory only
+    private EventBus events;        // null when no one is listening for changes
+    private LibraryMetrics metrics;
+    private CatalogStatistics statistics;
+    private LoanHistory history;    // finished loans
+    private Clock clock;            // today's date for loans, due dates and reports
+    private CountDownLatch storeIndexed; // open while titles already in the store are being indexed
+    private AtomicBoolean indexingStarted;
 
     public Library() {
-        this.books = new HashMap<>();
-        this.members = new HashMap<>();
+        this(true);
+    }
+
+    public Library(boolean withSampleData) {
+        this(withSampleData, Clock.systemDefaultZone());
+    }
+
+    // With a clock of the caller's, e.g. a SimulatedClock to replay weeks of
+    // traffic in seconds
+    public Library(boolean withSampleData, Clock clock) {
+        this(withSampleData, clock, null);
+    }
+
+    // With the catalog in a store, e.g. a ColumnarCatalog. A title is loaded
+    // into a Book when it is lent, held or changed and let go once it is
+    // idle again. Titles already in the store are indexed for searching (and
+    // counted in the statistics) in the background once they are first
+    // needed; lookups and borrows work from the start.
+    public Library(boolean withSampleData, Clock clock, CatalogStore store) {
+        this.clock = clock;
+        this.books = new ConcurrentHashMap<>();
+        this.store = store;
+        this.persistentCatalog = store != null && store.isPersistent();
+        this.members = new ConcurrentHashMap<>();
+        this.versions = new CatalogVersions(books, store, this::unloadIfIdle);
+        this.memberOrder = new ConcurrentSkipListSet<>();
+        this.memberIndex = new MemberIndex();
+        this.borrowLimits = new BorrowLimits();
+        this.titleIndex = new NGramIndex();
+        this.authorIndex = new NGramIndex();
+        this.rankedIndex = new SearchEngine();
+        this.titleCompletions = new PrefixIndex();
+        this.authorCompletions = new PrefixIndex();
+        this.isbnCompletions = new PrefixIndex();
+        this.ledger = new LoanLedger();
+        this.holds = new HoldQueues();
+        this.bookLocks = new LockStripes(LOCK_STRIPES);
+        this.memberLocks = new LockStripes(LOCK_STRIPES);
         this.scanner = new Scanner(System.in);
-        initializeSampleData();
+        this.reportPageSize = DEFAULT_PAGE_SIZE;
+        this.statistics = new CatalogStatistics();
+        this.history = new LoanHistory();
+        this.metrics = new LibraryMetrics();
+        metrics.gauge("catalogSize", this::catalogSize);
+        metrics.gauge("members", members::size);
+        metrics.gauge("activeLoans", ledger::getActiveLoanCount);
+        metrics.gauge("overdueLoans", () -> ledger.countOverdue(today()));
+        this.storeIndexed = new CountDownLatch(store != null && store.size() > 0 ? 1 : 0);
+        this.indexingStarted = new AtomicBoolean();
+        if (withSampleData) {
+            initializeSampleData();
+        }
     }
 
-    private void initializeSampleData() {
+    void initializeSampleData() {
         // Add some sample books
         addBook(new Book("978-0134685991", "Effective Java", "Joshua Bloch", 2017));
         addBook(new Book("978-0596009205", "Head First Design Patterns", "Eric Freeman", 2004));
@@ -24,176 +114,1417 @@ class Library {
         addBook(new Book("978-1617291203", "Java 8 in Action", "Raoul-Gabriel Urma", 2014));
 
         // Add some sample members
-        registerMember(new Member("STU001", "Alice Johnson", "alice@school.edu", "555-0101"));
-        registerMember(new Member("STU002", "Bob Smith", "bob@school.edu", "555-0102"));
-        registerMember(new Member("STU003", "Carol Davis", "carol@school.edu", "555-0103"));
+        registerMember(new Member("STU001", "Alice Johnson", "alice@school.edu", "555-0101", MemberTier.STUDENT, clock));
+        registerMember(new Member("STU002", "Bob Smith", "bob@school.edu", "555-0102", MemberTier.STUDENT, clock));
+        registerMember(new Member("STU003", "Carol Davis", "carol@school.edu", "555-0103", MemberTier.STUDENT, clock));
+    }
+
+    public LibraryMetrics getMetrics() { return metrics; }
+    public Clock getClock() { return clock; }
+
+    public LocalDate today() {
+        return LocalDate.now(clock);
+    }
+
+    // A point-in-time view of the books and loans for reading without locks;
+    // close it when done
+    public LibrarySnapshot openSnapshot() {
+        return new LibrarySnapshot(versions, ledger, clock);
+    }
+    public CatalogStatistics getStatistics() {
+        startCatalogIndexing();
+        return statistics;
+    }
+    public LoanHistory getHistory() { return history; }
+
+    // False while titles that were already in the catalog store are not
+    // all indexed yet: searches and statistics don't cover all of them
+    public boolean isCatalogIndexed() {
+        return storeIndexed.getCount() == 0;
+    }
+
+    public void awaitCatalogIndexed() throws InterruptedException {
+        startCatalogIndexing();
+        storeIndexed.await();
+    }
+
+    // Titles already in the store are indexed in the background from the
+    // first search, suggestion or statistics request on, not at startup, so
+    // a library that only lends and returns never walks the store or holds
+    // its titles on the heap
+    private void startCatalogIndexing() {
+        if (storeIndexed.getCount() > 0 && indexingStarted.compareAndSet(false, true)) {
+            Thread indexer = new Thread(this::indexStoredBooks, "catalog-indexer");
+            indexer.setDaemon(true);
+            indexer.start();
+        }
+    }
+
+    // Persistence hooks; attach before the library is shared between threads
+    void attachJournal(LibraryJournal journal) {
+        this.journal = journal;
+    }
+
+    // Publishes every later change to the bus; attach after recovery so
+    // replayed history isn't published again. Events are published while the
+    // changed key's stripe is held, so changes to one book or member reach
+    // subscribers in the order they happened.
+    void attachEventBus(EventBus events) {
+        this.events = events;
+    }
+
+    // Keeps finished loans in the given archive; attach before recovery, so
+    // the journal can give back the loans it hadn't written yet
+    void attachHistory(LoanHistory history) {
+        this.history = history;
+    }
+
+    // With a store, views of its records, whose copy counts are kept in step
+    Collection<Book> allBooks() {
+        if (store == null) {
+            return books.values();
+        }
+        List<Book> all = new ArrayList<>(store.size());
+        store.forEachBook(all::add);
+        return all;
+    }
+
+    Collection<Member> allMembers() {
+        return members.values();
+    }
+
+    Collection<Loan> allLoans() {
+        return ledger.getActiveLoans();
+    }
+
+    // Only call while no holds can change (e.g. during a checkpoint)
+    Map<String, List<String>> copyHoldQueues() {
+        return holds.copyQueues();
+    }
+
+    // Recovery: these re-apply journaled changes exactly as recorded, without
+    // the checks and side effects (such as filling holds) of the public methods
+
+    // Re-creates a loan with its original dates (copy 0: any free copy)
+    void restoreLoan(String isbn, String memberId, LocalDate borrowDate, LocalDate dueDate) {
+        restoreLoan(isbn, memberId, 0, borrowDate, dueDate);
+    }
+
+    void restoreLoan(String isbn, String memberId, int copy, LocalDate borrowDate, LocalDate dueDate) {
+        Book book = loadBook(isbn);
+        Member member = members.get(memberId);
+        if (book != null && member != null && book.getLoanOf(memberId) == null) {
+            if (book.borrowBook(memberId, copy, borrowDate, dueDate) != null) {
+                statistics.loanOpened(book, ledger.countLoansOf(memberId));
+                versions.publish(book);
+            }
+            holds.remove(isbn, memberId); // a filled hold is journaled as the holder's borrow
+        }
+        unloadIfIdle(book);
+    }
+
+    // The return date is null in records logged before returns had one
+    void restoreReturn(String isbn, String memberId, LocalDate returnDate) {
+        Book book = loadBook(isbn);
+        Loan loan = book == null ? null : book.getLoanOf(memberId);
+        if (loan != null) {
+            versions.closing(book, loan);
+            book.returnBook(memberId);
+            statistics.loanClosed(book, ledger.countLoansOf(memberId));
+            versions.publish(book);
+            if (returnDate != null) {
+                history.recover(loan, returnDate);
+            }
+        }
+        unloadIfIdle(book);
+    }
+
+    void restoreCopies(String isbn, int count) {
+        Book book = loadBook(isbn);
+        if (book != null && count > 0) {
+            book.addCopies(count);
+            if (store != null) {
+                store.setCopies(isbn, book.getCopies());
+            }
+            statistics.copiesAdded(book, count);
+            versions.publish(book);
+        }
+        unloadIfIdle(book);
+    }
+
+    // Registers the member even if another has its email or phone, as it
+    // may have been before they had to be unique
+    void restoreMember(Member member) {
+        insertMember(member, true);
+    }
+
+    void restoreMemberContact(String memberId, String email, String phone) {
+        Member member = members.get(memberId);
+        if (member != null) {
+            member.setContact(email, phone);
+        }
+    }
+
+    void restoreBorrowLimit(MemberTier tier, int limit) {
+        borrowLimits.set(tier, limit);
+    }
+
+    Map<MemberTier, Integer> copyBorrowLimits() {
+        return borrowLimits.toMap();
+    }
+
+    void restoreHold(String isbn, String memberId, boolean placed) {
+        if (placed) {
+            holds.add(isbn, memberId);
+        } else {
+            holds.remove(isbn, memberId);
+        }
     }
 
     // Book Management Methods
     public boolean addBook(Book book) {
-        if (books.containsKey(book.getIsbn())) {
+        long seq;
+        beginMutation();
+        try {
+            seq = insertBook(book);
+        } finally {
+            endMutation();
+        }
+        if (seq < 0) {
             return false; // Book already exists
         }
-        books.put(book.getIsbn(), book);
+        awaitDurable(seq);
+        forceCatalog();
         return true;
     }
 
-    public boolean removeBook(String isbn) {
+    // False if the catalog store can't hold the book (e.g. a title longer
+    // than a MappedCatalog record), so addBook would refuse it
+    public boolean fitsCatalog(Book book) {
+        return store == null || store.fits(book);
+    }
+
+    // Adds a batch of books with a single wait on the journal; returns the
+    // books that were skipped because their ISBN already exists or the
+    // catalog store can't hold them (see fitsCatalog)
+    public List<Book> addBooks(List<Book> batch) {
+        List<Book> duplicates = new ArrayList<>();
+        long lastSeq = 0;
+        beginMutation();
+        try {
+            for (Book book : batch) {
+                long seq = insertBook(book);
+                if (seq < 0) {
+                    duplicates.add(book);
+                } else {
+                    lastSeq = Math.max(lastSeq, seq);
+                }
+            }
+        } finally {
+            endMutation();
+        }
+        awaitDurable(lastSeq);
+        if (duplicates.size() < batch.size()) {
+            forceCatalog();
+        }
+        return duplicates;
+    }
+
+    // Returns -1 if the ISBN is taken, otherwise the journal sequence (0 without a journal)
+    private long insertBook(Book book) {
+        String isbn = book.getIsbn();
+        int stripe = bookLocks.stripeFor(isbn);
+        bookLocks.lock(stripe);
+        try {
+            if ((store != null && store.contains(isbn)) || books.putIfAbsent(isbn, book) != null) {
+                return -1;
+            }
+            // In books before the store, so snapshot readers never take the
+            // new record for one that was there all along
+            if (store != null && !store.addBook(book)) {
+                books.remove(isbn);
+                return -1;
+            }
+            book.attach(ledger, ledger.allocateSlot());
+            statistics.bookAdded(book);
+            versions.publishAdded(book);
+            indexBook(book);
+            if (events != null) {
+                events.publish(LibraryEvent.bookAdded(clock.millis(), book));
+            }
+            long seq = journal != null && !persistentCatalog ? journal.logAddBook(book) : 0;
+            unloadIfIdle(book);
+            return seq;
+        } finally {
+            bookLocks.unlock(stripe);
+        }
+    }
+
+    private void indexBook(Book book) {
+        String isbn = book.getIsbn();
+        titleIndex.add(isbn, book.getTitle());
+        authorIndex.add(isbn, book.getAuthor());
+        rankedIndex.add(isbn, book.getTitle(), book.getAuthor());
+        titleCompletions.add(book.getTitle(), isbn, book.getTimesBorrowed());
+        authorCompletions.add(book.getAuthor(), isbn, book.getTimesBorrowed());
+        isbnCompletions.add(isbnDigits(isbn), isbn, book.getTimesBorrowed());
+    }
+
+    private void unindexBook(Book book) {
+        String isbn = book.getIsbn();
+        titleIndex.remove(isbn);
+        authorIndex.remove(isbn);
+        rankedIndex.remove(isbn);
+        titleCompletions.remove(book.getTitle(), isbn, book.getTimesBorrowed());
+        authorCompletions.remove(book.getAuthor(), isbn, book.getTimesBorrowed());
+        isbnCompletions.remove(isbnDigits(isbn), isbn, book.getTimesBorrowed());
+    }
+
+    // The library's Book for the ISBN, loaded from the store if it isn't in
+    // books; null if the catalog doesn't have it. For changing the book: the
+    // caller holds (or, during recovery, may skip) the book's stripe, which
+    // this takes again to load it.
+    private Book loadBook(String isbn) {
         Book book = books.get(isbn);
-        if (book != null && book.isAvailable()) {
+        if (book != null || store == null) {
+            return book;
+        }
+        int stripe = bookLocks.stripeFor(isbn);
+        bookLocks.lock(stripe);
+        try {
+            book = books.get(isbn);
+            if (book == null) {
+                book = store.searchByISBN(isbn);
+                if (book != null) {
+                    book.attach(ledger, ledger.allocateSlot());
+                    versions.publishStored(book);
+                    books.put(isbn, book);
+                    if (!rankedIndex.contains(isbn)) {
+                        indexBook(book); // ahead of the background indexing
+                        statistics.bookAdded(book);
+                    }
+                }
+            }
+            return book;
+        } finally {
+            bookLocks.unlock(stripe);
+        }
+    }
+
+    // With a store, lets go of a book that has nothing on loan and no one
+    // waiting, once no snapshot needs its older versions: its record in the
+    // store then says the same. Takes the book's stripe, which the caller
+    // holds already unless a snapshot closing hands the book back.
+    private void unloadIfIdle(Book book) {
+        if (store == null || book == null) {
+            return;
+        }
+        String isbn = book.getIsbn();
+        int stripe = bookLocks.stripeFor(isbn);
+        bookLocks.lock(stripe);
+        try {
+            if (books.get(isbn) == book && book.getAvailableCopies() == book.getCopies()
+                    && holds.queueLength(isbn) == 0 && versions.unload(book)) {
+                books.remove(isbn);
+                book.detach();
+                ledger.releaseSlot(book.getSlot());
+            }
+        } finally {
+            bookLocks.unlock(stripe);
+        }
+    }
+
+    // Indexes the titles that were in the store when the library opened, a
+    // batch at a time, so the store isn't locked while stripes are taken
+    private void indexStoredBooks() {
+        try {
+            List<Book> batch = new ArrayList<>(INDEX_BATCH);
+            int position = 0;
+            while (position >= 0) {
+                batch.clear();
+                position = store.scan(position, book -> {
+                    if (batch.size() == INDEX_BATCH) {
+                        return false;
+                    }
+                    batch.add(book);
+                    return true;
+                });
+                for (Book book : batch) {
+                    indexStored(book);
+                }
+            }
+        } finally {
+            storeIndexed.countDown();
+        }
+    }
+
+    private void indexStored(Book stored) {
+        String isbn = stored.getIsbn();
+        int stripe = bookLocks.stripeFor(isbn);
+        bookLocks.lock(stripe);
+        try {
+            // Skip it if it was loaded (and so indexed) or removed meanwhile
+            if (!rankedIndex.contains(isbn) && store.contains(isbn)) {
+                indexBook(stored);
+                statistics.bookAdded(stored);
+            }
+        } finally {
+            bookLocks.unlock(stripe);
+        }
+    }
+
+    boolean hasPersistentCatalog() {
+        return persistentCatalog;
+    }
+
+    // With a journal, a change to a persistent store is durable before the
+    // call returns, as a journaled change is; during recovery it is left to
+    // the checkpoint that follows
+    void forceCatalog() {
+        if (persistentCatalog && journal != null) {
+            store.force();
+        }
+    }
+
+    private int catalogSize() {
+        return store != null ? store.size() : books.size();
+    }
+
+    public boolean removeBook(String isbn) {
+        long seq = 0;
+        beginMutation();
+        int stripe = bookLocks.stripeFor(isbn);
+        bookLocks.lock(stripe);
+        try {
+            Book book = loadBook(isbn);
+            if (book == null || book.getAvailableCopies() < book.getCopies()) {
+                return false; // Book not found or a copy is currently borrowed
+            }
+            // Out of the store before books, for snapshot readers (see CatalogVersions)
+            if (store != null) {
+                store.removeBook(isbn);
+            }
             books.remove(isbn);
-            return true;
+            ledger.releaseSlot(book.getSlot());
+            book.detach();
+            statistics.bookRemoved(book);
+            versions.publishRemoval(book);
+            unindexBook(book);
+            if (journal != null && persistentCatalog) {
+                // The store keeps the removal; the journal only needs the holds it drops
+                for (Iterator<String> waiting = holds.waiting(isbn); waiting.hasNext(); ) {
+                    seq = journal.logCancelHold(isbn, waiting.next());
+                }
+            } else if (journal != null) {
+                seq = journal.logRemoveBook(isbn);
+            }
+            holds.removeAll(isbn);
+            if (events != null) {
+                events.publish(LibraryEvent.bookRemoved(clock.millis(), isbn));
+            }
+        } finally {
+            bookLocks.unlock(stripe);
+            endMutation();
         }
-        return false; // Book not found or currently borrowed
+        awaitDurable(seq);
+        forceCatalog();
+        return true;
     }
 
     // Member Management Methods
+    // False if the ID, or the email or phone, is already registered, or the
+    // member has no ID, name or tier; email and phone may be null
     public boolean registerMember(Member member) {
-        if (members.containsKey(member.getMemberId())) {
-            return false; // Member already exists
+        return insertMember(member, false);
+    }
+
+    private boolean insertMember(Member member, boolean shared) {
+        if (member.getMemberId() == null || member.getName() == null || member.getTier() == null) {
+            return false; // checked before anything changes, as the journal can't record it
+        }
+        long seq = 0;
+        beginMutation();
+        int stripe = memberLocks.stripeFor(member.getMemberId());
+        memberLocks.lock(stripe);
+        try {
+            if (members.containsKey(member.getMemberId()) || !member.attach(ledger, memberIndex, borrowLimits, shared)) {
+                return false; // Member already exists
+            }
+            members.put(member.getMemberId(), member);
+            memberOrder.add(member.getMemberId());
+            if (events != null) {
+                events.publish(LibraryEvent.memberRegistered(clock.millis(), member));
+            }
+            if (journal != null) {
+                seq = journal.logRegisterMember(member);
+            }
+        } finally {
+            memberLocks.unlock(stripe);
+            endMutation();
+        }
+        awaitDurable(seq);
+        return true;
+    }
+
+    // Null keeps the current email or phone. False if the member isn't
+    // registered, or another member has the email or phone.
+    public boolean updateMemberContact(String memberId, String email, String phone) {
+        long seq = 0;
+        beginMutation();
+        int stripe = memberLocks.stripeFor(memberId);
+        memberLocks.lock(stripe);
+        try {
+            Member member = members.get(memberId);
+            if (member == null || !member.setContact(email != null ? email : member.getEmail(),
+                                                     phone != null ? phone : member.getPhone())) {
+                return false;
+            }
+            if (events != null) {
+                events.publish(LibraryEvent.memberContactChanged(clock.millis(), member));
+            }
+            if (journal != null) {
+                seq = journal.logUpdateMemberContact(member);
+            }
+        } finally {
+            memberLocks.unlock(stripe);
+            endMutation();
         }
-        members.put(member.getMemberId(), member);
+        awaitDurable(seq);
         return true;
     }
 
     public boolean deregisterMember(String memberId) {
-        Member member = members.get(memberId);
-        if (member != null && member.getBorrowedBooks().isEmpty()) {
+        long seq = 0;
+        beginMutation();
+        int stripe = memberLocks.stripeFor(memberId);
+        memberLocks.lock(stripe);
+        try {
+            Member member = members.get(memberId);
+            if (member == null || member.getBorrowedCount() > 0 || holds.countHoldsOf(memberId) > 0) {
+                return false; // Member not found or has borrowed books or holds
+            }
             members.remove(memberId);
-            return true;
+            memberOrder.remove(memberId);
+            member.detach();
+            if (events != null) {
+                events.publish(LibraryEvent.memberDeregistered(clock.millis(), memberId));
+            }
+            if (journal != null) {
+                seq = journal.logDeregisterMember(memberId);
+            }
+        } finally {
+            memberLocks.unlock(stripe);
+            endMutation();
         }
-        return false; // Member not found or has borrowed books
+        awaitDurable(seq);
+        return true;
     }
 
-    // Borrowing and Returning Methods
-    public boolean borrowBook(String isbn, String memberId) {
-        Book book = books.get(isbn);
-        Member member = members.get(memberId);
+    public int getBorrowLimit(MemberTier tier) {
+        return borrowLimits.get(tier);
+    }
 
-        if (book == null) {
-            System.out.println("Book not found!");
-            return false;
+    // Applies to every member of the tier at once; members already over a
+    // lowered limit keep their loans but can't borrow more. Negative limits
+    // count as 0.
+    public void setBorrowLimit(MemberTier tier, int limit) {
+        long seq = 0;
+        beginMutation();
+        try {
+            // One change at a time, so the journal has them in the order they took effect
+            synchronized (borrowLimits) {
+                borrowLimits.set(tier, limit);
+                if (events != null) {
+                    events.publish(LibraryEvent.borrowLimitChanged(clock.millis(), tier, borrowLimits.get(tier)));
+                }
+                if (journal != null) {
+                    seq = journal.logSetBorrowLimit(tier, borrowLimits.get(tier));
+                }
+            }
+        } finally {
+            endMutation();
         }
-        if (member == null) {
-            System.out.println("Member not found!");
+        awaitDurable(seq);
+    }
+
+    // Adds more copies of a book already in the catalog; waiting members get
+    // the new copies straight away
+    public boolean addCopies(String isbn, int count) {
+        if (count < 1) {
             return false;
         }
-        if (!book.isAvailable()) {
-            System.out.println("Book is not available!");
-            return false;
+        long seq = 0;
+        beginMutation();
+        int stripe = bookLocks.stripeFor(isbn);
+        bookLocks.lock(stripe);
+        Book book = null;
+        try {
+            book = loadBook(isbn);
+            if (book == null) {
+                return false;
+            }
+            book.addCopies(count);
+            if (store != null) {
+                store.setCopies(isbn, book.getCopies());
+            }
+            statistics.copiesAdded(book, count);
+            versions.publish(book);
+            if (events != null) {
+                events.publish(LibraryEvent.copiesAdded(clock.millis(), isbn, book.getCopies()));
+            }
+            if (journal != null && !persistentCatalog) {
+                seq = journal.logAddCopies(isbn, count);
+            }
+            seq = Math.max(seq, fillHolds(book, null));
+        } finally {
+            unloadIfIdle(book);
+            bookLocks.unlock(stripe);
+            endMutation();
         }
-        if (!member.canBorrowMore()) {
-            System.out.println("Member has reached maximum borrowing limit (5 books)!");
+        awaitDurable(seq);
+        forceCatalog();
+        return true;
+    }
+
+    // Borrowing and Returning Methods
+    public boolean borrowBook(String isbn, String memberId) {
+        return reportBorrow(isbn, memberId, tryBorrow(isbn, memberId));
+    }
+
+    private boolean reportBorrow(String isbn, String memberId, CirculationResult result) {
+        if (!result.isSuccess()) {
+            System.out.println(result.getMessage());
             return false;
         }
 
-        book.borrowBook(memberId);
-        member.borrowBook(isbn);
-        System.out.println("Book borrowed successfully! Due date: " + 
-                         book.getDueDate().format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
+        Book book = searchByISBN(isbn);
+        Loan loan = book == null ? null : book.getLoanOf(memberId);
+        System.out.println("Book borrowed successfully!" + (loan == null ? "" : copyLabel(book, loan)) + " Due date: " +
+                         (loan == null ? "-" : loan.getDueDate().format(DateTimeFormatter.ofPattern("yyyy-MM-dd"))));
         return true;
     }
 
     public boolean returnBook(String isbn, String memberId) {
-        Book book = books.get(isbn);
-        Member member = members.get(memberId);
-
-        if (book == null) {
-            System.out.println("Book not found!");
+        List<Loan> issued = new ArrayList<>(1);
+        CirculationResult result = tryReturn(isbn, memberId, issued);
+        if (!result.isSuccess()) {
+            System.out.println(result.getMessage());
             return false;
         }
-        if (member == null) {
-            System.out.println("Member not found!");
-            return false;
+
+        if (result == CirculationResult.RETURNED_OVERDUE) {
+            System.out.println(result.getMessage());
         }
-        if (book.isAvailable() || !book.getBorrowedBy().equals(memberId)) {
-            System.out.println("This book was not borrowed by this member!");
-            return false;
+        System.out.println("Book returned successfully!");
+        for (Loan loan : issued) {
+            System.out.println("Hold filled: set" + copyLabel(searchByISBN(isbn), loan) + " aside for member "
+                               + loan.getMemberId() + ", who now has it on loan.");
+        }
+        return true;
+    }
+
+    // " (copy n)" for books with more than one copy
+    private static String copyLabel(Book book, Loan loan) {
+        return book != null && book.getCopies() > 1 ? " (copy " + loan.getCopy() + ")" : "";
+    }
+
+    // Same checks as borrowBook, without console output; timed and counted
+    // by outcome in the metrics
+    CirculationResult tryBorrow(String isbn, String memberId) {
+        long start = System.nanoTime();
+        CirculationResult result = attemptBorrow(isbn, memberId);
+        metrics.record(LibraryMetrics.Op.BORROW, result, start);
+        return result;
+    }
+
+    // The book and member stripes are held together so availability and the
+    // borrowing limit can't change between the check and the update. Members
+    // waiting ahead of the borrower in the book's hold queue are served first,
+    // so a walk-in only gets a copy nobody in line ahead of them can take.
+    private CirculationResult attemptBorrow(String isbn, String memberId) {
+        CirculationResult result;
+        long seq = 0;
+        beginMutation();
+        int bookStripe = bookLocks.stripeFor(isbn);
+        int memberStripe = memberLocks.stripeFor(memberId);
+        bookLocks.lock(bookStripe);
+        Book book = null;
+        try {
+            book = loadBook(isbn);
+            if (book != null) {
+                seq = fillHolds(book, null, Collections.singleton(memberId));
+            }
+            memberLocks.lock(memberStripe);
+            try {
+                Member member = members.get(memberId);
+                if (book == null) {
+                    result = CirculationResult.BOOK_NOT_FOUND;
+                } else if (member == null) {
+                    result = CirculationResult.MEMBER_NOT_FOUND;
+                } else if (book.getLoanOf(memberId) != null) {
+                    result = CirculationResult.ALREADY_HAS_COPY;
+                } else if (!book.isAvailable()) {
+                    result = CirculationResult.BOOK_NOT_AVAILABLE;
+                } else if (!member.canBorrowMore()) {
+                    result = CirculationResult.LIMIT_REACHED;
+                } else {
+                    result = CirculationResult.SUCCESS;
+                    seq = Math.max(seq, lend(book, memberId));
+                }
+            } finally {
+                memberLocks.unlock(memberStripe);
+            }
+        } finally {
+            unloadIfIdle(book); // loaded for nothing if the borrow was refused
+            bookLocks.unlock(bookStripe);
+            endMutation();
         }
+        awaitDurable(seq);
+        return result;
+    }
 
-        if (book.isOverdue()) {
-            System.out.println("Warning: Book was returned overdue!");
+    // Opens the loan of a free copy; called with the book's and member's
+    // stripes held after the checks have passed. Returns the journal sequence.
+    private long lend(Book book, String memberId) {
+        Loan loan = book.borrowBook(memberId, today());
+        statistics.loanOpened(book, ledger.countLoansOf(memberId));
+        versions.publish(book);
+        holds.remove(book.getIsbn(), memberId); // no longer waiting, if they were
+        countBorrow(book);
+        if (events != null) {
+            events.publish(LibraryEvent.bookBorrowed(clock.millis(), loan));
         }
+        return journal != null ? journal.logBorrow(loan) : 0;
+    }
 
-        book.returnBook();
-        member.returnBook(isbn);
-        System.out.println("Book returned successfully!");
-        return true;
+    CirculationResult tryReturn(String isbn, String memberId) {
+        return tryReturn(isbn, memberId, null);
+    }
+
+    // As tryReturn; loans opened for waiting members with the returned copy
+    // are added to issued when it isn't null
+    CirculationResult tryReturn(String isbn, String memberId, List<Loan> issued) {
+        long start = System.nanoTime();
+        CirculationResult result = attemptReturn(isbn, memberId, issued);
+        metrics.record(LibraryMetrics.Op.RETURN, result, start);
+        return result;
+    }
+
+    private CirculationResult attemptReturn(String isbn, String memberId, List<Loan> issued) {
+        long seq = 0;
+        boolean overdue;
+        beginMutation();
+        int bookStripe = bookLocks.stripeFor(isbn);
+        int memberStripe = memberLocks.stripeFor(memberId);
+        bookLocks.lock(bookStripe);
+        Book book = null;
+        try {
+            memberLocks.lock(memberStripe);
+            try {
+                book = loadBook(isbn);
+                Member member = members.get(memberId);
+
+                if (book == null) {
+                    return CirculationResult.BOOK_NOT_FOUND;
+                }
+                if (member == null) {
+                    return CirculationResult.MEMBER_NOT_FOUND;
+                }
+                Loan loan = book.getLoanOf(memberId);
+                if (loan == null) {
+                    return CirculationResult.NOT_BORROWED_BY_MEMBER;
+                }
+
+                LocalDate today = today();
+                overdue = loan.isOverdue(today);
+                versions.closing(book, loan);
+                book.returnBook(memberId);
+                statistics.loanClosed(book, ledger.countLoansOf(memberId));
+                versions.publish(book);
+                history.record(loan, today);
+                if (events != null) {
+                    events.publish(LibraryEvent.bookReturned(clock.millis(), isbn, memberId, overdue));
+                }
+                if (journal != null) {
+                    seq = journal.logReturn(isbn, memberId, today);
+                }
+            } finally {
+                memberLocks.unlock(memberStripe);
+            }
+            // The returner's stripe is released first: the holder's is taken
+            // on its own, in the same book-then-member order as a borrow
+            seq = Math.max(seq, fillHolds(book, issued));
+        } finally {
+            unloadIfIdle(book);
+            bookLocks.unlock(bookStripe);
+            endMutation();
+        }
+        awaitDurable(seq);
+        return overdue ? CirculationResult.RETURNED_OVERDUE : CirculationResult.SUCCESS;
+    }
+
+    // Lends free copies of the book to waiting members, first come first
+    // served. A member at their borrowing limit keeps their place for the next
+    // copy. Called with the book's stripe held and no member stripe; returns
+    // the last journal sequence written (0 if none).
+    private long fillHolds(Book book, List<Loan> issued) {
+        return fillHolds(book, issued, Collections.emptySet());
+    }
+
+    // As above, but stops at the first of the borrowers in the queue: they are
+    // about to borrow the book themselves, and members behind them wait
+    private long fillHolds(Book book, List<Loan> issued, Set<String> borrowers) {
+        long seq = 0;
+        Iterator<String> waiting = holds.waiting(book.getIsbn());
+        while (book.isAvailable() && waiting.hasNext()) {
+            String memberId = waiting.next();
+            if (borrowers.contains(memberId)) {
+                break;
+            }
+            int stripe = memberLocks.stripeFor(memberId);
+            memberLocks.lock(stripe);
+            try {
+                Member member = members.get(memberId);
+                if (member == null || !member.canBorrowMore()) {
+                    continue;
+                }
+                waiting.remove();
+                seq = lend(book, memberId);
+                if (issued != null) {
+                    issued.add(book.getLoanOf(memberId));
+                }
+            } finally {
+                memberLocks.unlock(stripe);
+            }
+        }
+        return seq;
+    }
+
+    // Holds: a member waits in line for the next copy of a book that has
+    // none on the shelf. Same locking as a borrow.
+    public CirculationResult placeHold(String isbn, String memberId) {
+        long seq = 0;
+        beginMutation();
+        int bookStripe = bookLocks.stripeFor(isbn);
+        int memberStripe = memberLocks.stripeFor(memberId);
+        bookLocks.lock(bookStripe);
+        memberLocks.lock(memberStripe);
+        Book book = null;
+        try {
+            book = loadBook(isbn);
+            if (book == null) {
+                return CirculationResult.BOOK_NOT_FOUND;
+            }
+            if (!members.containsKey(memberId)) {
+                return CirculationResult.MEMBER_NOT_FOUND;
+            }
+            if (book.getLoanOf(memberId) != null) {
+                return CirculationResult.ALREADY_HAS_COPY;
+            }
+            if (book.isAvailable()) {
+                return CirculationResult.COPY_AVAILABLE;
+            }
+            if (!holds.add(isbn, memberId)) {
+                return CirculationResult.ALREADY_ON_HOLD;
+            }
+            if (events != null) {
+                events.publish(LibraryEvent.holdPlaced(clock.millis(), isbn, memberId));
+            }
+            if (journal != null) {
+                seq = journal.logPlaceHold(isbn, memberId);
+            }
+        } finally {
+            unloadIfIdle(book);
+            memberLocks.unlock(memberStripe);
+            bookLocks.unlock(bookStripe);
+            endMutation();
+        }
+        awaitDurable(seq);
+        return CirculationResult.SUCCESS;
+    }
+
+    public CirculationResult cancelHold(String isbn, String memberId) {
+        long seq = 0;
+        beginMutation();
+        int bookStripe = bookLocks.stripeFor(isbn);
+        int memberStripe = memberLocks.stripeFor(memberId);
+        bookLocks.lock(bookStripe);
+        memberLocks.lock(memberStripe);
+        try {
+            if (!holds.remove(isbn, memberId)) {
+                return CirculationResult.NO_HOLD;
+            }
+            if (events != null) {
+                events.publish(LibraryEvent.holdCancelled(clock.millis(), isbn, memberId));
+            }
+            if (journal != null) {
+                seq = journal.logCancelHold(isbn, memberId);
+            }
+        } finally {
+            memberLocks.unlock(memberStripe);
+            bookLocks.unlock(bookStripe);
+            endMutation();
+        }
+        awaitDurable(seq);
+        return CirculationResult.SUCCESS;
+    }
+
+    // The member's place in the book's queue: 1 is next, 0 means not waiting
+    public int getHoldPosition(String isbn, String memberId) {
+        int stripe = bookLocks.stripeFor(isbn);
+        bookLocks.lock(stripe);
+        try {
+            return holds.position(isbn, memberId);
+        } finally {
+            bookLocks.unlock(stripe);
+        }
+    }
+
+    public int getHoldQueueLength(String isbn) {
+        int stripe = bookLocks.stripeFor(isbn);
+        bookLocks.lock(stripe);
+        try {
+            return holds.queueLength(isbn);
+        } finally {
+            bookLocks.unlock(stripe);
+        }
+    }
+
+    // ISBNs the member is waiting for
+    public List<String> getHolds(String memberId) {
+        return holds.holdsOf(memberId);
+    }
+
+    // Applies a batch of borrows and returns all together or not at all, e.g.
+    // a self-checkout scanning several books for one member. Every book and
+    // member stripe involved is held for the whole batch, so the requests are
+    // validated against each other (a member can't exceed the limit across the
+    // batch) and no other desk sees it half applied. Stripes are taken books
+    // first, each set in ascending order, matching the single-item methods.
+    // Copies returned by the batch then go to waiting members as in tryReturn.
+    public BatchResult circulate(List<CirculationRequest> requests) {
+        List<String> isbns = new ArrayList<>(requests.size());
+        List<String> memberIds = new ArrayList<>(requests.size());
+        for (CirculationRequest request : requests) {
+            isbns.add(request.getIsbn());
+            memberIds.add(request.getMemberId());
+        }
+        int[] bookStripes = bookLocks.stripesFor(isbns);
+        int[] memberStripes = memberLocks.stripesFor(memberIds);
+
+        Map<String, Set<String>> borrowers = new HashMap<>(); // ISBN -> members borrowing it in the batch
+        for (CirculationRequest request : requests) {
+            if (request.getType() == CirculationRequest.Type.BORROW) {
+                borrowers.computeIfAbsent(request.getIsbn(), k -> new HashSet<>()).add(request.getMemberId());
+            }
+        }
+
+        List<CirculationResult> results = new ArrayList<>(requests.size());
+        Book[] batchBooks = new Book[requests.size()];
+        boolean applied = false;
+        long seq = 0;
+        beginMutation();
+        bookLocks.lockAll(bookStripes);
+        try {
+            // As in a single borrow, members waiting ahead of the batch's
+            // borrowers are served first (a book with a queue is always loaded)
+            for (Map.Entry<String, Set<String>> entry : borrowers.entrySet()) {
+                if (holds.queueLength(entry.getKey()) > 0) {
+                    Book book = loadBook(entry.getKey());
+                    if (book != null) {
+                        seq = Math.max(seq, fillHolds(book, null, entry.getValue()));
+                    }
+                }
+            }
+            List<Book> returned = new ArrayList<>();
+            memberLocks.lockAll(memberStripes);
+            try {
+                applied = validateBatch(requests, batchBooks, results);
+                if (applied) {
+                    LocalDate today = today();
+                    List<Loan> loans = new ArrayList<>(requests.size());
+                    for (int i = 0; i < requests.size(); i++) {
+                        CirculationRequest request = requests.get(i);
+                        Book book = batchBooks[i];
+                        if (request.getType() == CirculationRequest.Type.BORROW) {
+                            Loan loan = book.borrowBook(request.getMemberId(), today);
+                            statistics.loanOpened(book, ledger.countLoansOf(request.getMemberId()));
+                            holds.remove(request.getIsbn(), request.getMemberId());
+                            countBorrow(book);
+                            loans.add(loan);
+                            if (events != null) {
+                                events.publish(LibraryEvent.bookBorrowed(clock.millis(), loan));
+                            }
+                        } else {
+                            versions.closing(book, book.getLoanOf(request.getMemberId()));
+                            Loan loan = book.returnBook(request.getMemberId());
+                            statistics.loanClosed(book, ledger.countLoansOf(request.getMemberId()));
+                            history.record(loan, today);
+                            boolean overdue = loan.isOverdue(today);
+                            if (overdue) {
+                                results.set(i, CirculationResult.RETURNED_OVERDUE);
+                            }
+                            loans.add(loan);
+                            returned.add(book);
+                            if (events != null) {
+                                events.publish(LibraryEvent.bookReturned(clock.millis(), loan.getIsbn(), loan.getMemberId(), overdue));
+                            }
+                        }
+                    }
+                    versions.publish(Arrays.asList(batchBooks));
+                    // One record for the whole batch, so recovery can't replay half of it
+                    if (journal != null && !requests.isEmpty()) {
+                        seq = Math.max(seq, journal.logCirculation(requests, loans, today));
+                    }
+                }
+            } finally {
+                memberLocks.unlockAll(memberStripes);
+            }
+            for (Book book : returned) {
+                seq = Math.max(seq, fillHolds(book, null));
+            }
+        } finally {
+            for (Book book : batchBooks) {
+                unloadIfIdle(book);
+            }
+            bookLocks.unlockAll(bookStripes);
+            endMutation();
+        }
+        awaitDurable(seq);
+        return new BatchResult(applied, results);
+    }
+
+    // Checks each request as if the earlier ones had been applied, filling in
+    // a result per request and the book it refers to; called with all the
+    // batch's stripes held
+    private boolean validateBatch(List<CirculationRequest> requests, Book[] batchBooks,
+                                  List<CirculationResult> results) {
+        Map<String, Integer> free = new HashMap<>();        // ISBN -> copies on the shelf after earlier requests
+        Map<String, Boolean> holding = new HashMap<>();     // ISBN + member -> has a copy after earlier requests
+        Map<String, Integer> pending = new HashMap<>();     // member -> loans gained earlier in the batch
+        boolean valid = true;
+
+        for (int i = 0; i < requests.size(); i++) {
+            CirculationRequest request = requests.get(i);
+            String isbn = request.getIsbn();
+            String memberId = request.getMemberId();
+            Book book = loadBook(isbn);
+            Member member = members.get(memberId);
+            batchBooks[i] = book;
+
+            CirculationResult result;
+            if (book == null) {
+                result = CirculationResult.BOOK_NOT_FOUND;
+            } else if (member == null) {
+                result = CirculationResult.MEMBER_NOT_FOUND;
+            } else {
+                String loanKey = isbn + '\n' + memberId;
+                Integer onShelf = free.get(isbn);
+                if (onShelf == null) {
+                    onShelf = book.getAvailableCopies();
+                }
+                Boolean hasCopy = holding.get(loanKey);
+                if (hasCopy == null) {
+                    hasCopy = book.getLoanOf(memberId) != null;
+                }
+                int gained = pending.getOrDefault(memberId, 0);
+
+                if (request.getType() == CirculationRequest.Type.BORROW) {
+                    if (hasCopy) {
+                        result = CirculationResult.ALREADY_HAS_COPY;
+                    } else if (onShelf == 0) {
+                        result = CirculationResult.BOOK_NOT_AVAILABLE;
+                    } else if (!member.canBorrowMore(gained)) {
+                        result = CirculationResult.LIMIT_REACHED;
+                    } else {
+                        result = CirculationResult.SUCCESS;
+                        free.put(isbn, onShelf - 1);
+                        holding.put(loanKey, true);
+                        pending.put(memberId, gained + 1);
+                    }
+                } else {
+                    if (!hasCopy) {
+                        result = CirculationResult.NOT_BORROWED_BY_MEMBER;
+                    } else {
+                        result = CirculationResult.SUCCESS;
+                        free.put(isbn, onShelf + 1);
+                        holding.put(loanKey, false);
+                        pending.put(memberId, gained - 1);
+                    }
+                }
+            }
+            results.add(result);
+            valid &= result.isSuccess();
+        }
+
+        if (!valid) {
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i).isSuccess()) {
+                    results.set(i, CirculationResult.NOT_APPLIED);
+                }
+            }
+        }
+        return valid;
+    }
+
+    private void beginMutation() {
+        if (journal != null) {
+            journal.beginMutation();
+        }
+    }
+
+    private void endMutation() {
+        if (journal != null) {
+            journal.endMutation();
+        }
+    }
+
+    // Waits for the journal outside the lock stripes, so other desks can keep
+    // working while this record's batch is forced to disk
+    private void awaitDurable(long seq) {
+        if (seq > 0) {
+            journal.awaitDurable(seq);
+        }
     }
 
     // Search Methods
-    public List<Book> searchByTitle(String title) {
-        return books.values().stream()
-                   .filter(book -> book.getTitle().toLowerCase().contains(title.toLowerCase()))
-                   .collect(ArrayList::new, (list, book) -> list.add(book), (list1, list2) -> list1.addAll(list2));
+    // Matches come from the live indexes and are read from one snapshot, so
+    // every result shows its book as of the same moment
+    public List<BookVersion> searchByTitle(String title) {
+        startCatalogIndexing();
+        long start = System.nanoTime();
+        List<BookVersion> result;
+        try (LibrarySnapshot snapshot = openSnapshot()) {
+            result = snapshot.getBooks(titleIndex.search(title));
+        }
+        metrics.record(LibraryMetrics.Op.SEARCH_TITLE, start);
+        return result;
+    }
+
+    public List<BookVersion> searchByAuthor(String author) {
+        startCatalogIndexing();
+        long start = System.nanoTime();
+        List<BookVersion> result;
+        try (LibrarySnapshot snapshot = openSnapshot()) {
+            result = snapshot.getBooks(authorIndex.search(author));
+        }
+        metrics.record(LibraryMetrics.Op.SEARCH_AUTHOR, start);
+        return result;
+    }
+
+    // The best matches for the query across titles and authors, best first.
+    // Tolerates typos ("Efective Jva"); "title:" or "author:" limits a word to one field.
+    public List<BookVersion> search(String query, int limit) {
+        startCatalogIndexing();
+        long start = System.nanoTime();
+        List<BookVersion> result = new ArrayList<>();
+        try (LibrarySnapshot snapshot = openSnapshot()) {
+            for (SearchEngine.Hit hit : rankedIndex.search(query, limit)) {
+                BookVersion book = snapshot.getBook(hit.getIsbn());
+                if (book != null) {
+                    result.add(book);
+                }
+            }
+        }
+        metrics.record(LibraryMetrics.Op.SEARCH_RANKED, start);
+        return result;
+    }
+
+    // Type-ahead: the most borrowed titles, authors or ISBNs starting with the prefix
+    public List<String> suggestTitles(String prefix, int limit) {
+        startCatalogIndexing();
+        return completionTexts(titleCompletions.complete(prefix, limit));
     }
 
-    public List<Book> searchByAuthor(String author) {
-        return books.values().stream()
-                   .filter(book -> book.getAuthor().toLowerCase().contains(author.toLowerCase()))
-                   .collect(ArrayList::new, (list, book) -> list.add(book), (list1, list2) -> list1.addAll(list2));
+    public List<String> suggestAuthors(String prefix, int limit) {
+        startCatalogIndexing();
+        return completionTexts(authorCompletions.complete(prefix, limit));
+    }
+
+    // The prefix may be typed with or without hyphens
+    public List<String> suggestIsbns(String prefix, int limit) {
+        startCatalogIndexing();
+        List<String> isbns = new ArrayList<>();
+        for (PrefixIndex.Completion completion : isbnCompletions.complete(isbnDigits(prefix), limit)) {
+            isbns.addAll(completion.getIds());
+        }
+        return isbns.size() > limit ? isbns.subList(0, limit) : isbns;
+    }
+
+    private static List<String> completionTexts(List<PrefixIndex.Completion> completions) {
+        List<String> texts = new ArrayList<>(completions.size());
+        for (PrefixIndex.Completion completion : completions) {
+            texts.add(completion.getText());
+        }
+        return texts;
+    }
+
+    private static String isbnDigits(String isbn) {
+        StringBuilder digits = new StringBuilder(isbn.length());
+        for (int i = 0; i < isbn.length(); i++) {
+            char c = isbn.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                digits.append(c);
+            }
+        }
+        return digits.toString();
+    }
+
+    // Called with the book's stripe held, right after it was borrowed
+    private void countBorrow(Book book) {
+        titleCompletions.addWeight(book.getTitle(), 1);
+        authorCompletions.addWeight(book.getAuthor(), 1);
+        isbnCompletions.addWeight(isbnDigits(book.getIsbn()), 1);
+    }
+
+    private List<Book> lookupBooks(List<String> isbns) {
+        List<Book> result = new ArrayList<>(isbns.size());
+        for (String isbn : isbns) {
+            Book book = searchByISBN(isbn);
+            if (book != null) {
+                result.add(book);
+            }
+        }
+        return result;
     }
 
+    // With a store, a title the library hasn't loaded comes back as a
+    // detached view of its record
     public Book searchByISBN(String isbn) {
-        return books.get(isbn);
+        Book book = books.get(isbn);
+        return book != null || store == null ? book : store.searchByISBN(isbn);
+    }
+
+    public Member getMember(String memberId) {
+        return memberId == null ? null : members.get(memberId);
+    }
+
+    // Patron lookups through the member index; null or empty if none match
+    public Member findMemberByEmail(String email) {
+        return getMember(memberIndex.findByEmail(email));
+    }
+
+    public Member findMemberByPhone(String phone) {
+        return getMember(memberIndex.findByPhone(phone));
+    }
+
+    // Members whose name, or a word in it, starts with the prefix
+    public List<Member> findMembersByName(String prefix, int limit) {
+        List<Member> found = new ArrayList<>();
+        for (String memberId : memberIndex.findByName(prefix, limit)) {
+            Member member = members.get(memberId);
+            if (member != null) {
+                found.add(member);
+            }
+        }
+        return found;
+    }
+
+    // Due Date Queries (answered from the due-date index, not the catalog)
+    public List<Book> getOverdueBooks() {
+        return lookupBooks(ledger.getOverdueIsbns(today()));
+    }
+
+    public List<Book> getBooksDueWithin(int days) {
+        LocalDate today = today();
+        return lookupBooks(ledger.getIsbnsDueBetween(today, today.plusDays(days)));
+    }
+
+    public int countOverdueBooks() {
+        return ledger.countOverdue(today());
+    }
+
+    // Loan Queries (answered from the loan ledger)
+    // Each title with at least one copy out, once however many copies are
+    public List<Book> getBorrowedBooks() {
+        Set<String> isbns = new LinkedHashSet<>();
+        for (Loan loan : ledger.getActiveLoans()) {
+            isbns.add(loan.getIsbn());
+        }
+        List<Book> result = new ArrayList<>(isbns.size());
+        for (String isbn : isbns) {
+            Book book = searchByISBN(isbn);
+            if (book != null) {
+                result.add(book);
+            }
+        }
+        return result;
+    }
+
+    public long countBorrowedBooks() {
+        return ledger.getActiveLoanCount();
+    }
+
+    // Titles with at least one copy on the shelf (from the running statistics)
+    public long countAvailableBooks() {
+        return getStatistics().getTitlesAvailable();
+    }
+
+    // Report Pages
+    // Each report is read a page at a time in a stable order. Pass the token
+    // from the previous page to continue, or null to start at the beginning.
+    // The metrics time each page.
+    // Book reports: each page is read from its own snapshot; to page through
+    // a whole report as of one moment, use openSnapshot() and its page methods
+    public ReportPage<BookVersion> pageAllBooks(String token, int pageSize) {
+        long start = System.nanoTime();
+        ReportPage<BookVersion> page;
+        try (LibrarySnapshot snapshot = openSnapshot()) {
+            page = snapshot.pageAllBooks(token, pageSize);
+        }
+        metrics.record(LibraryMetrics.Op.REPORT_ALL_BOOKS, start);
+        return page;
+    }
+
+    public ReportPage<BookVersion> pageAvailableBooks(String token, int pageSize) {
+        long start = System.nanoTime();
+        ReportPage<BookVersion> page;
+        try (LibrarySnapshot snapshot = openSnapshot()) {
+            page = snapshot.pageAvailableBooks(token, pageSize);
+        }
+        metrics.record(LibraryMetrics.Op.REPORT_AVAILABLE, start);
+        return page;
+    }
+
+    public ReportPage<BookVersion> pageBorrowedBooks(String token, int pageSize) {
+        long start = System.nanoTime();
+        ReportPage<BookVersion> page;
+        try (LibrarySnapshot snapshot = openSnapshot()) {
+            page = snapshot.pageBorrowedBooks(token, pageSize);
+        }
+        metrics.record(LibraryMetrics.Op.REPORT_BORROWED, start);
+        return page;
+    }
+
+    public ReportPage<BookVersion> pageOverdueBooks(String token, int pageSize) {
+        long start = System.nanoTime();
+        ReportPage<BookVersion> page;
+        try (LibrarySnapshot snapshot = openSnapshot()) {
+            page = snapshot.pageOverdueBooks(token, pageSize);
+        }
+        metrics.record(LibraryMetrics.Op.REPORT_OVERDUE, start);
+        return page;
+    }
+
+    public ReportPage<BookVersion> pageBooksDueWithin(int days, String token, int pageSize) {
+        long start = System.nanoTime();
+        ReportPage<BookVersion> page;
+        try (LibrarySnapshot snapshot = openSnapshot()) {
+            page = snapshot.pageBooksDueWithin(days, token, pageSize);
+        }
+        metrics.record(LibraryMetrics.Op.REPORT_DUE, start);
+        return page;
+    }
+
+    public ReportPage<Member> pageMembers(String token, int pageSize) {
+        long start = System.nanoTime();
+        NavigableSet<String> ids = token == null ? memberOrder : memberOrder.tailSet(token, false);
+        List<Member> items = new ArrayList<>(pageSize);
+        String last = null;
+        for (String memberId : ids) {
+            Member member = members.get(memberId);
+            last = memberId;
+            if (member != null) {
+                items.add(member);
+                if (items.size() == pageSize) {
+                    break;
+                }
+            }
+        }
+        metrics.record(LibraryMetrics.Op.REPORT_MEMBERS, start);
+        return new ReportPage<>(items, items.size() == pageSize ? last : null);
+    }
+
+    public int getReportPageSize() { return reportPageSize; }
+
+    public void setReportPageSize(int reportPageSize) {
+        this.reportPageSize = Math.max(1, reportPageSize);
     }
 
     // Display Methods
+    // Reports are streamed a page at a time, so memory use stays flat however
+    // large the catalog is. A book report reads one snapshot throughout, so
+    // its pages agree with each other however long the reader takes.
     public void displayAllBooks() {
-        if (books.isEmpty()) {
-            System.out.println("No books in the library.");
-            return;
+        try (LibrarySnapshot snapshot = openSnapshot()) {
+            showReport("ALL BOOKS", "No books in the library.",
+                       timed(LibraryMetrics.Op.REPORT_ALL_BOOKS, snapshot::pageAllBooks));
         }
-        System.out.println("\n=== ALL BOOKS ===");
-        books.values().forEach(System.out::println);
     }
 
     public void displayAvailableBooks() {
-        List<Book> availableBooks = books.values().stream()
-                                        .filter(Book::isAvailable)
-                                        .collect(ArrayList::new, (list, book) -> list.add(book), (list1, list2) -> list1.addAll(list2));
-        
-        if (availableBooks.isEmpty()) {
-            System.out.println("No books available.");
-            return;
+        try (LibrarySnapshot snapshot = openSnapshot()) {
+            showReport("AVAILABLE BOOKS", "No books available.",
+                       timed(LibraryMetrics.Op.REPORT_AVAILABLE, snapshot::pageAvailableBooks));
         }
-        System.out.println("\n=== AVAILABLE BOOKS ===");
-        availableBooks.forEach(System.out::println);
     }
 
     public void displayBorrowedBooks() {
-        List<Book> borrowedBooks = books.values().stream()
-                                       .filter(book -> !book.isAvailable())
-                                       .collect(ArrayList::new, (list, book) -> list.add(book), (list1, list2) -> list1.addAll(list2));
-        
-        if (borrowedBooks.isEmpty()) {
-            System.out.println("No books currently borrowed.");
-            return;
+        try (LibrarySnapshot snapshot = openSnapshot()) {
+            showReport("BORROWED BOOKS", "No books currently borrowed.",
+                       timed(LibraryMetrics.Op.REPORT_BORROWED, snapshot::pageBorrowedBooks));
         }
-        System.out.println("\n=== BORROWED BOOKS ===");
-        borrowedBooks.forEach(System.out::println);
     }
 
     public void displayAllMembers() {
-        if (members.isEmpty()) {
-            System.out.println("No members registered.");
-            return;
-        }
-        System.out.println("\n=== ALL MEMBERS ===");
-        members.values().forEach(System.out::println);
+        showReport("ALL MEMBERS", "No members registered.", this::pageMembers);
     }
 
     public void displayOverdueBooks() {
-        List<Book> overdueBooks = books.values().stream()
-                                      .filter(Book::isOverdue)
-                                      .collect(ArrayList::new, (list, book) -> list.add(book), (list1, list2) -> list1.addAll(list2));
-        
-        if (overdueBooks.isEmpty()) {
-            System.out.println("No overdue books.");
-            return;
+        try (LibrarySnapshot snapshot = openSnapshot()) {
+            showReport("OVERDUE BOOKS", "No overdue books.",
+                       timed(LibraryMetrics.Op.REPORT_OVERDUE, snapshot::pageOverdueBooks));
+        }
+    }
+
+    public void displayBooksDueWithin(int days) {
+        try (LibrarySnapshot snapshot = openSnapshot()) {
+            showReport("BOOKS DUE IN THE NEXT " + days + " DAYS", "No books due in the next " + days + " days.",
+                       timed(LibraryMetrics.Op.REPORT_DUE,
+                             (token, pageSize) -> snapshot.pageBooksDueWithin(days, token, pageSize)));
+        }
+    }
+
+    // Records each page's latency under the report's metric
+    private BiFunction<String, Integer, ReportPage<? extends ReportRow>> timed(
+            LibraryMetrics.Op op, BiFunction<String, Integer, ReportPage<? extends ReportRow>> pages) {
+        return (token, pageSize) -> {
+            long start = System.nanoTime();
+            ReportPage<? extends ReportRow> page = pages.apply(token, pageSize);
+            metrics.record(op, start);
+            return page;
+        };
+    }
+
+    private void showReport(String heading, String emptyMessage,
+                            BiFunction<String, Integer, ReportPage<? extends ReportRow>> pages) {
+        ReportWriter writer = new ReportWriter(System.out, today());
+        String token = null;
+        boolean firstPage = true;
+        while (true) {
+            ReportPage<? extends ReportRow> page = pages.apply(token, reportPageSize);
+            if (firstPage && page.getItems().isEmpty()) {
+                System.out.println(emptyMessage);
+                return;
+            }
+            if (firstPage) {
+                writer.writeText("\n=== " + heading + " ===");
+                firstPage = false;
+            }
+            for (ReportRow row : page.getItems()) {
+                writer.writeRow(row);
+            }
+            writer.flush();
+
+            if (!page.hasMore()) {
+                return;
+            }
+            System.out.print("-- Press Enter for more, or q to stop: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                return;
+            }
+            token = page.getNextToken();
         }
-        System.out.println("\n=== OVERDUE BOOKS ===");
-        overdueBooks.forEach(System.out::println);
     }
 
     public void displayMemberDetails(String memberId) {
@@ -204,21 +1535,43 @@ class Library {
         }
         
         System.out.println("\n=== MEMBER DETAILS ===");
-        System.out.println(member);
+        System.out.println(render(member));
         
-        if (!member.getBorrowedBooks().isEmpty()) {
+        List<String> borrowed = member.getBorrowedBooks(); // one snapshot for the whole listing
+        if (!borrowed.isEmpty()) {
             System.out.println("\nBorrowed Books:");
-            for (String isbn : member.getBorrowedBooks()) {
-                Book book = books.get(isbn);
-                if (book != null) {
-                    System.out.println("  - " + book.getTitle() + " (Due: " + 
-                                     book.getDueDate().format(DateTimeFormatter.ofPattern("yyyy-MM-dd")) + ")");
+            for (String isbn : borrowed) {
+                Book book = searchByISBN(isbn);
+                Loan loan = book == null ? null : book.getLoanOf(memberId);
+                if (loan != null) {
+                    System.out.println("  - " + book.getTitle() + copyLabel(book, loan) + " (Due: " + 
+                                     loan.getDueDate().format(DateTimeFormatter.ofPattern("yyyy-MM-dd")) + ")");
+                }
+            }
+        }
+
+        List<String> waiting = getHolds(memberId);
+        if (!waiting.isEmpty()) {
+            System.out.println("\nWaiting For:");
+            for (String isbn : waiting) {
+                Book book = searchByISBN(isbn);
+                int position = getHoldPosition(isbn, memberId);
+                if (book != null && position > 0) {
+                    System.out.println("  - " + book.getTitle() + " (Position in queue: " + position + ")");
                 }
             }
         }
     }
 
     // Console UI Methods
+
+    // A book or member as of the library's date, so overdue markers follow its clock
+    private String render(ReportRow row) {
+        StringBuilder out = new StringBuilder(128);
+        row.appendTo(out, today());
+        return out.toString();
+    }
+
     public void showMainMenu() {
         System.out.println("\n╔══════════════════════════════════════╗");
         System.out.println("║        LIBRARY MANAGEMENT SYSTEM     ║");
@@ -268,7 +1621,10 @@ class Library {
             System.out.println("2. Deregister Member");
             System.out.println("3. Display All Members");
             System.out.println("4. View Member Details");
-            System.out.println("5. Back to Main Menu");
+            System.out.println("5. Find Member");
+            System.out.println("6. Set Borrowing Limits");
+            System.out.println("7. Update Member Contact");
+            System.out.println("8. Back to Main Menu");
             System.out.print("Enter your choice: ");
 
             int choice = getIntInput();
@@ -286,6 +1642,15 @@ class Library {
                     viewMemberDetails();
                     break;
                 case 5:
+                    findMember();
+                    break;
+                case 6:
+                    setBorrowingLimits();
+                    break;
+                case 7:
+                    updateContact();
+                    break;
+                case 8:
                     return;
                 default:
                     System.out.println("Invalid choice! Please try again.");
@@ -300,7 +1665,9 @@ class Library {
             System.out.println("2. Return Book");
             System.out.println("3. Display Borrowed Books");
             System.out.println("4. Display Overdue Books");
-            System.out.println("5. Back to Main Menu");
+            System.out.println("5. Place Hold");
+            System.out.println("6. Cancel Hold");
+            System.out.println("7. Back to Main Menu");
             System.out.print("Enter your choice: ");
 
             int choice = getIntInput();
@@ -318,6 +1685,12 @@ class Library {
                     displayOverdueBooks();
                     break;
                 case 5:
+                    placeHoldProcess();
+                    break;
+                case 6:
+                    cancelHoldProcess();
+                    break;
+                case 7:
                     return;
                 default:
                     System.out.println("Invalid choice! Please try again.");
@@ -331,7 +1704,8 @@ class Library {
             System.out.println("1. Search by Title");
             System.out.println("2. Search by Author");
             System.out.println("3. Search by ISBN");
-            System.out.println("4. Back to Main Menu");
+            System.out.println("4. Search Title and Author (best matches)");
+            System.out.println("5. Back to Main Menu");
             System.out.print("Enter your choice: ");
 
             int choice = getIntInput();
@@ -346,6 +1720,9 @@ class Library {
                     searchBookByISBN();
                     break;
                 case 4:
+                    searchBooksRanked();
+                    break;
+                case 5:
                     return;
                 default:
                     System.out.println("Invalid choice! Please try again.");
@@ -361,7 +1738,12 @@ class Library {
             System.out.println("3. Borrowed Books");
             System.out.println("4. Overdue Books");
             System.out.println("5. All Members");
-            System.out.println("6. Back to Main Menu");
+            System.out.println("6. Books Due Soon");
+            System.out.println("7. Set Report Page Size (currently " + reportPageSize + ")");
+            System.out.println("8. Library Statistics");
+            System.out.println("9. Operation Metrics");
+            System.out.println("10. Loan History");
+            System.out.println("11. Back to Main Menu");
             System.out.print("Enter your choice: ");
 
             int choice = getIntInput();
@@ -382,6 +1764,26 @@ class Library {
                     displayAllMembers();
                     break;
                 case 6:
+                    System.out.print("Show books due within how many days? ");
+                    displayBooksDueWithin(getIntInput());
+                    break;
+                case 7:
+                    System.out.print("Enter rows per page: ");
+                    setReportPageSize(getIntInput());
+                    break;
+                case 8:
+                    displayStatistics();
+                    break;
+                case 9:
+                    displayMetrics();
+                    break;
+                case 10:
+                    System.out.print("Enter ISBN or Member ID: ");
+                    String id = scanner.nextLine().trim();
+                    System.out.print("Enter year (blank for all years): ");
+                    displayLoanHistory(id, scanner.nextLine().trim());
+                    break;
+                case 11:
                     return;
                 default:
                     System.out.println("Invalid choice! Please try again.");
@@ -389,13 +1791,94 @@ class Library {
         }
     }
 
+    // Read from the running totals, so it costs the same for any catalog size
+    public void displayStatistics() {
+        startCatalogIndexing();
+        System.out.println("\n=== LIBRARY STATISTICS ===");
+        if (!isCatalogIndexed()) {
+            System.out.println("(Still indexing the catalog: " + statistics.getTitles() + " of "
+                               + catalogSize() + " titles counted so far)");
+        }
+        System.out.printf("%-16s %d (%d available, %d with every copy out)%n", "Titles:",
+                          statistics.getTitles(), statistics.getTitlesAvailable(), statistics.getTitlesAllOut());
+        System.out.printf("%-16s %d (%d on the shelf, %d on loan, %d overdue)%n", "Copies:",
+                          statistics.getCopies(), statistics.getCopiesOnShelf(), statistics.getCopiesOnLoan(),
+                          ledger.countOverdue(today()));
+        long withLoans = statistics.countMembersWithLoans();
+        System.out.printf("%-16s %d (%d with loans)%n", "Members:", members.size(), withLoans);
+
+        System.out.println("\nMembers by loans held:");
+        System.out.printf("  %2d: %d%n", 0, Math.max(0, members.size() - withLoans));
+        for (Map.Entry<Integer, Long> count : statistics.getMembersByLoans().entrySet()) {
+            System.out.printf("  %2d: %d%n", count.getKey(), count.getValue());
+        }
+
+        System.out.printf("%n%-30s %8s %8s %8s%n", "Decade", "titles", "copies", "on loan");
+        for (Map.Entry<Integer, CatalogStatistics.Tally> decade : statistics.getDecades().entrySet()) {
+            CatalogStatistics.Tally tally = decade.getValue();
+            System.out.printf("%-30s %8d %8d %8d%n", decade.getKey() + "s",
+                              tally.getTitles(), tally.getCopies(), tally.getOnLoan());
+        }
+
+        System.out.printf("%n%-30s %8s %8s %8s%n", "Top authors (of " + statistics.countAuthors() + ")",
+                          "titles", "copies", "on loan");
+        for (Map.Entry<String, CatalogStatistics.Tally> author : statistics.getTopAuthors(TOP_AUTHORS)) {
+            CatalogStatistics.Tally tally = author.getValue();
+            System.out.printf("%-30s %8d %8d %8d%n", author.getKey(),
+                              tally.getTitles(), tally.getCopies(), tally.getOnLoan());
+        }
+    }
+
+    // Finished loans of a book, or of a member when the ID is a member's
+    public void displayLoanHistory(String id, String year) {
+        LocalDate from = null;
+        LocalDate to = null;
+        if (!year.isEmpty()) {
+            try {
+                from = LocalDate.of(Integer.parseInt(year), 1, 1);
+                to = from.plusYears(1).minusDays(1);
+            } catch (RuntimeException e) {
+                System.out.println("Invalid year!");
+                return;
+            }
+        }
+        boolean byMember = members.containsKey(id);
+        List<LoanRecord> loans = byMember ? history.getMemberHistory(id, from, to) : history.getBookHistory(id, from, to);
+        System.out.println("\n=== LOAN HISTORY: " + (byMember ? "MEMBER " : "ISBN ") + id
+                           + (from == null ? "" : " (" + year + ")") + " ===");
+        if (loans.isEmpty()) {
+            System.out.println("No finished loans found.");
+            return;
+        }
+        StringBuilder line = new StringBuilder(128);
+        LocalDate today = today();
+        for (LoanRecord loan : loans) {
+            line.setLength(0);
+            loan.appendTo(line, today);
+            System.out.println(line);
+        }
+        System.out.println(loans.size() + " loan(s)");
+    }
+
+    public void displayMetrics() {
+        System.out.println("\n=== OPERATION METRICS ===");
+        System.out.print(metrics.dump());
+    }
+
     // Helper methods for user input
     private void addNewBook() {
         System.out.print("Enter ISBN: ");
         String isbn = scanner.nextLine().trim();
         
-        if (books.containsKey(isbn)) {
-            System.out.println("Book with this ISBN already exists!");
+        Book existing = searchByISBN(isbn);
+        if (existing != null) {
+            System.out.println("Book with this ISBN already exists (" + existing.getTitle() + ", "
+                               + existing.getCopies() + " copies).");
+            System.out.print("Number of copies to add (0 to cancel): ");
+            int count = getIntInput();
+            if (count > 0 && addCopies(isbn, count)) {
+                System.out.println("Copies added successfully!");
+            }
             return;
         }
 
@@ -405,9 +1888,16 @@ class Library {
         String author = scanner.nextLine().trim();
         System.out.print("Enter publication year: ");
         int year = getIntInput();
+        System.out.print("Number of copies: ");
+        int copies = getIntInput();
 
         Book book = new Book(isbn, title, author, year);
-        if (addBook(book)) {
+        if (!fitsCatalog(book)) {
+            System.out.println("Title or author is too long for the catalog store.");
+        } else if (addBook(book)) {
+            if (copies > 1) {
+                addCopies(isbn, copies - 1);
+            }
             System.out.println("Book added successfully!");
         } else {
             System.out.println("Failed to add book!");
@@ -421,7 +1911,7 @@ class Library {
         if (removeBook(isbn)) {
             System.out.println("Book removed successfully!");
         } else {
-            System.out.println("Book not found or currently borrowed!");
+            System.out.println("Book not found or a copy is currently borrowed!");
         }
     }
 
@@ -438,10 +1928,22 @@ class Library {
         String name = scanner.nextLine().trim();
         System.out.print("Enter email: ");
         String email = scanner.nextLine().trim();
+        Member sameEmail = findMemberByEmail(email);
+        if (sameEmail != null) {
+            System.out.println("Member " + sameEmail.getMemberId() + " already has this email!");
+            return;
+        }
         System.out.print("Enter phone: ");
         String phone = scanner.nextLine().trim();
+        Member samePhone = findMemberByPhone(phone);
+        if (samePhone != null) {
+            System.out.println("Member " + samePhone.getMemberId() + " already has this phone number!");
+            return;
+        }
+        System.out.print("Member type (1. Student, 2. Staff): ");
+        MemberTier tier = getIntInput() == 2 ? MemberTier.STAFF : MemberTier.STUDENT;
 
-        Member member = new Member(memberId, name, email, phone);
+        Member member = new Member(memberId, name, email, phone, tier, clock);
         if (registerMember(member)) {
             System.out.println("Member registered successfully!");
         } else {
@@ -449,6 +1951,34 @@ class Library {
         }
     }
 
+    private void setBorrowingLimits() {
+        for (MemberTier tier : MemberTier.values()) {
+            System.out.print(tier.getDisplayName() + " limit (currently " + getBorrowLimit(tier) + "): ");
+            setBorrowLimit(tier, getIntInput());
+        }
+        System.out.println("Borrowing limits updated!");
+    }
+
+    private void updateContact() {
+        System.out.print("Enter member ID: ");
+        String memberId = scanner.nextLine().trim();
+        Member member = getMember(memberId);
+        if (member == null) {
+            System.out.println("Member not found!");
+            return;
+        }
+
+        System.out.print("Enter email (blank to keep " + member.getEmail() + "): ");
+        String email = scanner.nextLine().trim();
+        System.out.print("Enter phone (blank to keep " + member.getPhone() + "): ");
+        String phone = scanner.nextLine().trim();
+        if (updateMemberContact(memberId, email.isEmpty() ? null : email, phone.isEmpty() ? null : phone)) {
+            System.out.println("Contact details updated!");
+        } else {
+            System.out.println("Another member already has this email or phone number!");
+        }
+    }
+
     private void deregisterExistingMember() {
         System.out.print("Enter member ID to deregister: ");
         String memberId = scanner.nextLine().trim();
@@ -456,7 +1986,7 @@ class Library {
         if (deregisterMember(memberId)) {
             System.out.println("Member deregistered successfully!");
         } else {
-            System.out.println("Member not found or has borrowed books!");
+            System.out.println("Member not found or has borrowed books or holds!");
         }
     }
 
@@ -466,13 +1996,82 @@ class Library {
         displayMemberDetails(memberId);
     }
 
+    private void findMember() {
+        System.out.print("Enter email, phone or name: ");
+        displayMatchingMembers(scanner.nextLine().trim());
+    }
+
+    // An email (has an @), a phone number (digits and punctuation) or the
+    // start of a name
+    public void displayMatchingMembers(String query) {
+        List<Member> found = new ArrayList<>();
+        if (query.indexOf('@') >= 0) {
+            Member member = findMemberByEmail(query);
+            if (member != null) {
+                found.add(member);
+            }
+        } else if (query.matches("[0-9+()\\-. ]+") && MemberIndex.normalizePhone(query) != null) {
+            Member member = findMemberByPhone(query);
+            if (member != null) {
+                found.add(member);
+            }
+        } else if (!query.isEmpty()) {
+            found = findMembersByName(query, RANKED_RESULTS);
+        }
+
+        if (found.isEmpty()) {
+            System.out.println("No members found.");
+            return;
+        }
+        System.out.println("\n=== MATCHING MEMBERS ===");
+        for (Member member : found) {
+            System.out.println(render(member));
+        }
+    }
+
     private void borrowBookProcess() {
         System.out.print("Enter ISBN: ");
         String isbn = scanner.nextLine().trim();
         System.out.print("Enter member ID: ");
         String memberId = scanner.nextLine().trim();
         
-        borrowBook(isbn, memberId);
+        CirculationResult result = tryBorrow(isbn, memberId);
+        if (result == CirculationResult.BOOK_NOT_AVAILABLE) {
+            System.out.println("All copies are on loan (" + getHoldQueueLength(isbn) + " member(s) waiting).");
+            System.out.print("Place a hold for the next copy? (y/n): ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("y")) {
+                reportHold(isbn, memberId, placeHold(isbn, memberId));
+            }
+            return;
+        }
+        reportBorrow(isbn, memberId, result);
+    }
+
+    private void placeHoldProcess() {
+        System.out.print("Enter ISBN: ");
+        String isbn = scanner.nextLine().trim();
+        System.out.print("Enter member ID: ");
+        String memberId = scanner.nextLine().trim();
+
+        reportHold(isbn, memberId, placeHold(isbn, memberId));
+    }
+
+    private void cancelHoldProcess() {
+        System.out.print("Enter ISBN: ");
+        String isbn = scanner.nextLine().trim();
+        System.out.print("Enter member ID: ");
+        String memberId = scanner.nextLine().trim();
+
+        CirculationResult result = cancelHold(isbn, memberId);
+        System.out.println(result.isSuccess() ? "Hold cancelled successfully!" : result.getMessage());
+    }
+
+    private void reportHold(String isbn, String memberId, CirculationResult result) {
+        if (result.isSuccess()) {
+            System.out.println("Hold placed successfully! Position in queue: " + getHoldPosition(isbn, memberId));
+        } else {
+            System.out.println(result.getMessage());
+        }
     }
 
     private void returnBookProcess() {
@@ -488,9 +2087,10 @@ class Library {
         System.out.print("Enter title to search: ");
         String title = scanner.nextLine().trim();
         
-        List<Book> results = searchByTitle(title);
+        List<BookVersion> results = searchByTitle(title);
         if (results.isEmpty()) {
             System.out.println("No books found with that title.");
+            printSuggestions(suggestTitles(title, SUGGESTIONS));
         } else {
             System.out.println("\n=== SEARCH RESULTS ===");
             results.forEach(System.out::println);
@@ -501,15 +2101,29 @@ class Library {
         System.out.print("Enter author to search: ");
         String author = scanner.nextLine().trim();
         
-        List<Book> results = searchByAuthor(author);
+        List<BookVersion> results = searchByAuthor(author);
         if (results.isEmpty()) {
             System.out.println("No books found by that author.");
+            printSuggestions(suggestAuthors(author, SUGGESTIONS));
         } else {
             System.out.println("\n=== SEARCH RESULTS ===");
             results.forEach(System.out::println);
         }
     }
 
+    private void searchBooksRanked() {
+        System.out.print("Enter title and/or author words: ");
+        String query = scanner.nextLine().trim();
+
+        List<BookVersion> results = search(query, RANKED_RESULTS);
+        if (results.isEmpty()) {
+            System.out.println("No matching books found.");
+        } else {
+            System.out.println("\n=== BEST MATCHES ===");
+            results.forEach(System.out::println);
+        }
+    }
+
     private void searchBookByISBN() {
         System.out.print("Enter ISBN to search: ");
         String isbn = scanner.nextLine().trim();
@@ -517,9 +2131,16 @@ class Library {
         Book book = searchByISBN(isbn);
         if (book == null) {
             System.out.println("No book found with that ISBN.");
+            printSuggestions(suggestIsbns(isbn, SUGGESTIONS));
         } else {
             System.out.println("\n=== SEARCH RESULT ===");
-            System.out.println(book);
+            System.out.println(render(book));
+        }
+    }
+
+    private void printSuggestions(List<String> suggestions) {
+        if (!suggestions.isEmpty()) {
+            System.out.println("Did you mean: " + String.join(" / ", suggestions));
         }
     }
 
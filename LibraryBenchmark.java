@@ -0,0 +1,425 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Library Benchmark
+// Micro-benchmarks for the Library hot paths on generated catalogs. Follows
+// the JMH approach (warmup iterations, timed measurement iterations, results
+// consumed so the JIT can't drop them) and writes results in JMH's JSON
+// format, so runs can be diffed or loaded into the usual JMH viewers. Where
+// Maven is available, the same benchmarks run under JMH itself (see
+// jmh/LibraryJmhBenchmark.java); this runner needs nothing but the JDK.
+//
+//   java -Xmx12g LibraryBenchmark [--sizes 10000,1000000,10000000] [--warmup 3]
+//        [--iterations 5] [--time 1] [--threads 1] [--out benchmark-results.json]
+//        [--data <dir>]   journal the measured operations to a fresh directory under <dir>
+//        [--events true]  publish the measured operations to an EventBus with one subscriber
+//        [--shards 1,2,4,8] shard counts for the ShardedLibrary scaling run
+//                           (default: powers of two up to the core count)
+public class LibraryBenchmark {
+    static final String[] WORDS = {
+        "java", "effective", "patterns", "clean", "code", "design", "action", "concurrency",
+        "systems", "data", "structures", "algorithms", "modern", "practice", "guide", "learning",
+        "advanced", "network", "database", "compiler", "theory", "history", "science", "art"
+    };
+    static final String[] SURNAMES = {
+        "Bloch", "Freeman", "Martin", "Urma", "Goetz", "Knuth", "Fowler", "Beck", "Evans", "Gamma"
+    };
+    static final int MEMBERS = 10_000;
+    static final int BATCH_SIZE = 10_000;
+    private static final int SHARD_WINDOW = 256; // operations each client keeps in flight
+
+    private int warmupIterations = 3;
+    private int measurementIterations = 5;
+    private double iterationSeconds = 1.0;
+    private int threads = 1;
+    private Path dataDir; // null to benchmark in memory only
+    private boolean withEvents;
+    private List<Integer> shardCounts = defaultShardCounts();
+    private List<String> results = new ArrayList<>();
+    private volatile long sink; // keeps benchmark results observable
+
+    public static void main(String[] args) throws Exception {
+        LibraryBenchmark benchmark = new LibraryBenchmark();
+        List<Integer> sizes = new ArrayList<>(Collections.singletonList(10_000));
+        Path out = Paths.get("benchmark-results.json");
+
+        for (int i = 0; i < args.length - 1; i += 2) {
+            switch (args[i]) {
+                case "--sizes":
+                    sizes.clear();
+                    for (String size : args[i + 1].split(",")) {
+                        sizes.add(Integer.parseInt(size.trim()));
+                    }
+                    break;
+                case "--warmup":
+                    benchmark.warmupIterations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--iterations":
+                    benchmark.measurementIterations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--time":
+                    benchmark.iterationSeconds = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--threads":
+                    benchmark.threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--data":
+                    benchmark.dataDir = Paths.get(args[i + 1]);
+                    break;
+                case "--events":
+                    benchmark.withEvents = Boolean.parseBoolean(args[i + 1]);
+                    break;
+                case "--shards":
+                    benchmark.shardCounts.clear();
+                    for (String count : args[i + 1].split(",")) {
+                        benchmark.shardCounts.add(Integer.parseInt(count.trim()));
+                    }
+                    break;
+                case "--out":
+                    out = Paths.get(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        for (int size : sizes) {
+            benchmark.runAll(size);
+        }
+        Files.write(out, ("[\n" + String.join(",\n", benchmark.results) + "\n]\n").getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results written to " + out);
+    }
+
+    private void runAll(int catalogSize) throws Exception {
+        System.out.println("\n# Catalog size: " + catalogSize);
+        List<Book> catalog = generateCatalog(catalogSize, new Random(42));
+
+        // Bulk insertion builds a fresh library per iteration
+        measureThroughput("addBooks", catalogSize, "books/s", () -> {
+            Library library = new Library(false);
+            long start = System.nanoTime();
+            for (int from = 0; from < catalog.size(); from += BATCH_SIZE) {
+                library.addBooks(catalog.subList(from, Math.min(catalog.size(), from + BATCH_SIZE)));
+            }
+            return catalog.size() / ((System.nanoTime() - start) / 1e9);
+        });
+
+        Library library = new Library(false);
+        for (int from = 0; from < catalog.size(); from += BATCH_SIZE) {
+            library.addBooks(catalog.subList(from, Math.min(catalog.size(), from + BATCH_SIZE)));
+        }
+        for (int i = 0; i < MEMBERS; i++) {
+            library.registerMember(new Member(memberId(i), "Member " + i, "m" + i + "@school.edu", "555-" + i));
+        }
+        // 1% of the catalog on loan and overdue, so overdue queries have work to do
+        LocalDate today = library.today();
+        for (int i = 0; i < catalogSize / 100; i++) {
+            library.restoreLoan(catalog.get(i * 100).getIsbn(), memberId(i % MEMBERS),
+                                today.minusDays(30), today.minusDays(1 + i % 10));
+        }
+
+        // The journal is attached after setup, so it only records the measured operations
+        LibraryJournal journal = null;
+        if (dataDir != null) {
+            Files.createDirectories(dataDir);
+            journal = new LibraryJournal(Files.createTempDirectory(dataDir, "bench-" + catalogSize + "-"));
+            journal.recover(library);
+        }
+        EventBus events = null;
+        if (withEvents) {
+            events = new EventBus(1 << 16, EventBus.Overflow.BLOCK);
+            events.subscribe("benchmark", batch -> sink += batch.size());
+            library.attachEventBus(events);
+        }
+
+        String[] isbns = new String[catalogSize];
+        for (int i = 0; i < catalogSize; i++) {
+            isbns[i] = catalog.get(i).getIsbn();
+        }
+
+        measureThroughput("borrowReturn", catalogSize, "ops/s", () -> runThreads(threads, seed -> {
+            // Each op is a borrow plus the matching return, so loans don't pile up
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long ops = 0;
+            long deadline = System.nanoTime() + (long) (iterationSeconds * 1e9);
+            while (System.nanoTime() < deadline) {
+                for (int k = 0; k < 64; k++) {
+                    String isbn = isbns[random.nextInt(isbns.length)];
+                    String member = memberId(random.nextInt(MEMBERS));
+                    if (library.tryBorrow(isbn, member) == CirculationResult.SUCCESS) {
+                        library.tryReturn(isbn, member);
+                    }
+                    ops++;
+                }
+            }
+            return ops;
+        }) / iterationSeconds);
+
+        // Self-checkout: one member borrows five books and later returns them,
+        // item by item versus as two circulate batches. Scores count items.
+        measureThroughput("checkoutLoop", catalogSize, "items/s", () -> runThreads(threads, seed -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            String[] picked = new String[5];
+            long items = 0;
+            long deadline = System.nanoTime() + (long) (iterationSeconds * 1e9);
+            while (System.nanoTime() < deadline) {
+                String member = memberId(random.nextInt(MEMBERS));
+                for (int k = 0; k < picked.length; k++) {
+                    picked[k] = isbns[random.nextInt(isbns.length)];
+                    library.tryBorrow(picked[k], member);
+                }
+                for (String isbn : picked) {
+                    library.tryReturn(isbn, member);
+                }
+                items += 2 * picked.length;
+            }
+            return items;
+        }) / iterationSeconds);
+
+        measureThroughput("checkoutBatch", catalogSize, "items/s", () -> runThreads(threads, seed -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            List<CirculationRequest> borrows = new ArrayList<>();
+            List<CirculationRequest> returns = new ArrayList<>();
+            long items = 0;
+            long deadline = System.nanoTime() + (long) (iterationSeconds * 1e9);
+            while (System.nanoTime() < deadline) {
+                String member = memberId(random.nextInt(MEMBERS));
+                borrows.clear();
+                returns.clear();
+                for (int k = 0; k < 5; k++) {
+                    String isbn = isbns[random.nextInt(isbns.length)];
+                    borrows.add(new CirculationRequest(CirculationRequest.Type.BORROW, isbn, member));
+                    returns.add(new CirculationRequest(CirculationRequest.Type.RETURN, isbn, member));
+                }
+                if (library.circulate(borrows).isApplied()) {
+                    library.circulate(returns);
+                }
+                items += borrows.size() + returns.size();
+            }
+            return items;
+        }) / iterationSeconds);
+
+        measureLatency("searchByTitle", catalogSize, random -> {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            return library.searchByTitle(word.substring(0, 3 + random.nextInt(word.length() - 2))).size();
+        });
+        measureLatency("searchByAuthor", catalogSize, random ->
+                library.searchByAuthor(SURNAMES[random.nextInt(SURNAMES.length)]).size());
+        measureLatency("rankedSearch", catalogSize, random -> {
+            // One misspelt title word plus an author, as typed at the desk
+            String word = WORDS[random.nextInt(WORDS.length)];
+            int typo = 1 + random.nextInt(word.length() - 1);
+            String misspelt = word.substring(0, typo) + word.substring(typo + 1);
+            return library.search(misspelt + " " + SURNAMES[random.nextInt(SURNAMES.length)], 10).size();
+        });
+        measureLatency("suggestTitle", catalogSize, random -> {
+            // What a kiosk asks for after each of the first few keystrokes
+            String word = capitalize(WORDS[random.nextInt(WORDS.length)]);
+            return library.suggestTitles(word.substring(0, 1 + random.nextInt(3)), 10).size();
+        });
+        measureLatency("overdueList", catalogSize, random -> library.getOverdueBooks().size());
+        measureLatency("overdueCount", catalogSize, random -> library.countOverdueBooks());
+        if (journal != null) {
+            journal.close();
+        }
+        if (events != null) {
+            events.close();
+        }
+
+        measureShardScaling(catalogSize);
+    }
+
+    // Borrow/return throughput of a ShardedLibrary at each shard count, with
+    // one client thread per shard keeping a window of operations in flight.
+    // Most borrows cross shards (book and member hash apart), so the score
+    // includes the two-phase exchange.
+    private void measureShardScaling(int catalogSize) throws Exception {
+        double single = 0;
+        for (int shardCount : shardCounts) {
+            // Books attach to one library's ledger, so each run gets fresh ones
+            List<Book> catalog = generateCatalog(catalogSize, new Random(42));
+            try (ShardedLibrary sharded = new ShardedLibrary(shardCount)) {
+                for (int from = 0; from < catalog.size(); from += BATCH_SIZE) {
+                    sharded.addBooks(catalog.subList(from, Math.min(catalog.size(), from + BATCH_SIZE)));
+                }
+                for (int i = 0; i < MEMBERS; i++) {
+                    sharded.registerMember(new Member(memberId(i), "Member " + i, "m" + i + "@school.edu", "555-" + i));
+                }
+                String[] isbns = new String[catalogSize];
+                for (int i = 0; i < catalogSize; i++) {
+                    isbns[i] = catalog.get(i).getIsbn();
+                }
+                double score = measureThroughput("shardedBorrowReturn", shardCount, catalogSize, "ops/s",
+                        () -> runThreads(shardCount, seed -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    List<CompletableFuture<CirculationResult>> window = new ArrayList<>(SHARD_WINDOW);
+                    long ops = 0;
+                    long deadline = System.nanoTime() + (long) (iterationSeconds * 1e9);
+                    while (System.nanoTime() < deadline) {
+                        for (int k = 0; k < SHARD_WINDOW; k++) {
+                            String isbn = isbns[random.nextInt(isbns.length)];
+                            String member = memberId(random.nextInt(MEMBERS));
+                            window.add(sharded.borrowAsync(isbn, member).thenCompose(result ->
+                                    result == CirculationResult.SUCCESS
+                                            ? sharded.returnAsync(isbn, member)
+                                            : CompletableFuture.completedFuture(result)));
+                        }
+                        for (CompletableFuture<CirculationResult> op : window) {
+                            op.join();
+                        }
+                        ops += window.size();
+                        window.clear();
+                    }
+                    return ops;
+                }) / iterationSeconds);
+                if (single == 0) {
+                    single = score / shardCount;
+                }
+                System.out.printf("  %d shard(s): %.2fx the single-shard rate%n", shardCount, score / single);
+            }
+        }
+    }
+
+    private static List<Integer> defaultShardCounts() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> counts = new ArrayList<>();
+        for (int count = 1; count < cores; count *= 2) {
+            counts.add(count);
+        }
+        counts.add(cores);
+        return counts;
+    }
+
+    // Throughput benchmark: the task runs one iteration and returns its rate
+    private void measureThroughput(String name, int catalogSize, String unit, Callable<Double> iteration)
+            throws Exception {
+        measureThroughput(name, 0, catalogSize, unit, iteration);
+    }
+
+    // As above, for a ShardedLibrary with the given number of shards (0 for
+    // the plain Library); returns the mean score
+    private double measureThroughput(String name, int shardCount, int catalogSize, String unit,
+                                     Callable<Double> iteration) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration.call();
+        }
+        double[] scores = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            scores[i] = iteration.call();
+        }
+        return record(name, "thrpt", shardCount, catalogSize, unit, scores);
+    }
+
+    private interface TimedOp {
+        long run(Random random);
+    }
+
+    // Average-time benchmark: calls op in a loop for the iteration time
+    private void measureLatency(String name, int catalogSize, TimedOp op) {
+        Random random = new Random(7);
+        double[] scores = new double[measurementIterations];
+        for (int i = 0; i < warmupIterations + measurementIterations; i++) {
+            long ops = 0;
+            long consumed = 0;
+            long start = System.nanoTime();
+            long deadline = start + (long) (iterationSeconds * 1e9);
+            long now;
+            do {
+                consumed += op.run(random);
+                ops++;
+                now = System.nanoTime();
+            } while (now < deadline);
+            sink += consumed;
+            if (i >= warmupIterations) {
+                scores[i - warmupIterations] = (now - start) / 1e3 / ops;
+            }
+        }
+        record(name, "avgt", 0, catalogSize, "us/op", scores);
+    }
+
+    private interface Worker {
+        long run(int seed) throws Exception;
+    }
+
+    private static long runThreads(int count, Worker worker) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(count);
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int t = 0; t < count; t++) {
+                int seed = t;
+                futures.add(pool.submit(() -> worker.run(seed)));
+            }
+            long total = 0;
+            for (Future<Long> future : futures) {
+                total += future.get();
+            }
+            return total;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Appends one result in JMH's JSON layout and prints a summary line;
+    // returns the mean score
+    private double record(String name, String mode, int shardCount, int catalogSize, String unit, double[] scores) {
+        double mean = 0;
+        for (double score : scores) {
+            mean += score;
+        }
+        mean /= scores.length;
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean);
+        }
+        double stdDev = scores.length > 1 ? Math.sqrt(variance / (scores.length - 1)) : 0;
+        // 99.9% confidence half-width, normal approximation
+        double error = 3.29 * stdDev / Math.sqrt(scores.length);
+
+        System.out.printf("%-16s %-6s %14.3f ± %10.3f %s%n", name, mode, mean, error, unit);
+
+        StringBuilder raw = new StringBuilder();
+        for (int i = 0; i < scores.length; i++) {
+            raw.append(i == 0 ? "" : ", ").append(scores[i]);
+        }
+        results.add("  {\n"
+                + "    \"benchmark\": \"LibraryBenchmark." + name + "\",\n"
+                + "    \"mode\": \"" + mode + "\",\n"
+                + "    \"threads\": " + (shardCount > 0 ? shardCount : name.equals("borrowReturn") ? threads : 1) + ",\n"
+                + "    \"warmupIterations\": " + warmupIterations + ",\n"
+                + "    \"measurementIterations\": " + measurementIterations + ",\n"
+                + "    \"params\": { \"catalogSize\": \"" + catalogSize + "\", \"journal\": \"" + (dataDir != null) + "\", \"events\": \"" + withEvents + "\""
+                + (shardCount > 0 ? ", \"shards\": \"" + shardCount + "\"" : "") + " },\n"
+                + "    \"primaryMetric\": {\n"
+                + "      \"score\": " + mean + ",\n"
+                + "      \"scoreError\": " + error + ",\n"
+                + "      \"scoreUnit\": \"" + unit + "\",\n"
+                + "      \"rawData\": [[" + raw + "]]\n"
+                + "    }\n"
+                + "  }");
+        return mean;
+    }
+
+    // Shared with the JMH benchmarks in jmh/, so both measure the same catalogs
+    static List<Book> generateCatalog(int size, Random random) {
+        List<Book> catalog = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String title = capitalize(WORDS[random.nextInt(WORDS.length)]) + " "
+                    + capitalize(WORDS[random.nextInt(WORDS.length)]) + " " + (i % 97);
+            String author = "Author" + random.nextInt(50_000) + " " + SURNAMES[random.nextInt(SURNAMES.length)];
+            catalog.add(new Book(String.format("978-%010d", i), title, author, 1950 + random.nextInt(75)));
+        }
+        return catalog;
+    }
+
+    static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    static String memberId(int i) {
+        return "MEM" + i;
+    }
+}
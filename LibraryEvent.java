@@ -0,0 +1,299 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+
+// Library Event Class
+// One change to the library, as published on the EventBus. Immutable apart
+// from the sequence number, which the bus assigns before the event becomes
+// visible to consumers; the sequence doubles as the offset in an EventLog.
+class LibraryEvent {
+    enum Type {
+        BOOK_ADDED, BOOK_REMOVED, MEMBER_REGISTERED, MEMBER_DEREGISTERED, BOOK_BORROWED, BOOK_RETURNED,
+        COPIES_ADDED, HOLD_PLACED, HOLD_CANCELLED, BORROW_LIMIT_CHANGED, MEMBER_CONTACT_CHANGED
+    }
+
+    private Type type;
+    private long sequence;
+    private long timestamp; // epoch millis, from the publishing library's clock
+    private String isbn;
+    private String memberId;
+    private String title;
+    private String author;
+    private int year;
+    private String name;
+    private String email;
+    private String phone;
+    private MemberTier tier;
+    private LocalDate dueDate;
+    private boolean overdue;
+    private int copies;
+    private int borrowLimit;
+
+    private LibraryEvent(Type type, long timestamp) {
+        this.type = type;
+        this.timestamp = timestamp;
+    }
+
+    public static LibraryEvent bookAdded(long timestamp, Book book) {
+        LibraryEvent event = new LibraryEvent(Type.BOOK_ADDED, timestamp);
+        event.isbn = book.getIsbn();
+        event.title = book.getTitle();
+        event.author = book.getAuthor();
+        event.year = book.getPublicationYear();
+        return event;
+    }
+
+    public static LibraryEvent bookRemoved(long timestamp, String isbn) {
+        LibraryEvent event = new LibraryEvent(Type.BOOK_REMOVED, timestamp);
+        event.isbn = isbn;
+        return event;
+    }
+
+    public static LibraryEvent memberRegistered(long timestamp, Member member) {
+        LibraryEvent event = new LibraryEvent(Type.MEMBER_REGISTERED, timestamp);
+        event.memberId = member.getMemberId();
+        event.name = member.getName();
+        event.email = member.getEmail();
+        event.phone = member.getPhone();
+        event.tier = member.getTier();
+        return event;
+    }
+
+    public static LibraryEvent memberDeregistered(long timestamp, String memberId) {
+        LibraryEvent event = new LibraryEvent(Type.MEMBER_DEREGISTERED, timestamp);
+        event.memberId = memberId;
+        return event;
+    }
+
+    public static LibraryEvent bookBorrowed(long timestamp, Loan loan) {
+        LibraryEvent event = new LibraryEvent(Type.BOOK_BORROWED, timestamp);
+        event.isbn = loan.getIsbn();
+        event.memberId = loan.getMemberId();
+        event.dueDate = loan.getDueDate();
+        return event;
+    }
+
+    public static LibraryEvent bookReturned(long timestamp, String isbn, String memberId, boolean overdue) {
+        LibraryEvent event = new LibraryEvent(Type.BOOK_RETURNED, timestamp);
+        event.isbn = isbn;
+        event.memberId = memberId;
+        event.overdue = overdue;
+        return event;
+    }
+
+    public static LibraryEvent copiesAdded(long timestamp, String isbn, int copies) {
+        LibraryEvent event = new LibraryEvent(Type.COPIES_ADDED, timestamp);
+        event.isbn = isbn;
+        event.copies = copies;
+        return event;
+    }
+
+    public static LibraryEvent holdPlaced(long timestamp, String isbn, String memberId) {
+        LibraryEvent event = new LibraryEvent(Type.HOLD_PLACED, timestamp);
+        event.isbn = isbn;
+        event.memberId = memberId;
+        return event;
+    }
+
+    public static LibraryEvent holdCancelled(long timestamp, String isbn, String memberId) {
+        LibraryEvent event = new LibraryEvent(Type.HOLD_CANCELLED, timestamp);
+        event.isbn = isbn;
+        event.memberId = memberId;
+        return event;
+    }
+
+    public static LibraryEvent borrowLimitChanged(long timestamp, MemberTier tier, int borrowLimit) {
+        LibraryEvent event = new LibraryEvent(Type.BORROW_LIMIT_CHANGED, timestamp);
+        event.tier = tier;
+        event.borrowLimit = borrowLimit;
+        return event;
+    }
+
+    public static LibraryEvent memberContactChanged(long timestamp, Member member) {
+        LibraryEvent event = new LibraryEvent(Type.MEMBER_CONTACT_CHANGED, timestamp);
+        event.memberId = member.getMemberId();
+        event.email = member.getEmail();
+        event.phone = member.getPhone();
+        return event;
+    }
+
+    public Type getType() { return type; }
+    public long getSequence() { return sequence; }
+    public long getTimestamp() { return timestamp; }
+    public String getIsbn() { return isbn; }
+    public String getMemberId() { return memberId; }
+    public String getTitle() { return title; }
+    public String getAuthor() { return author; }
+    public int getYear() { return year; }
+    public String getName() { return name; }
+    public String getEmail() { return email; }
+    public String getPhone() { return phone; }
+    public MemberTier getTier() { return tier; }
+    public LocalDate getDueDate() { return dueDate; }
+    public boolean isOverdue() { return overdue; }
+    public int getCopies() { return copies; } // total copies after a COPIES_ADDED
+    public int getBorrowLimit() { return borrowLimit; } // the tier's new limit after a BORROW_LIMIT_CHANGED
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    // Binary form used by EventLog; only the fields of the event's type are
+    // written, a missing name, email or phone as 
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(sequence);
+        out.writeByte(type.ordinal());
+        out.writeLong(timestamp);
+        switch (type) {
+            case BOOK_ADDED:
+                out.writeUTF(isbn);
+                out.writeUTF(text(title));
+                out.writeUTF(text(author));
+                out.writeInt(year);
+                break;
+            case BOOK_REMOVED:
+                out.writeUTF(isbn);
+                break;
+            case MEMBER_REGISTERED:
+                out.writeUTF(memberId);
+                out.writeUTF(text(name));
+                out.writeUTF(text(email));
+                out.writeUTF(tier.name());
+                out.writeUTF(text(phone));
+                break;
+            case MEMBER_DEREGISTERED:
+                out.writeUTF(memberId);
+                break;
+            case BOOK_BORROWED:
+                out.writeUTF(isbn);
+                out.writeUTF(memberId);
+                out.writeLong(dueDate.toEpochDay());
+                break;
+            case BOOK_RETURNED:
+                out.writeUTF(isbn);
+                out.writeUTF(memberId);
+                out.writeBoolean(overdue);
+                break;
+            case COPIES_ADDED:
+                out.writeUTF(isbn);
+                out.writeInt(copies);
+                break;
+            case HOLD_PLACED:
+            case HOLD_CANCELLED:
+                out.writeUTF(isbn);
+                out.writeUTF(memberId);
+                break;
+            case BORROW_LIMIT_CHANGED:
+                out.writeUTF(tier.name());
+                out.writeInt(borrowLimit);
+                break;
+            case MEMBER_CONTACT_CHANGED:
+                out.writeUTF(memberId);
+                out.writeUTF(text(email));
+                out.writeUTF(text(phone));
+                break;
+        }
+    }
+
+    // From a stream holding just the one event, as EventLog's framing gives
+    static LibraryEvent readFrom(DataInputStream in) throws IOException {
+        long sequence = in.readLong();
+        int ordinal = in.readByte();
+        if (ordinal < 0 || ordinal >= Type.values().length) {
+            throw new IOException("Unknown event type " + ordinal);
+        }
+        LibraryEvent event = new LibraryEvent(Type.values()[ordinal], in.readLong());
+        event.sequence = sequence;
+        switch (event.type) {
+            case BOOK_ADDED:
+                event.isbn = in.readUTF();
+                event.title = in.readUTF();
+                event.author = in.readUTF();
+                event.year = in.readInt();
+                break;
+            case BOOK_REMOVED:
+                event.isbn = in.readUTF();
+                break;
+            case MEMBER_REGISTERED:
+                event.memberId = in.readUTF();
+                event.name = in.readUTF();
+                event.email = in.readUTF();
+                event.tier = readTier(in);
+                event.phone = in.available() > 0 ? in.readUTF() : null; // logged before the phone was
+                break;
+            case MEMBER_DEREGISTERED:
+                event.memberId = in.readUTF();
+                break;
+            case BOOK_BORROWED:
+                event.isbn = in.readUTF();
+                event.memberId = in.readUTF();
+                event.dueDate = LocalDate.ofEpochDay(in.readLong());
+                break;
+            case BOOK_RETURNED:
+                event.isbn = in.readUTF();
+                event.memberId = in.readUTF();
+                event.overdue = in.readBoolean();
+                break;
+            case COPIES_ADDED:
+                event.isbn = in.readUTF();
+                event.copies = in.readInt();
+                break;
+            case HOLD_PLACED:
+            case HOLD_CANCELLED:
+                event.isbn = in.readUTF();
+                event.memberId = in.readUTF();
+                break;
+            case BORROW_LIMIT_CHANGED:
+                event.tier = readTier(in);
+                event.borrowLimit = in.readInt();
+                break;
+            case MEMBER_CONTACT_CHANGED:
+                event.memberId = in.readUTF();
+                event.email = in.readUTF();
+                event.phone = in.readUTF();
+                break;
+        }
+        return event;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(96);
+        out.append('#').append(sequence).append(' ').append(type);
+        if (isbn != null) {
+            out.append(" isbn=").append(isbn);
+        }
+        if (memberId != null) {
+            out.append(" member=").append(memberId);
+        }
+        if (dueDate != null) {
+            out.append(" due=").append(dueDate);
+        }
+        if (type == Type.COPIES_ADDED) {
+            out.append(" copies=").append(copies);
+        }
+        if (type == Type.BOOK_RETURNED && overdue) {
+            out.append(" overdue");
+        }
+        if (type == Type.BORROW_LIMIT_CHANGED) {
+            out.append(" tier=").append(tier).append(" limit=").append(borrowLimit);
+        }
+        if (type == Type.MEMBER_CONTACT_CHANGED) {
+            out.append(" email=").append(email).append(" phone=").append(phone);
+        }
+        return out.toString();
+    }
+
+    private static String text(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static MemberTier readTier(DataInputStream in) throws IOException {
+        try {
+            return MemberTier.valueOf(in.readUTF());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown member tier", e);
+        }
+    }
+}
@@ -0,0 +1,737 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+// Library Journal Class
+// Write-ahead log plus periodic snapshots for a Library. Mutations append a
+// record while still holding their lock stripe (so per-key order matches the
+// log) and then wait, outside the lock, until a background flusher has forced
+// the batch containing it to disk. Callers arriving during an fsync share the
+// next one (group commit).
+//
+// On disk: snapshot.bin holds the full state as of the start of log segment N;
+// wal-N.log, wal-N+1.log, ... hold everything after it. Recovery loads the
+// snapshot and replays the segments in order. The snapshot also holds the
+// loan history's unsealed rows, and returns are logged with their date, so
+// recovery can put back the finished loans the history hadn't written.
+class LibraryJournal implements Closeable {
+    private static final int SNAPSHOT_MAGIC = 0x4C494236;        // "LIB6"
+    private static final int REQUIRED_CONTACT_SNAPSHOT_MAGIC = 0x4C494235; // "LIB5", every member with an email and phone
+    private static final int NO_HISTORY_SNAPSHOT_MAGIC = 0x4C494234; // "LIB4", without the loan history's open rows
+    private static final int DEFAULT_LIMITS_SNAPSHOT_MAGIC = 0x4C494233; // "LIB3", tiers at their default limits
+    private static final int SINGLE_COPY_SNAPSHOT_MAGIC = 0x4C494232; // "LIB2", no copies or holds
+    private static final int UNTIERED_SNAPSHOT_MAGIC = 0x4C494231; // "LIB1", members without a tier either
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+
+    private static final byte ADD_BOOK = 1;
+    private static final byte REMOVE_BOOK = 2;
+    private static final byte UNTIERED_REGISTER_MEMBER = 3; // written before member tiers
+    private static final byte DEREGISTER_MEMBER = 4;
+    private static final byte BORROW = 5;                   // written before multi-copy books
+    private static final byte RETURN = 6;                   // written before returns carried their date
+    private static final byte CIRCULATION_BATCH = 7;
+    private static final byte REQUIRED_CONTACT_REGISTER_MEMBER = 8; // written before email and phone were optional
+    private static final byte BORROW_COPY = 9;
+    private static final byte ADD_COPIES = 10;
+    private static final byte PLACE_HOLD = 11;
+    private static final byte CANCEL_HOLD = 12;
+    private static final byte SET_BORROW_LIMIT = 13;
+    private static final byte DATED_RETURN = 14;
+    private static final byte UPDATE_MEMBER_CONTACT = 15;
+    private static final byte REGISTER_MEMBER = 16;
+
+    private Path directory;
+    private FileChannel channel;
+    private long segment;
+
+    // Records appended since the last flush; swapped with spare on each flush
+    private ByteArrayOutputStream pending;
+    private ByteArrayOutputStream spare;
+    private DataOutputStream record;
+    private ByteArrayOutputStream recordBytes;
+    private CRC32 crc;
+
+    private long appendedSeq;
+    private long durableSeq;
+    private IOException failure;
+    private boolean closed;
+    private Thread flusher;
+
+    // Mutations hold the read side; a checkpoint takes the write side so the
+    // snapshot it copies lines up exactly with a segment boundary
+    private ReentrantReadWriteLock checkpointLock;
+    private ScheduledExecutorService compactor;
+    private Library library;
+
+    public LibraryJournal(Path directory) throws IOException {
+        this.directory = directory;
+        this.pending = new ByteArrayOutputStream(1 << 16);
+        this.spare = new ByteArrayOutputStream(1 << 16);
+        this.recordBytes = new ByteArrayOutputStream(256);
+        this.record = new DataOutputStream(recordBytes);
+        this.crc = new CRC32();
+        this.checkpointLock = new ReentrantReadWriteLock();
+        Files.createDirectories(directory);
+    }
+
+    // Rebuilds the library from the snapshot and log tail, then attaches this
+    // journal to it. Returns false if the directory held no previous state.
+    public boolean recover(Library library) throws IOException {
+        this.library = library;
+        long firstSegment = 1;
+        boolean existing = false;
+
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            firstSegment = readSnapshot(snapshot, library);
+            existing = true;
+        } else {
+            library.getHistory().startRecovery(null);
+        }
+
+        List<Long> segments = listSegments();
+        long lastSegment = firstSegment;
+        long validLength = 0;
+        for (long seg : segments) {
+            if (seg < firstSegment) {
+                continue;
+            }
+            validLength = replaySegment(segmentPath(seg), library);
+            lastSegment = seg;
+            existing = true;
+        }
+        library.getHistory().finishRecovery();
+
+        // Keep appending to the last segment, dropping any torn tail record
+        this.segment = lastSegment;
+        this.channel = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(validLength);
+        channel.position(validLength);
+
+        this.flusher = new Thread(this::flushLoop, "library-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        library.attachJournal(this);
+        if (existing && library.hasPersistentCatalog()) {
+            // Books in the snapshot or log from before the catalog had its own
+            // store are in it now; checkpoint so they aren't applied twice
+            checkpoint();
+        }
+        return existing;
+    }
+
+    // Writes a snapshot every intervalSeconds in the background
+    public void startCompactor(long intervalSeconds) {
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "library-journal-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                System.err.println("Snapshot failed: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    // Mutation bracketing, called by Library
+    void beginMutation() {
+        checkpointLock.readLock().lock();
+    }
+
+    void endMutation() {
+        checkpointLock.readLock().unlock();
+    }
+
+    // Log records; each returns a sequence number to pass to awaitDurable
+    long logAddBook(Book book) {
+        synchronized (this) {
+            try {
+                startRecord(ADD_BOOK);
+                record.writeUTF(book.getIsbn());
+                record.writeUTF(book.getTitle());
+                record.writeUTF(book.getAuthor());
+                record.writeInt(book.getPublicationYear());
+                return finishRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    long logRemoveBook(String isbn) {
+        return logKey(REMOVE_BOOK, isbn);
+    }
+
+    long logRegisterMember(Member member) {
+        synchronized (this) {
+            try {
+                startRecord(REGISTER_MEMBER);
+                writeMember(record, member);
+                return finishRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    long logDeregisterMember(String memberId) {
+        return logKey(DEREGISTER_MEMBER, memberId);
+    }
+
+    long logUpdateMemberContact(Member member) {
+        synchronized (this) {
+            try {
+                startRecord(UPDATE_MEMBER_CONTACT);
+                record.writeUTF(member.getMemberId());
+                writeOptional(record, member.getEmail());
+                writeOptional(record, member.getPhone());
+                return finishRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    long logBorrow(Loan loan) {
+        synchronized (this) {
+            try {
+                startRecord(BORROW_COPY);
+                writeLoan(record, loan);
+                return finishRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    long logReturn(String isbn, String memberId, LocalDate returnDate) {
+        synchronized (this) {
+            try {
+                startRecord(DATED_RETURN);
+                record.writeUTF(isbn);
+                record.writeUTF(memberId);
+                record.writeLong(returnDate.toEpochDay());
+                return finishRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    long logAddCopies(String isbn, int count) {
+        synchronized (this) {
+            try {
+                startRecord(ADD_COPIES);
+                record.writeUTF(isbn);
+                record.writeInt(count);
+                return finishRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    long logPlaceHold(String isbn, String memberId) {
+        return logPair(PLACE_HOLD, isbn, memberId);
+    }
+
+    long logCancelHold(String isbn, String memberId) {
+        return logPair(CANCEL_HOLD, isbn, memberId);
+    }
+
+    long logSetBorrowLimit(MemberTier tier, int limit) {
+        synchronized (this) {
+            try {
+                startRecord(SET_BORROW_LIMIT);
+                record.writeUTF(tier.name());
+                record.writeInt(limit);
+                return finishRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // A whole Library.circulate batch as one record, so recovery replays all of
+    // it or none of it. loans.get(i) is the loan request i opened or closed.
+    long logCirculation(List<CirculationRequest> requests, List<Loan> loans, LocalDate today) {
+        synchronized (this) {
+            try {
+                startRecord(CIRCULATION_BATCH);
+                record.writeInt(requests.size());
+                for (int i = 0; i < requests.size(); i++) {
+                    Loan loan = loans.get(i);
+                    if (requests.get(i).getType() == CirculationRequest.Type.BORROW) {
+                        record.writeByte(BORROW_COPY);
+                        writeLoan(record, loan);
+                    } else {
+                        record.writeByte(DATED_RETURN);
+                        record.writeUTF(loan.getIsbn());
+                        record.writeUTF(loan.getMemberId());
+                        record.writeLong(today.toEpochDay());
+                    }
+                }
+                return finishRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Blocks until the record with the given sequence number is on disk
+    void awaitDurable(long seq) {
+        synchronized (this) {
+            while (durableSeq < seq && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for the journal", e);
+                }
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("Journal write failed", failure);
+            }
+        }
+    }
+
+    // Starts a new log segment and snapshots the state as of that boundary,
+    // then deletes the segments the snapshot covers
+    public void checkpoint() throws IOException {
+        List<Book> bookImage;
+        int[] copyImage;
+        List<Member> memberImage;
+        List<Loan> loanImage;
+        Map<String, List<String>> holdImage;
+        Map<MemberTier, Integer> limitImage;
+        LoanHistory.Image historyImage;
+        long snapshotSegment;
+
+        checkpointLock.writeLock().lock();
+        try {
+            snapshotSegment = rotate();
+            // Book and Member objects are mutated in place, so copy counts are
+            // read now while nothing can change them; loans are immutable.
+            // A persistent catalog store keeps the books itself.
+            bookImage = library.hasPersistentCatalog() ? new ArrayList<>() : new ArrayList<>(library.allBooks());
+            copyImage = new int[bookImage.size()];
+            for (int i = 0; i < copyImage.length; i++) {
+                copyImage[i] = bookImage.get(i).getCopies();
+            }
+            memberImage = new ArrayList<>(library.allMembers());
+            loanImage = new ArrayList<>(library.allLoans());
+            holdImage = library.copyHoldQueues();
+            limitImage = library.copyBorrowLimits();
+            historyImage = library.getHistory().copyImage();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+        library.forceCatalog();
+        library.getHistory().force();
+
+        Path tmp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 20))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(snapshotSegment);
+            out.writeInt(bookImage.size());
+            for (int i = 0; i < bookImage.size(); i++) {
+                Book book = bookImage.get(i);
+                out.writeUTF(book.getIsbn());
+                out.writeUTF(book.getTitle());
+                out.writeUTF(book.getAuthor());
+                out.writeInt(book.getPublicationYear());
+                out.writeInt(copyImage[i]);
+            }
+            out.writeInt(memberImage.size());
+            for (Member member : memberImage) {
+                writeMember(out, member);
+            }
+            out.writeInt(loanImage.size());
+            for (Loan loan : loanImage) {
+                writeLoan(out, loan);
+            }
+            out.writeInt(holdImage.size());
+            for (Map.Entry<String, List<String>> queue : holdImage.entrySet()) {
+                out.writeUTF(queue.getKey());
+                out.writeInt(queue.getValue().size());
+                for (String memberId : queue.getValue()) {
+                    out.writeUTF(memberId);
+                }
+            }
+            out.writeInt(limitImage.size());
+            for (Map.Entry<MemberTier, Integer> limit : limitImage.entrySet()) {
+                out.writeUTF(limit.getKey().name());
+                out.writeInt(limit.getValue());
+            }
+            historyImage.write(out);
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tmp, directory.resolve(SNAPSHOT_FILE),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (long seg : listSegments()) {
+            if (seg < snapshotSegment) {
+                Files.deleteIfExists(segmentPath(seg));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    // Group commit loop: take everything appended so far, write it, fsync once
+    private void flushLoop() {
+        while (true) {
+            ByteArrayOutputStream batch;
+            long upTo;
+            FileChannel out;
+            synchronized (this) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.size() == 0) {
+                    return; // closed and drained
+                }
+                batch = pending;
+                pending = spare;
+                spare = batch;
+                upTo = appendedSeq;
+                out = channel;
+            }
+
+            IOException error = null;
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+
+            synchronized (this) {
+                batch.reset();
+                if (error != null) {
+                    failure = error;
+                } else {
+                    durableSeq = upTo;
+                }
+                notifyAll();
+            }
+            if (error != null) {
+                return;
+            }
+        }
+    }
+
+    // Called with the checkpoint write lock held, so no appends are in flight
+    private synchronized long rotate() throws IOException {
+        awaitDurable(appendedSeq);
+        channel.close();
+        segment++;
+        channel = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return segment;
+    }
+
+    private long logPair(byte type, String isbn, String memberId) {
+        synchronized (this) {
+            try {
+                startRecord(type);
+                record.writeUTF(isbn);
+                record.writeUTF(memberId);
+                return finishRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private long logKey(byte type, String key) {
+        synchronized (this) {
+            try {
+                startRecord(type);
+                record.writeUTF(key);
+                return finishRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void startRecord(byte type) throws IOException {
+        if (closed || failure != null) {
+            throw new IllegalStateException("Journal is not accepting writes");
+        }
+        recordBytes.reset();
+        record.writeByte(type);
+    }
+
+    // Frames the record as [length][crc32][payload] and queues it for flushing
+    private long finishRecord() {
+        byte[] payload = recordBytes.toByteArray();
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        int checksum = (int) crc.getValue();
+
+        writeInt(pending, payload.length);
+        writeInt(pending, checksum);
+        pending.write(payload, 0, payload.length);
+        appendedSeq++;
+        notifyAll();
+        return appendedSeq;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeLoan(DataOutputStream out, Loan loan) throws IOException {
+        out.writeUTF(loan.getIsbn());
+        out.writeUTF(loan.getMemberId());
+        out.writeInt(loan.getCopy());
+        out.writeLong(loan.getBorrowDate().toEpochDay());
+        out.writeLong(loan.getDueDate().toEpochDay());
+    }
+
+    // Loans written before multi-copy books have no copy number (0: any copy)
+    private static void readLoan(DataInputStream in, Library library, boolean withCopy) throws IOException {
+        String isbn = in.readUTF();
+        String memberId = in.readUTF();
+        int copy = withCopy ? in.readInt() : 0;
+        LocalDate borrowDate = LocalDate.ofEpochDay(in.readLong());
+        LocalDate dueDate = LocalDate.ofEpochDay(in.readLong());
+        library.restoreLoan(isbn, memberId, copy, borrowDate, dueDate);
+    }
+
+    private static void writeMember(DataOutputStream out, Member member) throws IOException {
+        out.writeUTF(member.getMemberId());
+        out.writeUTF(member.getName());
+        writeOptional(out, member.getEmail());
+        writeOptional(out, member.getPhone());
+        out.writeLong(member.getRegistrationDate().toEpochDay());
+        out.writeUTF(member.getTier().name());
+    }
+
+    // Members written before tiers existed are students; before email and
+    // phone were optional, both are always there
+    private static Member readMember(DataInputStream in, boolean withTier, boolean optionalContact)
+            throws IOException {
+        String memberId = in.readUTF();
+        String name = in.readUTF();
+        String email = optionalContact ? readOptional(in) : in.readUTF();
+        String phone = optionalContact ? readOptional(in) : in.readUTF();
+        LocalDate registered = LocalDate.ofEpochDay(in.readLong());
+        MemberTier tier = withTier ? readTier(in) : MemberTier.STUDENT;
+        return new Member(memberId, name, email, phone, registered, tier);
+    }
+
+    // A presence flag, then the value if there is one
+    private static void writeOptional(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readOptional(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static MemberTier readTier(DataInputStream in) throws IOException {
+        try {
+            return MemberTier.valueOf(in.readUTF());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown member tier", e);
+        }
+    }
+
+    private static long readSnapshot(Path path, Library library) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path), 1 << 20))) {
+            int magic = in.readInt();
+            if (magic != SNAPSHOT_MAGIC && magic != REQUIRED_CONTACT_SNAPSHOT_MAGIC && magic != NO_HISTORY_SNAPSHOT_MAGIC
+                    && magic != DEFAULT_LIMITS_SNAPSHOT_MAGIC && magic != SINGLE_COPY_SNAPSHOT_MAGIC
+                    && magic != UNTIERED_SNAPSHOT_MAGIC) {
+                throw new IOException("Not a library snapshot: " + path);
+            }
+            boolean withOptionalContact = magic == SNAPSHOT_MAGIC;
+            boolean withHistory = withOptionalContact || magic == REQUIRED_CONTACT_SNAPSHOT_MAGIC;
+            boolean withLimits = withHistory || magic == NO_HISTORY_SNAPSHOT_MAGIC;
+            boolean withCopies = withLimits || magic == DEFAULT_LIMITS_SNAPSHOT_MAGIC;
+            long segment = in.readLong();
+            int bookCount = in.readInt();
+            for (int i = 0; i < bookCount; i++) {
+                String isbn = in.readUTF();
+                String title = in.readUTF();
+                String author = in.readUTF();
+                int year = in.readInt();
+                boolean added = library.addBook(new Book(isbn, title, author, year));
+                int copies = withCopies ? in.readInt() : 1;
+                if (added && copies > 1) { // not already in a persistent catalog store
+                    library.restoreCopies(isbn, copies - 1);
+                }
+            }
+            int memberCount = in.readInt();
+            for (int i = 0; i < memberCount; i++) {
+                library.restoreMember(readMember(in, magic != UNTIERED_SNAPSHOT_MAGIC, withOptionalContact));
+            }
+            int loanCount = in.readInt();
+            for (int i = 0; i < loanCount; i++) {
+                readLoan(in, library, withCopies);
+            }
+            int queueCount = withCopies ? in.readInt() : 0;
+            for (int i = 0; i < queueCount; i++) {
+                String isbn = in.readUTF();
+                int waiting = in.readInt();
+                for (int j = 0; j < waiting; j++) {
+                    library.restoreHold(isbn, in.readUTF(), true);
+                }
+            }
+            int limitCount = withLimits ? in.readInt() : 0;
+            for (int i = 0; i < limitCount; i++) {
+                library.restoreBorrowLimit(readTier(in), in.readInt());
+            }
+            // Without the history's rows, what it hadn't written is gone;
+            // replayed returns are then left out rather than guessed at
+            if (withHistory) {
+                library.getHistory().startRecovery(in);
+            }
+            return segment;
+        }
+    }
+
+    // Applies every intact record and returns the length of the valid prefix
+    private static long replaySegment(Path path, Library library) throws IOException {
+        long valid = 0;
+        CRC32 check = new CRC32();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path), 1 << 20))) {
+            while (true) {
+                int length;
+                int checksum;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length <= 0 || length > (1 << 20)) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break; // torn tail from a crash mid-write
+                }
+                check.reset();
+                check.update(payload, 0, length);
+                if ((int) check.getValue() != checksum) {
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(payload)), library);
+                valid += 8 + length;
+            }
+        }
+        return valid;
+    }
+
+    private static void apply(DataInputStream in, Library library) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case ADD_BOOK:
+                library.addBook(new Book(in.readUTF(), in.readUTF(), in.readUTF(), in.readInt()));
+                break;
+            case REMOVE_BOOK:
+                library.removeBook(in.readUTF());
+                break;
+            case REGISTER_MEMBER:
+            case REQUIRED_CONTACT_REGISTER_MEMBER:
+            case UNTIERED_REGISTER_MEMBER:
+                library.restoreMember(readMember(in, type != UNTIERED_REGISTER_MEMBER, type == REGISTER_MEMBER));
+                break;
+            case DEREGISTER_MEMBER:
+                library.deregisterMember(in.readUTF());
+                break;
+            case UPDATE_MEMBER_CONTACT:
+                library.restoreMemberContact(in.readUTF(), readOptional(in), readOptional(in));
+                break;
+            case BORROW:
+            case BORROW_COPY:
+                readLoan(in, library, type == BORROW_COPY);
+                break;
+            case RETURN:
+                library.restoreReturn(in.readUTF(), in.readUTF(), null);
+                break;
+            case DATED_RETURN:
+                library.restoreReturn(in.readUTF(), in.readUTF(), LocalDate.ofEpochDay(in.readLong()));
+                break;
+            case ADD_COPIES:
+                library.restoreCopies(in.readUTF(), in.readInt());
+                break;
+            case PLACE_HOLD:
+            case CANCEL_HOLD:
+                library.restoreHold(in.readUTF(), in.readUTF(), type == PLACE_HOLD);
+                break;
+            case SET_BORROW_LIMIT:
+                library.restoreBorrowLimit(readTier(in), in.readInt());
+                break;
+            case CIRCULATION_BATCH:
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    apply(in, library); // each item is framed like a BORROW_COPY or (DATED_)RETURN record
+                }
+                break;
+            default:
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "wal-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(4, name.length() - 4)));
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private Path segmentPath(long seg) {
+        return directory.resolve(String.format("wal-%08d.log", seg));
+    }
+}
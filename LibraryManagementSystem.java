@@ -1,7 +1,175 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import javax.management.JMException;
+
 // Main Application Class
 public class LibraryManagementSystem {
-    public static void main(String[] args) {
-        Library library = new Library();
-        library.run();
+    private static final long SNAPSHOT_INTERVAL_SECONDS = 300;
+    private static final int EVENT_BUFFER_SIZE = 1 << 16;
+
+    // Options:
+    //   --data <dir>      keep the library on disk between runs
+    //   --import <file>   bulk-load a CSV or JSON-lines catalog before starting
+    //   --server <port>   serve the HTTP/JSON API instead of the console menu
+    //   --events <dir>    record every change to an event log downstream systems can replay
+    //   --batch <file>    run the commands in the file (- for standard input) instead of the menu
+    //   --columnar        keep the catalog in a compact columnar store instead of Book objects
+    //   --catalog <file>  keep the catalog in a memory-mapped file, which opens in milliseconds
+    public static void main(String[] args) throws IOException {
+        Path dataDir = null;
+        Path importFile = null;
+        Path eventDir = null;
+        String batchSource = null;
+        boolean columnar = false;
+        Path catalogFile = null;
+        int port = -1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--data") && i + 1 < args.length) {
+                dataDir = Paths.get(args[++i]);
+            } else if (args[i].equals("--import") && i + 1 < args.length) {
+                importFile = Paths.get(args[++i]);
+            } else if (args[i].equals("--events") && i + 1 < args.length) {
+                eventDir = Paths.get(args[++i]);
+            } else if (args[i].equals("--batch") && i + 1 < args.length) {
+                batchSource = args[++i];
+            } else if (args[i].equals("--columnar")) {
+                columnar = true;
+            } else if (args[i].equals("--catalog") && i + 1 < args.length) {
+                catalogFile = Paths.get(args[++i]);
+            } else if (args[i].equals("--server") && i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                port = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                System.err.println("Usage: java LibraryManagementSystem [--data <dir>] [--import <file>] [--server <port>] [--events <dir>] [--batch <file>] [--columnar | --catalog <file>]");
+                System.exit(2);
+            }
+        }
+        if (port >= 0 && batchSource != null) {
+            System.err.println("--server and --batch can't be used together");
+            System.exit(2);
+        }
+        if (columnar && catalogFile != null) {
+            System.err.println("--columnar and --catalog can't be used together");
+            System.exit(2);
+        }
+        MappedCatalog mapped = catalogFile != null ? new MappedCatalog(catalogFile) : null;
+        CatalogStore store = columnar ? new ColumnarCatalog() : mapped;
+        // A batch brings its own books and members, and so does an existing catalog file
+        boolean sampleData = importFile == null && batchSource == null && (mapped == null || mapped.size() == 0);
+
+        Library library = new Library(dataDir == null && sampleData, Clock.systemDefaultZone(), store);
+        try {
+            library.getMetrics().registerMBean();
+        } catch (JMException e) {
+            System.err.println("Metrics are not available over JMX: " + e.getMessage());
+        }
+        // The history is attached before recovery, which puts back the loans
+        // it hadn't written; events after it, so only new changes are published
+        LoanHistory history = null;
+        LibraryJournal journal = null;
+        if (dataDir != null) {
+            history = new LoanHistory(dataDir.resolve("history"));
+            library.attachHistory(history);
+            journal = new LibraryJournal(dataDir);
+            if (!journal.recover(library) && sampleData) {
+                library.initializeSampleData();
+            }
+        }
+        EventLog eventLog = null;
+        EventBus events = null;
+        if (eventDir != null) {
+            eventLog = new EventLog(eventDir);
+            events = new EventBus(EVENT_BUFFER_SIZE, EventBus.Overflow.BLOCK, eventLog.getNextOffset());
+            events.subscribe("log", eventLog);
+            library.attachEventBus(events);
+        }
+        if (importFile != null) {
+            new CatalogImporter(library).importFile(importFile);
+        }
+        if (journal != null) {
+            journal.startCompactor(SNAPSHOT_INTERVAL_SECONDS);
+        }
+
+        if (port >= 0) {
+            // Runs until the process is stopped (Ctrl+C or SIGTERM); the
+            // server's own threads keep the JVM alive after main returns
+            LibraryServer server = new LibraryServer(library, port);
+            LibraryJournal serverJournal = journal;
+            LoanHistory serverHistory = history;
+            EventBus serverEvents = events;
+            EventLog serverEventLog = eventLog;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                closeJournal(serverJournal);
+                closeHistory(serverHistory);
+                closeEvents(serverEvents, serverEventLog);
+                closeCatalog(mapped);
+            }));
+            server.start();
+            return;
+        }
+
+        if (batchSource != null) {
+            new CommandBatch(library, new FileOutputStream(FileDescriptor.out)).run(batchSource);
+        } else {
+            library.run();
+        }
+        closeJournal(journal);
+        closeHistory(history);
+        closeEvents(events, eventLog);
+        closeCatalog(mapped);
     }
-}
\ No newline at end of file
+
+    // Flushes the catalog file to the disk
+    private static void closeCatalog(MappedCatalog mapped) {
+        if (mapped == null) {
+            return;
+        }
+        try {
+            mapped.close();
+        } catch (IOException e) {
+            System.err.println("Could not save the catalog: " + e.getMessage());
+        }
+    }
+
+    // Writes out the loans still in open blocks
+    private static void closeHistory(LoanHistory history) {
+        if (history == null) {
+            return;
+        }
+        try {
+            history.close();
+        } catch (IOException e) {
+            System.err.println("Could not save loan history: " + e.getMessage());
+        }
+    }
+
+    // Lets subscribers drain what was published, then closes the log
+    private static void closeEvents(EventBus events, EventLog eventLog) {
+        if (events == null) {
+            return;
+        }
+        events.close();
+        try {
+            eventLog.close();
+        } catch (IOException e) {
+            System.err.println("Could not close the event log: " + e.getMessage());
+        }
+    }
+
+    // Snapshots the final state so the next start doesn't replay the log
+    private static void closeJournal(LibraryJournal journal) {
+        if (journal == null) {
+            return;
+        }
+        try (LibraryJournal closing = journal) {
+            closing.checkpoint();
+        } catch (IOException e) {
+            System.err.println("Could not save library data: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,227 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.*;
+
+// Library Metrics Class
+// Counters, latency histograms and gauges for a Library. Each instrumented
+// operation gets a call count and a LatencyHistogram; borrows and returns
+// also count each outcome (success, book not found, limit reached, ...).
+// Recording is a LongAdder increment and a histogram update, with no
+// allocation and no lock, so it can stay on in production. Gauges are read
+// only when a snapshot is taken.
+//
+// Snapshots are exposed over JMX (as the library:type=Metrics MBean, one
+// attribute per value) and as plain text for the console and the server.
+class LibraryMetrics implements DynamicMBean {
+    static final String OBJECT_NAME = "library:type=Metrics";
+
+    enum Op {
+        BORROW("borrowBook"),
+        RETURN("returnBook"),
+        SEARCH_TITLE("searchByTitle"),
+        SEARCH_AUTHOR("searchByAuthor"),
+        SEARCH_RANKED("search"),
+        REPORT_ALL_BOOKS("report.allBooks"),
+        REPORT_AVAILABLE("report.availableBooks"),
+        REPORT_BORROWED("report.borrowedBooks"),
+        REPORT_OVERDUE("report.overdueBooks"),
+        REPORT_DUE("report.booksDueSoon"),
+        REPORT_MEMBERS("report.members");
+
+        private String metricName;
+
+        Op(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String getMetricName() { return metricName; }
+    }
+
+    private static final CirculationResult[] OUTCOMES = CirculationResult.values();
+
+    private LongAdder[] calls;
+    private LatencyHistogram[] latencies;
+    private LongAdder[][] outcomes; // [op][outcome], for borrows and returns
+    private Map<String, LongSupplier> gauges;
+
+    public LibraryMetrics() {
+        Op[] ops = Op.values();
+        this.calls = new LongAdder[ops.length];
+        this.latencies = new LatencyHistogram[ops.length];
+        this.outcomes = new LongAdder[ops.length][];
+        for (Op op : ops) {
+            calls[op.ordinal()] = new LongAdder();
+            latencies[op.ordinal()] = new LatencyHistogram();
+        }
+        for (Op op : new Op[] {Op.BORROW, Op.RETURN}) {
+            outcomes[op.ordinal()] = new LongAdder[OUTCOMES.length];
+            for (int i = 0; i < OUTCOMES.length; i++) {
+                outcomes[op.ordinal()][i] = new LongAdder();
+            }
+        }
+        this.gauges = Collections.synchronizedMap(new LinkedHashMap<>());
+    }
+
+    // Records one call that started at startNanos (from System.nanoTime)
+    public void record(Op op, long startNanos) {
+        calls[op.ordinal()].increment();
+        latencies[op.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    // As record, counting the outcome too (borrows and returns only)
+    public void record(Op op, CirculationResult outcome, long startNanos) {
+        record(op, startNanos);
+        LongAdder[] counts = outcomes[op.ordinal()];
+        if (counts != null) {
+            counts[outcome.ordinal()].increment();
+        }
+    }
+
+    // Adds a value read when a snapshot is taken, e.g. the catalog size
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public long getCount(Op op) {
+        return calls[op.ordinal()].sum();
+    }
+
+    public long getCount(Op op, CirculationResult outcome) {
+        LongAdder[] counts = outcomes[op.ordinal()];
+        return counts == null ? 0 : counts[outcome.ordinal()].sum();
+    }
+
+    public LatencyHistogram getLatency(Op op) {
+        return latencies[op.ordinal()];
+    }
+
+    // Every value by name, in a stable order: gauges, then per operation its
+    // count, outcomes and latency percentiles in microseconds
+    public Map<String, Long> snapshot() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        synchronized (gauges) {
+            for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+                values.put(gauge.getKey(), gauge.getValue().getAsLong());
+            }
+        }
+        for (Op op : Op.values()) {
+            String name = op.getMetricName();
+            values.put(name + ".count", getCount(op));
+            LongAdder[] counts = outcomes[op.ordinal()];
+            if (counts != null) {
+                for (CirculationResult outcome : OUTCOMES) {
+                    values.put(name + "." + outcomeName(outcome), counts[outcome.ordinal()].sum());
+                }
+            }
+            LatencyHistogram latency = latencies[op.ordinal()];
+            values.put(name + ".meanMicros", latency.getMeanNanos() / 1000);
+            values.put(name + ".p50Micros", latency.getPercentileNanos(0.50) / 1000);
+            values.put(name + ".p99Micros", latency.getPercentileNanos(0.99) / 1000);
+            values.put(name + ".p999Micros", latency.getPercentileNanos(0.999) / 1000);
+            values.put(name + ".maxMicros", latency.getMaxNanos() / 1000);
+        }
+        return values;
+    }
+
+    // Plain-text dump: gauges, then one line per operation that has been called
+    public String dump() {
+        StringBuilder out = new StringBuilder(1024);
+        synchronized (gauges) {
+            for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+                out.append(String.format("%-24s %d%n", gauge.getKey(), gauge.getValue().getAsLong()));
+            }
+        }
+        out.append(String.format("%n%-24s %10s %10s %10s %10s %10s%n", "operation (us)", "count", "mean", "p50", "p99", "max"));
+        for (Op op : Op.values()) {
+            long count = getCount(op);
+            if (count == 0) {
+                continue;
+            }
+            LatencyHistogram latency = latencies[op.ordinal()];
+            out.append(String.format("%-24s %10d %10.1f %10.1f %10.1f %10.1f%n", op.getMetricName(), count,
+                    latency.getMeanNanos() / 1e3, latency.getPercentileNanos(0.50) / 1e3,
+                    latency.getPercentileNanos(0.99) / 1e3, latency.getMaxNanos() / 1e3));
+            LongAdder[] counts = outcomes[op.ordinal()];
+            if (counts != null) {
+                for (CirculationResult outcome : OUTCOMES) {
+                    long outcomeCount = counts[outcome.ordinal()].sum();
+                    if (outcomeCount > 0) {
+                        out.append(String.format("  %-22s %10d%n", outcomeName(outcome), outcomeCount));
+                    }
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    // Registers with the platform MBean server (shown in JConsole, VisualVM, ...)
+    public void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+    }
+
+    // SUCCESS -> success, BOOK_NOT_FOUND -> bookNotFound
+    private static String outcomeName(CirculationResult outcome) {
+        String[] words = outcome.name().toLowerCase().split("_");
+        StringBuilder name = new StringBuilder(words[0]);
+        for (int i = 1; i < words.length; i++) {
+            name.append(Character.toUpperCase(words[i].charAt(0))).append(words[i], 1, words[i].length());
+        }
+        return name.toString();
+    }
+
+    // DynamicMBean: read-only attributes, one per snapshot value
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Long value = snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Long> values = snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Long value = values.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Library metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : snapshot().keySet()) {
+            attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Library operation counters, latencies and gauges",
+                             attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
@@ -0,0 +1,762 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Library Server Class
+// Headless HTTP/JSON front end for a shared Library, so any number of desk and
+// kiosk clients can work at once. Each request runs on its own virtual thread
+// where the JDK has them (21+), otherwise on a cached thread pool; either way
+// the handlers only call the thread-safe Library operations.
+//
+//   POST   /loans/borrow?isbn=..&member=..      POST /loans/return?isbn=..&member=..
+//   POST   /loans/batch  (body: "borrow|return <isbn> <member>" per line, applied all or nothing)
+//   GET    /books?title=..|author=..|isbn=..    POST /books?isbn=..&title=..&author=..&year=..&copies=..
+//          (POST /books?isbn=..&copies=.. for a book already in the catalog adds that many copies)
+//   GET    /books?q=..&limit=..  (ranked, typo-tolerant title/author search)
+//   DELETE /books/<isbn>
+//   POST   /holds?isbn=..&member=..   DELETE /holds?isbn=..&member=..   GET /holds?member=..
+//   GET    /suggest?title=..|author=..|isbn=..&limit=..  (type-ahead, most borrowed first)
+//   GET    /members/<id>                        POST /members?id=..&name=..&email=..&phone=..&tier=..
+//   GET    /members?email=..|phone=..|name=..&limit=..  (patron lookup; name matches any word's start)
+//   DELETE /members/<id>
+//   GET    /reports/<all|available|borrowed|overdue|due|members>?size=..&token=..&days=..
+//   GET    /metrics  (counters, latency percentiles and gauges; ?format=text for the console dump)
+//   GET    /statistics  (running totals: titles and copies by status, per decade, top authors)
+//   GET    /history?isbn=..|member=..&from=..&to=..&limit=..  (finished loans, dates as yyyy-mm-dd)
+//
+// Parameters may also be sent as an application/x-www-form-urlencoded body.
+class LibraryServer {
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int TOP_AUTHORS = 10;
+
+    private Library library;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public LibraryServer(Library library, int port) throws IOException {
+        this.library = library;
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/loans/", this::handleLoans);
+        server.createContext("/books", this::handleBooks);
+        server.createContext("/members", this::handleMembers);
+        server.createContext("/suggest", this::handleSuggest);
+        server.createContext("/holds", this::handleHolds);
+        server.createContext("/reports/", this::handleReports);
+        server.createContext("/metrics", this::handleMetrics);
+        server.createContext("/statistics", this::handleStatistics);
+        server.createContext("/history", this::handleHistory);
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Library server listening on port " + server.getAddress().getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Stops accepting requests and waits briefly for the ones in flight
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Virtual threads are looked up reflectively so the server still builds
+    // and runs on JDKs that don't have them
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // Handlers
+    private void handleLoans(HttpExchange exchange) throws IOException {
+        if (!requireMethod(exchange, "POST")) {
+            return;
+        }
+        if (exchange.getRequestURI().getPath().equals("/loans/batch")) {
+            handleBatch(exchange);
+            return;
+        }
+        Map<String, String> params = parameters(exchange);
+        String isbn = params.get("isbn");
+        String memberId = params.get("member");
+        if (isbn == null || memberId == null) {
+            sendError(exchange, 400, "isbn and member are required");
+            return;
+        }
+
+        CirculationResult result;
+        List<Loan> issued = new ArrayList<>(1);
+        switch (exchange.getRequestURI().getPath()) {
+            case "/loans/borrow":
+                result = library.tryBorrow(isbn, memberId);
+                break;
+            case "/loans/return":
+                result = library.tryReturn(isbn, memberId, issued);
+                break;
+            default:
+                sendError(exchange, 404, "Unknown endpoint");
+                return;
+        }
+
+        StringBuilder json = new StringBuilder("{\"result\":\"").append(result.name()).append('"');
+        if (result.getMessage() != null) {
+            json.append(",\"message\":");
+            quote(json, result.getMessage());
+        }
+        if (result == CirculationResult.SUCCESS && exchange.getRequestURI().getPath().equals("/loans/borrow")) {
+            Book book = library.searchByISBN(isbn);
+            Loan loan = book == null ? null : book.getLoanOf(memberId);
+            if (loan != null) {
+                json.append(",\"copy\":").append(loan.getCopy())
+                    .append(",\"dueDate\":\"").append(loan.getDueDate()).append('"');
+            }
+        }
+        // The returned copy went straight to the next member waiting for it
+        for (Loan loan : issued) {
+            json.append(",\"issuedTo\":");
+            quote(json, loan.getMemberId());
+        }
+        send(exchange, statusFor(result), json.append('}').toString());
+    }
+
+    // Body is one "borrow <isbn> <member>" or "return <isbn> <member>" per line
+    private void handleBatch(HttpExchange exchange) throws IOException {
+        String body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        List<CirculationRequest> requests = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length == 1 && parts[0].isEmpty()) {
+                continue;
+            }
+            if (parts.length != 3 || !(parts[0].equals("borrow") || parts[0].equals("return"))) {
+                sendError(exchange, 400, "Bad batch line: " + line.trim());
+                return;
+            }
+            CirculationRequest.Type type = parts[0].equals("borrow")
+                    ? CirculationRequest.Type.BORROW : CirculationRequest.Type.RETURN;
+            requests.add(new CirculationRequest(type, parts[1], parts[2]));
+        }
+
+        BatchResult batch = library.circulate(requests);
+        StringBuilder json = new StringBuilder("{\"applied\":").append(batch.isApplied()).append(",\"results\":[");
+        for (int i = 0; i < requests.size(); i++) {
+            json.append(i == 0 ? "" : ",").append('"').append(batch.getResult(i).name()).append('"');
+        }
+        send(exchange, batch.isApplied() ? 200 : 409, json.append("]}").toString());
+    }
+
+    private void handleBooks(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        Map<String, String> params = parameters(exchange);
+
+        if (method.equals("GET")) {
+            List<BookVersion> found;
+            if (params.containsKey("isbn")) {
+                Book book = library.searchByISBN(params.get("isbn"));
+                found = book == null ? Collections.emptyList() : Collections.singletonList(book.currentVersion());
+            } else if (params.containsKey("q")) {
+                Integer limit = parseInt(params.getOrDefault("limit", "10"));
+                if (limit == null || limit < 1) {
+                    sendError(exchange, 400, "limit must be a positive number");
+                    return;
+                }
+                found = library.search(params.get("q"), Math.min(limit, MAX_PAGE_SIZE));
+            } else if (params.containsKey("title")) {
+                found = library.searchByTitle(params.get("title"));
+            } else if (params.containsKey("author")) {
+                found = library.searchByAuthor(params.get("author"));
+            } else {
+                sendError(exchange, 400, "q, title, author or isbn is required");
+                return;
+            }
+            StringBuilder json = new StringBuilder("{\"books\":[");
+            for (int i = 0; i < found.size(); i++) {
+                appendBook(json.append(i == 0 ? "" : ","), found.get(i));
+            }
+            send(exchange, 200, json.append("]}").toString());
+        } else if (method.equals("POST")) {
+            String isbn = params.get("isbn");
+            Integer copies = parseInt(params.getOrDefault("copies", "1"));
+            if (copies == null || copies < 1) {
+                sendError(exchange, 400, "copies must be a positive number");
+                return;
+            }
+            Book existing = isbn == null ? null : library.searchByISBN(isbn);
+            if (existing != null && params.containsKey("copies")) {
+                // Re-read after adding, so the reply shows the new copy count;
+                // the book may have been removed in between
+                Book updated = library.addCopies(isbn, copies) ? library.searchByISBN(isbn) : null;
+                if (updated == null) {
+                    sendError(exchange, 404, "Book not found!");
+                    return;
+                }
+                send(exchange, 200, appendBook(new StringBuilder(), updated).toString());
+                return;
+            }
+            String title = params.get("title");
+            String author = params.get("author");
+            Integer year = parseInt(params.get("year"));
+            if (isbn == null || title == null || author == null || year == null) {
+                sendError(exchange, 400, "isbn, title, author and year are required");
+                return;
+            }
+            Book book = new Book(isbn, title, author, year);
+            if (!library.fitsCatalog(book)) {
+                sendError(exchange, 400, "isbn, title or author is too long for the catalog store");
+                return;
+            }
+            if (!library.addBook(book)) {
+                sendError(exchange, 409, "Book with this ISBN already exists!");
+                return;
+            }
+            if (copies > 1) {
+                library.addCopies(isbn, copies - 1);
+            }
+            // With a catalog store the extra copies land on a fresh view, not on book
+            Book added = library.searchByISBN(isbn);
+            send(exchange, 201, appendBook(new StringBuilder(), added != null ? added : book).toString());
+        } else if (method.equals("DELETE")) {
+            String isbn = pathTail(exchange, "/books/");
+            if (isbn == null) {
+                sendError(exchange, 400, "ISBN is required");
+            } else if (library.removeBook(isbn)) {
+                send(exchange, 200, "{\"removed\":true}");
+            } else {
+                sendError(exchange, 409, "Book not found or a copy is currently borrowed");
+            }
+        } else {
+            sendError(exchange, 405, "Method not allowed");
+        }
+    }
+
+    private void handleHolds(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        Map<String, String> params = parameters(exchange);
+        String isbn = params.get("isbn");
+        String memberId = params.get("member");
+
+        if (method.equals("GET")) {
+            if (memberId == null) {
+                sendError(exchange, 400, "member is required");
+                return;
+            }
+            StringBuilder json = new StringBuilder("{\"holds\":[");
+            List<String> waiting = library.getHolds(memberId);
+            for (int i = 0; i < waiting.size(); i++) {
+                json.append(i == 0 ? "{\"isbn\":" : ",{\"isbn\":");
+                quote(json, waiting.get(i));
+                json.append(",\"position\":").append(library.getHoldPosition(waiting.get(i), memberId)).append('}');
+            }
+            send(exchange, 200, json.append("]}").toString());
+            return;
+        }
+        if (!method.equals("POST") && !method.equals("DELETE")) {
+            sendError(exchange, 405, "Method not allowed");
+            return;
+        }
+        if (isbn == null || memberId == null) {
+            sendError(exchange, 400, "isbn and member are required");
+            return;
+        }
+        CirculationResult result = method.equals("POST")
+                ? library.placeHold(isbn, memberId) : library.cancelHold(isbn, memberId);
+        StringBuilder json = new StringBuilder("{\"result\":\"").append(result.name()).append('"');
+        if (result.getMessage() != null) {
+            json.append(",\"message\":");
+            quote(json, result.getMessage());
+        }
+        if (result.isSuccess() && method.equals("POST")) {
+            json.append(",\"position\":").append(library.getHoldPosition(isbn, memberId));
+        }
+        send(exchange, statusFor(result), json.append('}').toString());
+    }
+
+    private void handleSuggest(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Method not allowed");
+            return;
+        }
+        Map<String, String> params = parameters(exchange);
+        Integer limit = parseInt(params.getOrDefault("limit", "10"));
+        if (limit == null || limit < 1) {
+            sendError(exchange, 400, "limit must be a positive number");
+            return;
+        }
+        limit = Math.min(limit, MAX_PAGE_SIZE);
+        List<String> suggestions;
+        if (params.containsKey("title")) {
+            suggestions = library.suggestTitles(params.get("title"), limit);
+        } else if (params.containsKey("author")) {
+            suggestions = library.suggestAuthors(params.get("author"), limit);
+        } else if (params.containsKey("isbn")) {
+            suggestions = library.suggestIsbns(params.get("isbn"), limit);
+        } else {
+            sendError(exchange, 400, "title, author or isbn is required");
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"suggestions\":[");
+        for (int i = 0; i < suggestions.size(); i++) {
+            quote(json.append(i == 0 ? "" : ","), suggestions.get(i));
+        }
+        send(exchange, 200, json.append("]}").toString());
+    }
+
+    private void handleMembers(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+
+        if (method.equals("GET")) {
+            String id = pathTail(exchange, "/members/");
+            if (id == null) {
+                findMembers(exchange);
+                return;
+            }
+            Member member = library.getMember(id);
+            if (member == null) {
+                sendError(exchange, 404, CirculationResult.MEMBER_NOT_FOUND.getMessage());
+                return;
+            }
+            send(exchange, 200, appendMember(new StringBuilder(), member, true).toString());
+        } else if (method.equals("POST")) {
+            Map<String, String> params = parameters(exchange);
+            String id = params.get("id");
+            String name = params.get("name");
+            if (id == null || name == null) {
+                sendError(exchange, 400, "id and name are required");
+                return;
+            }
+            MemberTier tier;
+            try {
+                tier = MemberTier.valueOf(params.getOrDefault("tier", "STUDENT").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, "tier must be one of " + Arrays.toString(MemberTier.values()));
+                return;
+            }
+            Member member = new Member(id, name, params.getOrDefault("email", ""), params.getOrDefault("phone", ""), tier,
+                                       library.getClock());
+            if (!library.registerMember(member)) {
+                sendError(exchange, 409, library.getMember(id) != null ? "Member with this ID already exists!"
+                                         : "A member with this email or phone already exists!");
+                return;
+            }
+            send(exchange, 201, appendMember(new StringBuilder(), member, false).toString());
+        } else if (method.equals("DELETE")) {
+            String id = pathTail(exchange, "/members/");
+            if (id == null) {
+                sendError(exchange, 400, "Member ID is required");
+            } else if (library.deregisterMember(id)) {
+                send(exchange, 200, "{\"removed\":true}");
+            } else {
+                sendError(exchange, 409, "Member not found or has borrowed books or holds");
+            }
+        } else {
+            sendError(exchange, 405, "Method not allowed");
+        }
+    }
+
+    private void findMembers(HttpExchange exchange) throws IOException {
+        Map<String, String> params = parameters(exchange);
+        List<Member> found;
+        if (params.containsKey("email")) {
+            found = asList(library.findMemberByEmail(params.get("email")));
+        } else if (params.containsKey("phone")) {
+            found = asList(library.findMemberByPhone(params.get("phone")));
+        } else if (params.containsKey("name")) {
+            Integer limit = parseInt(params.getOrDefault("limit", "10"));
+            if (limit == null || limit < 1) {
+                sendError(exchange, 400, "limit must be a positive number");
+                return;
+            }
+            found = library.findMembersByName(params.get("name"), Math.min(limit, MAX_PAGE_SIZE));
+        } else {
+            sendError(exchange, 400, "Member ID, or email, phone or name, is required");
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"members\":[");
+        for (int i = 0; i < found.size(); i++) {
+            appendMember(json.append(i == 0 ? "" : ","), found.get(i), false);
+        }
+        send(exchange, 200, json.append("]}").toString());
+    }
+
+    private static List<Member> asList(Member member) {
+        return member == null ? Collections.emptyList() : Collections.singletonList(member);
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        if (!requireMethod(exchange, "GET")) {
+            return;
+        }
+        LibraryMetrics metrics = library.getMetrics();
+        if ("text".equals(parameters(exchange).get("format"))) {
+            send(exchange, 200, metrics.dump(), "text/plain; charset=utf-8");
+            return;
+        }
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Long> value : metrics.snapshot().entrySet()) {
+            json.append(json.length() == 1 ? "" : ",");
+            quote(json, value.getKey());
+            json.append(':').append(value.getValue());
+        }
+        send(exchange, 200, json.append('}').toString());
+    }
+
+    // Running totals, as in the console's statistics report
+    private void handleStatistics(HttpExchange exchange) throws IOException {
+        if (!requireMethod(exchange, "GET")) {
+            return;
+        }
+        CatalogStatistics statistics = library.getStatistics();
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"titles\":").append(statistics.getTitles())
+            .append(",\"titlesAvailable\":").append(statistics.getTitlesAvailable())
+            .append(",\"titlesAllOut\":").append(statistics.getTitlesAllOut())
+            .append(",\"copies\":").append(statistics.getCopies())
+            .append(",\"copiesOnLoan\":").append(statistics.getCopiesOnLoan())
+            .append(",\"overdueLoans\":").append(library.countOverdueBooks())
+            .append(",\"membersByLoans\":{");
+        String separator = "";
+        for (Map.Entry<Integer, Long> count : statistics.getMembersByLoans().entrySet()) {
+            json.append(separator).append('"').append(count.getKey()).append("\":").append(count.getValue());
+            separator = ",";
+        }
+        json.append("},\"decades\":[");
+        separator = "";
+        for (Map.Entry<Integer, CatalogStatistics.Tally> decade : statistics.getDecades().entrySet()) {
+            json.append(separator).append("{\"decade\":").append(decade.getKey());
+            appendTally(json, decade.getValue());
+            separator = ",";
+        }
+        json.append("],\"topAuthors\":[");
+        separator = "";
+        for (Map.Entry<String, CatalogStatistics.Tally> author : statistics.getTopAuthors(TOP_AUTHORS)) {
+            json.append(separator).append("{\"author\":");
+            quote(json, author.getKey());
+            appendTally(json, author.getValue());
+            separator = ",";
+        }
+        send(exchange, 200, json.append("]}").toString());
+    }
+
+    // Closes the object the caller opened
+    private static void appendTally(StringBuilder json, CatalogStatistics.Tally tally) {
+        json.append(",\"titles\":").append(tally.getTitles())
+            .append(",\"copies\":").append(tally.getCopies())
+            .append(",\"onLoan\":").append(tally.getOnLoan()).append('}');
+    }
+
+    // Finished loans of a book or a member that were out between from and to
+    private void handleHistory(HttpExchange exchange) throws IOException {
+        if (!requireMethod(exchange, "GET")) {
+            return;
+        }
+        Map<String, String> params = parameters(exchange);
+        String isbn = params.get("isbn");
+        String memberId = params.get("member");
+        if (isbn == null && memberId == null) {
+            sendError(exchange, 400, "isbn or member is required");
+            return;
+        }
+        Integer limit = parseInt(params.getOrDefault("limit", String.valueOf(MAX_PAGE_SIZE)));
+        if (limit == null || limit < 1) {
+            sendError(exchange, 400, "limit must be a positive number");
+            return;
+        }
+        LocalDate from;
+        LocalDate to;
+        try {
+            from = params.containsKey("from") ? LocalDate.parse(params.get("from")) : null;
+            to = params.containsKey("to") ? LocalDate.parse(params.get("to")) : null;
+        } catch (DateTimeParseException e) {
+            sendError(exchange, 400, "from and to must be dates (yyyy-mm-dd)");
+            return;
+        }
+
+        List<LoanRecord> loans = new ArrayList<>();
+        int max = Math.min(limit, MAX_PAGE_SIZE);
+        long total = library.getHistory().scan(isbn, memberId, from, to, loan -> {
+            if (loans.size() < max) {
+                loans.add(loan);
+            }
+        });
+        StringBuilder json = new StringBuilder(64 + loans.size() * 128);
+        json.append("{\"total\":").append(total).append(",\"loans\":[");
+        for (int i = 0; i < loans.size(); i++) {
+            LoanRecord loan = loans.get(i);
+            json.append(i == 0 ? "{\"isbn\":" : ",{\"isbn\":");
+            quote(json, loan.getIsbn());
+            json.append(",\"copy\":").append(loan.getCopy()).append(",\"member\":");
+            quote(json, loan.getMemberId());
+            json.append(",\"borrowDate\":\"").append(loan.getBorrowDate())
+                .append("\",\"dueDate\":\"").append(loan.getDueDate())
+                .append("\",\"returnDate\":\"").append(loan.getReturnDate())
+                .append("\",\"late\":").append(loan.wasReturnedLate()).append('}');
+        }
+        send(exchange, 200, json.append("]}").toString());
+    }
+
+    private void handleReports(HttpExchange exchange) throws IOException {
+        if (!requireMethod(exchange, "GET")) {
+            return;
+        }
+        Map<String, String> params = parameters(exchange);
+        String token = params.get("token");
+        Integer size = parseInt(params.getOrDefault("size", String.valueOf(library.getReportPageSize())));
+        if (size == null || size < 1) {
+            sendError(exchange, 400, "size must be a positive number");
+            return;
+        }
+        size = Math.min(size, MAX_PAGE_SIZE);
+
+        ReportPage<? extends ReportRow> page;
+        try {
+            switch (exchange.getRequestURI().getPath()) {
+                case "/reports/all":
+                    page = library.pageAllBooks(token, size);
+                    break;
+                case "/reports/available":
+                    page = library.pageAvailableBooks(token, size);
+                    break;
+                case "/reports/borrowed":
+                    page = library.pageBorrowedBooks(token, size);
+                    break;
+                case "/reports/overdue":
+                    page = library.pageOverdueBooks(token, size);
+                    break;
+                case "/reports/due":
+                    Integer days = parseInt(params.getOrDefault("days", "7"));
+                    if (days == null) {
+                        sendError(exchange, 400, "days must be a number");
+                        return;
+                    }
+                    page = library.pageBooksDueWithin(days, token, size);
+                    break;
+                case "/reports/members":
+                    page = library.pageMembers(token, size);
+                    break;
+                default:
+                    sendError(exchange, 404, "Unknown report");
+                    return;
+            }
+        } catch (RuntimeException e) {
+            sendError(exchange, 400, "Invalid page token");
+            return;
+        }
+
+        StringBuilder json = new StringBuilder("{\"items\":[");
+        List<? extends ReportRow> items = page.getItems();
+        for (int i = 0; i < items.size(); i++) {
+            json.append(i == 0 ? "" : ",");
+            ReportRow row = items.get(i);
+            if (row instanceof BookVersion) {
+                appendBook(json, (BookVersion) row);
+            } else {
+                appendMember(json, (Member) row, false);
+            }
+        }
+        json.append("],\"nextToken\":");
+        if (page.hasMore()) {
+            quote(json, page.getNextToken());
+        } else {
+            json.append("null");
+        }
+        send(exchange, 200, json.append('}').toString());
+    }
+
+    // JSON
+    private StringBuilder appendBook(StringBuilder json, Book book) {
+        return appendBook(json, book.currentVersion());
+    }
+
+    // All of the fields from one version, so they never disagree
+    private StringBuilder appendBook(StringBuilder json, BookVersion book) {
+        json.append("{\"isbn\":");
+        quote(json, book.getIsbn());
+        json.append(",\"title\":");
+        quote(json, book.getTitle());
+        json.append(",\"author\":");
+        quote(json, book.getAuthor());
+        json.append(",\"year\":").append(book.getPublicationYear());
+        json.append(",\"available\":").append(book.isAvailable());
+        if (book.getCopies() > 1) {
+            json.append(",\"copies\":").append(book.getCopies())
+                .append(",\"availableCopies\":").append(book.getAvailableCopies());
+            return json.append('}');
+        }
+        Loan loan = book.getLoan();
+        if (loan != null) {
+            json.append(",\"borrowedBy\":");
+            quote(json, loan.getMemberId());
+            json.append(",\"borrowDate\":\"").append(loan.getBorrowDate())
+                .append("\",\"dueDate\":\"").append(loan.getDueDate())
+                .append("\",\"overdue\":").append(loan.isOverdue(library.today()));
+        }
+        return json.append('}');
+    }
+
+    private static StringBuilder appendMember(StringBuilder json, Member member, boolean withLoans) {
+        json.append("{\"id\":");
+        quote(json, member.getMemberId());
+        json.append(",\"name\":");
+        quote(json, member.getName());
+        json.append(",\"email\":");
+        quote(json, member.getEmail());
+        json.append(",\"phone\":");
+        quote(json, member.getPhone());
+        json.append(",\"registered\":\"").append(member.getRegistrationDate()).append('"');
+        json.append(",\"tier\":\"").append(member.getTier()).append('"');
+        json.append(",\"borrowLimit\":").append(member.getBorrowLimit());
+        List<String> borrowed = member.getBorrowedBooks();
+        json.append(",\"borrowedCount\":").append(borrowed.size());
+        if (withLoans) {
+            json.append(",\"borrowed\":[");
+            for (int i = 0; i < borrowed.size(); i++) {
+                quote(json.append(i == 0 ? "" : ","), borrowed.get(i));
+            }
+            json.append(']');
+        }
+        return json.append('}');
+    }
+
+    private static void quote(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    // HTTP helpers
+    private static int statusFor(CirculationResult result) {
+        switch (result) {
+            case SUCCESS:
+            case RETURNED_OVERDUE:
+                return 200;
+            case BOOK_NOT_FOUND:
+            case MEMBER_NOT_FOUND:
+                return 404;
+            default:
+                return 409;
+        }
+    }
+
+    private static boolean requireMethod(HttpExchange exchange, String method) throws IOException {
+        if (exchange.getRequestMethod().equals(method)) {
+            return true;
+        }
+        sendError(exchange, 405, "Method not allowed");
+        return false;
+    }
+
+    // Query string parameters, plus any form-encoded request body
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+            try (InputStream body = exchange.getRequestBody()) {
+                parseForm(new String(body.readAllBytes(), StandardCharsets.UTF_8), params);
+            }
+        }
+        return params;
+    }
+
+    private static void parseForm(String encoded, Map<String, String> params) {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        for (String pair : encoded.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    // The decoded path segment after the prefix, e.g. the ISBN in /books/<isbn>
+    private static String pathTail(HttpExchange exchange, String prefix) {
+        String path = exchange.getRequestURI().getPath();
+        if (!path.startsWith(prefix) || path.length() == prefix.length()) {
+            return null;
+        }
+        return path.substring(prefix.length());
+    }
+
+    private static Integer parseInt(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        quote(json, message);
+        send(exchange, status, json.append('}').toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        send(exchange, status, json, "application/json; charset=utf-8");
+    }
+
+    private static void send(HttpExchange exchange, int status, String text, String contentType) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
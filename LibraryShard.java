@@ -0,0 +1,311 @@
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+// Library Shard Class
+// One partition of a ShardedLibrary: the books whose ISBN hashes here and the
+// members whose id hashes here. A shard's state is only touched by its own
+// worker thread, which runs the messages routed to it one at a time in
+// arrival order, so nothing in here takes a lock.
+//
+// A member's loans live with the books (in this shard's ledger when the book
+// is here); the member's home shard keeps the ISBNs they hold, plus the
+// borrows they have reserved but not yet settled, to enforce the borrowing
+// limit without asking every shard.
+class LibraryShard implements AutoCloseable {
+    private int index;
+    private Clock clock;
+    private TreeMap<String, Book> books;
+    private TreeMap<String, Account> accounts;
+    private LoanLedger ledger;
+    private NGramIndex titleIndex;
+    private NGramIndex authorIndex;
+    private SearchEngine rankedIndex;
+    private ExecutorService worker;
+
+    // Lends and takes back as of the clock's date, the ShardedLibrary's
+    public LibraryShard(int index, Clock clock) {
+        this.index = index;
+        this.clock = clock;
+        this.books = new TreeMap<>();
+        this.accounts = new TreeMap<>();
+        this.ledger = new LoanLedger();
+        this.titleIndex = new NGramIndex();
+        this.authorIndex = new NGramIndex();
+        this.rankedIndex = new SearchEngine();
+        this.worker = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "library-shard-" + index);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // A member registered with this shard and the ISBNs they hold anywhere
+    private static class Account {
+        private Member member;
+        private Set<String> loans = new HashSet<>();
+        private Set<String> reserved = new HashSet<>(); // borrows still being settled
+
+        Account(Member member) {
+            this.member = member;
+        }
+    }
+
+    // One ranked search result, with the score used to merge across shards
+    static class Match {
+        private Book book;
+        private float score;
+
+        Match(Book book, float score) {
+            this.book = book;
+            this.score = score;
+        }
+
+        public Book getBook() { return book; }
+        public float getScore() { return score; }
+    }
+
+    public int getIndex() { return index; }
+
+    // Queues the operation on this shard's thread
+    public <T> CompletableFuture<T> call(Function<LibraryShard, T> operation) {
+        return CompletableFuture.supplyAsync(() -> operation.apply(this), worker);
+    }
+
+    // Finishes the queued operations, then stops the worker
+    @Override
+    public void close() {
+        worker.shutdown();
+        try {
+            worker.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Everything below runs on the shard's thread, via call()
+
+    // Catalog
+    boolean addBook(Book book) {
+        if (books.putIfAbsent(book.getIsbn(), book) != null) {
+            return false;
+        }
+        book.attach(ledger, ledger.allocateSlot());
+        titleIndex.add(book.getIsbn(), book.getTitle());
+        authorIndex.add(book.getIsbn(), book.getAuthor());
+        rankedIndex.add(book.getIsbn(), book.getTitle(), book.getAuthor());
+        return true;
+    }
+
+    boolean removeBook(String isbn) {
+        Book book = books.get(isbn);
+        if (book == null || book.getAvailableCopies() < book.getCopies()) {
+            return false;
+        }
+        books.remove(isbn);
+        ledger.releaseSlot(book.getSlot());
+        book.detach();
+        titleIndex.remove(isbn);
+        authorIndex.remove(isbn);
+        rankedIndex.remove(isbn);
+        return true;
+    }
+
+    boolean addCopies(String isbn, int count) {
+        Book book = books.get(isbn);
+        if (book == null || count < 1) {
+            return false;
+        }
+        book.addCopies(count);
+        return true;
+    }
+
+    // Members
+    boolean registerMember(Member member) {
+        return accounts.putIfAbsent(member.getMemberId(), new Account(member)) == null;
+    }
+
+    boolean deregisterMember(String memberId) {
+        Account account = accounts.get(memberId);
+        if (account == null || !account.loans.isEmpty() || !account.reserved.isEmpty()) {
+            return false;
+        }
+        accounts.remove(memberId);
+        return true;
+    }
+
+    // Circulation, member side. A borrow first reserves a place under the
+    // member's limit here, then asks the book's shard for a copy, then
+    // settles the reservation with the outcome.
+    CirculationResult reserve(String memberId, String isbn) {
+        Account account = accounts.get(memberId);
+        if (account == null) {
+            return CirculationResult.MEMBER_NOT_FOUND;
+        }
+        if (account.loans.contains(isbn) || account.reserved.contains(isbn)) {
+            return CirculationResult.ALREADY_HAS_COPY;
+        }
+        if (account.loans.size() + account.reserved.size() >= account.member.getBorrowLimit()) {
+            return CirculationResult.LIMIT_REACHED;
+        }
+        account.reserved.add(isbn);
+        return CirculationResult.SUCCESS;
+    }
+
+    void settle(String memberId, String isbn, boolean lent) {
+        Account account = accounts.get(memberId);
+        if (account != null && account.reserved.remove(isbn) && lent) {
+            account.loans.add(isbn);
+        }
+    }
+
+    void forgetLoan(String memberId, String isbn) {
+        Account account = accounts.get(memberId);
+        if (account != null) {
+            account.loans.remove(isbn);
+        }
+    }
+
+    // Circulation, book side
+    CirculationResult lend(String isbn, String memberId) {
+        Book book = books.get(isbn);
+        if (book == null) {
+            return CirculationResult.BOOK_NOT_FOUND;
+        }
+        if (!book.isAvailable()) {
+            return CirculationResult.BOOK_NOT_AVAILABLE;
+        }
+        book.borrowBook(memberId, LocalDate.now(clock));
+        return CirculationResult.SUCCESS;
+    }
+
+    CirculationResult takeBack(String isbn, String memberId) {
+        Book book = books.get(isbn);
+        if (book == null) {
+            return CirculationResult.BOOK_NOT_FOUND;
+        }
+        Loan loan = book.getLoanOf(memberId);
+        if (loan == null) {
+            return CirculationResult.NOT_BORROWED_BY_MEMBER;
+        }
+        boolean overdue = loan.isOverdue(LocalDate.now(clock));
+        book.returnBook(memberId);
+        return overdue ? CirculationResult.RETURNED_OVERDUE : CirculationResult.SUCCESS;
+    }
+
+    // Both sides at once, when the book and the member share this shard
+    CirculationResult borrow(String isbn, String memberId) {
+        CirculationResult reserved = reserve(memberId, isbn);
+        if (reserved != CirculationResult.SUCCESS) {
+            return reserved;
+        }
+        CirculationResult result = lend(isbn, memberId);
+        settle(memberId, isbn, result == CirculationResult.SUCCESS);
+        return result;
+    }
+
+    CirculationResult giveBack(String isbn, String memberId) {
+        CirculationResult result = takeBack(isbn, memberId);
+        if (result.isSuccess()) {
+            forgetLoan(memberId, isbn);
+        }
+        return result;
+    }
+
+    // Queries
+    Book getBook(String isbn) {
+        return books.get(isbn);
+    }
+
+    Member getMember(String memberId) {
+        Account account = accounts.get(memberId);
+        return account == null ? null : account.member;
+    }
+
+    List<String> getBorrowedIsbns(String memberId) {
+        Account account = accounts.get(memberId);
+        return account == null ? Collections.emptyList() : new ArrayList<>(account.loans);
+    }
+
+    List<Book> searchByTitle(String title) {
+        return lookupBooks(titleIndex.search(title));
+    }
+
+    List<Book> searchByAuthor(String author) {
+        return lookupBooks(authorIndex.search(author));
+    }
+
+    // Scores use this shard's own term statistics; hash partitioning gives
+    // every shard much the same mix of words, so merged rankings stay close
+    // to those of a single index
+    List<Match> search(String query, int limit) {
+        List<Match> matches = new ArrayList<>();
+        for (SearchEngine.Hit hit : rankedIndex.search(query, limit)) {
+            Book book = books.get(hit.getIsbn());
+            if (book != null) {
+                matches.add(new Match(book, hit.getScore()));
+            }
+        }
+        return matches;
+    }
+
+    // Up to limit books after the ISBN (null for the first), in ISBN order
+    List<Book> booksAfter(String isbn, int limit, boolean availableOnly) {
+        Map<String, Book> rest = isbn == null ? books : books.tailMap(isbn, false);
+        List<Book> page = new ArrayList<>(limit);
+        for (Book book : rest.values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            if (!availableOnly || book.isAvailable()) {
+                page.add(book);
+            }
+        }
+        return page;
+    }
+
+    List<Member> membersAfter(String memberId, int limit) {
+        Map<String, Account> rest = memberId == null ? accounts : accounts.tailMap(memberId, false);
+        List<Member> page = new ArrayList<>(limit);
+        for (Account account : rest.values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(account.member);
+        }
+        return page;
+    }
+
+    List<Book> getOverdueBooks(LocalDate today) {
+        return lookupBooks(ledger.getOverdueIsbns(today));
+    }
+
+    int countBooks() {
+        return books.size();
+    }
+
+    int countMembers() {
+        return accounts.size();
+    }
+
+    long countBorrowedBooks() {
+        return ledger.getActiveLoanCount();
+    }
+
+    int countOverdueBooks(LocalDate today) {
+        return ledger.countOverdue(today);
+    }
+
+    private List<Book> lookupBooks(List<String> isbns) {
+        List<Book> result = new ArrayList<>(isbns.size());
+        for (String isbn : isbns) {
+            Book book = books.get(isbn);
+            if (book != null) {
+                result.add(book);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,236 @@
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.*;
+
+// Library Snapshot Class
+// A point-in-time view of a library's books and loans for reports and
+// searches. Every book is read as of the snapshot's version, so a report
+// shows each book whole (never a copy count from before a borrow next to the
+// loans from after it) and every book as of the same moment, across all of
+// its pages, while borrows and returns carry on. Reading takes no lock;
+// opening and closing take a brief one to register the snapshot.
+//
+// Close it when done: until then the library keeps the old versions it may
+// read. Reports that follow loans (borrowed, overdue, due soon) walk the
+// ledger's current loans and the loans returned since the snapshot was
+// taken, and keep those that were open at its version.
+class LibrarySnapshot implements AutoCloseable {
+    private CatalogVersions versions;
+    private LoanLedger ledger;
+    private Clock clock; // the library's, for what's overdue or due soon
+    private long version;
+    private boolean closed;
+
+    LibrarySnapshot(CatalogVersions versions, LoanLedger ledger, Clock clock) {
+        this.versions = versions;
+        this.ledger = ledger;
+        this.clock = clock;
+        this.version = versions.openSnapshot();
+    }
+
+    public long getVersion() { return version; }
+
+    // The book as of this snapshot, or null if it wasn't in the catalog
+    public BookVersion getBook(String isbn) {
+        return versions.lookup(isbn, version);
+    }
+
+    // The books for the ISBNs, in order, skipping any not in the catalog
+    public List<BookVersion> getBooks(List<String> isbns) {
+        List<BookVersion> result = new ArrayList<>(isbns.size());
+        for (String isbn : isbns) {
+            BookVersion book = getBook(isbn);
+            if (book != null) {
+                result.add(book);
+            }
+        }
+        return result;
+    }
+
+    // Reports, with the same page tokens as Library's
+    public ReportPage<BookVersion> pageAllBooks(String token, int pageSize) {
+        return pageCatalog(token, pageSize, false);
+    }
+
+    public ReportPage<BookVersion> pageAvailableBooks(String token, int pageSize) {
+        return pageCatalog(token, pageSize, true);
+    }
+
+    public ReportPage<BookVersion> pageBorrowedBooks(String token, int pageSize) {
+        TreeMap<String, Loan> open = new TreeMap<>();
+        String after = token;
+        while (true) {
+            List<Loan> batch = ledger.getLoansAfter(after, pageSize);
+            for (Loan loan : batch) {
+                if (wasOpen(loan)) {
+                    open.put(loan.getItemId(), loan);
+                }
+            }
+            if (open.size() >= pageSize || batch.size() < pageSize) {
+                break;
+            }
+            after = batch.get(batch.size() - 1).getItemId();
+        }
+        for (CatalogVersions.ClosedLoan closed : versions.closedLoans()) {
+            Loan loan = closed.getLoan();
+            if ((token == null || loan.getItemId().compareTo(token) > 0) && wasOpen(loan)) {
+                open.put(loan.getItemId(), loan);
+            }
+        }
+
+        List<BookVersion> items = new ArrayList<>(Math.min(pageSize, open.size()));
+        String last = null;
+        int loans = 0;
+        for (Loan loan : open.values()) {
+            if (loans == pageSize) {
+                break;
+            }
+            BookVersion book = getBook(loan.getIsbn());
+            // A book's copies are adjacent in item order; list the book once
+            if (items.isEmpty() || items.get(items.size() - 1) != book) {
+                items.add(book);
+            }
+            last = loan.getItemId();
+            loans++;
+        }
+        return new ReportPage<>(items, loans == pageSize ? last : null);
+    }
+
+    public ReportPage<BookVersion> pageOverdueBooks(String token, int pageSize) {
+        return pageDueBooks(LocalDate.MIN, LocalDate.now(clock), token, pageSize);
+    }
+
+    public ReportPage<BookVersion> pageBooksDueWithin(int days, String token, int pageSize) {
+        LocalDate today = LocalDate.now(clock);
+        return pageDueBooks(today, today.plusDays(days + 1), token, pageSize);
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            versions.closeSnapshot(version);
+        }
+    }
+
+    private ReportPage<BookVersion> pageCatalog(String token, int pageSize, boolean availableOnly) {
+        if (versions.getStore() != null) {
+            return pageStore(token, pageSize, availableOnly);
+        }
+        NavigableMap<String, Book> books = token == null ? versions.books() : versions.books().tailMap(token, false);
+        List<BookVersion> items = new ArrayList<>(pageSize);
+        String last = null;
+        for (Map.Entry<String, Book> entry : books.entrySet()) {
+            BookVersion newest = entry.getValue().getVersion();
+            BookVersion book = newest == null ? null : newest.asOf(version);
+            last = entry.getKey();
+            if (book != null && (!availableOnly || book.isAvailable())) {
+                items.add(book);
+                if (items.size() == pageSize) {
+                    break;
+                }
+            }
+        }
+        return new ReportPage<>(items, items.size() == pageSize ? last : null);
+    }
+
+    // With a catalog store, books come in the store's order: tokens are
+    // "#<position>" while reading the store, then "~<ISBN>" through the books
+    // removed from it that this snapshot still sees, in ISBN order
+    private ReportPage<BookVersion> pageStore(String token, int pageSize, boolean availableOnly) {
+        CatalogStore store = versions.getStore();
+        List<BookVersion> items = new ArrayList<>(pageSize);
+        String last = "";
+        if (token == null || token.startsWith("#")) {
+            int position = token == null ? 0 : Integer.parseInt(token.substring(1));
+            int next = store.scan(position, stored -> {
+                if (items.size() == pageSize) {
+                    return false;
+                }
+                BookVersion book = versions.lookupStored(stored, version);
+                if (book != null && (!availableOnly || book.isAvailable())) {
+                    items.add(book);
+                }
+                return true;
+            });
+            if (next >= 0) {
+                return new ReportPage<>(items, "#" + next);
+            }
+        } else if (token.startsWith("~")) {
+            last = token.substring(1);
+        } else {
+            throw new IllegalArgumentException("Invalid page token: " + token);
+        }
+
+        for (Map.Entry<String, Book> entry : versions.books().tailMap(last, false).entrySet()) {
+            if (store.contains(entry.getKey())) {
+                continue; // listed from the store
+            }
+            BookVersion newest = entry.getValue().getVersion();
+            BookVersion book = newest == null ? null : newest.asOf(version);
+            if (book != null && (!availableOnly || book.isAvailable())) {
+                if (items.size() == pageSize) {
+                    return new ReportPage<>(items, "~" + last);
+                }
+                items.add(book);
+            }
+            last = entry.getKey();
+        }
+        return new ReportPage<>(items, null);
+    }
+
+    // Due-date tokens are "<epoch day>:<item id>" of the last loan on the page
+    private ReportPage<BookVersion> pageDueBooks(LocalDate from, LocalDate to, String token, int pageSize) {
+        LocalDate afterDate = null;
+        String afterItem = null;
+        if (token != null) {
+            int colon = token.indexOf(':');
+            afterDate = LocalDate.ofEpochDay(Long.parseLong(token.substring(0, colon)));
+            afterItem = token.substring(colon + 1);
+        }
+        TreeSet<Loan> open = new TreeSet<>(Comparator.comparing(Loan::getDueDate).thenComparing(Loan::getItemId));
+        LocalDate batchDate = afterDate;
+        String batchItem = afterItem;
+        while (true) {
+            List<Loan> batch = ledger.getLoansDue(from, to, batchDate, batchItem, pageSize);
+            for (Loan loan : batch) {
+                if (wasOpen(loan)) {
+                    open.add(loan);
+                }
+            }
+            if (open.size() >= pageSize || batch.size() < pageSize) {
+                break;
+            }
+            Loan lastInBatch = batch.get(batch.size() - 1);
+            batchDate = lastInBatch.getDueDate();
+            batchItem = lastInBatch.getItemId();
+        }
+        for (CatalogVersions.ClosedLoan closed : versions.closedLoans()) {
+            Loan loan = closed.getLoan();
+            LocalDate due = loan.getDueDate();
+            boolean inRange = !due.isBefore(from) && due.isBefore(to);
+            boolean afterToken = afterDate == null || due.isAfter(afterDate)
+                    || (due.equals(afterDate) && loan.getItemId().compareTo(afterItem) > 0);
+            if (inRange && afterToken && wasOpen(loan)) {
+                open.add(loan);
+            }
+        }
+
+        List<BookVersion> items = new ArrayList<>(Math.min(pageSize, open.size()));
+        Loan last = null;
+        for (Loan loan : open) {
+            if (items.size() == pageSize) {
+                break;
+            }
+            items.add(getBook(loan.getIsbn()));
+            last = loan;
+        }
+        String next = items.size() == pageSize ? last.getDueDate().toEpochDay() + ":" + last.getItemId() : null;
+        return new ReportPage<>(items, next);
+    }
+
+    private boolean wasOpen(Loan loan) {
+        BookVersion book = getBook(loan.getIsbn());
+        return book != null && book.holds(loan);
+    }
+}
@@ -0,0 +1,312 @@
+import java.time.Clock;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Library Stress Test
+// Hammers one Library from many threads with random borrows, returns, holds
+// and batches over a small catalog (so desks keep colliding on the same books
+// and members) and checks the circulation invariants:
+//   - no copy is ever lent to two members at once, and a member never has
+//     two copies of one title
+//   - no member goes over their tier's borrowing limit
+//   - the loan ledger, each member's LoanSet, each book's CopyPool and the
+//     running statistics agree on what is out and what is on the shelf
+// The first two are checked as they happen, by replaying the library's change
+// events in the order the library published them; everything is checked
+// again against the final state. Exits with status 1 if any check fails, so
+// it can gate a build. With --columnar the catalog is kept in a
+// ColumnarCatalog, so titles are loaded and let go as they circulate.
+//
+//   java LibraryStressTest [--threads 8] [--ops 50000] [--books 60] [--members 40] [--seed 42] [--columnar]
+public class LibraryStressTest {
+    private static final int MAX_REPORTED = 20;
+    private static final int MAX_BATCH = 4;
+
+    private Library library;
+    private List<String> isbns;
+    private List<String> memberIds;
+    private Queue<String> failures;
+    private AtomicLong succeeded;
+
+    // Loans as seen by replaying events: ISBN -> members holding a copy, and
+    // member -> loans held
+    private Map<String, Set<String>> borrowersByBook;
+    private Map<String, Integer> loansByMember;
+    private Map<String, Integer> copiesByBook;
+
+    public LibraryStressTest(CatalogStore store) {
+        this.library = new Library(false, Clock.systemDefaultZone(), store);
+        this.isbns = new ArrayList<>();
+        this.memberIds = new ArrayList<>();
+        this.failures = new ConcurrentLinkedQueue<>();
+        this.succeeded = new AtomicLong();
+        this.borrowersByBook = new HashMap<>();
+        this.loansByMember = new HashMap<>();
+        this.copiesByBook = new HashMap<>();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = 8;
+        int ops = 50000;
+        int books = 60;
+        int members = 40;
+        long seed = 42;
+        boolean columnar = false;
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--columnar")) {
+                columnar = true;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                System.err.println("Missing value for " + option);
+                System.exit(2);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--ops":
+                    ops = Integer.parseInt(value);
+                    break;
+                case "--books":
+                    books = Integer.parseInt(value);
+                    break;
+                case "--members":
+                    members = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + option);
+                    System.exit(2);
+            }
+        }
+        LibraryStressTest test = new LibraryStressTest(columnar ? new ColumnarCatalog() : null);
+        test.populate(books, members, seed);
+        boolean passed = test.run(threads, ops, seed);
+        System.exit(passed ? 0 : 1);
+    }
+
+    // One in three titles has two to four copies; one in four members is staff
+    public void populate(int bookCount, int memberCount, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < bookCount; i++) {
+            String isbn = String.format("978-%09d", i);
+            library.addBook(new Book(isbn, "Title " + i, "Author " + (i % 7), 1990 + i % 30));
+            int copies = i % 3 == 0 ? 2 + random.nextInt(3) : 1;
+            if (copies > 1) {
+                library.addCopies(isbn, copies - 1);
+            }
+            isbns.add(isbn);
+            copiesByBook.put(isbn, copies);
+        }
+        for (int i = 0; i < memberCount; i++) {
+            String memberId = String.format("M%05d", i);
+            MemberTier tier = i % 4 == 0 ? MemberTier.STAFF : MemberTier.STUDENT;
+            library.registerMember(new Member(memberId, "Member " + i, memberId + "@example.edu",
+                                              String.format("555-%05d", i), tier));
+            memberIds.add(memberId);
+        }
+    }
+
+    public boolean run(int threads, int opsPerThread, long seed) throws Exception {
+        EventBus events = new EventBus(1 << 16, EventBus.Overflow.BLOCK);
+        events.subscribe("stress-audit", this::audit);
+        library.attachEventBus(events);
+        System.out.printf("Running %d threads x %d operations over %d books and %d members%n",
+                          threads, opsPerThread, isbns.size(), memberIds.size());
+
+        long began = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long workerSeed = seed * 31 + t;
+            workers.add(pool.submit(() -> work(new Random(workerSeed), opsPerThread)));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        pool.shutdown();
+        double seconds = (System.nanoTime() - began) / 1e9;
+        events.close(); // waits for the audit to see every event
+
+        checkFinalState();
+        System.out.printf("%d operations (%d succeeded) in %.1f s, %.0f ops/s; %d loans open%n",
+                          (long) threads * opsPerThread, succeeded.get(), seconds,
+                          threads * opsPerThread / seconds, library.countBorrowedBooks());
+        if (failures.isEmpty()) {
+            System.out.println("PASSED");
+            return true;
+        }
+        System.out.println("FAILED: " + failures.size() + " violation(s)");
+        int shown = 0;
+        for (String failure : failures) {
+            if (shown++ == MAX_REPORTED) {
+                System.out.println("  ...");
+                break;
+            }
+            System.out.println("  " + failure);
+        }
+        return false;
+    }
+
+    private void work(Random random, int ops) {
+        for (int i = 0; i < ops; i++) {
+            String isbn = isbns.get(random.nextInt(isbns.size()));
+            String memberId = memberIds.get(random.nextInt(memberIds.size()));
+            int pick = random.nextInt(100);
+            boolean ok;
+            if (pick < 35) {
+                ok = library.tryBorrow(isbn, memberId).isSuccess();
+            } else if (pick < 70) {
+                ok = library.tryReturn(heldOrAny(random, memberId, isbn), memberId).isSuccess();
+            } else if (pick < 80) {
+                ok = library.placeHold(isbn, memberId).isSuccess();
+            } else if (pick < 85) {
+                ok = library.cancelHold(isbn, memberId).isSuccess();
+            } else {
+                ok = library.circulate(randomBatch(random)).isApplied();
+            }
+            if (ok) {
+                succeeded.incrementAndGet();
+            }
+        }
+    }
+
+    // Mostly one of the member's own loans, as a return at the desk would be
+    private String heldOrAny(Random random, String memberId, String isbn) {
+        List<String> held = library.getMember(memberId).getBorrowedBooks();
+        return held.isEmpty() || random.nextInt(4) == 0 ? isbn : held.get(random.nextInt(held.size()));
+    }
+
+    // A few borrows and returns, mostly for one member as at a self-checkout
+    private List<CirculationRequest> randomBatch(Random random) {
+        int size = 1 + random.nextInt(MAX_BATCH);
+        String memberId = memberIds.get(random.nextInt(memberIds.size()));
+        List<CirculationRequest> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String borrower = random.nextInt(4) == 0 ? memberIds.get(random.nextInt(memberIds.size())) : memberId;
+            CirculationRequest.Type type = random.nextBoolean() ? CirculationRequest.Type.BORROW
+                                                                : CirculationRequest.Type.RETURN;
+            String isbn = isbns.get(random.nextInt(isbns.size()));
+            if (type == CirculationRequest.Type.RETURN) {
+                isbn = heldOrAny(random, borrower, isbn);
+            }
+            batch.add(new CirculationRequest(type, isbn, borrower));
+        }
+        return batch;
+    }
+
+    // Event subscriber, on the bus's thread. Events come in the order they
+    // were published, and a loan's event is published with its book's and
+    // member's stripes held, so replaying them shows each book and member as
+    // it was at every step.
+    private void audit(List<LibraryEvent> batch) {
+        for (LibraryEvent event : batch) {
+            String isbn = event.getIsbn();
+            String memberId = event.getMemberId();
+            Set<String> borrowers = borrowersByBook.computeIfAbsent(isbn, key -> new HashSet<>());
+            if (event.getType() == LibraryEvent.Type.BOOK_BORROWED) {
+                if (!borrowers.add(memberId)) {
+                    fail("event " + event.getSequence() + ": " + memberId + " borrowed a second copy of " + isbn);
+                }
+                int copies = copiesByBook.getOrDefault(isbn, 1);
+                if (borrowers.size() > copies) {
+                    fail("event " + event.getSequence() + ": " + isbn + " has " + borrowers.size()
+                         + " loans but only " + copies + " copies");
+                }
+                int held = loansByMember.merge(memberId, 1, Integer::sum);
+                int limit = library.getMember(memberId).getBorrowLimit();
+                if (held > limit) {
+                    fail("event " + event.getSequence() + ": " + memberId + " holds " + held
+                         + " loans, over the limit of " + limit);
+                }
+            } else if (event.getType() == LibraryEvent.Type.BOOK_RETURNED) {
+                if (!borrowers.remove(memberId)) {
+                    fail("event " + event.getSequence() + ": " + memberId + " returned " + isbn
+                         + " without having borrowed it");
+                }
+                loansByMember.merge(memberId, -1, Integer::sum);
+            }
+        }
+    }
+
+    // With every thread stopped: books, members, the ledger and the
+    // statistics must all describe the same loans
+    private void checkFinalState() {
+        long bookLoans = 0;
+        long onShelf = 0;
+        for (String isbn : isbns) {
+            Book book = library.searchByISBN(isbn);
+            List<Loan> loans = book.getLoans();
+            Set<Integer> copies = new HashSet<>();
+            Set<String> borrowers = new HashSet<>();
+            for (Loan loan : loans) {
+                if (loan.getCopy() < 1 || loan.getCopy() > book.getCopies()) {
+                    fail(isbn + ": loan of copy " + loan.getCopy() + " of " + book.getCopies());
+                }
+                if (!copies.add(loan.getCopy())) {
+                    fail(isbn + ": copy " + loan.getCopy() + " is lent twice");
+                }
+                if (!borrowers.add(loan.getMemberId())) {
+                    fail(isbn + ": " + loan.getMemberId() + " has two copies");
+                }
+                if (book.getLoanOf(loan.getMemberId()) != loan) {
+                    fail(isbn + ": the ledger doesn't find " + loan.getMemberId() + "'s loan");
+                }
+            }
+            if (loans.size() + book.getAvailableCopies() != book.getCopies()) {
+                fail(isbn + ": " + loans.size() + " on loan + " + book.getAvailableCopies()
+                     + " on the shelf != " + book.getCopies() + " copies");
+            }
+            if (book.isAvailable() != (book.getAvailableCopies() > 0)) {
+                fail(isbn + ": available is " + book.isAvailable() + " with "
+                     + book.getAvailableCopies() + " copies on the shelf");
+            }
+            if (!borrowers.equals(borrowersByBook.getOrDefault(isbn, Collections.emptySet()))) {
+                fail(isbn + ": borrowers " + borrowers + " but the events say "
+                     + borrowersByBook.get(isbn));
+            }
+            bookLoans += loans.size();
+            onShelf += book.getAvailableCopies();
+        }
+
+        long memberLoans = 0;
+        for (String memberId : memberIds) {
+            Member member = library.getMember(memberId);
+            LoanSet loanSet = member.getLoans();
+            if (loanSet.size() > member.getBorrowLimit()) {
+                fail(memberId + ": " + loanSet.size() + " loans, over the limit of " + member.getBorrowLimit());
+            }
+            for (String isbn : member.getBorrowedBooks()) {
+                if (library.searchByISBN(isbn).getLoanOf(memberId) == null) {
+                    fail(memberId + ": LoanSet has " + isbn + " but the book has no loan to them");
+                }
+            }
+            for (String isbn : library.getHolds(memberId)) {
+                if (library.searchByISBN(isbn).getLoanOf(memberId) != null) {
+                    fail(memberId + ": waiting for " + isbn + " while holding a copy");
+                }
+            }
+            memberLoans += loanSet.size();
+        }
+
+        CatalogStatistics statistics = library.getStatistics();
+        long ledgerLoans = library.countBorrowedBooks();
+        if (bookLoans != ledgerLoans || memberLoans != ledgerLoans || statistics.getCopiesOnLoan() != ledgerLoans) {
+            fail("loans: books " + bookLoans + ", members " + memberLoans + ", ledger " + ledgerLoans
+                 + ", statistics " + statistics.getCopiesOnLoan());
+        }
+        if (statistics.getCopiesOnShelf() != onShelf) {
+            fail("on the shelf: books " + onShelf + ", statistics " + statistics.getCopiesOnShelf());
+        }
+    }
+
+    private void fail(String message) {
+        failures.add(message);
+    }
+}
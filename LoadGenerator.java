@@ -0,0 +1,180 @@
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Load Generator
+// Drives a running LibraryServer with many concurrent clients and reports
+// throughput and latency percentiles. The request mix is mostly searches and
+// lookups, with borrow/return pairs against books and members read from the
+// server's own reports.
+//
+//   java LoadGenerator [--url http://localhost:8080] [--clients 200] [--seconds 30]
+public class LoadGenerator {
+    private static final String[] SEARCH_TERMS = {"java", "code", "design", "effective", "pattern", "clean"};
+    private static final Pattern ISBN_FIELD = Pattern.compile("\"isbn\":\"([^\"]*)\"");
+    private static final Pattern ID_FIELD = Pattern.compile("\"id\":\"([^\"]*)\"");
+
+    private String baseUrl;
+    private HttpClient client;
+    private List<String> isbns;
+    private List<String> memberIds;
+
+    public LoadGenerator(String baseUrl) {
+        this.baseUrl = baseUrl;
+        this.client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = "http://localhost:8080";
+        int clients = 200;
+        int seconds = 30;
+        for (int i = 0; i < args.length - 1; i += 2) {
+            switch (args[i]) {
+                case "--url":
+                    url = args[i + 1];
+                    break;
+                case "--clients":
+                    clients = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        new LoadGenerator(url).run(clients, seconds);
+    }
+
+    public void run(int clients, int seconds) throws Exception {
+        isbns = collect("/reports/all?size=1000", ISBN_FIELD);
+        memberIds = collect("/reports/members?size=1000", ID_FIELD);
+        if (isbns.isEmpty() || memberIds.isEmpty()) {
+            System.err.println("The server needs at least one book and one member.");
+            return;
+        }
+        System.out.printf("Running %d clients for %ds against %s (%d books, %d members)%n",
+                          clients, seconds, baseUrl, isbns.size(), memberIds.size());
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<ClientStats>> futures = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            futures.add(pool.submit(() -> runClient(deadline)));
+        }
+
+        ClientStats total = new ClientStats();
+        for (Future<ClientStats> future : futures) {
+            total.merge(future.get());
+        }
+        pool.shutdown();
+        report(total, seconds);
+    }
+
+    // One simulated desk: issues requests back to back until the deadline
+    private ClientStats runClient(long deadline) {
+        ClientStats stats = new ClientStats();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            int pick = random.nextInt(100);
+            if (pick < 50) {
+                String term = SEARCH_TERMS[random.nextInt(SEARCH_TERMS.length)];
+                timed(stats, get((random.nextBoolean() ? "/books?title=" : "/books?author=") + encode(term)));
+            } else if (pick < 70) {
+                timed(stats, get("/books?isbn=" + encode(isbns.get(random.nextInt(isbns.size())))));
+            } else if (pick < 80) {
+                timed(stats, get("/members/" + encode(memberIds.get(random.nextInt(memberIds.size())))));
+            } else {
+                String query = "?isbn=" + encode(isbns.get(random.nextInt(isbns.size())))
+                             + "&member=" + encode(memberIds.get(random.nextInt(memberIds.size())));
+                if (timed(stats, post("/loans/borrow" + query)) == 200) {
+                    timed(stats, post("/loans/return" + query));
+                }
+            }
+        }
+        return stats;
+    }
+
+    // Sends the request and records its latency; returns the status, or -1 on failure
+    private int timed(ClientStats stats, HttpRequest request) {
+        long start = System.nanoTime();
+        try {
+            int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            stats.record(System.nanoTime() - start);
+            return status;
+        } catch (Exception e) {
+            stats.errors++;
+            return -1;
+        }
+    }
+
+    private List<String> collect(String path, Pattern field) throws Exception {
+        String body = client.send(get(path), HttpResponse.BodyHandlers.ofString()).body();
+        List<String> values = new ArrayList<>();
+        Matcher matcher = field.matcher(body);
+        while (matcher.find()) {
+            values.add(matcher.group(1));
+        }
+        return values;
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build();
+    }
+
+    private HttpRequest post(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).POST(HttpRequest.BodyPublishers.noBody()).build();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static void report(ClientStats total, int seconds) {
+        long[] latencies = Arrays.copyOf(total.latencies, total.count);
+        Arrays.sort(latencies);
+        System.out.println("\n=== LOAD TEST RESULTS ===");
+        System.out.printf("Requests:   %d (%d errors)%n", total.count, total.errors);
+        System.out.printf("Throughput: %.1f req/s%n", total.count / (double) seconds);
+        if (latencies.length > 0) {
+            System.out.printf("Latency:    p50 %.2f ms | p90 %.2f ms | p99 %.2f ms | p99.9 %.2f ms | max %.2f ms%n",
+                              percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+                              percentile(latencies, 99.9), latencies[latencies.length - 1] / 1e6);
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    // Per-client latencies, merged once the run is over
+    private static class ClientStats {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+
+        void record(long nanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+
+        void merge(ClientStats other) {
+            for (int i = 0; i < other.count; i++) {
+                record(other.latencies[i]);
+            }
+            errors += other.errors;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+import java.time.LocalDate;
+
+// Loan Class
+// One active loan of one copy of a book. Immutable, so a reader always sees
+// the borrower and dates of the same loan together.
+class Loan {
+    static final char COPY_SEPARATOR = '#';
+
+    private String isbn;
+    private int copy;       // 1 for a book's first (or only) copy
+    private String memberId;
+    private LocalDate borrowDate;
+    private LocalDate dueDate;
+
+    public Loan(String isbn, String memberId, LocalDate borrowDate, LocalDate dueDate) {
+        this(isbn, 1, memberId, borrowDate, dueDate);
+    }
+
+    public Loan(String isbn, int copy, String memberId, LocalDate borrowDate, LocalDate dueDate) {
+        this.isbn = isbn;
+        this.copy = copy;
+        this.memberId = memberId;
+        this.borrowDate = borrowDate;
+        this.dueDate = dueDate;
+    }
+
+    public String getIsbn() { return isbn; }
+    public int getCopy() { return copy; }
+    public String getMemberId() { return memberId; }
+    public LocalDate getBorrowDate() { return borrowDate; }
+    public LocalDate getDueDate() { return dueDate; }
+
+    // Identifies the physical copy: the ISBN for copy 1, "<isbn>#<copy>" for
+    // the others, so a book's copies sort together right after its ISBN
+    public String getItemId() {
+        return itemId(isbn, copy);
+    }
+
+    static String itemId(String isbn, int copy) {
+        return copy == 1 ? isbn : isbn + COPY_SEPARATOR + copy;
+    }
+
+    public boolean isOverdue(LocalDate today) {
+        return today.isAfter(dueDate);
+    }
+}
@@ -0,0 +1,1034 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Loan History Class
+// Append-only archive of finished loans, for audits and usage analytics.
+// Loans are partitioned by the month they were returned in, and each month
+// is a run of blocks of up to BLOCK_RECORDS loans stored as columns:
+//   - ISBNs and member ids are dictionary-encoded per block; each dictionary
+//     is sorted and front-coded (length of the prefix shared with the entry
+//     before, then the rest)
+//   - return days are deltas from the loan before; borrow days are offsets
+//     back from the return, due days offsets on from the borrow
+//   - all of them are varints, and the block is then deflated at the
+//     fastest level, as sealing runs on a return; a header gives each
+//     section's length, so a query decodes only what it needs
+// Every block and every month keeps min/max summaries (ISBN, member, borrow
+// and return day) in memory, so a query like "loans of ISBN X in 2025" or
+// "member Y's history" passes over months and blocks that can't match
+// without reading them. A block that is read still skips its rows when the
+// ISBN or member isn't in its dictionary.
+//
+// Within a month, loans go to one of LANES lanes by a hash of the ISBN, each
+// with its own lock and open (uncompressed) block, so returns at different
+// desks rarely wait for each other, and a query for one ISBN only reads the
+// blocks of its lane. A lane's open block is sealed once it has
+// BLOCK_RECORDS loans. With a directory, sealed blocks are appended to one
+// file per month (loans-2025-03.hist) framed as [length][crc32][payload],
+// and open blocks are sealed and written on close. Without a directory,
+// sealed blocks stay in memory.
+//
+// The open blocks aren't lost if the process dies instead: each journal
+// checkpoint puts an image of them (their rows, and how many blocks each
+// lane had sealed) in its snapshot, and the journal logs every return with
+// its date. Recovery hands both back through recover(), which skips the
+// loans a block sealed since the checkpoint already holds.
+class LoanHistory implements Closeable {
+    private static final int BLOCK_RECORDS = 8192;
+    private static final int LANE_BITS = 4;
+    private static final int LANES = 1 << LANE_BITS; // part of the file format, like the block layout
+    // Sections of a block, in order
+    private static final int ISBN_DICTIONARY = 0;
+    private static final int MEMBER_DICTIONARY = 1;
+    private static final int ISBN_IDS = 2;
+    private static final int MEMBER_IDS = 3;
+    private static final int COPIES = 4;
+    private static final int RETURN_DAYS = 5;
+    private static final int LOAN_DAYS = 6;
+    private static final int DUE_OFFSETS = 7;
+    private static final int SECTIONS = 8;
+    private static final int FRAME_HEADER = 8;
+    private static final int SUMMARY_READ = 512; // enough for a block summary with ordinary ids
+    private static final String PREFIX = "loans-";
+    private static final String SUFFIX = ".hist";
+
+    private Path directory; // null: kept in memory
+    private ConcurrentSkipListMap<Integer, Partition> partitions; // by month number (year * 12 + month - 1)
+    private Lane[] lanes;
+    private LongAdder records;
+    private volatile Partition current; // the month most returns go to
+    private volatile boolean writeFailed;
+
+    // While the journal recovers: the blocks each lane had sealed at the
+    // checkpoint, by month, and the loans in blocks sealed since, by month
+    // and lane, counted by row
+    private Map<Integer, int[]> sealedAtCheckpoint;
+    private Map<Integer, Map<String, Integer>> sealedSince;
+
+    public LoanHistory() {
+        this.partitions = new ConcurrentSkipListMap<>();
+        this.lanes = new Lane[LANES];
+        for (int i = 0; i < LANES; i++) {
+            lanes[i] = new Lane();
+        }
+        this.records = new LongAdder();
+    }
+
+    // Opens the archive in the directory, reading the summaries of the blocks
+    // already there; a torn block at the end of a file is dropped
+    public LoanHistory(Path directory) throws IOException {
+        this();
+        this.directory = directory;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String yearMonth = name.substring(PREFIX.length(), name.length() - SUFFIX.length());
+                int month;
+                try {
+                    month = Integer.parseInt(yearMonth.substring(0, 4)) * 12
+                            + Integer.parseInt(yearMonth.substring(5)) - 1;
+                } catch (RuntimeException e) {
+                    continue; // not one of ours
+                }
+                Partition partition = new Partition(month);
+                partition.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                loadBlocks(partition);
+                partitions.put(month, partition);
+                for (Summary summary : partition.summaries) {
+                    records.add(summary.count);
+                }
+            }
+        }
+    }
+
+    // Min/max of the loans in a block or a month
+    private static class Summary {
+        private int count;
+        private String minIsbn;
+        private String maxIsbn;
+        private String minMember;
+        private String maxMember;
+        private int minBorrowDay = Integer.MAX_VALUE;
+        private int maxBorrowDay = Integer.MIN_VALUE;
+        private int minReturnDay = Integer.MAX_VALUE;
+        private int maxReturnDay = Integer.MIN_VALUE;
+
+        void add(String isbn, String memberId, int borrowDay, int returnDay) {
+            count++;
+            widen(isbn, isbn, memberId, memberId, borrowDay, borrowDay, returnDay, returnDay);
+        }
+
+        void add(Summary block) {
+            count += block.count;
+            widen(block.minIsbn, block.maxIsbn, block.minMember, block.maxMember,
+                  block.minBorrowDay, block.maxBorrowDay, block.minReturnDay, block.maxReturnDay);
+        }
+
+        private void widen(String lowIsbn, String highIsbn, String lowMember, String highMember,
+                           int lowBorrow, int highBorrow, int lowReturn, int highReturn) {
+            if (minIsbn == null || lowIsbn.compareTo(minIsbn) < 0) {
+                minIsbn = lowIsbn;
+            }
+            if (maxIsbn == null || highIsbn.compareTo(maxIsbn) > 0) {
+                maxIsbn = highIsbn;
+            }
+            if (minMember == null || lowMember.compareTo(minMember) < 0) {
+                minMember = lowMember;
+            }
+            if (maxMember == null || highMember.compareTo(maxMember) > 0) {
+                maxMember = highMember;
+            }
+            minBorrowDay = Math.min(minBorrowDay, lowBorrow);
+            maxBorrowDay = Math.max(maxBorrowDay, highBorrow);
+            minReturnDay = Math.min(minReturnDay, lowReturn);
+            maxReturnDay = Math.max(maxReturnDay, highReturn);
+        }
+
+        // Whether a loan of the ISBN and member (null for any) that was out
+        // at some point between the two days can be among these
+        boolean mayMatch(String isbn, String memberId, int fromDay, int toDay) {
+            return count > 0
+                    && minBorrowDay <= toDay && maxReturnDay >= fromDay
+                    && (isbn == null || (isbn.compareTo(minIsbn) >= 0 && isbn.compareTo(maxIsbn) <= 0))
+                    && (memberId == null || (memberId.compareTo(minMember) >= 0 && memberId.compareTo(maxMember) <= 0));
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(count);
+            out.writeUTF(minIsbn);
+            out.writeUTF(maxIsbn);
+            out.writeUTF(minMember);
+            out.writeUTF(maxMember);
+            out.writeInt(minBorrowDay);
+            out.writeInt(maxBorrowDay);
+            out.writeInt(minReturnDay);
+            out.writeInt(maxReturnDay);
+        }
+
+        static Summary read(DataInputStream in) throws IOException {
+            Summary summary = new Summary();
+            summary.count = in.readInt();
+            summary.minIsbn = in.readUTF();
+            summary.maxIsbn = in.readUTF();
+            summary.minMember = in.readUTF();
+            summary.maxMember = in.readUTF();
+            summary.minBorrowDay = in.readInt();
+            summary.maxBorrowDay = in.readInt();
+            summary.minReturnDay = in.readInt();
+            summary.maxReturnDay = in.readInt();
+            return summary;
+        }
+    }
+
+    // A sealed block: its lane and summary, and its deflated columns in
+    // memory or in the month's file
+    private static class Block {
+        private int lane;
+        private Summary summary;
+        private int rawLength;
+        private byte[] data;    // null when on disk
+        private FileChannel file;
+        private long position;  // of the frame in the file
+        private int length;     // of the frame's payload
+        private int dataOffset; // of the deflated columns within the payload
+    }
+
+    // The loans of one month still being added to, one array per column
+    private static class OpenBlock {
+        private String[] isbns;
+        private String[] members;
+        private int[] copies;
+        private int[] borrowDays;
+        private int[] dueDays;
+        private int[] returnDays;
+        private int count;
+        private Summary summary = new Summary();
+
+        OpenBlock(int capacity) {
+            this.isbns = new String[capacity];
+            this.members = new String[capacity];
+            this.copies = new int[capacity];
+            this.borrowDays = new int[capacity];
+            this.dueDays = new int[capacity];
+            this.returnDays = new int[capacity];
+        }
+    }
+
+    // The lock of one lane, held while its open blocks are filled and
+    // sealed, and its deflater
+    private static class Lane {
+        private Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    }
+
+    // A month; each lane's part is guarded by the lane's lock, the file by
+    // the partition's own
+    private static class Partition {
+        private int month;
+        private List<List<Block>> blocks; // per lane
+        private OpenBlock[] open;
+        private Summary[] summaries;      // per lane, sealed and open blocks together
+        private FileChannel channel;
+        private long size;                // of the file
+
+        Partition(int month) {
+            this.month = month;
+            this.blocks = new ArrayList<>(LANES);
+            this.open = new OpenBlock[LANES];
+            this.summaries = new Summary[LANES];
+            for (int i = 0; i < LANES; i++) {
+                blocks.add(new ArrayList<>());
+                summaries[i] = new Summary();
+            }
+        }
+    }
+
+    // Called with the book's lock stripe held; only copies a few fields,
+    // except when it fills a block and compresses it
+    public void record(Loan loan, LocalDate returnDate) {
+        add(loan.getIsbn(), loan.getMemberId(), loan.getCopy(), (int) loan.getBorrowDate().toEpochDay(),
+            (int) loan.getDueDate().toEpochDay(), (int) returnDate.toEpochDay());
+    }
+
+    private void add(String isbn, String memberId, int copy, int borrowDay, int dueDay, int returnDay) {
+        int month = monthOf(returnDay);
+        int lane = laneOf(isbn);
+        Partition partition = current;
+        if (partition == null || partition.month != month) {
+            partition = partitions.computeIfAbsent(month, Partition::new);
+            current = partition;
+        }
+        synchronized (lanes[lane]) {
+            OpenBlock open = partition.open[lane];
+            if (open == null) {
+                open = new OpenBlock(BLOCK_RECORDS);
+                partition.open[lane] = open;
+            }
+            int row = open.count++;
+            open.isbns[row] = isbn;
+            open.members[row] = memberId;
+            open.copies[row] = copy;
+            open.borrowDays[row] = borrowDay;
+            open.dueDays[row] = dueDay;
+            open.returnDays[row] = returnDay;
+            open.summary.add(isbn, memberId, borrowDay, returnDay);
+            partition.summaries[lane].add(isbn, memberId, borrowDay, returnDay);
+            if (open.count == BLOCK_RECORDS) {
+                seal(partition, lane);
+            }
+        }
+        records.increment();
+    }
+
+    public long size() {
+        return records.sum();
+    }
+
+    // Loans of the book that were out at any time from one date to the other
+    // (inclusive, null for open-ended), month by month
+    public List<LoanRecord> getBookHistory(String isbn, LocalDate from, LocalDate to) {
+        List<LoanRecord> found = new ArrayList<>();
+        scan(isbn, null, from, to, found::add);
+        return found;
+    }
+
+    public List<LoanRecord> getMemberHistory(String memberId, LocalDate from, LocalDate to) {
+        List<LoanRecord> found = new ArrayList<>();
+        scan(null, memberId, from, to, found::add);
+        return found;
+    }
+
+    // Passes every matching loan to the action, month by month (by the month
+    // each was returned in); null ISBN, member or dates match anything. Only
+    // picking the blocks takes the lanes' locks, not reading them. Returns
+    // the number found.
+    public long scan(String isbn, String memberId, LocalDate from, LocalDate to, Consumer<LoanRecord> action) {
+        int fromDay = from == null ? Integer.MIN_VALUE : (int) from.toEpochDay();
+        int toDay = to == null ? Integer.MAX_VALUE : (int) to.toEpochDay();
+        int firstMonth = from == null ? Integer.MIN_VALUE : from.getYear() * 12 + from.getMonthValue() - 1;
+
+        // Loans returned before the first month can't have been out since
+        List<Object> plan = new ArrayList<>(); // blocks, then a lane's open rows, month by month
+        int onlyLane = isbn == null ? -1 : laneOf(isbn);
+        for (Partition partition : partitions.tailMap(firstMonth, true).values()) {
+            for (int lane = 0; lane < LANES; lane++) {
+                if (onlyLane >= 0 && lane != onlyLane) {
+                    continue;
+                }
+                synchronized (lanes[lane]) {
+                    planLane(partition, lane, isbn, memberId, fromDay, toDay, plan);
+                }
+            }
+        }
+
+        long found = 0;
+        Inflater inflater = new Inflater();
+        try {
+            for (Object step : plan) {
+                if (step instanceof Block) {
+                    Block block = (Block) step;
+                    found += scanBlock(block, inflate(block, inflater), isbn, memberId, fromDay, toDay, action);
+                } else {
+                    @SuppressWarnings("unchecked")
+                    List<LoanRecord> rows = (List<LoanRecord>) step;
+                    rows.forEach(action);
+                    found += rows.size();
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+        return found;
+    }
+
+    // The open blocks' rows and each lane's sealed block count, month by
+    // month, for a journal snapshot. Called while nothing is recorded, so
+    // the image lines up with the journal's.
+    Image copyImage() {
+        Image image = new Image();
+        for (Partition partition : partitions.values()) {
+            int[] sealed = new int[LANES];
+            OpenBlock[] open = new OpenBlock[LANES];
+            for (int lane = 0; lane < LANES; lane++) {
+                synchronized (lanes[lane]) {
+                    sealed[lane] = partition.blocks.get(lane).size();
+                    OpenBlock rows = partition.open[lane];
+                    if (rows != null && rows.count > 0) {
+                        open[lane] = copyOf(rows);
+                    }
+                }
+            }
+            image.months.add(partition.month);
+            image.sealed.add(sealed);
+            image.open.add(open);
+        }
+        return image;
+    }
+
+    // An image's rows are copied, as the lane goes on filling its block
+    private static OpenBlock copyOf(OpenBlock rows) {
+        OpenBlock copy = new OpenBlock(rows.count);
+        System.arraycopy(rows.isbns, 0, copy.isbns, 0, rows.count);
+        System.arraycopy(rows.members, 0, copy.members, 0, rows.count);
+        System.arraycopy(rows.copies, 0, copy.copies, 0, rows.count);
+        System.arraycopy(rows.borrowDays, 0, copy.borrowDays, 0, rows.count);
+        System.arraycopy(rows.dueDays, 0, copy.dueDays, 0, rows.count);
+        System.arraycopy(rows.returnDays, 0, copy.returnDays, 0, rows.count);
+        copy.count = rows.count;
+        return copy;
+    }
+
+    static class Image {
+        private List<Integer> months = new ArrayList<>();
+        private List<int[]> sealed = new ArrayList<>();
+        private List<OpenBlock[]> open = new ArrayList<>();
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(months.size());
+            for (int i = 0; i < months.size(); i++) {
+                out.writeInt(months.get(i));
+                for (int lane = 0; lane < LANES; lane++) {
+                    OpenBlock rows = open.get(i)[lane];
+                    out.writeInt(sealed.get(i)[lane]);
+                    out.writeInt(rows == null ? 0 : rows.count);
+                    for (int row = 0; rows != null && row < rows.count; row++) {
+                        out.writeUTF(rows.isbns[row]);
+                        out.writeUTF(rows.members[row]);
+                        out.writeInt(rows.copies[row]);
+                        out.writeInt(rows.borrowDays[row]);
+                        out.writeInt(rows.dueDays[row]);
+                        out.writeInt(rows.returnDays[row]);
+                    }
+                }
+            }
+        }
+    }
+
+    // Forces the sealed blocks to disk, before a snapshot counts them
+    void force() throws IOException {
+        for (Partition partition : partitions.values()) {
+            synchronized (partition) {
+                if (partition.channel != null) {
+                    partition.channel.force(true);
+                }
+            }
+        }
+    }
+
+    // Starts taking back the loans of a journal snapshot's image, or with
+    // none (null), of a log that starts from scratch: every block already
+    // here was sealed after it began
+    void startRecovery(DataInputStream image) throws IOException {
+        sealedAtCheckpoint = new HashMap<>();
+        sealedSince = new HashMap<>();
+        if (image == null) {
+            return;
+        }
+        int months = image.readInt();
+        for (int i = 0; i < months; i++) {
+            int month = image.readInt();
+            int[] sealed = new int[LANES];
+            sealedAtCheckpoint.put(month, sealed);
+            for (int lane = 0; lane < LANES; lane++) {
+                sealed[lane] = image.readInt();
+                int rows = image.readInt();
+                for (int row = 0; row < rows; row++) {
+                    recover(image.readUTF(), image.readUTF(), image.readInt(), image.readInt(),
+                            image.readInt(), image.readInt());
+                }
+            }
+        }
+    }
+
+    // A loan the journal replayed the return of; kept unless a block sealed
+    // since the checkpoint has it. Does nothing outside recovery.
+    void recover(Loan loan, LocalDate returnDate) {
+        if (sealedSince != null) {
+            recover(loan.getIsbn(), loan.getMemberId(), loan.getCopy(), (int) loan.getBorrowDate().toEpochDay(),
+                    (int) loan.getDueDate().toEpochDay(), (int) returnDate.toEpochDay());
+        }
+    }
+
+    void finishRecovery() {
+        sealedAtCheckpoint = null;
+        sealedSince = null;
+    }
+
+    // Recovery runs before the library is shared, so on one thread
+    private void recover(String isbn, String memberId, int copy, int borrowDay, int dueDay, int returnDay) {
+        int month = monthOf(returnDay);
+        int lane = laneOf(isbn);
+        Map<String, Integer> sealed = sealedSince.computeIfAbsent(month * LANES + lane,
+                                                                  key -> readSealedSince(month, lane));
+        String row = rowKey(isbn, memberId, copy, borrowDay, dueDay, returnDay);
+        Integer count = sealed.get(row);
+        if (count == null) {
+            add(isbn, memberId, copy, borrowDay, dueDay, returnDay);
+        } else if (count == 1) {
+            sealed.remove(row);
+        } else {
+            sealed.put(row, count - 1);
+        }
+    }
+
+    // Read before recovery adds anything to the lane's month, so it only
+    // holds blocks that were written before the restart
+    private Map<String, Integer> readSealedSince(int month, int lane) {
+        Map<String, Integer> rows = new HashMap<>();
+        Partition partition = partitions.get(month);
+        int[] atCheckpoint = sealedAtCheckpoint.get(month);
+        if (partition == null) {
+            return rows;
+        }
+        List<Block> blocks = partition.blocks.get(lane);
+        Inflater inflater = new Inflater();
+        try {
+            int from = atCheckpoint == null ? 0 : Math.min(atCheckpoint[lane], blocks.size());
+            for (Block block : blocks.subList(from, blocks.size())) {
+                scanBlock(block, inflate(block, inflater), null, null, Integer.MIN_VALUE, Integer.MAX_VALUE,
+                          loan -> rows.merge(rowKey(loan.getIsbn(), loan.getMemberId(), loan.getCopy(),
+                                                    (int) loan.getBorrowDate().toEpochDay(),
+                                                    (int) loan.getDueDate().toEpochDay(),
+                                                    (int) loan.getReturnDate().toEpochDay()), 1, Integer::sum));
+            }
+        } finally {
+            inflater.end();
+        }
+        return rows;
+    }
+
+    private static String rowKey(String isbn, String memberId, int copy, int borrowDay, int dueDay, int returnDay) {
+        return isbn + '\n' + memberId + '\n' + copy + '\n' + borrowDay + '\n' + dueDay + '\n' + returnDay;
+    }
+
+    // Seals the open blocks and closes the files
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Partition partition : partitions.values()) {
+            for (int lane = 0; lane < LANES; lane++) {
+                synchronized (lanes[lane]) {
+                    if (partition.open[lane] != null && partition.open[lane].count > 0) {
+                        seal(partition, lane);
+                    }
+                }
+            }
+            synchronized (partition) {
+                if (partition.channel != null) {
+                    try {
+                        partition.channel.force(true);
+                        partition.channel.close();
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+        for (Lane lane : lanes) {
+            synchronized (lane) {
+                lane.deflater.end();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // The lane's blocks and open rows in the month that may hold matches;
+    // called with the lane's lock held
+    private void planLane(Partition partition, int lane, String isbn, String memberId, int fromDay, int toDay,
+                          List<Object> plan) {
+        if (!partition.summaries[lane].mayMatch(isbn, memberId, fromDay, toDay)) {
+            return;
+        }
+        for (Block block : partition.blocks.get(lane)) {
+            if (block.summary.mayMatch(isbn, memberId, fromDay, toDay)) {
+                plan.add(block);
+            }
+        }
+        OpenBlock open = partition.open[lane];
+        if (open == null || !open.summary.mayMatch(isbn, memberId, fromDay, toDay)) {
+            return;
+        }
+        List<LoanRecord> rows = new ArrayList<>();
+        for (int i = 0; i < open.count; i++) {
+            if (matches(open.isbns[i], open.members[i], open.borrowDays[i], open.returnDays[i],
+                        isbn, memberId, fromDay, toDay)) {
+                rows.add(new LoanRecord(open.isbns[i], open.copies[i], open.members[i],
+                                        LocalDate.ofEpochDay(open.borrowDays[i]),
+                                        LocalDate.ofEpochDay(open.dueDays[i]),
+                                        LocalDate.ofEpochDay(open.returnDays[i])));
+            }
+        }
+        plan.add(rows);
+    }
+
+    private static int monthOf(int day) {
+        LocalDate date = LocalDate.ofEpochDay(day);
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+
+    // From the top bits of a multiplicative hash: the low bits of the ISBNs
+    // in a lane then still differ, for the hash maps that build dictionaries
+    private static int laneOf(String isbn) {
+        return (isbn.hashCode() * 0x9E3779B9) >>> (32 - LANE_BITS);
+    }
+
+    private static boolean matches(String rowIsbn, String rowMember, int borrowDay, int returnDay,
+                                   String isbn, String memberId, int fromDay, int toDay) {
+        return borrowDay <= toDay && returnDay >= fromDay
+                && (isbn == null || isbn.equals(rowIsbn))
+                && (memberId == null || memberId.equals(rowMember));
+    }
+
+    // Writing blocks, with the lane's lock held
+
+    private void seal(Partition partition, int lane) {
+        OpenBlock open = partition.open[lane];
+        partition.open[lane] = null;
+        byte[] raw = encode(open);
+        Deflater deflater = lanes[lane].deflater;
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 3 + 64);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            compressed.write(chunk, 0, deflater.deflate(chunk));
+        }
+
+        Block block = new Block();
+        block.lane = lane;
+        block.summary = open.summary;
+        block.rawLength = raw.length;
+        block.data = compressed.toByteArray();
+        partition.blocks.get(lane).add(block);
+        if (directory != null) {
+            try {
+                write(partition, block);
+                block.data = null;
+            } catch (IOException e) {
+                // Kept in memory instead; the loans are still there until exit
+                if (!writeFailed) {
+                    writeFailed = true;
+                    System.err.println("Could not write loan history: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void write(Partition partition, Block block) throws IOException {
+        synchronized (partition) {
+            append(partition, block);
+        }
+    }
+
+    private void append(Partition partition, Block block) throws IOException {
+        if (partition.channel == null) {
+            int year = Math.floorDiv(partition.month, 12);
+            int month = Math.floorMod(partition.month, 12) + 1;
+            Path file = directory.resolve(String.format("%s%04d-%02d%s", PREFIX, year, month, SUFFIX));
+            partition.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                                 StandardOpenOption.READ, StandardOpenOption.WRITE);
+            partition.size = partition.channel.size();
+        }
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(block.data.length + 128);
+        DataOutputStream payload = new DataOutputStream(payloadBytes);
+        payload.writeByte(block.lane);
+        block.summary.write(payload);
+        payload.writeInt(block.rawLength);
+        int dataOffset = payload.size();
+        payload.write(block.data);
+
+        byte[] bytes = payloadBytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + bytes.length);
+        frame.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+        long position = partition.size;
+        while (frame.hasRemaining()) {
+            partition.channel.write(frame, position + frame.position());
+        }
+        partition.size += FRAME_HEADER + bytes.length;
+        block.file = partition.channel;
+        block.position = position;
+        block.length = bytes.length;
+        block.dataOffset = dataOffset;
+    }
+
+    // The row count and the length of every section but the last, then the
+    // sections: the two dictionaries and one column after another
+    private static byte[] encode(OpenBlock open) {
+        Bytes[] sections = new Bytes[SECTIONS];
+        for (int i = 0; i < SECTIONS; i++) {
+            sections[i] = new Bytes(open.count * 2 + 64);
+        }
+        int[] isbnIds = writeDictionary(sections[ISBN_DICTIONARY], open.isbns, open.count);
+        int[] memberIds = writeDictionary(sections[MEMBER_DICTIONARY], open.members, open.count);
+        int previous = open.summary.minReturnDay;
+        for (int i = 0; i < open.count; i++) {
+            sections[ISBN_IDS].writeVarInt(isbnIds[i]);
+            sections[MEMBER_IDS].writeVarInt(memberIds[i]);
+            sections[COPIES].writeVarInt(open.copies[i]);
+            sections[RETURN_DAYS].writeVarInt(zigzag(open.returnDays[i] - previous));
+            sections[LOAN_DAYS].writeVarInt(zigzag(open.returnDays[i] - open.borrowDays[i]));
+            sections[DUE_OFFSETS].writeVarInt(zigzag(open.dueDays[i] - open.borrowDays[i]));
+            previous = open.returnDays[i];
+        }
+
+        Bytes out = new Bytes(open.count * 8 + 1024);
+        out.writeVarInt(open.count);
+        for (int i = 0; i < SECTIONS - 1; i++) {
+            out.writeVarInt(sections[i].size);
+        }
+        for (Bytes section : sections) {
+            out.write(section.bytes, 0, section.size);
+        }
+        return out.toByteArray();
+    }
+
+    // Writes the distinct values in sorted order; returns each row's index
+    private static int[] writeDictionary(Bytes out, String[] values, int count) {
+        Map<String, Integer> ids = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            ids.putIfAbsent(values[i], 0);
+        }
+        String[] sorted = ids.keySet().toArray(new String[0]);
+        Arrays.sort(sorted);
+        out.writeVarInt(sorted.length);
+        byte[] previous = new byte[0];
+        for (int id = 0; id < sorted.length; id++) {
+            ids.put(sorted[id], id);
+            byte[] value = sorted[id].getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            int limit = Math.min(previous.length, value.length);
+            while (shared < limit && previous[shared] == value[shared]) {
+                shared++;
+            }
+            out.writeVarInt(shared);
+            out.writeVarInt(value.length - shared);
+            out.write(value, shared, value.length - shared);
+            previous = value;
+        }
+        int[] rows = new int[count];
+        for (int i = 0; i < count; i++) {
+            rows[i] = ids.get(values[i]);
+        }
+        return rows;
+    }
+
+    // A growable byte buffer for encoding; unlike ByteArrayOutputStream it
+    // takes no lock per byte
+    private static class Bytes {
+        private byte[] bytes;
+        private int size;
+
+        Bytes(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        void writeVarInt(int value) {
+            if (bytes.length - size < 5) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2 + 5);
+            }
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void write(byte[] source, int offset, int length) {
+            if (bytes.length - size < length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    // Reading blocks, without the archive's lock
+
+    private static byte[] inflate(Block block, Inflater inflater) {
+        byte[] compressed = block.data;
+        int offset = 0;
+        int length = compressed == null ? 0 : compressed.length;
+        if (compressed == null) {
+            compressed = readFrame(block);
+            offset = block.dataOffset;
+            length = compressed.length - offset;
+        }
+        byte[] raw = new byte[block.rawLength];
+        inflater.reset();
+        inflater.setInput(compressed, offset, length);
+        try {
+            int filled = 0;
+            while (filled < raw.length) {
+                int inflated = inflater.inflate(raw, filled, raw.length - filled);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new DataFormatException("block is shorter than its summary says");
+                }
+                filled += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new IOException("Corrupt loan history block", e));
+        }
+        return raw;
+    }
+
+    // The payload of a block's frame from its month's file, checked against its crc
+    private static byte[] readFrame(Block block) {
+        try {
+            ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + block.length);
+            readFully(block.file, frame, block.position);
+            frame.flip();
+            frame.getInt();
+            int expected = frame.getInt();
+            byte[] payload = new byte[block.length];
+            frame.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != expected) {
+                throw new IOException("Corrupt loan history block at offset " + block.position);
+            }
+            return payload;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Looks the ISBN and member up in the dictionaries' bytes and narrows
+    // the rows column by column; the rest is only decoded for blocks with a
+    // matching loan
+    private static long scanBlock(Block block, byte[] raw, String isbn, String memberId, int fromDay, int toDay,
+                                  Consumer<LoanRecord> action) {
+        int[] pos = new int[1];
+        int count = readVarInt(raw, pos);
+        int[] sectionAt = new int[SECTIONS];
+        int[] lengths = new int[SECTIONS - 1];
+        for (int i = 0; i < SECTIONS - 1; i++) {
+            lengths[i] = readVarInt(raw, pos);
+        }
+        sectionAt[0] = pos[0];
+        for (int i = 0; i < SECTIONS - 1; i++) {
+            sectionAt[i + 1] = sectionAt[i] + lengths[i];
+        }
+
+        int[] rows = null; // null: every row
+        if (isbn != null) {
+            int id = findInDictionary(raw, sectionAt[ISBN_DICTIONARY], isbn.getBytes(StandardCharsets.UTF_8));
+            if (id < 0) {
+                return 0; // not in this block
+            }
+            rows = selectRows(readColumn(raw, sectionAt[ISBN_IDS], count), id, rows, count);
+        }
+        if (memberId != null && (rows == null || rows.length > 0)) {
+            int id = findInDictionary(raw, sectionAt[MEMBER_DICTIONARY], memberId.getBytes(StandardCharsets.UTF_8));
+            if (id < 0) {
+                return 0;
+            }
+            rows = selectRows(readColumn(raw, sectionAt[MEMBER_IDS], count), id, rows, count);
+        }
+        if (rows != null && rows.length == 0) {
+            return 0;
+        }
+
+        int[] returnDays = readColumn(raw, sectionAt[RETURN_DAYS], count);
+        int day = block.summary.minReturnDay;
+        for (int i = 0; i < count; i++) {
+            day += unzigzag(returnDays[i]);
+            returnDays[i] = day;
+        }
+        int[] loanDays = readColumn(raw, sectionAt[LOAN_DAYS], count);
+        int[] copies = readColumn(raw, sectionAt[COPIES], count);
+        int[] dueOffsets = readColumn(raw, sectionAt[DUE_OFFSETS], count);
+        String[] isbns = isbn == null ? readDictionary(raw, sectionAt[ISBN_DICTIONARY]) : null;
+        int[] isbnIds = isbn == null ? readColumn(raw, sectionAt[ISBN_IDS], count) : null;
+        String[] members = memberId == null ? readDictionary(raw, sectionAt[MEMBER_DICTIONARY]) : null;
+        int[] memberIds = memberId == null ? readColumn(raw, sectionAt[MEMBER_IDS], count) : null;
+
+        long found = 0;
+        int selected = rows == null ? count : rows.length;
+        for (int r = 0; r < selected; r++) {
+            int i = rows == null ? r : rows[r];
+            int borrowDay = returnDays[i] - unzigzag(loanDays[i]);
+            if (borrowDay > toDay || returnDays[i] < fromDay) {
+                continue;
+            }
+            action.accept(new LoanRecord(isbn != null ? isbn : isbns[isbnIds[i]], copies[i],
+                                         memberId != null ? memberId : members[memberIds[i]],
+                                         LocalDate.ofEpochDay(borrowDay),
+                                         LocalDate.ofEpochDay(borrowDay + unzigzag(dueOffsets[i])),
+                                         LocalDate.ofEpochDay(returnDays[i])));
+            found++;
+        }
+        return found;
+    }
+
+    // The rows (of those given, or all when null) whose id is the wanted one
+    private static int[] selectRows(int[] ids, int wanted, int[] rows, int count) {
+        int[] selected = new int[rows == null ? count : rows.length];
+        int n = 0;
+        if (rows == null) {
+            for (int i = 0; i < count; i++) {
+                if (ids[i] == wanted) {
+                    selected[n++] = i;
+                }
+            }
+        } else {
+            for (int i : rows) {
+                if (ids[i] == wanted) {
+                    selected[n++] = i;
+                }
+            }
+        }
+        return Arrays.copyOf(selected, n);
+    }
+
+    private static String[] readDictionary(byte[] raw, int at) {
+        int[] pos = { at };
+        String[] values = new String[readVarInt(raw, pos)];
+        byte[] value = new byte[64];
+        for (int i = 0; i < values.length; i++) {
+            int shared = readVarInt(raw, pos);
+            int rest = readVarInt(raw, pos);
+            if (shared + rest > value.length) {
+                value = Arrays.copyOf(value, (shared + rest) * 2);
+            }
+            System.arraycopy(raw, pos[0], value, shared, rest);
+            pos[0] += rest;
+            values[i] = new String(value, 0, shared + rest, StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+
+    // The index of the value in the dictionary, or -1, comparing bytes
+    // against each entry as it is rebuilt
+    private static int findInDictionary(byte[] raw, int at, byte[] wanted) {
+        int[] pos = { at };
+        int size = readVarInt(raw, pos);
+        int matching = 0; // leading bytes of the current entry equal to wanted's
+        for (int i = 0; i < size; i++) {
+            int shared = readVarInt(raw, pos);
+            int rest = readVarInt(raw, pos);
+            int start = pos[0];
+            pos[0] += rest;
+            matching = Math.min(matching, shared);
+            if (matching == shared) {
+                int k = 0;
+                while (k < rest && shared + k < wanted.length && raw[start + k] == wanted[shared + k]) {
+                    k++;
+                }
+                matching = shared + k;
+            }
+            if (matching == wanted.length && shared + rest == wanted.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] readColumn(byte[] raw, int at, int count) {
+        int[] pos = { at };
+        int[] column = new int[count];
+        for (int i = 0; i < count; i++) {
+            column[i] = readVarInt(raw, pos);
+        }
+        return column;
+    }
+
+    private static int readVarInt(byte[] raw, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        int i = pos[0];
+        byte b;
+        do {
+            b = raw[i++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        pos[0] = i;
+        return value;
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Opening an existing month: reads each frame's summary and skips its columns
+
+    private void loadBlocks(Partition partition) throws IOException {
+        FileChannel channel = partition.channel;
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER);
+        while (position + FRAME_HEADER <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            if (length <= 0 || position + FRAME_HEADER + length > size) {
+                break; // torn write at the end
+            }
+            ByteBuffer start = ByteBuffer.allocate(Math.min(length, SUMMARY_READ));
+            readFully(channel, start, position + FRAME_HEADER);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(start.array()));
+            Block block = new Block();
+            try {
+                block.lane = in.readUnsignedByte();
+                block.summary = Summary.read(in);
+                block.rawLength = in.readInt();
+            } catch (EOFException e) {
+                // Unusually long ids; read the whole payload
+                ByteBuffer whole = ByteBuffer.allocate(length);
+                readFully(channel, whole, position + FRAME_HEADER);
+                in = new DataInputStream(new ByteArrayInputStream(whole.array()));
+                block.lane = in.readUnsignedByte();
+                block.summary = Summary.read(in);
+                block.rawLength = in.readInt();
+                start = whole;
+            }
+            if (block.lane >= LANES) {
+                throw new IOException("Corrupt loan history block at offset " + position);
+            }
+            block.dataOffset = start.capacity() - in.available();
+            block.file = channel;
+            block.position = position;
+            block.length = length;
+            partition.blocks.get(block.lane).add(block);
+            partition.summaries[block.lane].add(block.summary);
+            position += FRAME_HEADER + length;
+        }
+        if (position < size) {
+            channel.truncate(position);
+        }
+        partition.size = position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
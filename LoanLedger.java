@@ -0,0 +1,226 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Loan Ledger Class
+// Owns every active loan in a library. Books and members registered with the
+// ledger read their loan state from it instead of keeping their own fields:
+//   - each book gets an int slot, and a bitset over slots answers "is every
+//     copy on loan" (the book sets and clears the bit)
+//   - active loans are kept by item id (a book's copies sort together under
+//     its ISBN, in order, for paging) and by member, as an immutable LoanSet
+//     of packed ISBN keys that readers use without copying; a member has at
+//     most one copy of a title
+//   - loans are also indexed by due date for overdue queries
+// Callers serialize open/close per book and per member (Library holds both
+// lock stripes), so the ledger only needs thread-safe collections.
+class LoanLedger {
+    // Keys for ISBNs IsbnCodec can't pack; IsbnCodec values never use this bit
+    private static final long OTHER_KEY_FLAG = 1L << 62;
+
+    private ConcurrentSkipListMap<String, Loan> loansByItem;
+    private Map<String, LoanSet> loansByMember;
+    private Map<String, Long> otherKeys;
+    private Map<Long, String> otherIsbns;
+    private AtomicLong nextOtherKey;
+    private AtomicBitSet onLoan;
+    private DueDateIndex dueDates;
+    private LongAdder activeLoans;
+    private LongAdder totalBorrows;
+    private LongAdder totalReturns;
+    private AtomicInteger nextSlot;
+    private Queue<Integer> freeSlots;
+
+    public LoanLedger() {
+        this.loansByItem = new ConcurrentSkipListMap<>();
+        this.loansByMember = new ConcurrentHashMap<>();
+        this.otherKeys = new ConcurrentHashMap<>();
+        this.otherIsbns = new ConcurrentHashMap<>();
+        this.nextOtherKey = new AtomicLong();
+        this.onLoan = new AtomicBitSet();
+        this.dueDates = new DueDateIndex();
+        this.activeLoans = new LongAdder();
+        this.totalBorrows = new LongAdder();
+        this.totalReturns = new LongAdder();
+        this.nextSlot = new AtomicInteger();
+        this.freeSlots = new ConcurrentLinkedQueue<>();
+    }
+
+    // Slot management for books joining or leaving the library
+    public int allocateSlot() {
+        Integer slot = freeSlots.poll();
+        return slot != null ? slot : nextSlot.getAndIncrement();
+    }
+
+    public void releaseSlot(int slot) {
+        onLoan.clear(slot);
+        freeSlots.add(slot);
+    }
+
+    public Loan open(String isbn, int copy, String memberId, LocalDate borrowDate, LocalDate dueDate) {
+        Loan loan = new Loan(isbn, copy, memberId, borrowDate, dueDate);
+        loansByItem.put(loan.getItemId(), loan);
+        long key = keyFor(isbn);
+        loansByMember.compute(memberId, (id, loans) -> (loans == null ? LoanSet.EMPTY : loans).with(key));
+        dueDates.add(loan);
+        activeLoans.increment();
+        totalBorrows.increment();
+        return loan;
+    }
+
+    public void close(Loan loan) {
+        if (!loansByItem.remove(loan.getItemId(), loan)) {
+            return;
+        }
+        long key = keyFor(loan.getIsbn());
+        loansByMember.computeIfPresent(loan.getMemberId(), (id, loans) -> {
+            LoanSet remaining = loans.without(key);
+            return remaining.isEmpty() ? null : remaining;
+        });
+        dueDates.remove(loan);
+        activeLoans.decrement();
+        totalReturns.increment();
+    }
+
+    // The book's on-loan bit: set once no copy is left on the shelf
+    public void markOnLoan(int slot) {
+        onLoan.set(slot);
+    }
+
+    public void markAvailable(int slot) {
+        onLoan.clear(slot);
+    }
+
+    public boolean isOnLoan(int slot) {
+        return onLoan.get(slot);
+    }
+
+    // Loan of the book's first copy
+    public Loan getLoan(String isbn) {
+        return loansByItem.get(isbn);
+    }
+
+    // Loans of every copy of the book, in copy-key order
+    public List<Loan> getLoansOf(String isbn) {
+        List<Loan> loans = new ArrayList<>();
+        for (Loan loan : copyRange(isbn).values()) {
+            if (loan.getIsbn().equals(isbn)) {
+                loans.add(loan);
+            }
+        }
+        return loans;
+    }
+
+    public Loan getFirstLoan(String isbn) {
+        for (Loan loan : copyRange(isbn).values()) {
+            if (loan.getIsbn().equals(isbn)) {
+                return loan;
+            }
+        }
+        return null;
+    }
+
+    public Loan getLoan(String isbn, String memberId) {
+        if (!getLoanSet(memberId).contains(keyFor(isbn))) {
+            return null; // the common case, answered without touching the book's loans
+        }
+        for (Loan loan : copyRange(isbn).values()) {
+            if (loan.getIsbn().equals(isbn) && loan.getMemberId().equals(memberId)) {
+                return loan;
+            }
+        }
+        return null;
+    }
+
+    // Item ids from the ISBN up to, not including, the ISBN followed by the
+    // character after the copy separator
+    private Map<String, Loan> copyRange(String isbn) {
+        return loansByItem.subMap(isbn, true, isbn + (char) (Loan.COPY_SEPARATOR + 1), false);
+    }
+
+    public Collection<Loan> getActiveLoans() {
+        return Collections.unmodifiableCollection(loansByItem.values());
+    }
+
+    // Up to limit loans in item id order, starting after the given item id (null for the start)
+    public List<Loan> getLoansAfter(String afterItem, int limit) {
+        Map<String, Loan> loans = afterItem == null ? loansByItem : loansByItem.tailMap(afterItem, false);
+        List<Loan> page = new ArrayList<>(limit);
+        for (Loan loan : loans.values()) {
+            page.add(loan);
+            if (page.size() == limit) {
+                break;
+            }
+        }
+        return page;
+    }
+
+    // The member's loans as of now; later loans and returns don't change it
+    public LoanSet getLoanSet(String memberId) {
+        return loansByMember.getOrDefault(memberId, LoanSet.EMPTY);
+    }
+
+    public int countLoansOf(String memberId) {
+        return getLoanSet(memberId).size();
+    }
+
+    // Read-only list view of a loan set's ISBNs, decoded as they're read
+    public List<String> isbnsOf(LoanSet loans) {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return isbnFor(loans.keyAt(index));
+            }
+
+            @Override
+            public int size() {
+                return loans.size();
+            }
+        };
+    }
+
+    // Packed ISBN key used in loan sets; ISBNs IsbnCodec can't pack get an
+    // interned key instead (these are rare, so the table stays small)
+    public long keyFor(String isbn) {
+        long key = IsbnCodec.encode(isbn);
+        if (key != IsbnCodec.INVALID) {
+            return key;
+        }
+        return otherKeys.computeIfAbsent(isbn, other -> {
+            long assigned = OTHER_KEY_FLAG | nextOtherKey.getAndIncrement();
+            otherIsbns.put(assigned, other);
+            return assigned;
+        });
+    }
+
+    public String isbnFor(long key) {
+        return (key & OTHER_KEY_FLAG) != 0 ? otherIsbns.get(key) : IsbnCodec.decode(key);
+    }
+
+    // Counters
+    public long getActiveLoanCount() { return activeLoans.sum(); }
+    public long getTotalBorrows() { return totalBorrows.sum(); }
+    public long getTotalReturns() { return totalReturns.sum(); }
+
+    // Due date queries
+    public List<String> getOverdueIsbns(LocalDate today) {
+        return dueDates.overdue(today);
+    }
+
+    public List<String> getIsbnsDueBetween(LocalDate from, LocalDate to) {
+        return dueDates.dueBetween(from, to);
+    }
+
+    public int countOverdue(LocalDate today) {
+        return dueDates.countOverdue(today);
+    }
+
+    public List<Loan> getLoansDue(LocalDate from, LocalDate to, LocalDate afterDate, String afterItem, int limit) {
+        return dueDates.page(from, to, afterDate, afterItem, limit);
+    }
+}
@@ -0,0 +1,49 @@
+import java.time.LocalDate;
+
+// Loan Record Class
+// A finished loan as kept by LoanHistory: which copy went to whom, and when
+// it was borrowed, due and returned. Immutable.
+class LoanRecord implements ReportRow {
+    private String isbn;
+    private int copy;
+    private String memberId;
+    private LocalDate borrowDate;
+    private LocalDate dueDate;
+    private LocalDate returnDate;
+
+    public LoanRecord(String isbn, int copy, String memberId, LocalDate borrowDate, LocalDate dueDate,
+                      LocalDate returnDate) {
+        this.isbn = isbn;
+        this.copy = copy;
+        this.memberId = memberId;
+        this.borrowDate = borrowDate;
+        this.dueDate = dueDate;
+        this.returnDate = returnDate;
+    }
+
+    public String getIsbn() { return isbn; }
+    public int getCopy() { return copy; }
+    public String getMemberId() { return memberId; }
+    public LocalDate getBorrowDate() { return borrowDate; }
+    public LocalDate getDueDate() { return dueDate; }
+    public LocalDate getReturnDate() { return returnDate; }
+
+    public boolean wasReturnedLate() {
+        return returnDate.isAfter(dueDate);
+    }
+
+    @Override
+    public void appendTo(StringBuilder out, LocalDate today) {
+        out.append("ISBN: ").append(isbn);
+        if (copy > 1) {
+            out.append(" (copy ").append(copy).append(')');
+        }
+        out.append(" | Member: ").append(memberId)
+           .append(" | Borrowed: ").append(borrowDate)
+           .append(" | Due: ").append(dueDate)
+           .append(" | Returned: ").append(returnDate);
+        if (wasReturnedLate()) {
+            out.append(" [LATE]");
+        }
+    }
+}
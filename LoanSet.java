@@ -0,0 +1,72 @@
+import java.util.*;
+import java.util.function.LongConsumer;
+
+// Loan Set Class
+// The books one member has on loan, as packed ISBN keys (see
+// LoanLedger.keyFor) in a plain long array. Immutable: adding or removing a
+// loan builds a new set, so readers can hold on to a set, test membership and
+// iterate it without locks, copies or boxing. Sets are small (bounded by the
+// member's borrow limit), so lookups scan the array.
+class LoanSet {
+    static final LoanSet EMPTY = new LoanSet(new long[0]);
+
+    private long[] keys;
+
+    private LoanSet(long[] keys) {
+        this.keys = keys;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    public boolean contains(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    public long keyAt(int index) {
+        return keys[index];
+    }
+
+    public void forEach(LongConsumer action) {
+        for (long key : keys) {
+            action.accept(key);
+        }
+    }
+
+    LoanSet with(long key) {
+        if (contains(key)) {
+            return this;
+        }
+        long[] grown = Arrays.copyOf(keys, keys.length + 1);
+        grown[keys.length] = key;
+        return new LoanSet(grown);
+    }
+
+    LoanSet without(long key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return this;
+        }
+        if (keys.length == 1) {
+            return EMPTY;
+        }
+        long[] shrunk = new long[keys.length - 1];
+        System.arraycopy(keys, 0, shrunk, 0, index);
+        System.arraycopy(keys, index + 1, shrunk, index, keys.length - index - 1);
+        return new LoanSet(shrunk);
+    }
+
+    private int indexOf(long key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
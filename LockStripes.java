@@ -0,0 +1,62 @@
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Lock Stripes Class
+// Fixed pool of locks shared by hash, so per-ISBN/per-member locking doesn't
+// need one lock object per key.
+class LockStripes {
+    private ReentrantLock[] locks;
+    private int mask;
+
+    public LockStripes(int minStripes) {
+        int size = Integer.highestOneBit(Math.max(1, minStripes - 1)) << 1;
+        this.locks = new ReentrantLock[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public int stripeFor(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public void lock(int stripe) {
+        locks[stripe].lock();
+    }
+
+    public void unlock(int stripe) {
+        locks[stripe].unlock();
+    }
+
+    // Distinct stripes for the keys in ascending order, the order in which
+    // several stripes must be taken so two batches can't deadlock
+    public int[] stripesFor(Collection<String> keys) {
+        int[] stripes = new int[keys.size()];
+        int count = 0;
+        for (String key : keys) {
+            stripes[count++] = stripeFor(key);
+        }
+        Arrays.sort(stripes);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || stripes[distinct - 1] != stripes[i]) {
+                stripes[distinct++] = stripes[i];
+            }
+        }
+        return Arrays.copyOf(stripes, distinct);
+    }
+
+    public void lockAll(int[] stripes) {
+        for (int stripe : stripes) {
+            locks[stripe].lock();
+        }
+    }
+
+    public void unlockAll(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+}
@@ -0,0 +1,547 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Mapped Catalog Class
+// Catalog storage engine kept in a memory-mapped file instead of the Java
+// heap. Books are fixed-size records in the data file, and an on-disk hash
+// index (<file>.idx) maps ISBNs to record numbers. Opening a catalog maps the
+// files and reads two headers, so it takes milliseconds however many books
+// there are; pages are read in by the OS on first touch and stay in the page
+// cache, not the heap.
+//
+// Lookups hash the ISBN, probe the index and compare the ISBN bytes in place;
+// setCopies updates the record in place. Only searchByISBN, forEachBook and
+// scan decode a record, to build the Book view.
+//
+// Data file: a 256-byte header, then records in 64 MB segments (each its own
+// mapping, so catalogs can outgrow a single 2 GB buffer). Record layout:
+//   0 flags (live)   1 ISBN length, 2-21 ISBN   22 year   26 copies
+//  30-55 unused   56 author length, 57-119 author
+// 120 title length, 121-255 title
+// A book whose ISBN, author or title is longer than its slot is refused, not
+// cut short. Removed records are chained into a free list (through the
+// year field) and reused. Version 1 files also kept a loan per record; loans
+// now live in the library's journal, so those files are refused.
+//
+// Index file: a 16-byte header, then open-addressing slots of
+// (ISBN hash << 32 | record + 1), probed linearly; 0 is empty and -1 a
+// removed entry. The index only holds derived data: if it is missing or
+// doesn't match the data file (e.g. after a crash between flushes) it is
+// rebuilt from the records on open.
+//
+// Writes land in the page cache and reach the disk when the OS flushes them
+// or on force()/close(). force() only flushes the segments changed since the
+// last one, and does so outside the lock.
+class MappedCatalog implements CatalogStore, Closeable {
+    private static final int DATA_MAGIC = 0x4C49424D;  // "LIBM"
+    private static final int INDEX_MAGIC = 0x4C494258; // "LIBX"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 256;
+    private static final int INDEX_HEADER_SIZE = 16;
+
+    private static final int RECORD_SIZE = 256;
+    private static final int SEGMENT_BITS = 18; // records per segment
+    private static final int SEGMENT_RECORDS = 1 << SEGMENT_BITS;
+    private static final long SEGMENT_BYTES = (long) SEGMENT_RECORDS * RECORD_SIZE;
+
+    private static final int FLAGS = 0;
+    private static final int ISBN = 1;
+    private static final int YEAR = 22;
+    private static final int COPIES = 26;
+    private static final int AUTHOR = 56;
+    private static final int TITLE = 120;
+    private static final int ISBN_MAX = 20;
+    private static final int AUTHOR_MAX = 63;
+    private static final int TITLE_MAX = 135;
+    private static final byte LIVE = 1;
+
+    private static final long EMPTY = 0;
+    private static final long REMOVED = -1;
+    private static final int MIN_SLOTS = 1024;
+    private static final int MAX_SLOTS = 1 << 27; // one mapping of at most 1 GB
+
+    // Header fields (data file)
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_RECORD_SIZE = 8;
+    private static final int H_RECORD_COUNT = 12; // records ever allocated
+    private static final int H_LIVE_COUNT = 16;
+    private static final int H_FREE_HEAD = 20;    // first free record, or -1
+
+    // Header fields (index file)
+    private static final int X_MAGIC = 0;
+    private static final int X_SLOTS = 4;
+    private static final int X_ENTRIES = 8;
+    private static final int X_REMOVED = 12;
+
+    private Path dataPath;
+    private Path indexPath;
+    private FileChannel data;
+    private MappedByteBuffer header;
+    private List<MappedByteBuffer> segments;
+    private MappedByteBuffer index;
+    private int slotMask;
+    private int recordCount;
+    private int liveCount;
+    private int freeHead;
+    private int indexEntries;
+    private int indexRemoved;
+    private ReentrantReadWriteLock lock;
+    private BitSet dirtySegments; // changed since the last force
+    private boolean indexDirty;
+    private ReentrantLock forceLock; // one force at a time, so none returns before an earlier one is done
+
+    // Opens the catalog in the file, creating an empty one if it doesn't exist
+    public MappedCatalog(Path file) throws IOException {
+        this.dataPath = file;
+        this.indexPath = file.resolveSibling(file.getFileName() + ".idx");
+        this.segments = new ArrayList<>();
+        this.lock = new ReentrantReadWriteLock();
+        this.dirtySegments = new BitSet();
+        this.forceLock = new ReentrantLock();
+        this.data = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean created = data.size() == 0;
+        this.header = data.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        if (created) {
+            header.putInt(H_MAGIC, DATA_MAGIC);
+            header.putInt(H_VERSION, VERSION);
+            header.putInt(H_RECORD_SIZE, RECORD_SIZE);
+            header.putInt(H_RECORD_COUNT, 0);
+            header.putInt(H_LIVE_COUNT, 0);
+            header.putInt(H_FREE_HEAD, -1);
+        } else if (header.getInt(H_MAGIC) != DATA_MAGIC || header.getInt(H_RECORD_SIZE) != RECORD_SIZE) {
+            data.close();
+            throw new IOException("Not a mapped catalog file: " + file);
+        } else if (header.getInt(H_VERSION) != VERSION) {
+            data.close();
+            throw new IOException("Catalog file " + file + " was written by "
+                                  + (header.getInt(H_VERSION) > VERSION ? "a newer" : "an older") + " version");
+        }
+        this.recordCount = header.getInt(H_RECORD_COUNT);
+        this.liveCount = header.getInt(H_LIVE_COUNT);
+        this.freeHead = header.getInt(H_FREE_HEAD);
+        for (int s = 0; s * (long) SEGMENT_RECORDS < recordCount; s++) {
+            mapSegment();
+        }
+        if (!openIndex()) {
+            rebuildIndex(slotsFor(liveCount));
+        }
+    }
+
+    @Override
+    public boolean addBook(Book book) {
+        byte[] isbn = book.getIsbn().getBytes(StandardCharsets.UTF_8);
+        byte[] author = book.getAuthor().getBytes(StandardCharsets.UTF_8);
+        byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+        if (isbn.length == 0 || isbn.length > ISBN_MAX || author.length > AUTHOR_MAX || title.length > TITLE_MAX) {
+            return false; // Doesn't fit the record layout
+        }
+        lock.writeLock().lock();
+        try {
+            int hash = hash(isbn);
+            if (findSlot(isbn, hash) >= 0) {
+                return false; // Book already exists
+            }
+            int record = allocateRecord();
+            ByteBuffer segment = segmentOf(record);
+            int at = offsetOf(record);
+            putBytes(segment, at + ISBN, isbn, ISBN_MAX);
+            segment.putInt(at + YEAR, book.getPublicationYear());
+            putBytes(segment, at + AUTHOR, author, AUTHOR_MAX);
+            putBytes(segment, at + TITLE, title, TITLE_MAX);
+            segment.putInt(at + COPIES, book.getCopies());
+            // The record is complete before the index can lead to it
+            segment.put(at + FLAGS, LIVE);
+            insertSlot(hash, record);
+            changed(record);
+            header.putInt(H_LIVE_COUNT, ++liveCount);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean removeBook(String isbn) {
+        byte[] key = isbn.getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(key, hash(key));
+            if (slot < 0) {
+                return false; // Book not found
+            }
+            int record = recordAt(slot);
+            ByteBuffer segment = segmentOf(record);
+            int at = offsetOf(record);
+            index.putLong(slotOffset(slot), REMOVED);
+            index.putInt(X_ENTRIES, --indexEntries);
+            index.putInt(X_REMOVED, ++indexRemoved);
+            segment.put(at + FLAGS, (byte) 0);
+            segment.putInt(at + YEAR, freeHead);
+            freeHead = record;
+            header.putInt(H_FREE_HEAD, freeHead);
+            header.putInt(H_LIVE_COUNT, --liveCount);
+            changed(record);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Book searchByISBN(String isbn) {
+        byte[] key = isbn.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            int slot = findSlot(key, hash(key));
+            return slot < 0 ? null : view(recordAt(slot));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean setCopies(String isbn, int copies) {
+        byte[] key = isbn.getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(key, hash(key));
+            if (slot < 0) {
+                return false;
+            }
+            int record = recordAt(slot);
+            segmentOf(record).putInt(offsetOf(record) + COPIES, copies);
+            dirtySegments.set(record >>> SEGMENT_BITS);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(String isbn) {
+        byte[] key = isbn.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            return findSlot(key, hash(key)) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Visits books in record order, which is not ISBN order
+    @Override
+    public void forEachBook(Consumer<Book> action) {
+        lock.readLock().lock();
+        try {
+            for (int record = 0; record < recordCount; record++) {
+                if ((segmentOf(record).get(offsetOf(record) + FLAGS) & LIVE) != 0) {
+                    action.accept(view(record));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Positions are record numbers
+    @Override
+    public int scan(int position, Predicate<Book> action) {
+        lock.readLock().lock();
+        try {
+            for (int record = position; record < recordCount; record++) {
+                if ((segmentOf(record).get(offsetOf(record) + FLAGS) & LIVE) != 0 && !action.test(view(record))) {
+                    return record;
+                }
+            }
+            return -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    @Override
+    public boolean fits(Book book) {
+        int isbn = book.getIsbn().getBytes(StandardCharsets.UTF_8).length;
+        return isbn > 0 && isbn <= ISBN_MAX
+            && book.getAuthor().getBytes(StandardCharsets.UTF_8).length <= AUTHOR_MAX
+            && book.getTitle().getBytes(StandardCharsets.UTF_8).length <= TITLE_MAX;
+    }
+
+    // Flushes changes to both files to the disk
+    @Override
+    public void force() {
+        forceLock.lock();
+        try {
+            List<MappedByteBuffer> dirty = new ArrayList<>();
+            MappedByteBuffer dirtyIndex;
+            lock.writeLock().lock();
+            try {
+                for (int s = dirtySegments.nextSetBit(0); s >= 0; s = dirtySegments.nextSetBit(s + 1)) {
+                    dirty.add(segments.get(s));
+                }
+                dirtySegments.clear();
+                dirtyIndex = indexDirty ? index : null;
+                indexDirty = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            for (MappedByteBuffer segment : dirty) {
+                segment.force();
+            }
+            if (dirtyIndex != null) {
+                dirtyIndex.force();
+            }
+            header.force();
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        data.close();
+    }
+
+    // Builds a detached Book for the record
+    private Book view(int record) {
+        ByteBuffer segment = segmentOf(record);
+        int at = offsetOf(record);
+        Book book = new Book(getString(segment, at + ISBN), getString(segment, at + TITLE),
+                             getString(segment, at + AUTHOR), segment.getInt(at + YEAR));
+        int copies = segment.getInt(at + COPIES);
+        if (copies > 1) {
+            book.addCopies(copies - 1);
+        }
+        return book;
+    }
+
+    // Called with the write lock held after a record and the index change
+    private void changed(int record) {
+        dirtySegments.set(record >>> SEGMENT_BITS);
+        indexDirty = true;
+    }
+
+    private int allocateRecord() {
+        if (freeHead >= 0) {
+            int record = freeHead;
+            freeHead = segmentOf(record).getInt(offsetOf(record) + YEAR);
+            header.putInt(H_FREE_HEAD, freeHead);
+            return record;
+        }
+        if (recordCount == segments.size() * SEGMENT_RECORDS) {
+            mapSegment();
+        }
+        int record = recordCount++;
+        header.putInt(H_RECORD_COUNT, recordCount);
+        return record;
+    }
+
+    // Maps the next segment, growing the file to cover it
+    private void mapSegment() {
+        long position = HEADER_SIZE + segments.size() * SEGMENT_BYTES;
+        try {
+            segments.add(data.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT_BYTES));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not map catalog segment in " + dataPath, e);
+        }
+    }
+
+    private ByteBuffer segmentOf(int record) {
+        return segments.get(record >>> SEGMENT_BITS);
+    }
+
+    private static int offsetOf(int record) {
+        return (record & (SEGMENT_RECORDS - 1)) * RECORD_SIZE;
+    }
+
+    // Index
+
+    // Slot holding the ISBN, or -1 if it isn't in the catalog
+    private int findSlot(byte[] isbn, int hash) {
+        for (int slot = hash & slotMask; ; slot = (slot + 1) & slotMask) {
+            long entry = index.getLong(slotOffset(slot));
+            if (entry == EMPTY) {
+                return -1;
+            }
+            if (entry != REMOVED && (int) (entry >>> 32) == hash) {
+                int record = (int) entry - 1;
+                if (bytesEqual(segmentOf(record), offsetOf(record) + ISBN, isbn)) {
+                    return slot;
+                }
+            }
+        }
+    }
+
+    private void insertSlot(int hash, int record) {
+        if ((long) (indexEntries + indexRemoved + 1) * 2 > slotMask + 1) {
+            // Half full, counting removed entries: rebuild, growing if needed
+            if (indexRemoved == 0 && slotMask + 1 == MAX_SLOTS) {
+                throw new IllegalStateException("Catalog index is full: " + indexPath);
+            }
+            rebuildIndex(slotsFor(indexEntries + 1));
+        }
+        int slot = hash & slotMask;
+        while (true) {
+            long entry = index.getLong(slotOffset(slot));
+            if (entry == EMPTY || entry == REMOVED) {
+                break;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        if (index.getLong(slotOffset(slot)) == REMOVED) {
+            index.putInt(X_REMOVED, --indexRemoved);
+        }
+        index.putLong(slotOffset(slot), ((long) hash << 32) | (record + 1L));
+        index.putInt(X_ENTRIES, ++indexEntries);
+    }
+
+    private int recordAt(int slot) {
+        return (int) index.getLong(slotOffset(slot)) - 1;
+    }
+
+    private static int slotOffset(int slot) {
+        return INDEX_HEADER_SIZE + slot * Long.BYTES;
+    }
+
+    // Room for entries at most a quarter full, so the index can take as many
+    // again before it has to grow
+    private static int slotsFor(int entries) {
+        long slots = MIN_SLOTS;
+        while (slots < (long) entries * 4 && slots < MAX_SLOTS) {
+            slots <<= 1;
+        }
+        return (int) slots;
+    }
+
+    // Maps the existing index; false if it is missing or out of step with the data
+    private boolean openIndex() throws IOException {
+        if (!Files.exists(indexPath) || Files.size(indexPath) < INDEX_HEADER_SIZE) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int slots = mapped.getInt(X_SLOTS);
+            if (mapped.getInt(X_MAGIC) != INDEX_MAGIC || Integer.bitCount(slots) != 1
+                    || channel.size() != slotOffset(slots) || mapped.getInt(X_ENTRIES) != liveCount) {
+                return false;
+            }
+            this.index = mapped;
+            this.slotMask = slots - 1;
+            this.indexEntries = mapped.getInt(X_ENTRIES);
+            this.indexRemoved = mapped.getInt(X_REMOVED);
+            return true;
+        }
+    }
+
+    // Writes a fresh index of the live records next to the old one and
+    // swaps it in
+    private void rebuildIndex(int slots) {
+        Path fresh = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(fresh, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, slotOffset(slots));
+                mapped.putInt(X_MAGIC, INDEX_MAGIC);
+                mapped.putInt(X_SLOTS, slots);
+                this.index = mapped;
+                this.slotMask = slots - 1;
+                this.indexEntries = 0;
+                this.indexRemoved = 0;
+                for (int record = 0; record < recordCount; record++) {
+                    ByteBuffer segment = segmentOf(record);
+                    int at = offsetOf(record);
+                    if ((segment.get(at + FLAGS) & LIVE) != 0) {
+                        int hash = hash(segment, at + ISBN);
+                        int slot = hash & slotMask;
+                        while (mapped.getLong(slotOffset(slot)) != EMPTY) {
+                            slot = (slot + 1) & slotMask;
+                        }
+                        mapped.putLong(slotOffset(slot), ((long) hash << 32) | (record + 1L));
+                        indexEntries++;
+                    }
+                }
+                mapped.putInt(X_ENTRIES, indexEntries);
+                mapped.putInt(X_REMOVED, 0);
+                mapped.force();
+            }
+            Files.move(fresh, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not rebuild catalog index " + indexPath, e);
+        }
+    }
+
+    // FNV-1a over the ISBN bytes
+    private static int hash(byte[] bytes) {
+        int hash = 0x811C9DC5;
+        for (byte b : bytes) {
+            hash = (hash ^ (b & 0xFF)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    // The same hash, over a length-prefixed field in place
+    private static int hash(ByteBuffer segment, int field) {
+        int length = segment.get(field) & 0xFF;
+        int hash = 0x811C9DC5;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ (segment.get(field + 1 + i) & 0xFF)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    // Field helpers: a length byte followed by up to max bytes of UTF-8
+    private static boolean bytesEqual(ByteBuffer segment, int field, byte[] value) {
+        if ((segment.get(field) & 0xFF) != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (segment.get(field + 1 + i) != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void putBytes(ByteBuffer segment, int field, byte[] value, int max) {
+        int length = Math.min(value.length, max);
+        segment.put(field, (byte) length);
+        for (int i = 0; i < length; i++) {
+            segment.put(field + 1 + i, value[i]);
+        }
+    }
+
+    private static String getString(ByteBuffer segment, int field) {
+        byte[] bytes = new byte[segment.get(field) & 0xFF];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = segment.get(field + 1 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
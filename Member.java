@@ -1,23 +1,40 @@
 import java.util.*;
+import java.time.Clock;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 
 // Member/Student Class
-class Member {
+class Member implements ReportRow {
     private String memberId;
     private String name;
-    private String email;
-    private String phone;
-    private List<String> borrowedBooks;
+    private volatile String email;
+    private volatile String phone;
     private LocalDate registrationDate;
+    private MemberTier tier;
+    private volatile LoanLedger ledger; // loans are kept by the library's ledger while registered
+    private MemberIndex index;          // the library's email/phone index while registered
+    private volatile BorrowLimits limits; // the library's limits while registered
 
     public Member(String memberId, String name, String email, String phone) {
+        this(memberId, name, email, phone, MemberTier.STUDENT);
+    }
+
+    public Member(String memberId, String name, String email, String phone, MemberTier tier) {
+        this(memberId, name, email, phone, tier, Clock.systemDefaultZone());
+    }
+
+    // Registered as of the clock's date (the library's clock, e.g. simulated)
+    public Member(String memberId, String name, String email, String phone, MemberTier tier, Clock clock) {
+        this(memberId, name, email, phone, LocalDate.now(clock), tier);
+    }
+
+    // Used when restoring a member from the journal
+    Member(String memberId, String name, String email, String phone, LocalDate registrationDate, MemberTier tier) {
         this.memberId = memberId;
         this.name = name;
         this.email = email;
         this.phone = phone;
-        this.borrowedBooks = new ArrayList<>();
-        this.registrationDate = LocalDate.now();
+        this.registrationDate = registrationDate;
+        this.tier = tier;
     }
 
     // Getters
@@ -25,29 +42,98 @@ class Member {
     public String getName() { return name; }
     public String getEmail() { return email; }
     public String getPhone() { return phone; }
-    public List<String> getBorrowedBooks() { return new ArrayList<>(borrowedBooks); }
+    // Read-only view of the ISBNs on loan at the time of the call
+    public List<String> getBorrowedBooks() {
+        LoanLedger current = ledger;
+        return current == null ? Collections.emptyList() : current.isbnsOf(current.getLoanSet(memberId));
+    }
+    // The same loans as packed ISBN keys, for callers that want no allocation
+    public LoanSet getLoans() {
+        LoanLedger current = ledger;
+        return current == null ? LoanSet.EMPTY : current.getLoanSet(memberId);
+    }
+    public int getBorrowedCount() {
+        return getLoans().size();
+    }
     public LocalDate getRegistrationDate() { return registrationDate; }
+    public MemberTier getTier() { return tier; }
+    // The registering library's limit for the tier; the tier's default otherwise
+    public int getBorrowLimit() {
+        BorrowLimits current = limits;
+        return current != null ? current.get(tier) : tier.getDefaultLimit();
+    }
 
-    // Setters
-    public void setEmail(String email) { this.email = email; }
-    public void setPhone(String phone) { this.phone = phone; }
+    // Changed through Library.updateMemberContact, which journals and
+    // publishes it; false, leaving the member unchanged, if another
+    // registered member has the email or phone
+    synchronized boolean setContact(String email, String phone) {
+        if (index != null && !index.changeContact(memberId, this.email, email, this.phone, phone)) {
+            return false;
+        }
+        this.email = email;
+        this.phone = phone;
+        return true;
+    }
 
-    public void borrowBook(String isbn) {
-        borrowedBooks.add(isbn);
+    // Ledger, index and limits, managed by Library.registerMember/
+    // deregisterMember; false if the index refuses the member's details
+    synchronized boolean attach(LoanLedger ledger, MemberIndex index, BorrowLimits limits, boolean shared) {
+        if (!index.add(this, shared)) {
+            return false;
+        }
+        this.index = index;
+        this.ledger = ledger;
+        this.limits = limits;
+        return true;
     }
 
-    public void returnBook(String isbn) {
-        borrowedBooks.remove(isbn);
+    synchronized void detach() {
+        if (index != null) {
+            index.remove(this);
+            index = null;
+        }
+        this.ledger = null;
+        this.limits = null;
     }
 
     public boolean canBorrowMore() {
-        return borrowedBooks.size() < 5; // Maximum 5 books per member
+        return canBorrowMore(0);
+    }
+
+    // As canBorrowMore, counting loans still pending in the same batch
+    public boolean canBorrowMore(int pendingLoans) {
+        return getBorrowedCount() + pendingLoans < getBorrowLimit();
+    }
+
+    @Override
+    public void appendTo(StringBuilder out, LocalDate today) {
+        out.append("ID: ").append(memberId)
+           .append(" | Name: ").append(name)
+           .append(" | Email: ").append(email)
+           .append(" | Phone: ").append(phone)
+           .append(" | ").append(tier.getDisplayName())
+           .append(" | Books Borrowed: ").append(getBorrowedCount()).append('/').append(getBorrowLimit())
+           .append(" | Registered: ");
+        appendDate(out, registrationDate);
     }
 
     @Override
     public String toString() {
-        return String.format("ID: %s | Name: %s | Email: %s | Phone: %s | Books Borrowed: %d | Registered: %s", 
-                           memberId, name, email, phone, borrowedBooks.size(), 
-                           registrationDate.format(DateTimeFormatter.ofPattern("yyyy-MM-dd")));
+        StringBuilder out = new StringBuilder(128);
+        appendTo(out, null); // nothing about a member depends on the date
+        return out.toString();
+    }
+
+    // yyyy-MM-dd without a formatter
+    private static void appendDate(StringBuilder out, LocalDate date) {
+        out.append(date.getYear()).append('-');
+        if (date.getMonthValue() < 10) {
+            out.append('0');
+        }
+        out.append(date.getMonthValue()).append('-');
+        if (date.getDayOfMonth() < 10) {
+            out.append('0');
+        }
+        out.append(date.getDayOfMonth());
     }
-}
\ No newline at end of file
+}
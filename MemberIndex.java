@@ -0,0 +1,182 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Member Index Class
+// Secondary indexes over the registered members, for finding a patron at the
+// desk and refusing a second registration with the same contact details:
+//   - email, trimmed and lower-cased, to member id
+//   - phone, digits only (so "555-0101" and "(555) 0101" are one number),
+//     to member id
+//   - name, by prefix of the whole name or of any later word in it, so
+//     "john" finds "Alice Johnson"
+// Blank emails and phones aren't indexed and may be shared.
+//
+// An email or phone is claimed with putIfAbsent, so two registrations racing
+// for it can't both get it; a member that can't claim all of its details
+// releases the ones it did. Library keeps the index in step with
+// registerMember, deregisterMember and updateMemberContact, which moves the
+// member's keys through changeContact.
+class MemberIndex {
+    private ConcurrentHashMap<String, String> byEmail;
+    private ConcurrentHashMap<String, String> byPhone;
+    private PrefixIndex byName;
+
+    public MemberIndex() {
+        this.byEmail = new ConcurrentHashMap<>();
+        this.byPhone = new ConcurrentHashMap<>();
+        this.byName = new PrefixIndex();
+    }
+
+    // Indexes the member; false, with nothing indexed, if another member has
+    // its email or phone. With shared, details already taken are left to the
+    // member holding them (recovery keeps members registered before the
+    // check, even when they share an email).
+    public boolean add(Member member, boolean shared) {
+        String id = member.getMemberId();
+        String email = normalizeEmail(member.getEmail());
+        String phone = normalizePhone(member.getPhone());
+        boolean claimedEmail = claim(byEmail, email, id);
+        if (!claimedEmail && !shared) {
+            return false;
+        }
+        if (!claim(byPhone, phone, id) && !shared) {
+            if (claimedEmail) {
+                release(byEmail, email, id);
+            }
+            return false;
+        }
+        for (String key : nameKeys(member.getName())) {
+            byName.add(key, id, 0);
+        }
+        return true;
+    }
+
+    public void remove(Member member) {
+        String id = member.getMemberId();
+        release(byEmail, normalizeEmail(member.getEmail()), id);
+        release(byPhone, normalizePhone(member.getPhone()), id);
+        for (String key : nameKeys(member.getName())) {
+            byName.remove(key, id, 0);
+        }
+    }
+
+    // Moves the member's entries to the new email and phone; false, with
+    // neither moved, if another member has either. The old entries are only
+    // released once both new ones are claimed.
+    public boolean changeContact(String memberId, String oldEmail, String newEmail, String oldPhone, String newPhone) {
+        String fromEmail = normalizeEmail(oldEmail);
+        String toEmail = normalizeEmail(newEmail);
+        String fromPhone = normalizePhone(oldPhone);
+        String toPhone = normalizePhone(newPhone);
+        boolean emailMoves = !Objects.equals(fromEmail, toEmail);
+        boolean phoneMoves = !Objects.equals(fromPhone, toPhone);
+        if (emailMoves && !claim(byEmail, toEmail, memberId)) {
+            return false;
+        }
+        if (phoneMoves && !claim(byPhone, toPhone, memberId)) {
+            if (emailMoves) {
+                release(byEmail, toEmail, memberId);
+            }
+            return false;
+        }
+        if (emailMoves) {
+            release(byEmail, fromEmail, memberId);
+        }
+        if (phoneMoves) {
+            release(byPhone, fromPhone, memberId);
+        }
+        return true;
+    }
+
+    // Member ids; null if no member has the email or phone
+    public String findByEmail(String email) {
+        String key = normalizeEmail(email);
+        return key == null ? null : byEmail.get(key);
+    }
+
+    public String findByPhone(String phone) {
+        String key = normalizePhone(phone);
+        return key == null ? null : byPhone.get(key);
+    }
+
+    // Ids of up to limit members whose name, or a word in it, starts with
+    // the prefix (case-insensitive), in name order
+    public List<String> findByName(String prefix, int limit) {
+        Set<String> ids = new LinkedHashSet<>();
+        String key = prefix.trim();
+        if (key.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        // A member can be found through several words; ask for enough keys
+        // to fill the limit after dropping repeats
+        for (PrefixIndex.Completion completion : byName.complete(key, limit * 4)) {
+            ids.addAll(completion.getIds());
+            if (ids.size() >= limit) {
+                break;
+            }
+        }
+        List<String> found = new ArrayList<>(ids);
+        return found.size() > limit ? found.subList(0, limit) : found;
+    }
+
+    // Trimmed and lower-cased; null when blank
+    static String normalizeEmail(String email) {
+        if (email == null) {
+            return null;
+        }
+        String key = email.trim().toLowerCase(Locale.ROOT);
+        return key.isEmpty() ? null : key;
+    }
+
+    // The digits only; null when there are none
+    static String normalizePhone(String phone) {
+        if (phone == null) {
+            return null;
+        }
+        StringBuilder digits = new StringBuilder(phone.length());
+        for (int i = 0; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.length() == 0 ? null : digits.toString();
+    }
+
+    // True if the key is now the member's (or is blank)
+    private static boolean claim(ConcurrentHashMap<String, String> index, String key, String memberId) {
+        if (key == null) {
+            return true;
+        }
+        String holder = index.putIfAbsent(key, memberId);
+        return holder == null || holder.equals(memberId);
+    }
+
+    private static void release(ConcurrentHashMap<String, String> index, String key, String memberId) {
+        if (key != null) {
+            index.remove(key, memberId);
+        }
+    }
+
+    // The whole name and what follows each space in it: "Alice Mary Jones",
+    // "Mary Jones", "Jones"
+    private static List<String> nameKeys(String name) {
+        List<String> keys = new ArrayList<>(3);
+        if (name == null) {
+            return keys;
+        }
+        String trimmed = name.trim();
+        for (int start = 0; start < trimmed.length(); ) {
+            keys.add(trimmed.substring(start));
+            int space = trimmed.indexOf(' ', start);
+            if (space < 0) {
+                break;
+            }
+            start = space + 1;
+            while (start < trimmed.length() && trimmed.charAt(start) == ' ') {
+                start++;
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,19 @@
+// Member Tier Enum
+// Kinds of library member. Each library keeps its own borrowing limit for
+// each tier (see BorrowLimits), starting at the tier's default here.
+enum MemberTier {
+    STUDENT(5),
+    STAFF(15);
+
+    private final int defaultLimit;
+
+    MemberTier(int defaultLimit) {
+        this.defaultLimit = defaultLimit;
+    }
+
+    public int getDefaultLimit() { return defaultLimit; }
+
+    public String getDisplayName() {
+        return name().charAt(0) + name().substring(1).toLowerCase();
+    }
+}
@@ -0,0 +1,198 @@
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// NGram Index Class
+// Inverted trigram index used to answer case-insensitive substring searches
+// without scanning (and lower-casing) every book in the catalog. Each indexed
+// ISBN gets an int document id; postings are sorted int arrays, so a large
+// catalog costs a few bytes per trigram occurrence rather than a set entry.
+// Searches share a read lock, updates take the write lock.
+class NGramIndex {
+    private static final int N = 3;
+
+    private Map<Long, Postings> postings;  // packed trigram -> doc ids containing it
+    private Map<String, Integer> docIds;   // ISBN -> current doc id
+    private String[] docIsbns;             // doc id -> ISBN, null once removed
+    private String[] docTexts;             // doc id -> lower-cased text
+    private int docCount;
+    private int removedCount;
+    private ReentrantReadWriteLock lock;
+
+    public NGramIndex() {
+        this.postings = new HashMap<>();
+        this.docIds = new HashMap<>();
+        this.docIsbns = new String[1024];
+        this.docTexts = new String[1024];
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    // Indexes text under the ISBN, replacing anything indexed for it before
+    public void add(String isbn, String text) {
+        lock.writeLock().lock();
+        try {
+            addLocked(isbn, text);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void addAll(List<String> isbns, List<String> texts) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < isbns.size(); i++) {
+                addLocked(isbns.get(i), texts.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String isbn) {
+        lock.writeLock().lock();
+        try {
+            Integer doc = docIds.remove(isbn);
+            if (doc != null) {
+                markRemoved(doc);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Returns the ISBNs whose text contains the query, ignoring case
+    public List<String> search(String query) {
+        String lower = query.toLowerCase();
+        List<String> result = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            // Queries shorter than one trigram can't use the postings, but still
+            // benefit from the pre-lower-cased text
+            if (lower.length() < N) {
+                for (int doc = 0; doc < docCount; doc++) {
+                    if (docIsbns[doc] != null && docTexts[doc].contains(lower)) {
+                        result.add(docIsbns[doc]);
+                    }
+                }
+                return result;
+            }
+
+            // Intersect starting from the rarest trigram
+            List<Postings> lists = new ArrayList<>();
+            for (int i = 0; i + N <= lower.length(); i++) {
+                Postings list = postings.get(gram(lower, i));
+                if (list == null) {
+                    return result; // some trigram never occurs, so nothing can match
+                }
+                lists.add(list);
+            }
+            lists.sort(Comparator.comparingInt(p -> p.size));
+
+            Postings smallest = lists.get(0);
+            int[] cursors = new int[lists.size()];
+            for (int i = 0; i < smallest.size; i++) {
+                int doc = smallest.docs[i];
+                if (docIsbns[doc] == null) {
+                    continue;
+                }
+                boolean inAll = true;
+                for (int k = 1; k < lists.size() && inAll; k++) {
+                    cursors[k] = lists.get(k).seek(doc, cursors[k]);
+                    inAll = cursors[k] < lists.get(k).size && lists.get(k).docs[cursors[k]] == doc;
+                }
+                // Trigram hits only prove the grams occur somewhere, so verify the substring
+                if (inAll && docTexts[doc].contains(lower)) {
+                    result.add(docIsbns[doc]);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addLocked(String isbn, String text) {
+        Integer previous = docIds.get(isbn);
+        if (previous != null) {
+            markRemoved(previous);
+        }
+        if (docCount == docIsbns.length) {
+            docIsbns = Arrays.copyOf(docIsbns, docCount * 2);
+            docTexts = Arrays.copyOf(docTexts, docCount * 2);
+        }
+        int doc = docCount++;
+        String lower = text.toLowerCase();
+        docIsbns[doc] = isbn;
+        docTexts[doc] = lower;
+        docIds.put(isbn, doc);
+
+        // Doc ids only grow, so appending keeps every postings list sorted
+        for (int i = 0; i + N <= lower.length(); i++) {
+            postings.computeIfAbsent(gram(lower, i), g -> new Postings()).append(doc);
+        }
+    }
+
+    // Removed docs stay in the postings and are skipped by search until enough
+    // of them pile up to be worth compacting
+    private void markRemoved(int doc) {
+        docIsbns[doc] = null;
+        removedCount++;
+        if (removedCount > 1024 && removedCount > docCount / 2) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        String[] oldIsbns = docIsbns;
+        String[] oldTexts = docTexts;
+        int oldCount = docCount;
+
+        postings.clear();
+        docIds.clear();
+        docIsbns = new String[Math.max(1024, oldCount - removedCount)];
+        docTexts = new String[docIsbns.length];
+        docCount = 0;
+        removedCount = 0;
+        for (int doc = 0; doc < oldCount; doc++) {
+            if (oldIsbns[doc] != null) {
+                addLocked(oldIsbns[doc], oldTexts[doc]);
+            }
+        }
+    }
+
+    // Packs three chars into a long key, avoiding a substring per trigram
+    private static Long gram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    // Growable sorted array of doc ids
+    private static class Postings {
+        private int[] docs = new int[4];
+        private int size;
+
+        void append(int doc) {
+            if (size > 0 && docs[size - 1] == doc) {
+                return; // trigram repeated within the same text
+            }
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+
+        // Index of the first entry >= doc, searching forward from 'from'
+        int seek(int doc, int from) {
+            int lo = from;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (docs[mid] < doc) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Prefix Index Class
+// Type-ahead completions for one field (titles, authors, ISBNs, ...). Keys are
+// stored lower-cased in a radix trie, where each edge holds a run of
+// characters rather than a single one, so a catalog of long titles needs
+// about one node per key instead of one per character.
+//
+// Every key has a weight (for books, how often they've been borrowed) and
+// every node remembers the largest weight below it. A completion query walks
+// to the prefix and then expands nodes best-first, so the top n completions
+// cost O(n log n) node visits however many keys share the prefix.
+//
+// Adding and removing keys take the write lock. Weight increases only take
+// the read lock: they raise the node maxima with a CAS, stopping at the first
+// ancestor that is already high enough.
+class PrefixIndex {
+    private static final AtomicLongFieldUpdater<Node> BEST =
+            AtomicLongFieldUpdater.newUpdater(Node.class, "best");
+    private static final AtomicLongFieldUpdater<Entry> WEIGHT =
+            AtomicLongFieldUpdater.newUpdater(Entry.class, "weight");
+
+    private Node root;
+    private Map<String, Entry> entries; // lower-cased key -> its entry
+    private ReentrantReadWriteLock lock;
+
+    public PrefixIndex() {
+        this.root = new Node("", null);
+        this.entries = new HashMap<>();
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    // One completion: the key as first added, the ids filed under it and its weight
+    static class Completion {
+        private String text;
+        private List<String> ids;
+        private long weight;
+
+        Completion(String text, List<String> ids, long weight) {
+            this.text = text;
+            this.ids = ids;
+            this.weight = weight;
+        }
+
+        public String getText() { return text; }
+        public List<String> getIds() { return ids; }
+        public long getWeight() { return weight; }
+    }
+
+    // Files the id under the key; several ids may share a key (two editions
+    // with the same title), and the key's weight is the sum of theirs
+    public void add(String key, String id, long weight) {
+        String normalized = key.toLowerCase();
+        if (normalized.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Entry entry = entries.get(normalized);
+            if (entry == null) {
+                entry = new Entry(key);
+                entry.node = insert(normalized);
+                entry.node.entry = entry;
+                entries.put(normalized, entry);
+            }
+            entry.ids.add(id);
+            entry.weight += weight;
+            raise(entry.node, entry.weight);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Undoes add(key, id, weight); weight is the id's share of the key's weight
+    public void remove(String key, String id, long weight) {
+        String normalized = key.toLowerCase();
+        lock.writeLock().lock();
+        try {
+            Entry entry = entries.get(normalized);
+            if (entry == null || !entry.ids.remove(id)) {
+                return;
+            }
+            entry.weight -= weight;
+            Node node = entry.node;
+            if (entry.ids.isEmpty()) {
+                entries.remove(normalized);
+                node.entry = null;
+                node = prune(node);
+            }
+            // The maximum below these nodes may have dropped
+            for (; node != null; node = node.parent) {
+                node.best = localBest(node);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Adds to the key's weight, e.g. each time a book is borrowed
+    public void addWeight(String key, long delta) {
+        lock.readLock().lock();
+        try {
+            Entry entry = entries.get(key.toLowerCase());
+            if (entry != null) {
+                raise(entry.node, WEIGHT.addAndGet(entry, delta));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The limit heaviest keys starting with the prefix (case-insensitive),
+    // heaviest first; equal weights come out in key order
+    public List<Completion> complete(String prefix, int limit) {
+        List<Completion> found = new ArrayList<>();
+        if (limit <= 0) {
+            return found;
+        }
+        String normalized = prefix.toLowerCase();
+        lock.readLock().lock();
+        try {
+            Node start = find(normalized);
+            if (start == null) {
+                return found;
+            }
+            PriorityQueue<Candidate> queue = new PriorityQueue<>();
+            queue.add(new Candidate(start, null, start.best, pathTo(start)));
+            while (!queue.isEmpty() && found.size() < limit) {
+                Candidate next = queue.poll();
+                if (next.entry != null) {
+                    Entry entry = next.entry;
+                    found.add(new Completion(entry.text, new ArrayList<>(entry.ids), entry.weight));
+                    continue;
+                }
+                Node node = next.node;
+                if (node.entry != null) {
+                    queue.add(new Candidate(null, node.entry, node.entry.weight, next.path));
+                }
+                for (int i = 0; i < node.childCount(); i++) {
+                    Node child = node.children[i];
+                    queue.add(new Candidate(child, null, child.best, next.path + child.label));
+                }
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static String pathTo(Node node) {
+        StringBuilder path = new StringBuilder();
+        for (; node != null; node = node.parent) {
+            path.insert(0, node.label);
+        }
+        return path.toString();
+    }
+
+    // Node holding every key that starts with the prefix, or null if none do
+    private Node find(String prefix) {
+        Node node = root;
+        int matched = 0;
+        while (matched < prefix.length()) {
+            Node child = node.child(prefix.charAt(matched));
+            if (child == null) {
+                return null;
+            }
+            int common = commonLength(child.label, prefix, matched);
+            if (matched + common == prefix.length()) {
+                return child; // the prefix ends inside (or at the end of) this edge
+            }
+            if (common < child.label.length()) {
+                return null;
+            }
+            matched += common;
+            node = child;
+        }
+        return node;
+    }
+
+    // Node for the key, splitting an edge if the key ends or branches inside it
+    private Node insert(String key) {
+        Node node = root;
+        int matched = 0;
+        while (matched < key.length()) {
+            Node child = node.child(key.charAt(matched));
+            if (child == null) {
+                Node leaf = new Node(key.substring(matched), node);
+                node.addChild(leaf);
+                return leaf;
+            }
+            int common = commonLength(child.label, key, matched);
+            if (common < child.label.length()) {
+                // Split the edge: node -> middle -> child
+                Node middle = new Node(child.label.substring(0, common), node);
+                middle.best = child.best;
+                node.replaceChild(child, middle);
+                child.label = child.label.substring(common);
+                child.parent = middle;
+                middle.addChild(child);
+                child = middle;
+            }
+            matched += common;
+            node = child;
+        }
+        return node;
+    }
+
+    // Removes nodes left without a key or children and merges a node with
+    // its only child; returns the deepest node that is still in the trie
+    private Node prune(Node node) {
+        while (node != root && node.entry == null && node.childCount() == 0) {
+            Node parent = node.parent;
+            parent.removeChild(node);
+            node = parent;
+        }
+        if (node != root && node.entry == null && node.childCount() == 1) {
+            Node only = node.children[0];
+            only.label = node.label + only.label;
+            only.parent = node.parent;
+            node.parent.replaceChild(node, only);
+            return only.parent;
+        }
+        return node;
+    }
+
+    private static void raise(Node node, long weight) {
+        for (; node != null; node = node.parent) {
+            long current;
+            do {
+                current = node.best;
+                if (current >= weight) {
+                    return; // ancestors are at least as high
+                }
+            } while (!BEST.compareAndSet(node, current, weight));
+        }
+    }
+
+    private static long localBest(Node node) {
+        long best = node.entry != null ? node.entry.weight : Long.MIN_VALUE;
+        for (int i = 0; i < node.childCount(); i++) {
+            best = Math.max(best, node.children[i].best);
+        }
+        return best;
+    }
+
+    private static int commonLength(String label, String key, int from) {
+        int max = Math.min(label.length(), key.length() - from);
+        int i = 0;
+        while (i < max && label.charAt(i) == key.charAt(from + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static class Entry {
+        private String text;
+        private List<String> ids;
+        private volatile long weight;
+        private Node node;
+
+        Entry(String text) {
+            this.text = text;
+            this.ids = new ArrayList<>(1);
+        }
+    }
+
+    // Trie node; children are kept sorted by the first character of their label
+    private static class Node {
+        private String label;
+        private Node parent;
+        private Node[] children;
+        private Entry entry;
+        private volatile long best = Long.MIN_VALUE;
+
+        Node(String label, Node parent) {
+            this.label = label;
+            this.parent = parent;
+        }
+
+        int childCount() {
+            return children == null ? 0 : children.length;
+        }
+
+        Node child(char first) {
+            int index = indexOf(first);
+            return index >= 0 ? children[index] : null;
+        }
+
+        void addChild(Node child) {
+            int index = -indexOf(child.label.charAt(0)) - 1;
+            Node[] grown = new Node[childCount() + 1];
+            if (children != null) {
+                System.arraycopy(children, 0, grown, 0, index);
+                System.arraycopy(children, index, grown, index + 1, children.length - index);
+            }
+            grown[index] = child;
+            children = grown;
+        }
+
+        void replaceChild(Node old, Node replacement) {
+            children[indexOf(old.label.charAt(0))] = replacement;
+        }
+
+        void removeChild(Node child) {
+            int index = indexOf(child.label.charAt(0));
+            Node[] shrunk = new Node[children.length - 1];
+            System.arraycopy(children, 0, shrunk, 0, index);
+            System.arraycopy(children, index + 1, shrunk, index, shrunk.length - index);
+            children = shrunk.length == 0 ? null : shrunk;
+        }
+
+        // Binary search by first character; -(insertion point) - 1 if absent
+        private int indexOf(char first) {
+            int low = 0;
+            int high = childCount() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char c = children[mid].label.charAt(0);
+                if (c < first) {
+                    low = mid + 1;
+                } else if (c > first) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -low - 1;
+        }
+    }
+
+    // Queue item in a completion search: a subtree (bounded by its best
+    // weight) or a finished key. Heavier first, then in key order, with a key
+    // ahead of the longer keys below it.
+    private static class Candidate implements Comparable<Candidate> {
+        private Node node;
+        private Entry entry;
+        private long weight;
+        private String path;
+
+        Candidate(Node node, Entry entry, long weight, String path) {
+            this.node = node;
+            this.entry = entry;
+            this.weight = weight;
+            this.path = path;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            if (weight != other.weight) {
+                return Long.compare(other.weight, weight);
+            }
+            int byPath = path.compareTo(other.path);
+            if (byPath != 0) {
+                return byPath;
+            }
+            return entry != null ? (other.entry != null ? 0 : -1) : (other.entry != null ? 1 : 0);
+        }
+    }
+}
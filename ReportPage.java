@@ -0,0 +1,21 @@
+import java.util.*;
+
+// Report Page Class
+// One page of a report plus the token to pass back for the next page
+// (null once the report is finished).
+class ReportPage<T> {
+    private List<T> items;
+    private String nextToken;
+
+    public ReportPage(List<T> items, String nextToken) {
+        this.items = items;
+        this.nextToken = nextToken;
+    }
+
+    public List<T> getItems() { return items; }
+    public String getNextToken() { return nextToken; }
+
+    public boolean hasMore() {
+        return nextToken != null;
+    }
+}
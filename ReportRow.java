@@ -0,0 +1,8 @@
+import java.time.LocalDate;
+
+// Report Row Interface
+// Something that can write its report line into a reused buffer, so reports
+// don't build a String (or run String.format) per row.
+interface ReportRow {
+    void appendTo(StringBuilder out, LocalDate today);
+}
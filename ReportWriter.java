@@ -0,0 +1,56 @@
+import java.io.*;
+import java.time.LocalDate;
+
+// Report Writer Class
+// Buffered report output. Rows are formatted into one reused StringBuilder
+// and copied into the writer through a reused char buffer, so writing a row
+// allocates nothing.
+class ReportWriter implements Flushable {
+    private Writer out;
+    private StringBuilder line;
+    private char[] chars;
+    private LocalDate today;
+
+    // Rows are rendered as of today (overdue flags)
+    public ReportWriter(OutputStream out, LocalDate today) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out), 1 << 16);
+        this.line = new StringBuilder(256);
+        this.chars = new char[256];
+        this.today = today;
+    }
+
+    public void writeRow(ReportRow row) {
+        line.setLength(0);
+        row.appendTo(line, today);
+        line.append('\n');
+        writeLine();
+    }
+
+    public void writeText(String text) {
+        line.setLength(0);
+        line.append(text).append('\n');
+        writeLine();
+    }
+
+    @Override
+    public void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeLine() {
+        int length = line.length();
+        if (length > chars.length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        line.getChars(0, length, chars, 0);
+        try {
+            out.write(chars, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
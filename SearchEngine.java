@@ -0,0 +1,500 @@
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Search Engine Class
+// Ranked, typo-tolerant book search over titles and authors, kept next to the
+// exact-substring NGramIndex. Titles and authors are split into lower-case
+// words; each word has a postings list per field (doc ids in order, with the
+// word's count in that doc). A query word also matches indexed words within
+// a small edit distance, found through a BK-tree over the vocabulary, and
+// matches are ranked with BM25.
+//
+// Only the best k results are kept (a min-heap of size k), and documents are
+// scored a doc id at a time with MaxScore pruning: once the heap is full,
+// postings lists that together can't lift a document above the k-th score
+// are only consulted for documents the other lists bring up. Common words
+// therefore cost little once a few good matches are found.
+//
+// Query syntax: plain words search both fields; "title:word" or "author:word"
+// restrict a word to one field, e.g. "java author:bloch".
+class SearchEngine {
+    static final int TITLE = 0;
+    static final int AUTHOR = 1;
+    private static final int FIELDS = 2;
+    private static final float[] FIELD_BOOST = { 1.0f, 0.8f };
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    private Map<String, Integer> termIds;
+    private List<String> terms;
+    private List<Postings[]> postings;    // term id -> postings per field (null until used)
+    private BkTree vocabulary;
+    private Map<String, Integer> docIds;  // ISBN -> current doc id
+    private String[] docIsbns;            // doc id -> ISBN, null once removed
+    private int[][] docLengths;           // field -> doc id -> word count
+    private long[] totalLengths;          // field -> words across live docs
+    private int docCount;
+    private int liveCount;
+    private ReentrantReadWriteLock lock;
+
+    public SearchEngine() {
+        this.termIds = new HashMap<>();
+        this.terms = new ArrayList<>();
+        this.postings = new ArrayList<>();
+        this.vocabulary = new BkTree();
+        this.docIds = new HashMap<>();
+        this.docIsbns = new String[1024];
+        this.docLengths = new int[FIELDS][1024];
+        this.totalLengths = new long[FIELDS];
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    // One ranked result
+    static class Hit {
+        private String isbn;
+        private float score;
+
+        Hit(String isbn, float score) {
+            this.isbn = isbn;
+            this.score = score;
+        }
+
+        public String getIsbn() { return isbn; }
+        public float getScore() { return score; }
+    }
+
+    // Indexes the book, replacing anything indexed for the ISBN before
+    public void add(String isbn, String title, String author) {
+        lock.writeLock().lock();
+        try {
+            Integer previous = docIds.get(isbn);
+            if (previous != null) {
+                markRemoved(previous);
+            }
+            if (docCount == docIsbns.length) {
+                docIsbns = Arrays.copyOf(docIsbns, docCount * 2);
+                for (int f = 0; f < FIELDS; f++) {
+                    docLengths[f] = Arrays.copyOf(docLengths[f], docCount * 2);
+                }
+            }
+            int doc = docCount++;
+            docIsbns[doc] = isbn;
+            docIds.put(isbn, doc);
+            liveCount++;
+            indexField(doc, TITLE, title);
+            indexField(doc, AUTHOR, author);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String isbn) {
+        lock.writeLock().lock();
+        try {
+            Integer doc = docIds.remove(isbn);
+            if (doc != null) {
+                markRemoved(doc);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(String isbn) {
+        lock.readLock().lock();
+        try {
+            return docIds.containsKey(isbn);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The k best matches for the query, best first
+    public List<Hit> search(String query, int k) {
+        List<String> words = new ArrayList<>();
+        List<Integer> fields = new ArrayList<>();
+        parseQuery(query, words, fields);
+        if (k <= 0 || words.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        lock.readLock().lock();
+        try {
+            List<Scorer> scorers = new ArrayList<>();
+            for (int i = 0; i < words.size(); i++) {
+                addScorers(words.get(i), fields.get(i), scorers);
+            }
+            return topK(scorers, k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Splits text into lower-case letter/digit words
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    // Longer words tolerate more typos
+    static int maxEdits(String word) {
+        return word.length() <= 2 ? 0 : word.length() <= 5 ? 1 : 2;
+    }
+
+    // Splits the query into words, each with the field it is restricted to (-1 for both)
+    private static void parseQuery(String query, List<String> words, List<Integer> fields) {
+        for (String token : query.trim().split("\\s+")) {
+            int field = -1;
+            String text = token;
+            int colon = token.indexOf(':');
+            if (colon > 0) {
+                String prefix = token.substring(0, colon).toLowerCase();
+                field = prefix.equals("title") ? TITLE : prefix.equals("author") ? AUTHOR : -1;
+                text = token.substring(colon + 1);
+            }
+            for (String word : tokenize(text)) {
+                words.add(word);
+                fields.add(field);
+            }
+        }
+    }
+
+    private void indexField(int doc, int field, String text) {
+        List<String> words = tokenize(text);
+        docLengths[field][doc] = words.size();
+        totalLengths[field] += words.size();
+        for (String word : words) {
+            Integer id = termIds.get(word);
+            if (id == null) {
+                id = terms.size();
+                termIds.put(word, id);
+                terms.add(word);
+                postings.add(new Postings[FIELDS]);
+                vocabulary.add(word);
+            }
+            Postings[] lists = postings.get(id);
+            if (lists[field] == null) {
+                lists[field] = new Postings();
+            }
+            lists[field].add(doc); // doc ids only grow, so lists stay sorted
+        }
+    }
+
+    // One scorer per matching vocabulary word and field; near misses count
+    // for less the further they are from what was typed
+    private void addScorers(String word, int onlyField, List<Scorer> scorers) {
+        for (String match : vocabulary.within(word, maxEdits(word))) {
+            int distance = BkTree.distance(word, match);
+            float weight = 1.0f / (1 + distance);
+            Postings[] lists = postings.get(termIds.get(match));
+            for (int field = 0; field < FIELDS; field++) {
+                if (lists[field] != null && lists[field].size > 0 && (onlyField < 0 || onlyField == field)) {
+                    scorers.add(new Scorer(lists[field], field, weight * FIELD_BOOST[field]));
+                }
+            }
+        }
+    }
+
+    private List<Hit> topK(List<Scorer> scorers, int k) {
+        List<Hit> hits = new ArrayList<>();
+        if (scorers.isEmpty() || liveCount == 0) {
+            return hits;
+        }
+        float[] avgLength = new float[FIELDS];
+        for (int f = 0; f < FIELDS; f++) {
+            avgLength[f] = Math.max(1f, (float) totalLengths[f] / liveCount);
+        }
+        for (Scorer scorer : scorers) {
+            scorer.prepare(liveCount, avgLength[scorer.field]);
+        }
+
+        // Lists in increasing order of their best possible contribution;
+        // prefix[i] = the sum of the bounds of lists 0..i
+        scorers.sort(Comparator.comparingDouble(s -> s.upperBound));
+        float[] prefix = new float[scorers.size()];
+        float running = 0;
+        for (int i = 0; i < scorers.size(); i++) {
+            running += scorers.get(i).upperBound;
+            prefix[i] = running;
+        }
+
+        PriorityQueue<Hit> heap = new PriorityQueue<>(k + 1, Comparator.comparingDouble(h -> h.score));
+        float threshold = 0;
+        int firstEssential = 0; // lists before this can't make a top-k doc alone
+
+        while (true) {
+            // Next candidate: the smallest current doc across the essential lists
+            int doc = Integer.MAX_VALUE;
+            for (int i = firstEssential; i < scorers.size(); i++) {
+                doc = Math.min(doc, scorers.get(i).currentDoc());
+            }
+            if (doc == Integer.MAX_VALUE) {
+                break;
+            }
+
+            float score = 0;
+            for (int i = firstEssential; i < scorers.size(); i++) {
+                Scorer scorer = scorers.get(i);
+                if (scorer.currentDoc() == doc) {
+                    score += scorer.score(doc, docLengths[scorer.field][doc]);
+                    scorer.next();
+                }
+            }
+            // Non-essential lists, best first, while they could still matter
+            for (int i = firstEssential - 1; i >= 0 && score + prefix[i] > threshold; i--) {
+                Scorer scorer = scorers.get(i);
+                if (scorer.advanceTo(doc) == doc) {
+                    score += scorer.score(doc, docLengths[scorer.field][doc]);
+                }
+            }
+
+            if (docIsbns[doc] != null && (heap.size() < k || score > threshold)) {
+                heap.add(new Hit(docIsbns[doc], score));
+                if (heap.size() > k) {
+                    heap.poll();
+                }
+                if (heap.size() == k) {
+                    threshold = heap.peek().score;
+                    while (firstEssential < scorers.size() && prefix[firstEssential] <= threshold) {
+                        firstEssential++;
+                    }
+                }
+            }
+        }
+
+        while (!heap.isEmpty()) {
+            hits.add(heap.poll());
+        }
+        Collections.reverse(hits);
+        return hits;
+    }
+
+    private void markRemoved(int doc) {
+        docIsbns[doc] = null;
+        liveCount--;
+        for (int f = 0; f < FIELDS; f++) {
+            totalLengths[f] -= docLengths[f][doc];
+        }
+        if (docCount - liveCount > 1024 && docCount - liveCount > docCount / 2) {
+            compact();
+        }
+    }
+
+    // Drops removed docs from every postings list and renumbers the rest
+    private void compact() {
+        int[] newIds = new int[docCount];
+        int next = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            newIds[doc] = docIsbns[doc] != null ? next++ : -1;
+        }
+        for (int doc = 0; doc < docCount; doc++) {
+            if (newIds[doc] >= 0) {
+                docIsbns[newIds[doc]] = docIsbns[doc];
+                for (int f = 0; f < FIELDS; f++) {
+                    docLengths[f][newIds[doc]] = docLengths[f][doc];
+                }
+                docIds.put(docIsbns[doc], newIds[doc]);
+            }
+        }
+        Arrays.fill(docIsbns, next, docCount, null);
+        docCount = next;
+        for (Postings[] lists : postings) {
+            for (Postings list : lists) {
+                if (list != null) {
+                    list.remap(newIds);
+                }
+            }
+        }
+    }
+
+    // Sorted doc ids with the word's count in each doc
+    private static class Postings {
+        private int[] docs = new int[2];
+        private int[] counts = new int[2];
+        private int size;
+
+        void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc) {
+                counts[size - 1]++;
+                return;
+            }
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            docs[size] = doc;
+            counts[size] = 1;
+            size++;
+        }
+
+        void remap(int[] newIds) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (newIds[docs[i]] >= 0) {
+                    docs[kept] = newIds[docs[i]];
+                    counts[kept] = counts[i];
+                    kept++;
+                }
+            }
+            size = kept;
+        }
+    }
+
+    // Cursor over one postings list during a query, with BM25 for its word
+    private static class Scorer {
+        private Postings list;
+        private int field;
+        private float weight;
+        private float idf;
+        private float avgLength;
+        private float upperBound;
+        private int position;
+
+        Scorer(Postings list, int field, float weight) {
+            this.list = list;
+            this.field = field;
+            this.weight = weight;
+        }
+
+        void prepare(int docCount, float avgLength) {
+            int df = list.size;
+            this.idf = (float) Math.log(1 + (docCount - df + 0.5) / (df + 0.5));
+            this.avgLength = avgLength;
+            // tf * (k1 + 1) / (tf + ...) approaches k1 + 1 but never exceeds it
+            this.upperBound = weight * idf * (K1 + 1);
+        }
+
+        int currentDoc() {
+            return position < list.size ? list.docs[position] : Integer.MAX_VALUE;
+        }
+
+        void next() {
+            position++;
+        }
+
+        // Moves to the first doc >= target (galloping, then binary search)
+        int advanceTo(int target) {
+            if (currentDoc() >= target) {
+                return currentDoc();
+            }
+            int step = 1;
+            int low = position;
+            int high = position + 1;
+            while (high < list.size && list.docs[high] < target) {
+                low = high;
+                step <<= 1;
+                high = position + step;
+            }
+            high = Math.min(high, list.size);
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (list.docs[mid] < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            position = low;
+            return currentDoc();
+        }
+
+        float score(int doc, int docLength) {
+            int tf = list.counts[position];
+            float norm = K1 * (1 - B + B * docLength / avgLength);
+            return weight * idf * tf * (K1 + 1) / (tf + norm);
+        }
+    }
+
+    // BK-tree over the vocabulary: children are keyed by their edit distance
+    // to the parent, so a search only descends into branches whose distance
+    // range can contain a match
+    private static class BkTree {
+        private Node root;
+
+        private static class Node {
+            private String word;
+            private Map<Integer, Node> children;
+
+            Node(String word) {
+                this.word = word;
+            }
+        }
+
+        void add(String word) {
+            if (root == null) {
+                root = new Node(word);
+                return;
+            }
+            Node node = root;
+            while (true) {
+                int d = distance(word, node.word);
+                if (d == 0) {
+                    return;
+                }
+                if (node.children == null) {
+                    node.children = new HashMap<>(4);
+                }
+                Node child = node.children.get(d);
+                if (child == null) {
+                    node.children.put(d, new Node(word));
+                    return;
+                }
+                node = child;
+            }
+        }
+
+        List<String> within(String word, int maxDistance) {
+            List<String> found = new ArrayList<>();
+            if (root == null) {
+                return found;
+            }
+            Deque<Node> pending = new ArrayDeque<>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                int d = distance(word, node.word);
+                if (d <= maxDistance) {
+                    found.add(node.word);
+                }
+                if (node.children != null) {
+                    for (Map.Entry<Integer, Node> child : node.children.entrySet()) {
+                        if (Math.abs(child.getKey() - d) <= maxDistance) {
+                            pending.push(child.getValue());
+                        }
+                    }
+                }
+            }
+            return found;
+        }
+
+        // Levenshtein distance with two rolling rows
+        static int distance(String a, String b) {
+            int[] previous = new int[b.length() + 1];
+            int[] current = new int[b.length() + 1];
+            for (int j = 0; j <= b.length(); j++) {
+                previous[j] = j;
+            }
+            for (int i = 1; i <= a.length(); i++) {
+                current[0] = i;
+                for (int j = 1; j <= b.length(); j++) {
+                    int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                    current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                }
+                int[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            return previous[b.length()];
+        }
+    }
+}
@@ -0,0 +1,288 @@
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+// Sharded Library Class
+// A library engine split into N LibraryShards, each owning the books whose
+// ISBN hashes to it and the members whose id hashes to it, and each mutated
+// only by its own worker thread. Callers never touch shard state: every
+// operation is a message queued to the owning shard, so shards never contend
+// with each other and mutation throughput grows with the number of cores.
+//
+// A borrow whose book and member live on different shards runs as a small
+// two-phase exchange, one message at a time and without blocking a shard:
+//   1. the member's shard reserves a place under the borrowing limit (or
+//      refuses: unknown member, at the limit, already has the book)
+//   2. the book's shard lends a copy if one is free; this is the decision
+//   3. the member's shard settles the reservation: it becomes a loan, or is
+//      released if the book wasn't lent
+// A return closes the loan on the book's shard and then drops it from the
+// member's shard. Searches and reports ask every shard and merge the parts.
+class ShardedLibrary implements AutoCloseable {
+    private LibraryShard[] shards;
+    private Clock clock;
+
+    public ShardedLibrary(int shardCount) {
+        this(shardCount, Clock.systemDefaultZone());
+    }
+
+    // With a clock of the caller's, as for Library
+    public ShardedLibrary(int shardCount, Clock clock) {
+        this.clock = clock;
+        this.shards = new LibraryShard[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new LibraryShard(i, clock);
+        }
+    }
+
+    // One shard per available core
+    public ShardedLibrary() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getShardCount() { return shards.length; }
+
+    public LocalDate today() {
+        return LocalDate.now(clock);
+    }
+
+    // Catalog and Member Management
+    public boolean addBook(Book book) {
+        return shardFor(book.getIsbn()).call(shard -> shard.addBook(book)).join();
+    }
+
+    // Adds the batch with one message per shard; returns the books skipped
+    // because their ISBN already exists
+    public List<Book> addBooks(List<Book> batch) {
+        List<List<Book>> parts = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (Book book : batch) {
+            parts.get(shardFor(book.getIsbn()).getIndex()).add(book);
+        }
+        List<CompletableFuture<List<Book>>> pending = new ArrayList<>(shards.length);
+        for (LibraryShard shard : shards) {
+            List<Book> part = parts.get(shard.getIndex());
+            pending.add(shard.call(owner -> {
+                List<Book> duplicates = new ArrayList<>();
+                for (Book book : part) {
+                    if (!owner.addBook(book)) {
+                        duplicates.add(book);
+                    }
+                }
+                return duplicates;
+            }));
+        }
+        List<Book> duplicates = new ArrayList<>();
+        for (CompletableFuture<List<Book>> part : pending) {
+            duplicates.addAll(part.join());
+        }
+        return duplicates;
+    }
+
+    public boolean removeBook(String isbn) {
+        return shardFor(isbn).call(shard -> shard.removeBook(isbn)).join();
+    }
+
+    public boolean addCopies(String isbn, int count) {
+        return shardFor(isbn).call(shard -> shard.addCopies(isbn, count)).join();
+    }
+
+    public boolean registerMember(Member member) {
+        return shardFor(member.getMemberId()).call(shard -> shard.registerMember(member)).join();
+    }
+
+    public boolean deregisterMember(String memberId) {
+        return shardFor(memberId).call(shard -> shard.deregisterMember(memberId)).join();
+    }
+
+    // Borrowing and Returning
+    public CirculationResult tryBorrow(String isbn, String memberId) {
+        return borrowAsync(isbn, memberId).join();
+    }
+
+    public CirculationResult tryReturn(String isbn, String memberId) {
+        return returnAsync(isbn, memberId).join();
+    }
+
+    // As tryBorrow, without waiting; lets one caller keep many shards busy
+    public CompletableFuture<CirculationResult> borrowAsync(String isbn, String memberId) {
+        LibraryShard home = shardFor(memberId);
+        LibraryShard owner = shardFor(isbn);
+        if (home == owner) {
+            return home.call(shard -> shard.borrow(isbn, memberId));
+        }
+        return home.call(shard -> shard.reserve(memberId, isbn)).thenCompose(vote -> {
+            if (vote != CirculationResult.SUCCESS) {
+                return CompletableFuture.completedFuture(vote);
+            }
+            CompletableFuture<CirculationResult> lent = owner.call(shard -> shard.lend(isbn, memberId));
+            // Settle the reservation whatever happened, even if lending failed outright
+            return lent.handle((result, failure) -> result == CirculationResult.SUCCESS)
+                    .thenCompose(committed -> home.call(shard -> {
+                        shard.settle(memberId, isbn, committed);
+                        return committed;
+                    }))
+                    .thenCompose(settled -> lent);
+        });
+    }
+
+    public CompletableFuture<CirculationResult> returnAsync(String isbn, String memberId) {
+        LibraryShard home = shardFor(memberId);
+        LibraryShard owner = shardFor(isbn);
+        if (home == owner) {
+            return home.call(shard -> shard.giveBack(isbn, memberId));
+        }
+        return owner.call(shard -> shard.takeBack(isbn, memberId)).thenCompose(result -> {
+            if (!result.isSuccess()) {
+                return CompletableFuture.completedFuture(result);
+            }
+            return home.call(shard -> {
+                shard.forgetLoan(memberId, isbn);
+                return result;
+            });
+        });
+    }
+
+    // Lookups (routed to the owning shard)
+    public Book searchByISBN(String isbn) {
+        return shardFor(isbn).call(shard -> shard.getBook(isbn)).join();
+    }
+
+    public Member getMember(String memberId) {
+        return shardFor(memberId).call(shard -> shard.getMember(memberId)).join();
+    }
+
+    // ISBNs the member has on loan; Member.getBorrowedBooks is empty here,
+    // since a member's loans are spread over the shards
+    public List<String> getBorrowedBooks(String memberId) {
+        return shardFor(memberId).call(shard -> shard.getBorrowedIsbns(memberId)).join();
+    }
+
+    // Searches (scatter-gather)
+    public List<Book> searchByTitle(String title) {
+        return concat(gather(shard -> shard.searchByTitle(title)));
+    }
+
+    public List<Book> searchByAuthor(String author) {
+        return concat(gather(shard -> shard.searchByAuthor(author)));
+    }
+
+    // Each shard's best limit matches, merged by score
+    public List<Book> search(String query, int limit) {
+        List<LibraryShard.Match> matches = new ArrayList<>();
+        for (List<LibraryShard.Match> part : gather(shard -> shard.search(query, limit))) {
+            matches.addAll(part);
+        }
+        matches.sort((a, b) -> Float.compare(b.getScore(), a.getScore()));
+        List<Book> result = new ArrayList<>(Math.min(limit, matches.size()));
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            result.add(matches.get(i).getBook());
+        }
+        return result;
+    }
+
+    // Reports
+    // Pages run in ISBN (or member id) order across all shards: each shard
+    // sends its first pageSize entries after the token and the merged page
+    // keeps the smallest, so the token is the last key on the page.
+    public ReportPage<Book> pageAllBooks(String token, int pageSize) {
+        return mergePage(gather(shard -> shard.booksAfter(token, pageSize, false)),
+                         Comparator.comparing(Book::getIsbn), Book::getIsbn, pageSize);
+    }
+
+    public ReportPage<Book> pageAvailableBooks(String token, int pageSize) {
+        return mergePage(gather(shard -> shard.booksAfter(token, pageSize, true)),
+                         Comparator.comparing(Book::getIsbn), Book::getIsbn, pageSize);
+    }
+
+    public ReportPage<Member> pageMembers(String token, int pageSize) {
+        return mergePage(gather(shard -> shard.membersAfter(token, pageSize)),
+                         Comparator.comparing(Member::getMemberId), Member::getMemberId, pageSize);
+    }
+
+    public List<Book> getOverdueBooks() {
+        LocalDate today = today();
+        return concat(gather(shard -> shard.getOverdueBooks(today)));
+    }
+
+    public int countOverdueBooks() {
+        LocalDate today = today();
+        int total = 0;
+        for (int count : gather(shard -> shard.countOverdueBooks(today))) {
+            total += count;
+        }
+        return total;
+    }
+
+    public long countBooks() {
+        long total = 0;
+        for (int count : gather(LibraryShard::countBooks)) {
+            total += count;
+        }
+        return total;
+    }
+
+    public long countMembers() {
+        long total = 0;
+        for (int count : gather(LibraryShard::countMembers)) {
+            total += count;
+        }
+        return total;
+    }
+
+    public long countBorrowedBooks() {
+        long total = 0;
+        for (long count : gather(LibraryShard::countBorrowedBooks)) {
+            total += count;
+        }
+        return total;
+    }
+
+    // Finishes queued operations and stops every shard's thread
+    @Override
+    public void close() {
+        for (LibraryShard shard : shards) {
+            shard.close();
+        }
+    }
+
+    // Spread the hash bits so ids differing only in their last characters
+    // still land on different shards
+    private LibraryShard shardFor(String key) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return shards[Math.floorMod(hash ^ (hash >>> 16), shards.length)];
+    }
+
+    // Sends the query to every shard at once and waits for all the answers
+    private <T> List<T> gather(Function<LibraryShard, T> query) {
+        List<CompletableFuture<T>> pending = new ArrayList<>(shards.length);
+        for (LibraryShard shard : shards) {
+            pending.add(shard.call(query));
+        }
+        List<T> parts = new ArrayList<>(shards.length);
+        for (CompletableFuture<T> part : pending) {
+            parts.add(part.join());
+        }
+        return parts;
+    }
+
+    private static <T> List<T> concat(List<List<T>> parts) {
+        List<T> all = new ArrayList<>();
+        for (List<T> part : parts) {
+            all.addAll(part);
+        }
+        return all;
+    }
+
+    private static <T> ReportPage<T> mergePage(List<List<T>> parts, Comparator<T> order,
+                                               Function<T, String> key, int pageSize) {
+        List<T> merged = concat(parts);
+        merged.sort(order);
+        List<T> page = merged.size() > pageSize ? new ArrayList<>(merged.subList(0, pageSize)) : merged;
+        return new ReportPage<>(page, page.size() == pageSize ? key.apply(page.get(pageSize - 1)) : null);
+    }
+}
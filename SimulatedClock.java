@@ -0,0 +1,64 @@
+import java.time.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Simulated Clock Class
+// A java.time.Clock that only moves when told to, for driving a Library
+// through days or months of traffic in seconds (WorkloadSimulator) and for
+// reaching overdue states without waiting for them. Safe to advance from one
+// thread while others read it.
+class SimulatedClock extends Clock {
+    private AtomicReference<Instant> instant;
+    private ZoneId zone;
+
+    // Midnight at the start of the date, in the system time zone
+    public SimulatedClock(LocalDate start) {
+        this(start.atStartOfDay(ZoneId.systemDefault()).toInstant(), ZoneId.systemDefault());
+    }
+
+    public SimulatedClock(Instant start, ZoneId zone) {
+        this.instant = new AtomicReference<>(start);
+        this.zone = zone;
+    }
+
+    public void advance(Duration duration) {
+        instant.updateAndGet(current -> current.plus(duration));
+    }
+
+    public void advanceDays(int days) {
+        advance(Duration.ofDays(days));
+    }
+
+    public void set(Instant to) {
+        instant.set(to);
+    }
+
+    public LocalDate today() {
+        return LocalDate.now(this);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    // A view in another zone; it moves with this clock
+    @Override
+    public Clock withZone(ZoneId zone) {
+        if (zone.equals(this.zone)) {
+            return this;
+        }
+        SimulatedClock view = new SimulatedClock(instant(), zone);
+        view.instant = instant;
+        return view;
+    }
+
+    @Override
+    public Instant instant() {
+        return instant.get();
+    }
+
+    @Override
+    public long millis() {
+        return instant.get().toEpochMilli();
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Version Clock Class
+// Numbers the changes made to a catalog and keeps track of the snapshots
+// reading it. Every change takes the next version number, and changes
+// become visible strictly in number order: a snapshot taken at the visible
+// version sees every change up to it and none after it. A writer only waits
+// for writers holding smaller numbers to install their versions, which is a
+// few field writes each.
+//
+// Snapshots register the version they read, so writers can tell how far
+// back anyone may still look (the horizon) and let older versions go.
+class VersionClock {
+    private AtomicLong next;
+    private volatile long visible;
+    private volatile int opening;  // snapshots between reading the version and registering it
+    private volatile long oldest;  // oldest open snapshot, Long.MAX_VALUE if none
+    private TreeMap<Long, Integer> open; // version -> snapshots open at it, guarded by this
+
+    public VersionClock() {
+        this.next = new AtomicLong();
+        this.visible = 0;
+        this.opening = 0;
+        this.oldest = Long.MAX_VALUE;
+        this.open = new TreeMap<>();
+    }
+
+    // The version for a change about to be installed
+    public long begin() {
+        return next.incrementAndGet();
+    }
+
+    // Makes the change visible, once every change numbered before it is
+    public void publish(long version) {
+        while (visible != version - 1) {
+            Thread.yield();
+        }
+        visible = version;
+    }
+
+    public long getVisible() { return visible; }
+
+    public synchronized long openSnapshot() {
+        opening++;
+        long version = visible;
+        open.merge(version, 1, Integer::sum);
+        oldest = open.firstKey();
+        opening--;
+        return version;
+    }
+
+    public synchronized void closeSnapshot(long version) {
+        open.computeIfPresent(version, (at, count) -> count == 1 ? null : count - 1);
+        oldest = open.isEmpty() ? Long.MAX_VALUE : open.firstKey();
+    }
+
+    // No snapshot, open now or later, reads a version older than the newest
+    // one at or below the horizon, so anything before that can go. -1 while a
+    // snapshot is being opened (its version isn't known yet). The visible
+    // version is read first: a snapshot that registers after the check reads
+    // it later, so its version can't be smaller.
+    public long horizon() {
+        long latest = visible;
+        if (opening != 0) {
+            return -1;
+        }
+        return Math.min(latest, oldest);
+    }
+}
@@ -0,0 +1,352 @@
+import java.time.LocalDate;
+import java.util.*;
+
+// Workload Simulator
+// Replays months of circulation against an in-process Library on a
+// SimulatedClock, for capacity planning before a term: a semester of traffic
+// runs in minutes, and overdue loans pile up as they would. Everything is
+// drawn from one seeded Random on one thread, so a seed always gives the same
+// traffic and the same library state; only the timings vary between runs.
+//
+// Books, searches and borrowers follow Zipf distributions (a few titles get
+// most of the traffic; popularity is shuffled so it doesn't follow ISBN
+// order). Every simulated day brings the returns that fall due that day, then
+// a mix of searches, borrows (with holds placed on some titles that are all
+// out) and new registrations, lighter at weekends. Most loans come back
+// within the two weeks, some late and a few very late. After each month it
+// prints the month's throughput and the library's loans and heap; at the end,
+// latency percentiles per operation.
+//
+//   java -Xmx4g WorkloadSimulator [--books 100000] [--members 20000] [--months 4]
+//        [--ops-per-day 50000] [--skew 1.0] [--seed 42] [--start 2025-09-01]
+public class WorkloadSimulator {
+    private static final String[] WORDS = {
+        "java", "effective", "patterns", "clean", "code", "design", "action", "concurrency",
+        "systems", "data", "structures", "algorithms", "modern", "practice", "guide", "learning",
+        "advanced", "network", "database", "compiler", "theory", "history", "science", "art"
+    };
+    private static final String[] FIRST_NAMES = {
+        "Alice", "Bob", "Carol", "David", "Erin", "Frank", "Grace", "Heidi", "Ivan", "Judy",
+        "Mallory", "Niaj", "Olivia", "Peggy", "Rupert", "Sybil", "Trent", "Victor", "Walter", "Yasmin"
+    };
+    private static final String[] SURNAMES = {
+        "Bloch", "Freeman", "Martin", "Urma", "Goetz", "Knuth", "Fowler", "Beck", "Evans", "Gamma",
+        "Johnson", "Smith", "Davis", "Garcia", "Nguyen", "Kim", "Patel", "Silva", "Novak", "Okafor"
+    };
+    private static final double MEMBER_SKEW = 0.6; // heavy readers, but less skewed than titles
+    private static final int SEARCH_SHARE = 550;   // per mille of the non-return traffic
+    private static final int BORROW_SHARE = 448;   // the rest is registrations
+    private static final int HOLD_PERCENT = 25;    // of borrows that find every copy out
+    private static final int SEARCH_RESULTS = 10;
+    private static final int VOCABULARY_SIZE = 4096;
+    private static final int VOCABULARY_WORD_LENGTH = 7;
+    private static final int NEWCOMER_PERCENT = 20; // borrows by any member, newly registered ones included
+
+    private enum Op { BORROW, RETURN, HOLD, SEARCH, REGISTER }
+
+    private Random random;
+    private SimulatedClock clock;
+    private Library library;
+    private String[] isbns;
+    private String[] titles;
+    private String[] vocabulary; // made-up title words, so a search matches a few titles, not thousands
+    private List<String> memberIds;
+    private Zipf bookPopularity;
+    private Zipf memberActivity;
+    private Map<Long, Returns> returnsByDay; // epoch day -> loans coming back that day
+    private double skew;
+    private EnumMap<Op, LatencyHistogram> latencies;
+    private long[] failures; // by Op ordinal
+    private long operations;
+
+    public WorkloadSimulator(long seed, LocalDate start, double skew) {
+        this.random = new Random(seed);
+        this.clock = new SimulatedClock(start);
+        this.library = new Library(false, clock);
+        this.memberIds = new ArrayList<>();
+        this.returnsByDay = new HashMap<>();
+        this.skew = skew;
+        resetStatistics();
+    }
+
+    public static void main(String[] args) {
+        int books = 100_000;
+        int members = 20_000;
+        int months = 4;
+        int opsPerDay = 50_000;
+        double skew = 1.0;
+        long seed = 42;
+        LocalDate start = LocalDate.of(2025, 9, 1);
+        for (int i = 0; i < args.length - 1; i += 2) {
+            switch (args[i]) {
+                case "--books":
+                    books = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--members":
+                    members = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--months":
+                    months = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--ops-per-day":
+                    opsPerDay = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--skew":
+                    skew = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--start":
+                    start = LocalDate.parse(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+        WorkloadSimulator simulator = new WorkloadSimulator(seed, start, skew);
+        simulator.populate(books, members);
+        simulator.run(months, opsPerDay);
+    }
+
+    // The catalog and the members registered before the term; the most
+    // popular titles get extra copies
+    public void populate(int bookCount, int memberCount) {
+        long began = System.nanoTime();
+        // Random letters: words built from a few shared syllables sit within
+        // the search's typo tolerance of each other, and every query would
+        // expand to hundreds of them
+        vocabulary = new String[VOCABULARY_SIZE];
+        for (int i = 0; i < vocabulary.length; i++) {
+            char[] letters = new char[VOCABULARY_WORD_LENGTH];
+            for (int j = 0; j < letters.length; j++) {
+                letters[j] = (char) ('a' + random.nextInt(26));
+            }
+            vocabulary[i] = new String(letters);
+        }
+        isbns = new String[bookCount];
+        titles = new String[bookCount];
+        List<Book> batch = new ArrayList<>(bookCount);
+        for (int i = 0; i < bookCount; i++) {
+            isbns[i] = String.format("978-%09d", i);
+            titles[i] = vocabulary[random.nextInt(vocabulary.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                        + " " + vocabulary[random.nextInt(vocabulary.length)];
+            batch.add(new Book(isbns[i], titles[i], SURNAMES[random.nextInt(SURNAMES.length)], 1970 + random.nextInt(55)));
+        }
+        library.addBooks(batch);
+        bookPopularity = new Zipf(bookCount, skew, random);
+        for (int rank = 0; rank < Math.max(1, bookCount / 100); rank++) {
+            library.addCopies(isbns[bookPopularity.itemAt(rank)], 2);
+        }
+        for (int i = 0; i < memberCount; i++) {
+            register();
+        }
+        memberActivity = new Zipf(memberCount, MEMBER_SKEW, random);
+        System.out.printf("Loaded %d books and %d members in %.1f s; heap %d MB%n",
+                          bookCount, memberCount, (System.nanoTime() - began) / 1e9, usedHeapMegabytes());
+    }
+
+    public void run(int months, int opsPerDay) {
+        resetStatistics(); // registrations in populate() don't count
+        long startHeap = usedHeapMegabytes();
+        long began = System.nanoTime();
+        System.out.printf("%n%-8s %10s %10s %10s %10s %10s %10s%n",
+                          "month", "ops", "ops/s", "members", "loans", "overdue", "heap MB");
+        LocalDate end = clock.today().plusMonths(months);
+        while (clock.today().isBefore(end)) {
+            LocalDate monthStart = clock.today();
+            LocalDate monthEnd = monthStart.plusMonths(1);
+            long monthOps = operations;
+            long monthBegan = System.nanoTime();
+            while (clock.today().isBefore(monthEnd) && clock.today().isBefore(end)) {
+                simulateDay(opsPerDay);
+                clock.advanceDays(1);
+            }
+            double seconds = Math.max(1e-9, (System.nanoTime() - monthBegan) / 1e9);
+            System.out.printf("%-8s %10d %10.0f %10d %10d %10d %10d%n", monthStart.toString().substring(0, 7),
+                              operations - monthOps, (operations - monthOps) / seconds, memberIds.size(),
+                              library.countBorrowedBooks(), library.countOverdueBooks(), usedHeapMegabytes());
+        }
+        report(operations, (System.nanoTime() - began) / 1e9, startHeap, months);
+    }
+
+    private void simulateDay(int opsPerDay) {
+        LocalDate today = clock.today();
+        Returns due = returnsByDay.remove(today.toEpochDay());
+        if (due != null) {
+            for (int i = 0; i < due.count; i++) {
+                returnBook((int) (due.loans[i] >>> 32), (int) due.loans[i]);
+            }
+        }
+        boolean weekend = today.getDayOfWeek().getValue() >= 6;
+        int ops = weekend ? opsPerDay * 2 / 5 : opsPerDay;
+        for (int i = 0; i < ops; i++) {
+            int pick = random.nextInt(1000);
+            if (pick < SEARCH_SHARE) {
+                search();
+            } else if (pick < SEARCH_SHARE + BORROW_SHARE) {
+                borrow();
+            } else {
+                register();
+            }
+        }
+    }
+
+    private void search() {
+        // Two words of a popular title, as typed at the catalog terminal
+        String[] words = titles[bookPopularity.next(random)].split(" ");
+        String query = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)];
+        long start = System.nanoTime();
+        List<BookVersion> found = library.search(query, SEARCH_RESULTS);
+        record(Op.SEARCH, start, !found.isEmpty());
+    }
+
+    private void borrow() {
+        int book = bookPopularity.next(random);
+        int member = random.nextInt(100) < NEWCOMER_PERCENT ? random.nextInt(memberIds.size())
+                                                            : memberActivity.next(random);
+        String memberId = memberIds.get(member);
+        long start = System.nanoTime();
+        CirculationResult result = library.tryBorrow(isbns[book], memberId);
+        record(Op.BORROW, start, result.isSuccess());
+        if (result.isSuccess()) {
+            scheduleReturn(book, member);
+        } else if (result == CirculationResult.BOOK_NOT_AVAILABLE && random.nextInt(100) < HOLD_PERCENT) {
+            start = System.nanoTime();
+            record(Op.HOLD, start, library.placeHold(isbns[book], memberId).isSuccess());
+        }
+    }
+
+    private void returnBook(int book, int member) {
+        List<Loan> issued = new ArrayList<>(1);
+        long start = System.nanoTime();
+        CirculationResult result = library.tryReturn(isbns[book], memberIds.get(member), issued);
+        record(Op.RETURN, start, result.isSuccess());
+        // The copy may have gone straight to the first member waiting for it
+        for (Loan loan : issued) {
+            scheduleReturn(book, memberIndex(loan.getMemberId()));
+        }
+    }
+
+    private void register() {
+        int index = memberIds.size();
+        String memberId = String.format("M%07d", index);
+        String name = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + SURNAMES[random.nextInt(SURNAMES.length)];
+        MemberTier tier = random.nextInt(10) == 0 ? MemberTier.STAFF : MemberTier.STUDENT;
+        Member member = new Member(memberId, name, memberId.toLowerCase() + "@school.edu",
+                                   String.format("555-%07d", index), tier, clock);
+        long start = System.nanoTime();
+        boolean registered = library.registerMember(member);
+        record(Op.REGISTER, start, registered);
+        if (registered) {
+            memberIds.add(memberId);
+        }
+    }
+
+    // Most loans come back within the two weeks; a fifth come back up to two
+    // weeks late and one in ten up to six weeks late
+    private void scheduleReturn(int book, int member) {
+        int roll = random.nextInt(10);
+        int days = roll < 7 ? 1 + random.nextInt(14) : roll < 9 ? 15 + random.nextInt(14) : 29 + random.nextInt(28);
+        long day = clock.today().toEpochDay() + days;
+        returnsByDay.computeIfAbsent(day, d -> new Returns()).add(((long) book << 32) | member);
+    }
+
+    // Member ids are M plus their index
+    private static int memberIndex(String memberId) {
+        return Integer.parseInt(memberId.substring(1));
+    }
+
+    private void record(Op op, long start, boolean success) {
+        latencies.get(op).record(System.nanoTime() - start);
+        if (!success) {
+            failures[op.ordinal()]++;
+        }
+        operations++;
+    }
+
+    private void resetStatistics() {
+        latencies = new EnumMap<>(Op.class);
+        for (Op op : Op.values()) {
+            latencies.put(op, new LatencyHistogram());
+        }
+        failures = new long[Op.values().length];
+        operations = 0;
+    }
+
+    private void report(long total, double seconds, long startHeap, int months) {
+        long endHeap = usedHeapMegabytes();
+        System.out.println("\n=== WORKLOAD RESULTS ===");
+        System.out.printf("Operations: %d in %.1f s (%.0f ops/s)%n", total, seconds, total / Math.max(1e-9, seconds));
+        System.out.printf("Heap:       %d MB -> %d MB (%+.1f MB per month)%n",
+                          startHeap, endHeap, (endHeap - startHeap) / (double) Math.max(1, months));
+        System.out.printf("History:    %d returned loans archived%n", library.getHistory().size());
+        System.out.printf("%n%-10s %10s %10s %10s %10s %10s %10s %10s%n",
+                          "op (us)", "count", "failed", "mean", "p50", "p99", "p99.9", "max");
+        for (Op op : Op.values()) {
+            LatencyHistogram latency = latencies.get(op);
+            System.out.printf("%-10s %10d %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", op.name().toLowerCase(),
+                              latency.getCount(), failures[op.ordinal()], latency.getMeanNanos() / 1e3,
+                              latency.getPercentileNanos(0.5) / 1e3, latency.getPercentileNanos(0.99) / 1e3,
+                              latency.getPercentileNanos(0.999) / 1e3, latency.getMaxNanos() / 1e3);
+        }
+    }
+
+    // After a collection, so the figure is what the library keeps
+    private static long usedHeapMegabytes() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return (runtime.totalMemory() - runtime.freeMemory()) >> 20;
+    }
+
+    // Zipf-distributed ranks over n items (rank k drawn with probability
+    // proportional to 1 / k^skew), by binary search of the cumulative
+    // weights; ranks map to items through a seeded shuffle
+    private static class Zipf {
+        private double[] cumulative;
+        private int[] items;
+
+        Zipf(int n, double skew, Random random) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k++) {
+                sum += 1 / Math.pow(k + 1, skew);
+                cumulative[k] = sum;
+            }
+            items = new int[n];
+            for (int i = 0; i < n; i++) {
+                items[i] = i;
+            }
+            for (int i = n - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = items[i];
+                items[i] = items[j];
+                items[j] = swap;
+            }
+        }
+
+        int itemAt(int rank) {
+            return items[rank];
+        }
+
+        int next(Random random) {
+            double target = random.nextDouble() * cumulative[cumulative.length - 1];
+            int rank = Arrays.binarySearch(cumulative, target);
+            return items[rank >= 0 ? rank : Math.min(-rank - 1, items.length - 1)];
+        }
+    }
+
+    // A day's loans coming back, each as book index << 32 | member index
+    private static class Returns {
+        private long[] loans = new long[16];
+        private int count;
+
+        void add(long loan) {
+            if (count == loans.length) {
+                loans = Arrays.copyOf(loans, count * 2);
+            }
+            loans[count++] = loan;
+        }
+    }
+}
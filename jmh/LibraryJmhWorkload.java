@@ -0,0 +1,91 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Library JMH Workload
+// The LibraryBenchmark hot paths on the same generated catalogs, for the JMH
+// benchmarks in jmh/benchmarks. JMH won't run a benchmark class from the
+// default package, and a named package can't see the library's classes, so
+// the benchmark drives the library through this class and the
+// benchmarks.LibraryWorkload interface.
+public class LibraryJmhWorkload implements benchmarks.LibraryWorkload {
+    private Library library;
+    private String[] isbns;
+
+    public LibraryJmhWorkload(int catalogSize) {
+        List<Book> catalog = LibraryBenchmark.generateCatalog(catalogSize, new Random(42));
+        library = new Library(false);
+        for (int from = 0; from < catalog.size(); from += LibraryBenchmark.BATCH_SIZE) {
+            library.addBooks(catalog.subList(from, Math.min(catalog.size(), from + LibraryBenchmark.BATCH_SIZE)));
+        }
+        for (int i = 0; i < LibraryBenchmark.MEMBERS; i++) {
+            library.registerMember(new Member(LibraryBenchmark.memberId(i), "Member " + i,
+                                              "m" + i + "@school.edu", "555-" + i));
+        }
+        // 1% of the catalog on loan and overdue, so overdue queries have work to do
+        LocalDate today = library.today();
+        for (int i = 0; i < catalogSize / 100; i++) {
+            library.restoreLoan(catalog.get(i * 100).getIsbn(), LibraryBenchmark.memberId(i % LibraryBenchmark.MEMBERS),
+                                today.minusDays(30), today.minusDays(1 + i % 10));
+        }
+        isbns = new String[catalogSize];
+        for (int i = 0; i < catalogSize; i++) {
+            isbns[i] = catalog.get(i).getIsbn();
+        }
+    }
+
+    // A borrow plus the matching return, so loans don't pile up
+    @Override
+    public boolean borrowReturn() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String isbn = isbns[random.nextInt(isbns.length)];
+        String member = LibraryBenchmark.memberId(random.nextInt(LibraryBenchmark.MEMBERS));
+        if (!library.tryBorrow(isbn, member).isSuccess()) {
+            return false;
+        }
+        library.tryReturn(isbn, member);
+        return true;
+    }
+
+    @Override
+    public int searchByTitle() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String word = LibraryBenchmark.WORDS[random.nextInt(LibraryBenchmark.WORDS.length)];
+        return library.searchByTitle(word.substring(0, 3 + random.nextInt(word.length() - 2))).size();
+    }
+
+    @Override
+    public int searchByAuthor() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return library.searchByAuthor(LibraryBenchmark.SURNAMES[random.nextInt(LibraryBenchmark.SURNAMES.length)]).size();
+    }
+
+    // One misspelt title word plus an author, as typed at the desk
+    @Override
+    public int rankedSearch() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String word = LibraryBenchmark.WORDS[random.nextInt(LibraryBenchmark.WORDS.length)];
+        int typo = 1 + random.nextInt(word.length() - 1);
+        String misspelt = word.substring(0, typo) + word.substring(typo + 1);
+        String author = LibraryBenchmark.SURNAMES[random.nextInt(LibraryBenchmark.SURNAMES.length)];
+        return library.search(misspelt + " " + author, 10).size();
+    }
+
+    // What a kiosk asks for after each of the first few keystrokes
+    @Override
+    public int suggestTitle() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String word = LibraryBenchmark.capitalize(LibraryBenchmark.WORDS[random.nextInt(LibraryBenchmark.WORDS.length)]);
+        return library.suggestTitles(word.substring(0, 1 + random.nextInt(3)), 10).size();
+    }
+
+    @Override
+    public int overdueList() {
+        return library.getOverdueBooks().size();
+    }
+
+    @Override
+    public int overdueCount() {
+        return library.countOverdueBooks();
+    }
+}
@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Library JMH Benchmark
+// LibraryBenchmark's measurements under JMH: borrow/return throughput (run
+// with -t N for N threads), then search, type-ahead and overdue latencies.
+// Built by the jmh Maven profile:
+//   mvn -P jmh package
+//   java -jar target/benchmarks.jar [-p catalogSize=10000,1000000] [-t 4] [-rf json]
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LibraryJmhBenchmark {
+    @Param({"10000", "1000000"})
+    private int catalogSize;
+
+    private LibraryWorkload workload;
+
+    // The workload class is in the default package, which can only be
+    // reached by name from here
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        workload = (LibraryWorkload) Class.forName("LibraryJmhWorkload")
+                .getConstructor(int.class).newInstance(catalogSize);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean borrowReturn() {
+        return workload.borrowReturn();
+    }
+
+    @Benchmark
+    public int searchByTitle() {
+        return workload.searchByTitle();
+    }
+
+    @Benchmark
+    public int searchByAuthor() {
+        return workload.searchByAuthor();
+    }
+
+    @Benchmark
+    public int rankedSearch() {
+        return workload.rankedSearch();
+    }
+
+    @Benchmark
+    public int suggestTitle() {
+        return workload.suggestTitle();
+    }
+
+    @Benchmark
+    public int overdueList() {
+        return workload.overdueList();
+    }
+
+    @Benchmark
+    public int overdueCount() {
+        return workload.overdueCount();
+    }
+}
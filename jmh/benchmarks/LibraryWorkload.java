@@ -0,0 +1,15 @@
+package benchmarks;
+
+// Library Workload Interface
+// One call of each benchmarked operation, implemented by LibraryJmhWorkload
+// in the library's (default) package. Results are returned for JMH to
+// consume, so the JIT can't drop the work.
+public interface LibraryWorkload {
+    boolean borrowReturn();
+    int searchByTitle();
+    int searchByAuthor();
+    int rankedSearch();
+    int suggestTitle();
+    int overdueList();
+    int overdueCount();
+}